@@ -3,10 +3,12 @@ import javax.swing.*;
 
 public class Main {
     public static void main(String[] args) {
+        gui.EventDispatchMonitor.install();
         EventQueue.invokeLater(() -> {
             var frame = new gui.JCodeFrame();
             frame.setTitle("JCode");
-            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            // The frame exits once unsaved edits are dealt with
+            frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
             frame.setVisible(true);
         });
     }
@@ -0,0 +1,542 @@
+package compile;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import javax.lang.model.element.*;
+import javax.tools.*;
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+import file.FileEnumerator;
+import file.FileOperations;
+
+/**
+ * A {@code CompileService} compiles the Java sources under a root directory
+ * inside the running JVM, and keeps everything warm between builds: the
+ * compiler, the platform classes cached by the file manager, and the class
+ * files of the project, which are kept in memory.
+ *
+ * Builds are incremental. A source is recompiled when its content changed
+ * since it was last compiled successfully. After each compilation the
+ * public API of the recompiled sources (signatures and constants of their
+ * non-private members) is compared with the previous one; where it
+ * changed, the sources depending on them are recompiled as well, and so
+ * on. Dependencies are found by resolving every name in every compiled
+ * source.
+ *
+ * Open documents are compiled from their text in the editor, saved or
+ * not. Class files are also written to the workspace data directory, so
+ * that the program can be run from there.
+ *
+ * A single source can also be analyzed without generating anything, to
+ * report problems while it is being edited.
+ */
+public class CompileService {
+    private static final String CLASSES_DIRECTORY_NAME = "classes";
+    private static final List<String> OPTIONS =
+        List.of("-g", "-proc:none", "-implicit:none", "-Xlint:-options");
+    private static final List<String> ANALYZE_OPTIONS =
+        List.of("-proc:none", "-implicit:none", "-Xlint:-options");
+    private static final HashMap<File, CompileService> services = new HashMap<>();
+
+    private final File root;
+    private final File classesDirectory;
+    private final JavaCompiler compiler;
+    private final MemoryFileManager fileManager;
+
+    // Guarded by {@code this}; keyed by source file
+    private final HashMap<File, String> stamps = new HashMap<>();
+    private final HashMap<File, byte[]> apiHashes = new HashMap<>();
+    private final HashMap<File, Set<File>> dependencies = new HashMap<>();
+    private final HashMap<File, Set<String>> producedClasses = new HashMap<>();
+    private final HashMap<File, List<Problem>> problems = new HashMap<>();
+
+    /**
+     * Get the service of {@code root}, creating it on the first call.
+     * @param root the root directory
+     * @return the service of {@code root}
+     * @throws IOException if the data directory cannot be created, or if
+     * no Java compiler is available (JCode runs on a JRE)
+     */
+    public static CompileService forRoot(File root) throws IOException {
+        File key = root.getCanonicalFile();
+        synchronized (services) {
+            CompileService service = services.get(key);
+            if (service == null) {
+                service = new CompileService(key);
+                services.put(key, service);
+            }
+            return service;
+        }
+    }
+
+    private CompileService(File root) throws IOException {
+        this.root = root;
+        this.classesDirectory = new File(
+            FileOperations.getWorkspaceDataDirectory(root), CLASSES_DIRECTORY_NAME);
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IOException("No Java compiler available");
+        fileManager = new MemoryFileManager(
+            compiler.getStandardFileManager(null, null, FileOperations.DEFAULT_CHARSET));
+    }
+
+    /**
+     * @return the directory class files are written into
+     */
+    public File getClassesDirectory() {
+        return classesDirectory;
+    }
+
+    /**
+     * Compile what changed since the last build.
+     * @param buffers text of the documents open in the editor, by file;
+     * it takes precedence over the content on disk
+     * @param rebuild whether to forget everything and compile all sources
+     * @return the result
+     */
+    public synchronized BuildResult build(Map<File, String> buffers, boolean rebuild) {
+        long startTime = System.nanoTime();
+        if (rebuild) {
+            stamps.clear();
+            apiHashes.clear();
+            dependencies.clear();
+            producedClasses.clear();
+            problems.clear();
+            fileManager.clear();
+        }
+
+        // Find the sources which changed
+        var sources = new HashMap<File, SourceObject>();
+        var enumerator = new FileEnumerator(root);
+        FileEnumerator.DirectoryListData data;
+        while ((data = enumerator.enumerate()) != null) {
+            for (File child: data.children) {
+                if (child.isFile() && child.getName().endsWith(".java") &&
+                    !child.toPath().startsWith(FileOperations.JCODE_HOME.toPath()))
+                    sources.put(child, new SourceObject(child, buffers.get(child)));
+            }
+        }
+        var toCompile = new HashSet<File>();
+        for (var source: sources.values())
+            if (!source.stamp().equals(stamps.get(source.file)))
+                toCompile.add(source.file);
+
+        // Sources which disappeared break the sources depending on them
+        var deleted = new HashSet<File>(stamps.keySet());
+        deleted.removeAll(sources.keySet());
+        for (File file: deleted) {
+            forget(file);
+            problems.remove(file);
+        }
+        toCompile.addAll(dependents(deleted));
+        toCompile.retainAll(sources.keySet());
+
+        int compiledCount = 0;
+        boolean failed = false;
+        var compiled = new HashSet<File>();
+        while (!toCompile.isEmpty()) {
+            var round = new ArrayList<SourceObject>();
+            for (File file: toCompile)
+                round.add(sources.get(file));
+            compiledCount += round.size();
+            compiled.addAll(toCompile);
+            var apiChanged = compile(round);
+            if (apiChanged == null) {
+                failed = true;
+                break;
+            }
+            // Recompile what depends on changed APIs, once per build
+            toCompile = dependents(apiChanged);
+            toCompile.removeAll(compiled);
+            toCompile.retainAll(sources.keySet());
+        }
+        if (!failed)
+            writeClassFiles();
+
+        var allProblems = new ArrayList<Problem>();
+        for (var list: problems.values())
+            allProblems.addAll(list);
+        allProblems.sort(Comparator.comparing((Problem problem) -> problem.file)
+                                   .thenComparingLong(problem -> problem.line));
+        return new BuildResult(compiledCount, sources.size(), allProblems,
+                               (System.nanoTime() - startTime) / 1000000);
+    }
+
+    /**
+     * Parse and attribute {@code text} as the content of {@code file},
+     * against the classes of the last build, without generating classes.
+     * If nothing was built yet, the folder is built first.
+     * @param file the source file, canonical
+     * @param text its current content
+     * @param cancelled tells whether the result is not wanted anymore;
+     * it is polled between compiler phases
+     * @return the problems found in {@code text}
+     * @throws CancellationException if {@code cancelled} turned true
+     */
+    public synchronized List<Problem> analyze(File file, String text,
+                                              BooleanSupplier cancelled) {
+        if (stamps.isEmpty())
+            build(Map.of(file, text), false);
+        if (cancelled.getAsBoolean())
+            throw new CancellationException();
+
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        var task = (JavacTask) compiler.getTask(null, fileManager, diagnostics,
+            ANALYZE_OPTIONS, null, List.of(new SourceObject(file, text)));
+        task.addTaskListener(new TaskListener() {
+            public void started(TaskEvent e) {
+                if (cancelled.getAsBoolean())
+                    throw new CancellationException();
+            }
+        });
+        try {
+            task.analyze();
+        } catch (IOException | RuntimeException ex) {
+            // Exceptions of listeners come wrapped
+            if (cancelled.getAsBoolean())
+                throw new CancellationException();
+            return List.of(new Problem(file, 0, 0, -1, -1, Diagnostic.Kind.ERROR,
+                                       "Compiler error: " + ex));
+        }
+
+        var result = new ArrayList<Problem>();
+        for (var diagnostic: diagnostics.getDiagnostics())
+            if (diagnostic.getKind() != Diagnostic.Kind.NOTE &&
+                file.equals(fileOf(diagnostic.getSource())))
+                result.add(toProblem(file, diagnostic));
+        return result;
+    }
+
+    /**
+     * Compile one round of sources.
+     * @return sources whose API changed, or {@code null} if there were
+     * errors
+     */
+    private Set<File> compile(List<SourceObject> round) {
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        var task = (JavacTask) compiler.getTask(null, fileManager, diagnostics,
+                                                OPTIONS, null, round);
+        var trees = Trees.instance(task);
+        var newDependencies = new HashMap<File, Set<String>>();
+        var newApis = new HashMap<File, StringBuilder>();
+        task.addTaskListener(new TaskListener() {
+            public void finished(TaskEvent e) {
+                if (e.getKind() != TaskEvent.Kind.ANALYZE || e.getTypeElement() == null)
+                    return;
+                File file = fileOf(e.getSourceFile());
+                // Called once per top-level class of the unit
+                new DependencyScanner(trees, newDependencies
+                    .computeIfAbsent(file, f -> new HashSet<>()))
+                    .scan(trees.getPath(e.getTypeElement()), null);
+                appendApi(newApis.computeIfAbsent(file, f -> new StringBuilder()),
+                          e.getTypeElement());
+            }
+        });
+        for (var source: round)
+            problems.remove(source.file);
+        boolean success;
+        try {
+            success = task.call();
+        } catch (RuntimeException ex) {
+            // A crash of the compiler; report it on the first source
+            success = false;
+            problems.put(round.get(0).file, List.of(new Problem(round.get(0).file,
+                0, 0, -1, -1, Diagnostic.Kind.ERROR, "Compiler error: " + ex)));
+        }
+        var written = fileManager.takeWritten();
+        for (var diagnostic: diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.NOTE)
+                continue;
+            File file = fileOf(diagnostic.getSource());
+            problems.computeIfAbsent(file, f -> new ArrayList<>())
+                    .add(toProblem(file, diagnostic));
+        }
+        if (!success) {
+            // Compile them again next time, whatever made them fail
+            for (var source: round)
+                stamps.remove(source.file);
+            return null;
+        }
+
+        // Remember what each source produced, and drop classes it no
+        // longer produces
+        var produced = new HashMap<File, Set<String>>();
+        for (var classObject: written) {
+            File file = fileOf(classObject.source);
+            if (file != null)
+                produced.computeIfAbsent(file, f -> new HashSet<>())
+                        .add(classObject.binaryName);
+        }
+        var apiChanged = new HashSet<File>();
+        for (var source: round) {
+            var classes = produced.getOrDefault(source.file, Set.of());
+            for (String old: producedClasses.getOrDefault(source.file, Set.of()))
+                if (!classes.contains(old))
+                    fileManager.removeClass(old);
+            producedClasses.put(source.file, classes);
+            stamps.put(source.file, source.stamp());
+
+            var api = newApis.get(source.file);
+            byte[] hash = sha1(api == null ? "" : api.toString());
+            if (!Arrays.equals(hash, apiHashes.put(source.file, hash)))
+                apiChanged.add(source.file);
+        }
+
+        // Resolve type names to the sources declaring them
+        var declaringSource = new HashMap<String, File>();
+        for (var entry: producedClasses.entrySet())
+            for (String name: entry.getValue())
+                declaringSource.put(name, entry.getKey());
+        for (var entry: newDependencies.entrySet()) {
+            var files = new HashSet<File>();
+            for (String name: entry.getValue()) {
+                File file = declaringSource.get(name);
+                if (file != null && !file.equals(entry.getKey()))
+                    files.add(file);
+            }
+            dependencies.put(entry.getKey(), files);
+        }
+        return apiChanged;
+    }
+
+    /**
+     * @return sources depending directly on any of {@code files}
+     */
+    private HashSet<File> dependents(Set<File> files) {
+        var result = new HashSet<File>();
+        if (files.isEmpty())
+            return result;
+        for (var entry: dependencies.entrySet())
+            for (File file: entry.getValue())
+                if (files.contains(file)) {
+                    result.add(entry.getKey());
+                    break;
+                }
+        return result;
+    }
+
+    private void forget(File file) {
+        stamps.remove(file);
+        apiHashes.remove(file);
+        dependencies.remove(file);
+        var classes = producedClasses.remove(file);
+        if (classes != null)
+            for (String name: classes)
+                fileManager.removeClass(name);
+    }
+
+    /**
+     * Bring the classes directory in line with the classes in memory.
+     */
+    private void writeClassFiles() {
+        var expected = new HashSet<File>();
+        for (var classes: producedClasses.values()) {
+            for (String name: classes) {
+                var classObject = fileManager.getClass(name);
+                if (classObject == null)
+                    continue;
+                var file = new File(classesDirectory,
+                                    name.replace('.', File.separatorChar) + ".class");
+                expected.add(file);
+                try {
+                    byte[] bytes = classObject.getBytes();
+                    if (file.length() == bytes.length &&
+                        Arrays.equals(Files.readAllBytes(file.toPath()), bytes))
+                        continue;
+                    file.getParentFile().mkdirs();
+                    Files.write(file.toPath(), bytes);
+                } catch (IOException ex) {
+                    // The classes in memory are what counts
+                }
+            }
+        }
+        var enumerator = new FileEnumerator(classesDirectory);
+        FileEnumerator.DirectoryListData data;
+        while ((data = enumerator.enumerate()) != null)
+            for (File child: data.children)
+                if (child.isFile() && !expected.contains(child))
+                    child.delete();
+    }
+
+    /**
+     * Append the API of {@code type} (everything other classes can see of
+     * it) to {@code api}.
+     */
+    private static void appendApi(StringBuilder api, TypeElement type) {
+        api.append(type.getModifiers()).append(' ').append(type.getKind()).append(' ')
+           .append(type.getQualifiedName()).append(type.getTypeParameters())
+           .append(" extends ").append(type.getSuperclass())
+           .append(" implements ").append(type.getInterfaces()).append('\n');
+        for (Element member: type.getEnclosedElements()) {
+            if (member.getModifiers().contains(Modifier.PRIVATE))
+                continue;
+            if (member instanceof TypeElement) {
+                appendApi(api, (TypeElement) member);
+                continue;
+            }
+            api.append(member.getModifiers()).append(' ').append(member.getKind())
+               .append(' ').append(member.getSimpleName()).append(' ')
+               .append(member.asType());
+            // Constants are inlined into the classes using them
+            if (member instanceof VariableElement &&
+                ((VariableElement) member).getConstantValue() != null)
+                api.append(" = ").append(((VariableElement) member).getConstantValue());
+            api.append('\n');
+        }
+    }
+
+    private static Problem toProblem(File file, Diagnostic<?> diagnostic) {
+        return new Problem(file, diagnostic.getLineNumber(), diagnostic.getColumnNumber(),
+                           diagnostic.getStartPosition(), diagnostic.getEndPosition(),
+                           diagnostic.getKind(), diagnostic.getMessage(null));
+    }
+
+    /**
+     * @return the source file {@code fileObject} stands for, or
+     * {@code null}; the compiler wraps the objects it is given, so they
+     * are recognized by their URI
+     */
+    private static File fileOf(FileObject fileObject) {
+        if (fileObject == null || !"file".equals(fileObject.toUri().getScheme()))
+            return null;
+        return new File(fileObject.toUri());
+    }
+
+    private static byte[] sha1(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-1")
+                .digest(s.getBytes(FileOperations.DEFAULT_CHARSET));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Collects the binary names of the top-level classes a tree refers to.
+     */
+    private static class DependencyScanner extends TreePathScanner<Void, Void> {
+        private final Trees trees;
+        private final Set<String> names;
+
+        private DependencyScanner(Trees trees, Set<String> names) {
+            this.trees = trees;
+            this.names = names;
+        }
+
+        public Void visitIdentifier(IdentifierTree node, Void p) {
+            record();
+            return super.visitIdentifier(node, p);
+        }
+
+        public Void visitMemberSelect(MemberSelectTree node, Void p) {
+            record();
+            return super.visitMemberSelect(node, p);
+        }
+
+        private void record() {
+            Element element = trees.getElement(getCurrentPath());
+            // Go up to the top-level class
+            while (element != null && !(element instanceof TypeElement &&
+                   element.getEnclosingElement() instanceof PackageElement))
+                element = element.getEnclosingElement();
+            if (element != null)
+                names.add(((TypeElement) element).getQualifiedName().toString());
+        }
+    }
+
+    /**
+     * A source file, with its content read from disk or taken from the
+     * editor.
+     */
+    private static class SourceObject extends SimpleJavaFileObject {
+        private final File file;
+        private final String buffer;    // {@code null} if read from disk
+
+        private SourceObject(File file, String buffer) {
+            super(file.toURI(), Kind.SOURCE);
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return a string which changes when the content changes
+         */
+        private String stamp() {
+            if (buffer != null)
+                return "buffer " + buffer.length() + " " +
+                    Arrays.toString(sha1(buffer));
+            return "disk " + file.length() + " " + file.lastModified();
+        }
+
+        public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            throws IOException {
+            if (buffer != null)
+                return buffer;
+            return new String(Files.readAllBytes(file.toPath()),
+                              FileOperations.DEFAULT_CHARSET);
+        }
+
+        public URI toUri() {
+            return file.toURI();
+        }
+    }
+
+    /**
+     * An error or warning reported by the compiler.
+     */
+    public static class Problem {
+        public final File file;     // {@code null} if not about a source
+        public final long line;     // 1-based, or 0 if unknown
+        public final long column;   // 1-based, or 0 if unknown
+        public final long start;    // offset in the source, or -1 if unknown
+        public final long end;      // offset in the source, or -1 if unknown
+        public final Diagnostic.Kind kind;
+        public final String message;
+
+        public Problem(File file, long line, long column, long start, long end,
+                       Diagnostic.Kind kind, String message) {
+            this.file = file;
+            this.line = Math.max(0, line);
+            this.column = Math.max(0, column);
+            this.start = Math.max(-1, start);
+            this.end = Math.max(-1, end);
+            this.kind = kind;
+            this.message = message;
+        }
+
+        public boolean isError() {
+            return kind == Diagnostic.Kind.ERROR;
+        }
+    }
+
+    /**
+     * The outcome of a build.
+     */
+    public static class BuildResult {
+        public final int compiledFiles;
+        public final int totalFiles;
+        public final List<Problem> problems;    // of all sources, not only compiled ones
+        public final long millis;
+
+        public BuildResult(int compiledFiles, int totalFiles, List<Problem> problems,
+                           long millis) {
+            this.compiledFiles = compiledFiles;
+            this.totalFiles = totalFiles;
+            this.problems = problems;
+            this.millis = millis;
+        }
+
+        public int getErrorCount() {
+            int count = 0;
+            for (var problem: problems)
+                if (problem.isError())
+                    count++;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package compile;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * A {@code MemoryFileManager} keeps the class files produced by the
+ * compiler in memory, and offers them back to the compiler on the class
+ * path. Sources compiled later find the classes of the sources which were
+ * not recompiled there, without reading or parsing anything from disk.
+ *
+ * The platform classes are looked up by the wrapped standard file manager,
+ * which caches them between compilations.
+ */
+class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    // Binary name to class file; guarded by {@code this}
+    private final HashMap<String, ClassObject> classes = new HashMap<>();
+    // Classes written since the last call of {@code takeWritten()}
+    private ArrayList<ClassObject> written = new ArrayList<>();
+
+    MemoryFileManager(StandardJavaFileManager fileManager) throws IOException {
+        super(fileManager);
+        // Nothing on disk is on the class path, notably not the working
+        // directory, which is the default
+        fileManager.setLocation(StandardLocation.CLASS_PATH, List.of());
+    }
+
+    /**
+     * @return the class with binary name {@code binaryName}, or
+     * {@code null}
+     */
+    synchronized ClassObject getClass(String binaryName) {
+        return classes.get(binaryName);
+    }
+
+    synchronized void removeClass(String binaryName) {
+        classes.remove(binaryName);
+    }
+
+    synchronized void clear() {
+        classes.clear();
+        written.clear();
+    }
+
+    /**
+     * @return the classes written since the last call
+     */
+    synchronized List<ClassObject> takeWritten() {
+        var result = written;
+        written = new ArrayList<>();
+        return result;
+    }
+
+    public synchronized JavaFileObject getJavaFileForOutput(Location location,
+        String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (location != StandardLocation.CLASS_OUTPUT || kind != JavaFileObject.Kind.CLASS)
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        return new ClassObject(className, sibling);
+    }
+
+    public Iterable<JavaFileObject> list(Location location, String packageName,
+        Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH ||
+            !kinds.contains(JavaFileObject.Kind.CLASS))
+            return listed;
+
+        var result = new ArrayList<JavaFileObject>();
+        listed.forEach(result::add);
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        synchronized (this) {
+            for (var entry: classes.entrySet()) {
+                String name = entry.getKey();
+                if (!name.startsWith(prefix))
+                    continue;
+                if (recurse || name.indexOf('.', prefix.length()) < 0)
+                    result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof ClassObject)
+            return ((ClassObject) file).binaryName;
+        return super.inferBinaryName(location, file);
+    }
+
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof ClassObject || b instanceof ClassObject)
+            return a == b;
+        return super.isSameFile(a, b);
+    }
+
+    /**
+     * A class file in memory. Until the compiler has written it, it is not
+     * on the class path.
+     */
+    class ClassObject extends SimpleJavaFileObject {
+        final String binaryName;
+        final FileObject source;    // the source it was compiled from
+        private byte[] bytes = new byte[0];
+
+        private ClassObject(String binaryName, FileObject source) {
+            super(URI.create("memory:///" + binaryName.replace('.', '/') +
+                             Kind.CLASS.extension), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.source = source;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                public void close() {
+                    bytes = toByteArray();
+                    synchronized (MemoryFileManager.this) {
+                        classes.put(binaryName, ClassObject.this);
+                        written.add(ClassObject.this);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package compile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import javax.lang.model.element.Name;
+import javax.tools.*;
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+
+/**
+ * A {@code SemanticClassifier} finds the identifiers of a Java source which
+ * name fields, locals, parameters, methods and types.
+ *
+ * Sources are only parsed, not attributed, so that it is fast, needs
+ * nothing but the text, and works on broken code. Names are resolved by
+ * following the scopes of the source: declared locals and parameters
+ * first, then the fields declared by the enclosing classes. What is left
+ * is told apart by position (types in declarations, casts, {@code new},
+ * ...) and by naming conventions.
+ */
+public class SemanticClassifier {
+    private static final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    private static StandardJavaFileManager fileManager;
+
+    public enum Kind {
+        FIELD, LOCAL, PARAMETER, METHOD, TYPE
+    }
+
+    /**
+     * Classified identifiers, as parallel arrays sorted by start offset.
+     */
+    public static class Spans {
+        public int[] starts = new int[256];
+        public int[] ends = new int[256];
+        public Kind[] kinds = new Kind[256];
+        public int size;
+
+        private void add(int start, int end, Kind kind) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            kinds[size] = kind;
+            size++;
+        }
+
+        private void sort() {
+            var order = new Integer[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt(i -> starts[i]));
+            int[] sortedStarts = new int[size], sortedEnds = new int[size];
+            Kind[] sortedKinds = new Kind[size];
+            for (int i = 0; i < size; i++) {
+                sortedStarts[i] = starts[order[i]];
+                sortedEnds[i] = ends[order[i]];
+                sortedKinds[i] = kinds[order[i]];
+            }
+            starts = sortedStarts;
+            ends = sortedEnds;
+            kinds = sortedKinds;
+        }
+    }
+
+    /**
+     * Classify the identifiers of {@code text}.
+     * @param text a Java source
+     * @return the classified identifiers, or {@code null} if no Java
+     * compiler is available
+     */
+    public static Spans classify(String text) {
+        if (compiler == null)
+            return null;
+        var source = new SimpleJavaFileObject(URI.create("string:///Source.java"),
+                                              JavaFileObject.Kind.SOURCE) {
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return text;
+            }
+        };
+        var task = (JavacTask) compiler.getTask(null, fileManager(), diagnostic -> {},
+            List.of("-proc:none"), null, List.of(source));
+        var spans = new Spans();
+        try {
+            for (var unit: task.parse())
+                new Scanner(text, unit, Trees.instance(task).getSourcePositions(), spans)
+                    .scanUnit();
+        } catch (IOException | RuntimeException ex) {
+            // Keep what was found before the parser or scanner gave up
+        }
+        spans.sort();
+        return spans;
+    }
+
+    private static synchronized StandardJavaFileManager fileManager() {
+        // Parsing looks nothing up, but the file manager is costly to create
+        if (fileManager == null)
+            fileManager = compiler.getStandardFileManager(diagnostic -> {}, null, null);
+        return fileManager;
+    }
+
+    private static class Scanner extends TreePathScanner<Void, Void> {
+        private final String text;
+        private final CompilationUnitTree unit;
+        private final SourcePositions positions;
+        private final Spans spans;
+        // Innermost scope last
+        private final ArrayDeque<HashMap<String, Kind>> scopes = new ArrayDeque<>();
+        private final ArrayDeque<Set<String>> fields = new ArrayDeque<>();
+        private boolean inType;     // whether names being scanned are types
+
+        private Scanner(String text, CompilationUnitTree unit, SourcePositions positions,
+                        Spans spans) {
+            this.text = text;
+            this.unit = unit;
+            this.positions = positions;
+            this.spans = spans;
+        }
+
+        private void scanUnit() {
+            // Package and imports are left to the lexical colors
+            for (var type: unit.getTypeDecls())
+                scan(new TreePath(new TreePath(unit), type), null);
+        }
+
+        private void scanType(Tree tree) {
+            boolean wasInType = inType;
+            inType = true;
+            scan(tree, null);
+            inType = wasInType;
+        }
+
+        private void scanTypes(List<? extends Tree> trees) {
+            if (trees == null)
+                return;
+            for (var tree: trees)
+                scanType(tree);
+        }
+
+        private void scanScoped(Runnable scan) {
+            scopes.addLast(new HashMap<>());
+            try {
+                scan.run();
+            } finally {
+                scopes.removeLast();
+            }
+        }
+
+        public Void visitClass(ClassTree node, Void p) {
+            scan(node.getModifiers(), null);
+            long start = positions.getEndPosition(unit, node.getModifiers());
+            addName(start < 0 ? positions.getStartPosition(unit, node) : start,
+                    node.getSimpleName(), Kind.TYPE);
+
+            var declared = new HashSet<String>();
+            for (var member: node.getMembers())
+                if (member instanceof VariableTree)
+                    declared.add(((VariableTree) member).getName().toString());
+            fields.addLast(declared);
+            try {
+                scanScoped(() -> {
+                    scanTypes(node.getTypeParameters());
+                    scanType(node.getExtendsClause());
+                    scanTypes(node.getImplementsClause());
+                    for (var member: node.getMembers())
+                        scan(member, null);
+                });
+            } finally {
+                fields.removeLast();
+            }
+            return null;
+        }
+
+        public Void visitMethod(MethodTree node, Void p) {
+            scan(node.getModifiers(), null);
+            scanTypes(node.getTypeParameters());
+            scanType(node.getReturnType());
+            long start = node.getReturnType() != null ?
+                positions.getEndPosition(unit, node.getReturnType()) :
+                positions.getStartPosition(unit, node);
+            if (node.getName().contentEquals("<init>")) {
+                var owner = getCurrentPath().getParentPath().getLeaf();
+                if (owner instanceof ClassTree)
+                    addName(start, ((ClassTree) owner).getSimpleName(), Kind.TYPE);
+            } else {
+                addName(start, node.getName(), Kind.METHOD);
+            }
+            scanScoped(() -> {
+                for (var parameter: node.getParameters())
+                    scan(parameter, null);
+                scanTypes(node.getThrows());
+                scan(node.getBody(), null);
+                scan(node.getDefaultValue(), null);
+            });
+            return null;
+        }
+
+        public Void visitVariable(VariableTree node, Void p) {
+            var parent = getCurrentPath().getParentPath().getLeaf();
+            Kind kind = parent instanceof ClassTree ? Kind.FIELD :
+                parent instanceof MethodTree || parent instanceof LambdaExpressionTree ?
+                Kind.PARAMETER : Kind.LOCAL;
+            scan(node.getModifiers(), null);
+            long start = positions.getStartPosition(unit, node);
+            if (node.getType() != null) {
+                scanType(node.getType());
+                start = Math.max(start, positions.getEndPosition(unit, node.getType()));
+            }
+            addName(start, node.getName(), kind);
+            if (kind != Kind.FIELD && !scopes.isEmpty())
+                scopes.peekLast().put(node.getName().toString(), kind);
+            scan(node.getInitializer(), null);
+            return null;
+        }
+
+        public Void visitBlock(BlockTree node, Void p) {
+            scanScoped(() -> super.visitBlock(node, null));
+            return null;
+        }
+
+        public Void visitForLoop(ForLoopTree node, Void p) {
+            scanScoped(() -> super.visitForLoop(node, null));
+            return null;
+        }
+
+        public Void visitEnhancedForLoop(EnhancedForLoopTree node, Void p) {
+            scanScoped(() -> super.visitEnhancedForLoop(node, null));
+            return null;
+        }
+
+        public Void visitCatch(CatchTree node, Void p) {
+            scanScoped(() -> super.visitCatch(node, null));
+            return null;
+        }
+
+        public Void visitTry(TryTree node, Void p) {
+            scanScoped(() -> super.visitTry(node, null));
+            return null;
+        }
+
+        public Void visitLambdaExpression(LambdaExpressionTree node, Void p) {
+            scanScoped(() -> super.visitLambdaExpression(node, null));
+            return null;
+        }
+
+        public Void visitIdentifier(IdentifierTree node, Void p) {
+            String name = node.getName().toString();
+            long start = positions.getStartPosition(unit, node);
+            if (inType) {
+                add(start, name, Kind.TYPE);
+                return null;
+            }
+            Kind kind = resolve(name);
+            if (kind == null && looksLikeConstant(name))
+                kind = Kind.FIELD;
+            else if (kind == null && looksLikeType(name))
+                kind = Kind.TYPE;
+            if (kind != null)
+                add(start, name, kind);
+            return null;
+        }
+
+        public Void visitMemberSelect(MemberSelectTree node, Void p) {
+            String name = node.getIdentifier().toString();
+            if (inType) {
+                // Only what looks like a type in a qualified name
+                boolean wasInType = inType;
+                inType = false;
+                scanQualifier(node.getExpression());
+                inType = wasInType;
+                if (looksLikeType(name))
+                    add(positions.getEndPosition(unit, node) - name.length(), name, Kind.TYPE);
+                return null;
+            }
+            scan(node.getExpression(), null);
+            if (name.equals("class") || name.equals("this") || name.equals("super"))
+                return null;
+            add(positions.getEndPosition(unit, node) - name.length(), name,
+                looksLikeType(name) ? Kind.TYPE : Kind.FIELD);
+            return null;
+        }
+
+        private void scanQualifier(ExpressionTree qualifier) {
+            if (qualifier instanceof IdentifierTree) {
+                String name = ((IdentifierTree) qualifier).getName().toString();
+                if (looksLikeType(name))
+                    add(positions.getStartPosition(unit, qualifier), name, Kind.TYPE);
+            } else if (qualifier instanceof MemberSelectTree) {
+                var select = (MemberSelectTree) qualifier;
+                scanQualifier(select.getExpression());
+                String name = select.getIdentifier().toString();
+                if (looksLikeType(name))
+                    add(positions.getEndPosition(unit, select) - name.length(), name, Kind.TYPE);
+            }
+        }
+
+        public Void visitMethodInvocation(MethodInvocationTree node, Void p) {
+            scanTypes(node.getTypeArguments());
+            var select = node.getMethodSelect();
+            if (select instanceof IdentifierTree) {
+                String name = ((IdentifierTree) select).getName().toString();
+                if (!name.equals("this") && !name.equals("super"))
+                    add(positions.getStartPosition(unit, select), name, Kind.METHOD);
+            } else if (select instanceof MemberSelectTree) {
+                var memberSelect = (MemberSelectTree) select;
+                scan(memberSelect.getExpression(), null);
+                String name = memberSelect.getIdentifier().toString();
+                add(positions.getEndPosition(unit, select) - name.length(), name, Kind.METHOD);
+            } else {
+                scan(select, null);
+            }
+            for (var argument: node.getArguments())
+                scan(argument, null);
+            return null;
+        }
+
+        public Void visitMemberReference(MemberReferenceTree node, Void p) {
+            scan(node.getQualifierExpression(), null);
+            scanTypes(node.getTypeArguments());
+            String name = node.getName().toString();
+            if (!name.equals("<init>"))
+                add(positions.getEndPosition(unit, node) - name.length(), name, Kind.METHOD);
+            return null;
+        }
+
+        public Void visitNewClass(NewClassTree node, Void p) {
+            scan(node.getEnclosingExpression(), null);
+            scanTypes(node.getTypeArguments());
+            scanType(node.getIdentifier());
+            for (var argument: node.getArguments())
+                scan(argument, null);
+            scan(node.getClassBody(), null);
+            return null;
+        }
+
+        public Void visitNewArray(NewArrayTree node, Void p) {
+            scanType(node.getType());
+            for (var dimension: node.getDimensions())
+                scan(dimension, null);
+            if (node.getInitializers() != null)
+                for (var initializer: node.getInitializers())
+                    scan(initializer, null);
+            return null;
+        }
+
+        public Void visitTypeCast(TypeCastTree node, Void p) {
+            scanType(node.getType());
+            scan(node.getExpression(), null);
+            return null;
+        }
+
+        public Void visitInstanceOf(InstanceOfTree node, Void p) {
+            scan(node.getExpression(), null);
+            if (node.getPattern() != null)
+                scan(node.getPattern(), null);
+            else
+                scanType(node.getType());
+            return null;
+        }
+
+        public Void visitAnnotation(AnnotationTree node, Void p) {
+            scanType(node.getAnnotationType());
+            for (var argument: node.getArguments()) {
+                if (argument instanceof AssignmentTree)
+                    // The name of an element is not resolved in any scope
+                    scan(((AssignmentTree) argument).getExpression(), null);
+                else
+                    scan(argument, null);
+            }
+            return null;
+        }
+
+        public Void visitParameterizedType(ParameterizedTypeTree node, Void p) {
+            scanType(node.getType());
+            scanTypes(node.getTypeArguments());
+            return null;
+        }
+
+        public Void visitTypeParameter(TypeParameterTree node, Void p) {
+            add(positions.getStartPosition(unit, node), node.getName().toString(),
+                Kind.TYPE);
+            scanTypes(node.getBounds());
+            return null;
+        }
+
+        private Kind resolve(String name) {
+            for (var it = scopes.descendingIterator(); it.hasNext();) {
+                Kind kind = it.next().get(name);
+                if (kind != null)
+                    return kind;
+            }
+            for (var declared: fields)
+                if (declared.contains(name))
+                    return Kind.FIELD;
+            return null;
+        }
+
+        private static boolean looksLikeType(String name) {
+            if (name.isEmpty() || !Character.isUpperCase(name.charAt(0)))
+                return false;
+            for (int i = 1; i < name.length(); i++)
+                if (Character.isLowerCase(name.charAt(i)))
+                    return true;
+            return name.length() == 1;
+        }
+
+        private static boolean looksLikeConstant(String name) {
+            return name.length() > 1 && !looksLikeType(name) &&
+                Character.isUpperCase(name.charAt(0));
+        }
+
+        /**
+         * Add {@code name} at the first place it appears at or after
+         * {@code from}.
+         */
+        private void addName(long from, Name name, Kind kind) {
+            if (from < 0 || name.length() == 0)
+                return;
+            String string = name.toString();
+            int index = (int) from;
+            while ((index = text.indexOf(string, index)) >= 0) {
+                int end = index + string.length();
+                if ((index == 0 || !Character.isJavaIdentifierPart(text.charAt(index - 1))) &&
+                    (end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end)))) {
+                    spans.add(index, end, kind);
+                    return;
+                }
+                index = end;
+            }
+        }
+
+        private void add(long start, String name, Kind kind) {
+            int end = (int) start + name.length();
+            // Positions of broken code may be off
+            if (start < 0 || end > text.length() || !text.startsWith(name, (int) start))
+                return;
+            spans.add((int) start, end, kind);
+        }
+    }
+}
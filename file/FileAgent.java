@@ -2,12 +2,24 @@ package file;
 
 import java.io.File;
 import java.io.IOException;
+import metrics.*;
 
 /**
  * Each editing thread of the text editor holds a {@code FileAgent} object
  * which bookkeeps the data and metadata of a text file.
  */
 public class FileAgent {
+    private static final Histogram openBytes =
+        Metrics.histogram("file.open.bytes", "bytes", "Size of the files opened");
+    private static final Histogram openDetectTime =
+        Metrics.histogram("file.open.detect", "us", "Time to tell a text file from a binary one");
+    private static final Histogram openReadTime =
+        Metrics.histogram("file.open.read", "us", "Time to read a file opened");
+    private static final Histogram saveBytes =
+        Metrics.histogram("file.save.bytes", "bytes", "Size of the files saved");
+    private static final Histogram saveTime =
+        Metrics.histogram("file.save.write", "us", "Time to write a file saved");
+
     private File file;
     private StringBuilder content;
     private boolean dirty; // Is the file edited but not saved?
@@ -68,16 +80,40 @@ public class FileAgent {
     public void read() throws IOException {
         if (file == null)
             throw new EmptyFileException();
-        if (!FileOperations.isTextFile(file))
+        var event = new FileOpenEvent();
+        event.begin();
+        event.path = file.getPath();
+        long start = System.nanoTime();
+        boolean text = FileOperations.isTextFile(file);
+        openDetectTime.recordSince(start);
+        event.text = text;
+        if (!text) {
+            event.commit();
             throw new NotTextFileException();
+        }
         // A new file should be handled by another {@code FileAgent} object
         assert content == null;
         
+        start = System.nanoTime();
+        byte[] bytes = FileOperations.readFile(file);
+        openReadTime.recordSince(start);
+        openBytes.record(bytes.length);
         content = new StringBuilder(
-            new String(
-                FileOperations.readFile(file), FileOperations.DEFAULT_CHARSET
-            )
+            new String(bytes, FileOperations.DEFAULT_CHARSET)
         );
+        event.bytes = bytes.length;
+        event.commit();
+        dirty = false;
+    }
+
+    /**
+     * Take {@code text}, known to be the content of {@code file}, rather
+     * than reading the file again.
+     * @param text the content of {@code file}
+     */
+    public void read(String text) {
+        assert content == null;
+        content = new StringBuilder(text);
         dirty = false;
     }
 
@@ -88,8 +124,16 @@ public class FileAgent {
     public void write() throws IOException {
         if (file == null)
             throw new EmptyFileException();
-        FileOperations.writeFile(file, 
-            content.toString().getBytes(FileOperations.DEFAULT_CHARSET));
+        var event = new FileSaveEvent();
+        event.begin();
+        byte[] bytes = content.toString().getBytes(FileOperations.DEFAULT_CHARSET);
+        long start = System.nanoTime();
+        FileOperations.writeFile(file, bytes);
+        saveTime.recordSince(start);
+        saveBytes.record(bytes.length);
+        event.path = file.getPath();
+        event.bytes = bytes.length;
+        event.commit();
         dirty = false;
     }
 
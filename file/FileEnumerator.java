@@ -2,6 +2,7 @@ package file;
 
 import java.io.File;
 import java.util.*;
+import metrics.EnumerationEvent;
 
 public class FileEnumerator {
     @SuppressWarnings("unused")
@@ -24,6 +25,8 @@ public class FileEnumerator {
         while (!fileQueue.isEmpty()) {
             File nextFile = fileQueue.poll();
             if (nextFile.isDirectory()) {
+                var event = new EnumerationEvent();
+                event.begin();
                 File[] children = nextFile.listFiles();
                 if (children == null)
                     continue;
@@ -39,6 +42,9 @@ public class FileEnumerator {
                 });
                 for (File child: children)
                     fileQueue.offer(child);
+                event.directory = nextFile.getPath();
+                event.entries = children.length;
+                event.commit();
                 
                 return new DirectoryListData(nextFile, children);
             }
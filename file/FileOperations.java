@@ -1,8 +1,13 @@
 package file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
 import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Utility class for file operations.
@@ -12,6 +17,50 @@ public class FileOperations {
     private static final double MIN_TEXT_SIGN_PERCENTAGE = 0.95;
     
     public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+    // Writing is mostly waiting for the disk to sync
+    private static final int WRITE_THREADS = 8;
+    private static final ExecutorService writers =
+        Executors.newFixedThreadPool(WRITE_THREADS, r -> {
+            var thread = new Thread(r, "JCode file writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Directory where JCode keeps its own data (histories, indexes, ...).
+     */
+    public static final File JCODE_HOME =
+        new File(System.getProperty("user.home"), ".jcode");
+
+    /**
+     * Get the directory in which JCode keeps private data belonging to
+     * {@code workspace}, and create it if it does not exist yet. Data of
+     * different workspaces never share a directory, and nothing is ever
+     * written into the workspace itself.
+     * @param workspace a {@code java.io.File} object representing the
+     * workspace root
+     * @return the data directory of {@code workspace}
+     * @throws IOException if the directory cannot be created
+     */
+    public static File getWorkspaceDataDirectory(File workspace)
+        throws IOException {
+        String path = workspace.getCanonicalPath();
+        var name = new StringBuilder(workspace.getCanonicalFile().getName());
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                .digest(path.getBytes(DEFAULT_CHARSET));
+            name.append('-');
+            for (int i = 0; i < 8; i++)
+                name.append(String.format("%02x", digest[i]));
+        } catch (NoSuchAlgorithmException ex) {
+            name.append('-').append(Integer.toHexString(path.hashCode()));
+        }
+
+        File directory = new File(new File(JCODE_HOME, "workspaces"),
+                                  name.toString());
+        Files.createDirectories(directory.toPath());
+        return directory;
+    }
 
     /**
      * Detect whether {@code file} is a text file. The solution is due to
@@ -73,15 +122,74 @@ public class FileOperations {
     }
 
     /**
-     * Write byte array {@code content} into {@code file}.
+     * Write byte array {@code content} into {@code file}, atomically: the
+     * content goes into a temporary file next to {@code file}, which is
+     * synced and then replaces it, so that {@code file} is never left
+     * half written. A symbolic link is written through, and the
+     * permissions of {@code file} are kept.
      * @param file a {@code java.io.File} object
      * @param content a {@code byte[]} array containing the content to write
      * @throws IOException if an {@code IOException} occurs while writing
      */
     public static void writeFile(File file, byte[] content) throws IOException {
-        try (FileOutputStream out = new FileOutputStream(file)) {
-            out.write(content);
+        Path target = file.toPath().toAbsolutePath();
+        if (Files.isSymbolicLink(target))
+            target = target.toRealPath();
+        // Named after the thread, so that concurrent saves never share it
+        Path temp = target.resolveSibling("." + target.getFileName() + "." +
+                                          Thread.currentThread().getId() + ".tmp");
+        try {
+            try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                var buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false);
+            }
+            if (Files.exists(target)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException ex) {
+
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
         }
     }
-}
 
+    /**
+     * Write the files of {@code contents} concurrently, each as by
+     * {@code writeFile()}, and wait until all are written.
+     * @param contents the content to write into each file
+     * @return the files which could not be written, with the reasons
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static Map<File, IOException> writeFiles(Map<File, byte[]> contents)
+        throws InterruptedException {
+        var futures = new LinkedHashMap<File, Future<?>>();
+        for (var entry: contents.entrySet())
+            futures.put(entry.getKey(), writers.submit(() -> {
+                writeFile(entry.getKey(), entry.getValue());
+                return null;
+            }));
+        var failures = new LinkedHashMap<File, IOException>();
+        for (var entry: futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException ex) {
+                var cause = ex.getCause();
+                failures.put(entry.getKey(), cause instanceof IOException ?
+                    (IOException) cause : new IOException(cause));
+            }
+        }
+        return failures;
+    }
+}
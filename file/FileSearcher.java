@@ -0,0 +1,349 @@
+package file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+import java.util.regex.*;
+
+/**
+ * A {@code FileSearcher} searches many files for a query in parallel.
+ *
+ * Files are memory-mapped and scanned on a {@code ForkJoinPool}. Literal
+ * queries are matched directly on the UTF-8 bytes of the file with
+ * Boyer-Moore-Horspool (case-insensitively only for ASCII queries); other
+ * queries are matched by a regex on the decoded text. Results are handed
+ * to a consumer file by file, as soon as each file is done.
+ */
+public class FileSearcher {
+    private static final int MAX_LINE_TEXT = 300;
+    // How many bytes are scanned between two checks for cancellation
+    private static final int CANCEL_CHECK_INTERVAL = 1 << 20;
+
+    private final SearchQuery query;
+    private final Pattern pattern;      // non-null when matching on chars
+    private final byte[] bytePattern;   // non-null when matching on bytes
+    private final int[] shift;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicInteger searchedFiles = new AtomicInteger();
+
+    /**
+     * Create a {@code FileSearcher} for {@code query}.
+     * @param query the query
+     * @throws PatternSyntaxException if {@code query} is an invalid regex
+     */
+    public FileSearcher(SearchQuery query) {
+        this.query = query;
+        if (!query.regex && (query.matchCase || isAscii(query.pattern))) {
+            bytePattern = query.pattern.getBytes(FileOperations.DEFAULT_CHARSET);
+            if (!query.matchCase)
+                for (int i = 0; i < bytePattern.length; i++)
+                    bytePattern[i] = foldAscii(bytePattern[i]);
+            int m = bytePattern.length;
+            shift = new int[256];
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++)
+                shift[bytePattern[i] & 0xFF] = m - 1 - i;
+            pattern = null;
+        } else {
+            pattern = query.compile();
+            bytePattern = null;
+            shift = null;
+        }
+    }
+
+    /**
+     * Stop the search as soon as possible.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return how many files have been searched so far
+     */
+    public int getSearchedFiles() {
+        return searchedFiles.get();
+    }
+
+    /**
+     * Search every text file under {@code root}. Files are enumerated by a
+     * {@code FileEnumerator} and searched while the enumeration goes on.
+     * Returns when all files have been searched or the search is cancelled.
+     * @param root the root directory
+     * @param consumer consumes the matches of each file having any; it is
+     * called from several threads
+     */
+    public void search(File root, Consumer<FileMatches> consumer) {
+        var enumerator = new FileEnumerator(root);
+        search(() -> new Iterator<File>() {
+            private File[] children = new File[0];
+            private int next;
+
+            public boolean hasNext() {
+                while (next == children.length) {
+                    var data = enumerator.enumerate();
+                    if (data == null || cancelled.get())
+                        return false;
+                    children = data.children;
+                    next = 0;
+                }
+                return true;
+            }
+
+            public File next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return children[next++];
+            }
+        }, consumer);
+    }
+
+    /**
+     * Search {@code files}, skipping directories and binary files. Returns
+     * when all files have been searched or the search is cancelled.
+     * @param files the files to search
+     * @param consumer consumes the matches of each file having any; it is
+     * called from several threads
+     */
+    public void search(Iterable<File> files, Consumer<FileMatches> consumer) {
+        var pool = new ForkJoinPool();
+        try {
+            for (File file: files) {
+                if (cancelled.get())
+                    break;
+                if (!file.isFile())
+                    continue;
+                pool.execute(() -> {
+                    if (cancelled.get())
+                        return;
+                    try {
+                        var matches = searchFile(file);
+                        if (matches != null && !matches.matches.isEmpty())
+                            consumer.accept(matches);
+                    } catch (IOException | CancellationException ex) {
+                        // Unreadable file or cancelled search
+                    }
+                    searchedFiles.incrementAndGet();
+                });
+            }
+            while (!pool.awaitQuiescence(100, TimeUnit.MILLISECONDS))
+                if (cancelled.get())
+                    break;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Search a single file.
+     * @param file the file
+     * @return matches in {@code file}, or {@code null} if it is not a text
+     * file
+     * @throws IOException if an I/O error occurs
+     */
+    public FileMatches searchFile(File file) throws IOException {
+        long size = file.length();
+        if (size == 0 || size > Integer.MAX_VALUE ||
+            !FileOperations.isTextFile(file))
+            return null;
+
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var result = new FileMatches(file);
+            if (bytePattern != null)
+                searchBytes(buffer, result);
+            else
+                searchChars(buffer, result);
+            return result;
+        }
+    }
+
+    private void searchBytes(ByteBuffer buffer, FileMatches result) {
+        int n = buffer.limit();
+        int m = bytePattern.length;
+        if (m == 0)
+            return;
+        var lines = new LineCounter(buffer);
+        int lastLine = 0;
+        int nextCheck = CANCEL_CHECK_INTERVAL;
+
+        int i = 0;
+        while (i <= n - m) {
+            if (i >= nextCheck) {
+                if (cancelled.get())
+                    throw new CancellationException();
+                nextCheck += CANCEL_CHECK_INTERVAL;
+            }
+            byte last = fold(buffer.get(i + m - 1));
+            if (last == bytePattern[m - 1] && bytesMatch(buffer, i) &&
+                (!query.wholeWord || isWholeWord(buffer, i, i + m))) {
+                int line = lines.lineOf(i);
+                // Report each line once
+                if (line != lastLine) {
+                    lastLine = line;
+                    int lineStart = lines.lineStart();
+                    int column = decode(buffer, lineStart, i).length();
+                    result.matches.add(new Match(result.file, line, column,
+                        lineText(buffer, lineStart)));
+                }
+            }
+            i += shift[last & 0xFF];
+        }
+    }
+
+    private void searchChars(ByteBuffer buffer, FileMatches result)
+        throws CharacterCodingException {
+        CharBuffer text = FileOperations.DEFAULT_CHARSET.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .decode(buffer);
+        if (cancelled.get())
+            throw new CancellationException();
+
+        Matcher matcher = pattern.matcher(text);
+        int line = 1;
+        int lineStart = 0;
+        int scanned = 0;
+        int lastLine = 0;
+        while (matcher.find()) {
+            int start = matcher.start();
+            for (; scanned < start; scanned++) {
+                if (text.get(scanned) == '\n') {
+                    line++;
+                    lineStart = scanned + 1;
+                }
+            }
+            if (line == lastLine)
+                continue;
+            lastLine = line;
+            int lineEnd = lineStart;
+            while (lineEnd < text.limit() && text.get(lineEnd) != '\n' &&
+                   lineEnd - lineStart < MAX_LINE_TEXT)
+                lineEnd++;
+            result.matches.add(new Match(result.file, line, start - lineStart,
+                text.subSequence(lineStart, lineEnd).toString().stripTrailing()));
+            if (cancelled.get())
+                throw new CancellationException();
+        }
+    }
+
+    private boolean bytesMatch(ByteBuffer buffer, int start) {
+        for (int j = bytePattern.length - 2; j >= 0; j--)
+            if (fold(buffer.get(start + j)) != bytePattern[j])
+                return false;
+        return true;
+    }
+
+    private byte fold(byte b) {
+        return query.matchCase ? b : foldAscii(b);
+    }
+
+    private static byte foldAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) >= 0x80)
+                return false;
+        return true;
+    }
+
+    private static boolean isWholeWord(ByteBuffer buffer, int start, int end) {
+        return (start == 0 || !isWordByte(buffer.get(start - 1))) &&
+               (end == buffer.limit() || !isWordByte(buffer.get(end)));
+    }
+
+    private static boolean isWordByte(byte b) {
+        // Bytes of non-ASCII characters are taken as letters
+        return b < 0 || b == '_' || Character.isLetterOrDigit(b);
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, FileOperations.DEFAULT_CHARSET);
+    }
+
+    private static String lineText(ByteBuffer buffer, int lineStart) {
+        int lineEnd = lineStart;
+        // Bytes are counted here, which is good enough for a preview
+        while (lineEnd < buffer.limit() && buffer.get(lineEnd) != '\n' &&
+               lineEnd - lineStart < MAX_LINE_TEXT)
+            lineEnd++;
+        return decode(buffer, lineStart, lineEnd).stripTrailing();
+    }
+
+    /**
+     * Turns byte offsets into line numbers, for offsets given in ascending
+     * order.
+     */
+    private static class LineCounter {
+        private final ByteBuffer buffer;
+        private int scanned;
+        private int line = 1;
+        private int lineStart;
+
+        private LineCounter(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int lineOf(int offset) {
+            for (; scanned < offset; scanned++) {
+                if (buffer.get(scanned) == '\n') {
+                    line++;
+                    lineStart = scanned + 1;
+                }
+            }
+            return line;
+        }
+
+        private int lineStart() {
+            return lineStart;
+        }
+    }
+
+    /**
+     * A line containing a match.
+     */
+    public static class Match {
+        public final File file;
+        public final int line;      // 1-based
+        public final int column;    // 0-based, in chars
+        public final String lineText;
+
+        public Match(File file, int line, int column, String lineText) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.lineText = lineText;
+        }
+
+        public String toString() {
+            return line + ": " + lineText.strip();
+        }
+    }
+
+    /**
+     * All matches in one file.
+     */
+    public static class FileMatches {
+        public final File file;
+        public final List<Match> matches = new ArrayList<>();
+
+        public FileMatches(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package file;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * A {@code FileWatcher} reports changes of files on disk. A single watcher
+ * is shared by everything in JCode that needs to know about changes, so
+ * that each directory is registered with the operating system only once.
+ *
+ * Directories can be watched alone (e.g. the directory of an open file) or
+ * together with all their subdirectories, in which case subdirectories
+ * created later are watched as well.
+ */
+public class FileWatcher {
+    private static FileWatcher shared;
+
+    private final WatchService service;
+    private final ConcurrentHashMap<WatchKey, Path> directories
+        = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final Set<Path> trees = ConcurrentHashMap.newKeySet();
+    private final CopyOnWriteArrayList<Listener> listeners
+        = new CopyOnWriteArrayList<>();
+
+    public enum Change {
+        CREATED, MODIFIED, DELETED,
+        OVERFLOW    // events were lost; everything may have changed
+    }
+
+    /**
+     * A {@code Listener} is notified of every change under every watched
+     * directory, on the watcher thread. It should return quickly.
+     */
+    public interface Listener {
+        /**
+         * @param path the changed file, or the directory whose events were
+         * lost if {@code change} is {@code OVERFLOW}
+         * @param change what happened to {@code path}
+         */
+        void fileChanged(Path path, Change change);
+    }
+
+    /**
+     * @return the watcher shared by the whole application
+     * @throws IOException if the watch service cannot be created
+     */
+    public static synchronized FileWatcher getShared() throws IOException {
+        if (shared == null)
+            shared = new FileWatcher();
+        return shared;
+    }
+
+    private FileWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        var thread = new Thread(this::run, "FileWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Watch the files directly inside {@code directory}.
+     * @param directory the directory
+     * @throws IOException if the directory cannot be registered
+     */
+    public void watchDirectory(Path directory) throws IOException {
+        Path normalized = directory.toAbsolutePath().normalize();
+        if (!watchedDirectories.add(normalized))
+            return;
+        try {
+            directories.put(normalized.register(service,
+                ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), normalized);
+        } catch (IOException ex) {
+            watchedDirectories.remove(normalized);
+            throw ex;
+        }
+    }
+
+    /**
+     * Watch every file under {@code root}, including files in directories
+     * created after this call.
+     * @param root the root directory
+     * @throws IOException if an I/O error occurs while walking {@code root}
+     */
+    public void watchTree(Path root) throws IOException {
+        Path normalized = root.toAbsolutePath().normalize();
+        trees.add(normalized);
+        Files.walkFileTree(normalized, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir,
+                BasicFileAttributes attrs) {
+                try {
+                    watchDirectory(dir);
+                } catch (IOException ex) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isInTree(Path path) {
+        for (Path root: trees)
+            if (path.startsWith(root))
+                return true;
+        return false;
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path directory = directories.get(key);
+            if (directory == null) {
+                key.cancel();
+                continue;
+            }
+
+            for (WatchEvent<?> event: key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    notifyListeners(directory, Change.OVERFLOW);
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE) {
+                    // Watch new subdirectories of watched trees as well
+                    if (Files.isDirectory(path) && isInTree(path)) {
+                        try {
+                            watchTree(path);
+                        } catch (IOException ex) {
+
+                        }
+                    }
+                    notifyListeners(path, Change.CREATED);
+                } else if (event.kind() == ENTRY_MODIFY) {
+                    notifyListeners(path, Change.MODIFIED);
+                } else {
+                    notifyListeners(path, Change.DELETED);
+                }
+            }
+
+            if (!key.reset()) {
+                directories.remove(key);
+                watchedDirectories.remove(directory);
+            }
+        }
+    }
+
+    private void notifyListeners(Path path, Change change) {
+        for (var listener: listeners) {
+            try {
+                listener.fileChanged(path, change);
+            } catch (RuntimeException ex) {
+                // A broken listener must not stop the watcher
+            }
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package file;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import file.SymbolIndex.Symbol;
+import file.SymbolIndex.Symbol.Kind;
+
+/**
+ * A {@code JavaSymbolScanner} finds the declarations in a Java source file:
+ * its package, classes (including interfaces, enums, records and annotation
+ * types), methods, constructors and fields.
+ *
+ * It does not parse Java. It only tokenizes the text, skipping comments and
+ * literals, and keeps track of braces, so that it knows whether a token is
+ * directly inside a class body; method bodies and field initializers are
+ * skipped over. This is much faster than a parser and does not give up on
+ * files with syntax errors, at the price of missing declarations in odd
+ * code now and then.
+ */
+public class JavaSymbolScanner {
+    private static final Set<String> KEYWORDS = Set.of(
+        "abstract", "assert", "boolean", "break", "byte", "case", "catch",
+        "char", "class", "const", "continue", "default", "do", "double",
+        "else", "enum", "extends", "final", "finally", "float", "for", "goto",
+        "if", "implements", "import", "instanceof", "int", "interface", "long",
+        "native", "new", "package", "private", "protected", "public", "return",
+        "short", "static", "strictfp", "super", "switch", "synchronized",
+        "this", "throw", "throws", "transient", "try", "void", "volatile",
+        "while", "var", "record", "sealed", "non-sealed", "permits"
+    );
+
+    // Token types
+    private static final int EOF = 0;
+    private static final int IDENTIFIER = 1;
+    private static final int PUNCTUATION = 2;
+    private static final int LITERAL = 3;
+
+    private final File file;
+    private final String text;
+    private final List<Symbol> symbols = new ArrayList<>();
+
+    private int pos;
+    private int line = 1;
+    private int lineStart;
+
+    // The current token
+    private int type;
+    private String identifier;
+    private char punctuation;
+    private int tokenLine;
+    private int tokenColumn;
+    private boolean pushedBack;
+
+    // Where the scanner is
+    private String packageName = "";
+    private final ArrayDeque<ClassContext> classes = new ArrayDeque<>();
+    private int depth;
+
+    /**
+     * Scan {@code file}.
+     * @param file the file
+     * @return the declarations in {@code file}, in order of appearance
+     * @throws IOException if an I/O error occurs
+     */
+    public static List<Symbol> scan(File file) throws IOException {
+        return scan(file, new String(Files.readAllBytes(file.toPath()),
+                                     FileOperations.DEFAULT_CHARSET));
+    }
+
+    /**
+     * Scan {@code text} as the content of {@code file}.
+     * @param file the file the symbols are reported in
+     * @param text the text
+     * @return the declarations in {@code text}, in order of appearance
+     */
+    public static List<Symbol> scan(File file, String text) {
+        var scanner = new JavaSymbolScanner(file, text);
+        scanner.scanDeclarations();
+        return scanner.symbols;
+    }
+
+    private JavaSymbolScanner(File file, String text) {
+        this.file = file;
+        this.text = text;
+    }
+
+    private void scanDeclarations() {
+        Member member = new Member();
+        Kind pendingKind = null;    // a class header is being read
+        String pendingName = null;
+        boolean previousWasDot = false;
+
+        while (next() != EOF) {
+            ClassContext current = classes.peek();
+            boolean atMemberLevel = current != null && depth == current.bodyDepth &&
+                pendingKind == null;
+
+            if (type == IDENTIFIER) {
+                String word = identifier;
+                boolean afterDot = previousWasDot;
+                previousWasDot = false;
+
+                if (depth == 0 && word.equals("package") && classes.isEmpty()) {
+                    int declLine = tokenLine, declColumn = tokenColumn;
+                    packageName = readQualifiedName();
+                    if (!packageName.isEmpty())
+                        add(packageName, Kind.PACKAGE, "", declLine, declColumn);
+                    continue;
+                }
+                if (depth == 0 && word.equals("import")) {
+                    skipPast(';');
+                    continue;
+                }
+                Kind kind = afterDot ? null : classKind(word);
+                if (kind != null && (kind != Kind.RECORD || peekIsIdentifier())) {
+                    if (next() != IDENTIFIER)
+                        continue;
+                    pendingKind = kind;
+                    pendingName = identifier;
+                    add(identifier, kind, containerName(), tokenLine, tokenColumn);
+                    continue;
+                }
+                if (atMemberLevel) {
+                    if (current.inEnumConstants && member.tokens == 0) {
+                        add(word, Kind.FIELD, current.name, tokenLine, tokenColumn);
+                        member.method = true;   // skip its arguments and body
+                    } else if (!KEYWORDS.contains(word)) {
+                        member.lastIdentifier = word;
+                        member.lastIdentifierToken = member.tokens;
+                        member.lastLine = tokenLine;
+                        member.lastColumn = tokenColumn;
+                    }
+                    member.tokens++;
+                }
+                continue;
+            }
+            if (type != PUNCTUATION) {
+                previousWasDot = false;
+                if (atMemberLevel)
+                    member.tokens++;
+                continue;
+            }
+
+            char c = punctuation;
+            previousWasDot = c == '.';
+            switch (c) {
+                case '@':
+                    skipAnnotation();
+                    continue;
+                case '{':
+                    depth++;
+                    if (pendingKind != null) {
+                        classes.push(new ClassContext(
+                            qualify(pendingName), pendingName, depth,
+                            pendingKind == Kind.ENUM));
+                        pendingKind = null;
+                    }
+                    member = new Member();
+                    continue;
+                case '}':
+                    if (current != null && depth == current.bodyDepth)
+                        classes.pop();
+                    if (depth > 0)
+                        depth--;
+                    member = new Member();
+                    continue;
+                case '(':
+                    if (pendingKind != null) {
+                        // Record components
+                        skipBalanced('(', ')');
+                    } else if (atMemberLevel) {
+                        if (!member.method && !current.inEnumConstants &&
+                            member.lastIsPrevious()) {
+                            add(member.lastIdentifier,
+                                member.lastIdentifier.equals(current.simpleName) ?
+                                Kind.CONSTRUCTOR : Kind.METHOD,
+                                current.name, member.lastLine, member.lastColumn);
+                        }
+                        // Parameters, or arguments of an enum constant
+                        member.method = true;
+                        skipBalanced('(', ')');
+                    }
+                    break;
+                case ';':
+                    if (atMemberLevel) {
+                        if (current.inEnumConstants)
+                            current.inEnumConstants = false;
+                        else
+                            addField(member, current);
+                        member = new Member();
+                    }
+                    continue;
+                case '=':
+                    if (atMemberLevel && !member.method && !current.inEnumConstants) {
+                        addField(member, current);
+                        // Skip the initializer, and go on with the next
+                        // field of the declaration if there is one
+                        if (skipInitializer() == ';')
+                            member = new Member();
+                        else
+                            member.lastIdentifier = null;
+                    }
+                    continue;
+                case ',':
+                    if (atMemberLevel) {
+                        if (current.inEnumConstants) {
+                            member = new Member();
+                            continue;
+                        }
+                        if (!member.method && member.angles == 0) {
+                            addField(member, current);
+                            member.lastIdentifier = null;
+                        }
+                    }
+                    break;
+                case '<':
+                    if (atMemberLevel)
+                        member.angles++;
+                    break;
+                case '>':
+                    if (atMemberLevel && member.angles > 0)
+                        member.angles--;
+                    break;
+                default:
+                    break;
+            }
+            if (atMemberLevel)
+                member.tokens++;
+        }
+    }
+
+    private void addField(Member member, ClassContext current) {
+        if (member.lastIdentifier != null && !member.method &&
+            member.lastIsPrevious())
+            add(member.lastIdentifier, Kind.FIELD, current.name,
+                member.lastLine, member.lastColumn);
+    }
+
+    private void add(String name, Kind kind, String container, int line, int column) {
+        symbols.add(new Symbol(name, kind, container, file, line, column));
+    }
+
+    private String containerName() {
+        return classes.isEmpty() ? packageName : classes.peek().name;
+    }
+
+    private String qualify(String simpleName) {
+        String container = containerName();
+        return container.isEmpty() ? simpleName : container + "." + simpleName;
+    }
+
+    private static Kind classKind(String word) {
+        switch (word) {
+            case "class":     return Kind.CLASS;
+            case "interface": return Kind.INTERFACE;
+            case "enum":      return Kind.ENUM;
+            case "record":    return Kind.RECORD;
+            default:          return null;
+        }
+    }
+
+    /**
+     * Read a dotted name, up to the next {@code ';'}.
+     */
+    private String readQualifiedName() {
+        var name = new StringBuilder();
+        while (next() != EOF) {
+            if (type == IDENTIFIER)
+                name.append(identifier);
+            else if (type == PUNCTUATION && punctuation == '.')
+                name.append('.');
+            else
+                break;
+        }
+        return name.toString();
+    }
+
+    /**
+     * Skip an annotation (the {@code '@'} has been read), or read the
+     * header of an annotation type.
+     */
+    private void skipAnnotation() {
+        if (next() != IDENTIFIER) {
+            pushBack();
+            return;
+        }
+        if (identifier.equals("interface")) {
+            // "@interface Name" declares an annotation type; let the main
+            // loop handle it like "interface Name", but as an annotation
+            if (next() == IDENTIFIER) {
+                add(identifier, Kind.ANNOTATION, containerName(), tokenLine, tokenColumn);
+                String name = identifier;
+                skipPastOpeningBrace();
+                classes.push(new ClassContext(qualify(name), name, depth, false));
+            }
+            return;
+        }
+        while (next() == PUNCTUATION && punctuation == '.')
+            if (next() != IDENTIFIER)
+                break;
+        if (type == PUNCTUATION && punctuation == '(')
+            skipBalanced('(', ')');
+        else
+            pushBack();
+    }
+
+    private void skipPastOpeningBrace() {
+        while (next() != EOF) {
+            if (type == PUNCTUATION && punctuation == '{') {
+                depth++;
+                return;
+            }
+        }
+    }
+
+    private void skipPast(char c) {
+        while (next() != EOF)
+            if (type == PUNCTUATION && punctuation == c)
+                return;
+    }
+
+    /**
+     * Skip to the matching {@code close}; the {@code open} has been read.
+     */
+    private void skipBalanced(char open, char close) {
+        int nesting = 1;
+        while (next() != EOF) {
+            if (type != PUNCTUATION)
+                continue;
+            if (punctuation == open)
+                nesting++;
+            else if (punctuation == close && --nesting == 0)
+                return;
+        }
+    }
+
+    /**
+     * Skip a field initializer, up to the {@code ','} or {@code ';'} ending
+     * it.
+     * @return the character ending the initializer
+     */
+    private char skipInitializer() {
+        int nesting = 0;
+        while (next() != EOF) {
+            if (type != PUNCTUATION)
+                continue;
+            switch (punctuation) {
+                case '(': case '[': case '{':
+                    nesting++;
+                    break;
+                case ')': case ']': case '}':
+                    if (--nesting < 0) {
+                        // Unbalanced; let the main loop see the brace
+                        pushBack();
+                        return ';';
+                    }
+                    break;
+                case ',': case ';':
+                    if (nesting == 0)
+                        return punctuation;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return ';';
+    }
+
+    private boolean peekIsIdentifier() {
+        int savedPos = pos, savedLine = line, savedLineStart = lineStart;
+        boolean result = next() == IDENTIFIER;
+        pos = savedPos;
+        line = savedLine;
+        lineStart = savedLineStart;
+        return result;
+    }
+
+    private void pushBack() {
+        pushedBack = true;
+    }
+
+    /**
+     * Read the next token.
+     * @return its type
+     */
+    private int next() {
+        if (pushedBack) {
+            pushedBack = false;
+            return type;
+        }
+        skipWhitespaceAndComments();
+        if (pos >= text.length())
+            return type = EOF;
+
+        tokenLine = line;
+        tokenColumn = pos - lineStart;
+        char c = text.charAt(pos);
+        if (Character.isJavaIdentifierStart(c)) {
+            int start = pos++;
+            while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos)))
+                pos++;
+            identifier = text.substring(start, pos);
+            return type = IDENTIFIER;
+        }
+        if (c >= '0' && c <= '9') {
+            while (pos < text.length() &&
+                   (Character.isLetterOrDigit(text.charAt(pos)) ||
+                    text.charAt(pos) == '.' || text.charAt(pos) == '_'))
+                pos++;
+            return type = LITERAL;
+        }
+        if (c == '"') {
+            skipString();
+            return type = LITERAL;
+        }
+        if (c == '\'') {
+            skipQuoted('\'');
+            return type = LITERAL;
+        }
+        pos++;
+        punctuation = c;
+        return type = PUNCTUATION;
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '\n') {
+                newLine(pos++);
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '/') {
+                while (pos < text.length() && text.charAt(pos) != '\n')
+                    pos++;
+            } else if (c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '*') {
+                int end = text.indexOf("*/", pos + 2);
+                end = end < 0 ? text.length() : end + 2;
+                countLines(pos, end);
+                pos = end;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipString() {
+        if (text.startsWith("\"\"\"", pos)) {
+            // Text block
+            int end = pos + 3;
+            while (true) {
+                end = text.indexOf("\"\"\"", end);
+                if (end < 0) {
+                    end = text.length();
+                    break;
+                }
+                if (text.charAt(end - 1) != '\\') {
+                    end += 3;
+                    break;
+                }
+                end++;
+            }
+            countLines(pos, end);
+            pos = end;
+        } else {
+            skipQuoted('"');
+        }
+    }
+
+    private void skipQuoted(char quote) {
+        pos++;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '\\')
+                pos += 2;
+            else if (c == quote) {
+                pos++;
+                return;
+            } else if (c == '\n') {
+                // Unterminated literal
+                return;
+            } else
+                pos++;
+        }
+    }
+
+    private void countLines(int from, int to) {
+        for (int i = from; i < to; i++)
+            if (text.charAt(i) == '\n')
+                newLine(i);
+    }
+
+    private void newLine(int newLinePos) {
+        line++;
+        lineStart = newLinePos + 1;
+    }
+
+    /**
+     * A class whose body is being scanned.
+     */
+    private static class ClassContext {
+        private final String name;          // qualified
+        private final String simpleName;
+        private final int bodyDepth;
+        private boolean inEnumConstants;
+
+        private ClassContext(String name, String simpleName, int bodyDepth,
+                             boolean isEnum) {
+            this.name = name;
+            this.simpleName = simpleName;
+            this.bodyDepth = bodyDepth;
+            this.inEnumConstants = isEnum;
+        }
+    }
+
+    /**
+     * The member declaration being scanned.
+     */
+    private static class Member {
+        private int tokens;
+        private int angles;
+        private boolean method;
+        private String lastIdentifier;
+        private int lastIdentifierToken;
+        private int lastLine;
+        private int lastColumn;
+
+        /**
+         * @return whether the last identifier is the last token read
+         */
+        private boolean lastIsPrevious() {
+            return lastIdentifier != null && lastIdentifierToken == tokens - 1;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package file;
+
+import java.util.*;
+
+/**
+ * Utility class to compare texts line by line.
+ *
+ * Lines are hashed into numbers first, equal lines to equal numbers, so
+ * that the diff itself only compares integers. The lines common to the
+ * start and the end are skipped; the rest is diffed by the O(ND)
+ * algorithm of Myers, which is fast when there are few differences. Past
+ * {@code MAX_EDITS} differences, the rest is taken as changed as a whole.
+ */
+public class LineDiff {
+    private static final int MAX_EDITS = 1000;
+
+    /**
+     * Lines {@code [oldStart, oldEnd)} of the old text, replaced by lines
+     * {@code [newStart, newEnd)} of the new one.
+     */
+    public static class Hunk {
+        public final int oldStart;
+        public final int oldEnd;
+        public final int newStart;
+        public final int newEnd;
+
+        public Hunk(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+    }
+
+    /**
+     * The characters {@code [offset, offset + length)} of the old text,
+     * replaced by {@code text}.
+     */
+    public static class Patch {
+        public final int offset;
+        public final int length;
+        public final String text;
+
+        public Patch(int offset, int length, String text) {
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The result of a three-way merge.
+     */
+    public static class Merge {
+        public final String text;
+        public final int conflicts;     // regions marked as in Git
+
+        public Merge(String text, int conflicts) {
+            this.text = text;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /**
+     * Split {@code text} into lines, each with its line terminator.
+     */
+    public static List<String> lines(String text) {
+        var lines = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length())
+            lines.add(text.substring(start));
+        return lines;
+    }
+
+    /**
+     * @return the hunks turning {@code oldLines} into {@code newLines}, in
+     * order
+     */
+    public static List<Hunk> diff(List<String> oldLines, List<String> newLines) {
+        // Equal lines get equal numbers
+        var numbers = new HashMap<String, Integer>();
+        int[] a = new int[oldLines.size()];
+        int[] b = new int[newLines.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = numbers.computeIfAbsent(oldLines.get(i), line -> numbers.size());
+        for (int i = 0; i < b.length; i++)
+            b[i] = numbers.computeIfAbsent(newLines.get(i), line -> numbers.size());
+
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && a[prefix] == b[prefix])
+            prefix++;
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix &&
+               a[a.length - 1 - suffix] == b[b.length - 1 - suffix])
+            suffix++;
+        int n = a.length - prefix - suffix;
+        int m = b.length - prefix - suffix;
+        var hunks = new ArrayList<Hunk>();
+        if (n == 0 && m == 0)
+            return hunks;
+        if (n == 0 || m == 0) {
+            hunks.add(new Hunk(prefix, prefix + n, prefix, prefix + m));
+            return hunks;
+        }
+
+        // The snakes of the shortest edit script, last first
+        var snakes = myers(a, b, prefix, n, m);
+        if (snakes == null) {
+            hunks.add(new Hunk(prefix, prefix + n, prefix, prefix + m));
+            return hunks;
+        }
+        int x = 0, y = 0;
+        for (int i = snakes.size() - 1; i >= 0; i--) {
+            int[] snake = snakes.get(i);
+            if (snake[0] > x || snake[1] > y)
+                hunks.add(new Hunk(prefix + x, prefix + snake[0], prefix + y, prefix + snake[1]));
+            x = snake[0] + snake[2];
+            y = snake[1] + snake[2];
+        }
+        if (x < n || y < m)
+            hunks.add(new Hunk(prefix + x, prefix + n, prefix + y, prefix + m));
+        return hunks;
+    }
+
+    /**
+     * Find the shortest edit script between {@code a} and {@code b}, from
+     * {@code offset} on, {@code n} and {@code m} lines long.
+     * @return the runs of equal lines, as {@code {x, y, length}}, last
+     * first; or {@code null} if there are more than {@code MAX_EDITS}
+     * differences
+     */
+    private static List<int[]> myers(int[] a, int[] b, int offset, int n, int m) {
+        // The furthest x reached on each diagonal k = x - y, after each d
+        var trace = new ArrayList<int[]>();
+        int[] previous = null;
+        int limit = Math.min(n + m, MAX_EDITS);
+        for (int d = 0; d <= limit; d++) {
+            int[] v = new int[2 * d + 1];
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0)
+                    x = 0;
+                else if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]))
+                    x = previous[k + 1 + d - 1];    // down: insert
+                else
+                    x = previous[k - 1 + d - 1] + 1;    // right: delete
+                int y = x - k;
+                while (x < n && y < m && a[offset + x] == b[offset + y]) {
+                    x++;
+                    y++;
+                }
+                v[k + d] = x;
+                if (x >= n && y >= m) {
+                    trace.add(v);
+                    return backtrack(trace, n, m);
+                }
+            }
+            trace.add(v);
+            previous = v;
+        }
+        return null;
+    }
+
+    private static List<int[]> backtrack(List<int[]> trace, int n, int m) {
+        var snakes = new ArrayList<int[]>();
+        int x = n, y = m;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            boolean down = k == -d ||
+                (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousX = previous[previousK + d - 1];
+            int startX = down ? previousX : previousX + 1;
+            int startY = startX - k;
+            if (x > startX)
+                snakes.add(new int[] {startX, startY, x - startX});
+            x = previousX;
+            y = previousX - previousK;
+        }
+        if (x > 0)
+            snakes.add(new int[] {0, 0, x});
+        return snakes;
+    }
+
+    /**
+     * @return the patches turning {@code oldText} into {@code newText},
+     * whole lines each, in order
+     */
+    public static List<Patch> patches(String oldText, String newText) {
+        var oldLines = lines(oldText);
+        var newLines = lines(newText);
+        int[] starts = new int[oldLines.size() + 1];
+        for (int i = 0; i < oldLines.size(); i++)
+            starts[i + 1] = starts[i] + oldLines.get(i).length();
+        var patches = new ArrayList<Patch>();
+        for (var hunk: diff(oldLines, newLines)) {
+            var text = new StringBuilder();
+            for (int i = hunk.newStart; i < hunk.newEnd; i++)
+                text.append(newLines.get(i));
+            patches.add(new Patch(starts[hunk.oldStart],
+                                  starts[hunk.oldEnd] - starts[hunk.oldStart],
+                                  text.toString()));
+        }
+        return patches;
+    }
+
+    /**
+     * Merge the changes from {@code base} to {@code mine} and those from
+     * {@code base} to {@code theirs}. Where both change the same lines
+     * differently, both versions are kept between conflict markers.
+     */
+    public static Merge merge(String base, String mine, String theirs) {
+        var baseLines = lines(base);
+        var myLines = lines(mine);
+        var theirLines = lines(theirs);
+        var myHunks = diff(baseLines, myLines);
+        var theirHunks = diff(baseLines, theirLines);
+        var text = new StringBuilder();
+        int conflicts = 0;
+        int position = 0;       // in base
+        int myDelta = 0, theirDelta = 0;
+        int i = 0, j = 0;
+        while (i < myHunks.size() || j < theirHunks.size()) {
+            // A region of base changed by either side, as far as their
+            // hunks overlap
+            boolean mineFirst = j == theirHunks.size() ||
+                (i < myHunks.size() && myHunks.get(i).oldStart <= theirHunks.get(j).oldStart);
+            var first = mineFirst ? myHunks.get(i) : theirHunks.get(j);
+            int start = first.oldStart, end = first.oldEnd;
+            int myStart = start + myDelta, theirStart = start + theirDelta;
+            boolean mineChanged = false, theirsChanged = false;
+            while (true) {
+                if (i < myHunks.size() && overlaps(myHunks.get(i), start, end)) {
+                    var hunk = myHunks.get(i++);
+                    end = Math.max(end, hunk.oldEnd);
+                    myDelta += (hunk.newEnd - hunk.newStart) - (hunk.oldEnd - hunk.oldStart);
+                    mineChanged = true;
+                } else if (j < theirHunks.size() && overlaps(theirHunks.get(j), start, end)) {
+                    var hunk = theirHunks.get(j++);
+                    end = Math.max(end, hunk.oldEnd);
+                    theirDelta += (hunk.newEnd - hunk.newStart) - (hunk.oldEnd - hunk.oldStart);
+                    theirsChanged = true;
+                } else {
+                    break;
+                }
+            }
+            append(text, baseLines, position, start);
+            position = end;
+            var myRegion = myLines.subList(myStart, end + myDelta);
+            var theirRegion = theirLines.subList(theirStart, end + theirDelta);
+            if (!theirsChanged || myRegion.equals(theirRegion)) {
+                append(text, myRegion, 0, myRegion.size());
+            } else if (!mineChanged) {
+                append(text, theirRegion, 0, theirRegion.size());
+            } else {
+                conflicts++;
+                text.append("<<<<<<< mine\n");
+                appendLines(text, myRegion);
+                text.append("=======\n");
+                appendLines(text, theirRegion);
+                text.append(">>>>>>> disk\n");
+            }
+        }
+        append(text, baseLines, position, baseLines.size());
+        return new Merge(text.toString(), conflicts);
+    }
+
+    /**
+     * @return whether {@code hunk} touches the lines {@code [start, end)}
+     * of base; insertions at the same line touch each other
+     */
+    private static boolean overlaps(Hunk hunk, int start, int end) {
+        return hunk.oldStart < end || hunk.oldStart == start;
+    }
+
+    private static void append(StringBuilder text, List<String> lines, int from, int to) {
+        for (int i = from; i < to; i++)
+            text.append(lines.get(i));
+    }
+
+    // Between conflict markers, the last line needs its terminator
+    private static void appendLines(StringBuilder text, List<String> lines) {
+        append(text, lines, 0, lines.size());
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n"))
+            text.append('\n');
+    }
+}
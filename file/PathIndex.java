@@ -0,0 +1,344 @@
+package file;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A {@code PathIndex} holds the relative paths of all files under a root
+ * directory, for fuzzy "Go to File" lookups.
+ *
+ * All paths are packed into a single {@code char[]} with an array of
+ * offsets, so that a million paths cost a few megabytes and no per-path
+ * objects. For every path we also keep a 64-bit mask of the characters it
+ * contains; a path whose mask does not cover the mask of the query cannot
+ * match, which rejects most paths with a single AND.
+ */
+public class PathIndex {
+    // Paths are scored in chunks of this size, in parallel
+    private static final int CHUNK_SIZE = 1 << 14;
+    // The most a single matched character can add to a score
+    private static final int MAX_CHAR_SCORE = 16;
+
+    private final char[] chars;
+    private final int[] offsets;    // path i is chars[offsets[i] .. offsets[i+1])
+    private final int[] nameOffsets;    // where the file name of path i starts
+    private final long[] masks;
+    private final int size;
+
+    private PathIndex(char[] chars, int[] offsets, int[] nameOffsets,
+                      long[] masks, int size) {
+        this.chars = chars;
+        this.offsets = offsets;
+        this.nameOffsets = nameOffsets;
+        this.masks = masks;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i index of a path
+     * @return the path, with {@code '/'} as separator
+     */
+    public String getPath(int i) {
+        return new String(chars, offsets[i], offsets[i + 1] - offsets[i]);
+    }
+
+    /**
+     * Find the paths matching {@code query} as a subsequence (ignoring
+     * case), and return the best {@code limit} of them.
+     *
+     * If {@code previous} is the result of a query that {@code query}
+     * extends, only the paths which matched it are looked at, so typing
+     * more characters makes searching faster rather than slower.
+     * @param query the query
+     * @param limit how many results to return at most
+     * @param previous the result of the previous query, or {@code null}
+     * @return the result
+     */
+    public Result search(String query, int limit, Result previous) {
+        char[] q = new char[query.length()];
+        long queryMask = 0;
+        for (int i = 0; i < q.length; i++) {
+            char c = query.charAt(i);
+            q[i] = c == '\\' ? '/' : toLowerCase(c);
+            queryMask |= maskOf(q[i]);
+        }
+        long mask = queryMask;
+
+        int[] domain = previous != null && previous.index == this &&
+            query.startsWith(previous.query) ? previous.matched : null;
+        int domainSize = domain == null ? size : domain.length;
+        int chunks = (domainSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        // Each chunk collects its matches and its own top results
+        var partials = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            int from = chunk * CHUNK_SIZE;
+            int to = Math.min(domainSize, from + CHUNK_SIZE);
+            var partial = new Partial(limit, to - from);
+            for (int k = from; k < to; k++) {
+                int i = domain == null ? k : domain[k];
+                if ((masks[i] & mask) != mask)
+                    continue;
+                int score = score(i, q);
+                if (score == Integer.MIN_VALUE)
+                    continue;
+                partial.matched[partial.matchedCount++] = i;
+                partial.top.offer(i, score);
+            }
+            return partial;
+        }).toArray(Partial[]::new);
+
+        int matchedCount = 0;
+        for (var partial: partials)
+            matchedCount += partial.matchedCount;
+        int[] matched = new int[matchedCount];
+        var top = new TopK(limit);
+        int k = 0;
+        for (var partial: partials) {
+            System.arraycopy(partial.matched, 0, matched, k, partial.matchedCount);
+            k += partial.matchedCount;
+            for (int j = 0; j < partial.top.count; j++)
+                top.offer(partial.top.items[j], partial.top.scores[j]);
+        }
+        return new Result(this, query, matched, top.sorted());
+    }
+
+    /**
+     * Score path {@code i} against the lower-case query {@code q}.
+     * Matches at the start of path segments and words, consecutive matches
+     * and matches in the file name score higher; long paths score lower.
+     * @return the score, or {@code Integer.MIN_VALUE} if {@code q} is not a
+     * subsequence of the path
+     */
+    private int score(int i, char[] q) {
+        int start = offsets[i];
+        int end = offsets[i + 1];
+        int nameStart = nameOffsets[i];
+
+        // A match entirely inside the file name gets a bonus larger than
+        // any match across directories can score, so those need not be
+        // looked for when there is one
+        int best = scoreFrom(nameStart, end, nameStart, q);
+        if (best != Integer.MIN_VALUE)
+            best += MAX_CHAR_SCORE * q.length;
+        else
+            best = scoreFrom(start, end, nameStart, q);
+        return best == Integer.MIN_VALUE ? best : best - (end - start) / 4;
+    }
+
+    private int scoreFrom(int start, int end, int nameStart, char[] q) {
+        int qi = 0;
+        int score = 0;
+        int last = -2;
+        for (int i = start; i < end && qi < q.length; i++) {
+            char c = chars[i];
+            if (toLowerCase(c) != q[qi])
+                continue;
+            int s = 1;
+            char previous = i > start ? chars[i - 1] : '/';
+            if (i == last + 1)
+                s += 5;
+            if (previous == '/')
+                s += 8;
+            else if (previous == '.' || previous == '_' || previous == '-' ||
+                     previous == ' ')
+                s += 6;
+            else if (Character.isUpperCase(c) && !Character.isUpperCase(previous))
+                s += 6;
+            if (i >= nameStart)
+                s += 2;
+            score += s;
+            last = i;
+            qi++;
+        }
+        return qi == q.length ? score : Integer.MIN_VALUE;
+    }
+
+    private static char toLowerCase(char c) {
+        if (c < 0x80)
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(c);
+    }
+
+    private static long maskOf(char c) {
+        c = toLowerCase(c);
+        if (c >= 'a' && c <= 'z')
+            return 1L << (c - 'a');
+        if (c >= '0' && c <= '9')
+            return 1L << (26 + c - '0');
+        switch (c) {
+            case '.': return 1L << 36;
+            case '_': return 1L << 37;
+            case '-': return 1L << 38;
+            case '/': return 1L << 39;
+            case ' ': return 1L << 40;
+            default:  return 1L << (41 + c % 23);
+        }
+    }
+
+    /**
+     * The result of a search.
+     */
+    public static class Result {
+        private final PathIndex index;
+        private final String query;
+        private final int[] matched;    // every matching path, ascending
+        public final int[] top;         // best paths, best first
+
+        private Result(PathIndex index, String query, int[] matched, int[] top) {
+            this.index = index;
+            this.query = query;
+            this.matched = matched;
+            this.top = top;
+        }
+
+        /**
+         * @return how many paths matched
+         */
+        public int getMatchCount() {
+            return matched.length;
+        }
+    }
+
+    private static class Partial {
+        private final int[] matched;
+        private int matchedCount;
+        private final TopK top;
+
+        private Partial(int limit, int capacity) {
+            matched = new int[capacity];
+            top = new TopK(limit);
+        }
+    }
+
+    /**
+     * A bounded min-heap keeping the {@code limit} best-scoring items.
+     */
+    private static class TopK {
+        private final int[] items;
+        private final int[] scores;
+        private int count;
+
+        private TopK(int limit) {
+            items = new int[limit];
+            scores = new int[limit];
+        }
+
+        private void offer(int item, int score) {
+            if (items.length == 0)
+                return;
+            if (count < items.length) {
+                items[count] = item;
+                scores[count] = score;
+                siftUp(count++);
+            } else if (better(score, item, scores[0], items[0])) {
+                items[0] = item;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        // Ties are broken by index, so that results are stable
+        private static boolean better(int s1, int i1, int s2, int i2) {
+            return s1 > s2 || (s1 == s2 && i1 < i2);
+        }
+
+        private void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (!better(scores[parent], items[parent], scores[k], items[k]))
+                    break;
+                swap(k, parent);
+                k = parent;
+            }
+        }
+
+        private void siftDown(int k) {
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= count)
+                    break;
+                if (child + 1 < count &&
+                    better(scores[child], items[child], scores[child + 1], items[child + 1]))
+                    child++;
+                if (!better(scores[k], items[k], scores[child], items[child]))
+                    break;
+                swap(k, child);
+                k = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int item = items[a];
+            items[a] = items[b];
+            items[b] = item;
+            int score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+
+        /**
+         * @return the items, best first; the heap is emptied
+         */
+        private int[] sorted() {
+            int[] result = new int[count];
+            for (int k = count - 1; k >= 0; k--) {
+                result[k] = items[0];
+                swap(0, --count);
+                siftDown(0);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Builds a {@code PathIndex}, one path at a time.
+     */
+    public static class Builder {
+        private char[] chars = new char[1 << 12];
+        private int[] offsets = new int[1 << 8];
+        private int[] nameOffsets = new int[1 << 8];
+        private long[] masks = new long[1 << 8];
+        private int size;
+        private int length;
+
+        /**
+         * Add {@code path}, relative to the root.
+         */
+        public void add(String path) {
+            if (size + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                nameOffsets = Arrays.copyOf(nameOffsets, nameOffsets.length * 2);
+                masks = Arrays.copyOf(masks, masks.length * 2);
+            }
+            if (length + path.length() > chars.length)
+                chars = Arrays.copyOf(chars,
+                    Math.max(chars.length * 2, length + path.length()));
+            long mask = 0;
+            int nameOffset = length;
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c == '\\')
+                    c = '/';
+                if (c == '/')
+                    nameOffset = length + i + 1;
+                chars[length + i] = c;
+                mask |= maskOf(c);
+            }
+            nameOffsets[size] = nameOffset;
+            masks[size] = mask;
+            length += path.length();
+            offsets[++size] = length;
+        }
+
+        public PathIndex build() {
+            return new PathIndex(Arrays.copyOf(chars, length),
+                                 Arrays.copyOf(offsets, size + 1),
+                                 Arrays.copyOf(nameOffsets, size),
+                                 Arrays.copyOf(masks, size), size);
+        }
+    }
+}
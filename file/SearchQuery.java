@@ -0,0 +1,47 @@
+package file;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * What to search for, in a document or in files.
+ */
+public class SearchQuery {
+    public final String pattern;
+    public final boolean regex;
+    public final boolean wholeWord;
+    public final boolean matchCase;
+
+    public SearchQuery(String pattern, boolean regex, boolean wholeWord,
+                       boolean matchCase) {
+        this.pattern = Objects.requireNonNull(pattern);
+        this.regex = regex;
+        this.wholeWord = wholeWord;
+        this.matchCase = matchCase;
+    }
+
+    /**
+     * @return the regex {@code Pattern} of the query, the pattern being
+     * quoted unless it is a regex
+     * @throws PatternSyntaxException if the pattern is an invalid regex
+     */
+    public Pattern compile() {
+        String regexPattern = regex ? pattern : Pattern.quote(pattern);
+        if (wholeWord)
+            regexPattern = "\\b(?:" + regexPattern + ")\\b";
+        return Pattern.compile(regexPattern, matchCase ?
+            0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    public boolean equals(Object other) {
+        if (!(other instanceof SearchQuery))
+            return false;
+        var query = (SearchQuery) other;
+        return pattern.equals(query.pattern) && regex == query.regex &&
+            wholeWord == query.wholeWord && matchCase == query.matchCase;
+    }
+
+    public int hashCode() {
+        return Objects.hash(pattern, regex, wholeWord, matchCase);
+    }
+}
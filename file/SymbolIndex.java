@@ -0,0 +1,448 @@
+package file;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * A {@code SymbolIndex} holds the declarations (packages, classes, methods
+ * and fields) of every Java file under a root directory, for "Go to
+ * Symbol". Files are scanned by a {@code JavaSymbolScanner} in the
+ * background, and scanned again when the {@code FileWatcher} reports that
+ * they changed.
+ *
+ * Symbols are kept in two immutable arrays, one sorted by name and one
+ * sorted by camel-hump initials (e.g. "tep" for {@code TextEditorPanel}),
+ * so that both kinds of query are binary searches. An update builds new
+ * arrays by merging and swaps them in at once; readers never lock.
+ */
+public class SymbolIndex implements FileWatcher.Listener {
+    // Larger files are not scanned; they are hardly hand-written
+    private static final long MAX_SCANNED_FILE_SIZE = 4 << 20;
+    // How many hump candidates are checked for a single query at most
+    private static final int MAX_HUMP_CANDIDATES = 4096;
+    private static final HashMap<File, SymbolIndex> indexes = new HashMap<>();
+
+    private final File root;
+    private final Path rootPath;
+    private final ExecutorService updater;
+    private final Set<Path> pendingUpdates = ConcurrentHashMap.newKeySet();
+    private final CopyOnWriteArrayList<Listener> listeners
+        = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot = new Snapshot(new Symbol[0], new Symbol[0]);
+    private volatile boolean ready;
+
+    /**
+     * Get the index of {@code root}. The first call for a root starts
+     * scanning its files in the background.
+     * @param root the root directory
+     * @return the index of {@code root}
+     * @throws IOException if the canonical path of {@code root} cannot be
+     * found
+     */
+    public static SymbolIndex forRoot(File root) throws IOException {
+        File key = root.getCanonicalFile();
+        synchronized (indexes) {
+            SymbolIndex index = indexes.get(key);
+            if (index == null) {
+                index = new SymbolIndex(key);
+                indexes.put(key, index);
+                index.start();
+            }
+            return index;
+        }
+    }
+
+    private SymbolIndex(File root) {
+        this.root = root;
+        this.rootPath = root.toPath();
+        updater = Executors.newSingleThreadExecutor(r -> {
+            var thread = new Thread(r, "SymbolIndex " + root.getName());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    private void start() {
+        updater.execute(() -> {
+            try {
+                var watcher = FileWatcher.getShared();
+                watcher.addListener(this);
+                watcher.watchTree(rootPath);
+            } catch (IOException ex) {
+                // Work without updates
+            }
+            rebuild();
+            ready = true;
+        });
+    }
+
+    /**
+     * A {@code Listener} is told which symbols were removed from and added
+     * to the index, on the thread updating the index.
+     */
+    public interface Listener {
+        void symbolsChanged(List<Symbol> removed, List<Symbol> added);
+    }
+
+    /**
+     * Add {@code listener}. It is first told about all symbols already in
+     * the index, as if they had just been added.
+     */
+    public void addListener(Listener listener) {
+        updater.execute(() -> {
+            listeners.add(listener);
+            listener.symbolsChanged(List.of(), List.of(snapshot.byName));
+        });
+    }
+
+    /**
+     * Remove {@code listener}. It is last told about all symbols in the
+     * index, as if they had just been removed.
+     */
+    public void removeListener(Listener listener) {
+        updater.execute(() -> {
+            if (listeners.remove(listener))
+                listener.symbolsChanged(List.of(snapshot.byName), List.of());
+        });
+    }
+
+    /**
+     * Run {@code action} on the thread updating the index once all files
+     * have been scanned once, or soon if they have.
+     */
+    public void whenReady(Runnable action) {
+        // Queued behind the first scan
+        updater.execute(action);
+    }
+
+    /**
+     * @return whether all files have been scanned once
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return how many symbols are in the index
+     */
+    public int size() {
+        return snapshot.byName.length;
+    }
+
+    /**
+     * Find symbols whose name starts with {@code query} (ignoring case), or
+     * whose camel humps start with the humps of {@code query}: "TEP",
+     * "tep" and "TeEdP" all find {@code TextEditorPanel}. Name matches come
+     * first; exact matches come before all others.
+     * @param query the query
+     * @param limit how many symbols to return at most
+     * @return the symbols found
+     */
+    public List<Symbol> search(String query, int limit) {
+        var results = new ArrayList<Symbol>();
+        query = query.strip();
+        if (query.isEmpty() || limit <= 0)
+            return results;
+        Snapshot current = snapshot;
+        String lowerQuery = query.toLowerCase();
+
+        // Prefix matches, exact ones first
+        int from = lowerBound(current.byName, lowerQuery, false);
+        int to = from;
+        while (to < current.byName.length &&
+               current.byName[to].lowerName.startsWith(lowerQuery))
+            to++;
+        for (int i = from; i < to && results.size() < limit; i++)
+            if (current.byName[i].lowerName.length() == lowerQuery.length())
+                results.add(current.byName[i]);
+        for (int i = from; i < to && results.size() < limit; i++)
+            if (current.byName[i].lowerName.length() != lowerQuery.length())
+                results.add(current.byName[i]);
+
+        // Camel-hump matches
+        String[] pieces = humpsOf(query, true);
+        var initials = new StringBuilder();
+        for (String piece: pieces)
+            initials.append(piece.charAt(0));
+        String key = initials.toString();
+        int checked = 0;
+        for (int i = lowerBound(current.byHumps, key, true);
+             i < current.byHumps.length && results.size() < limit &&
+             checked < MAX_HUMP_CANDIDATES; i++, checked++) {
+            Symbol symbol = current.byHumps[i];
+            if (!symbol.humps.startsWith(key))
+                break;
+            if (!symbol.lowerName.startsWith(lowerQuery) &&
+                matchesHumps(humpsOf(symbol.name, false), pieces))
+                results.add(symbol);
+        }
+        return results;
+    }
+
+    private static boolean matchesHumps(String[] nameHumps, String[] pieces) {
+        if (pieces.length > nameHumps.length)
+            return false;
+        for (int i = 0; i < pieces.length; i++)
+            if (!nameHumps[i].startsWith(pieces[i]))
+                return false;
+        return true;
+    }
+
+    /**
+     * Split {@code name} into lower-case humps: "TextEditorPanel" gives
+     * "text", "editor", "panel"; "MAX_SIZE" gives "max", "size". A query
+     * in a single case like "tep" or "TEP" gives "t", "e", "p", and every
+     * capital starts a hump in other queries.
+     */
+    private static String[] humpsOf(String name, boolean isQuery) {
+        var humps = new ArrayList<String>();
+        boolean charPerHump = isQuery &&
+            (name.equals(name.toLowerCase()) || name.equals(name.toUpperCase())) &&
+            name.indexOf('_') < 0 && name.indexOf('.') < 0;
+        int start = -1;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_' || c == '.' || c == '$') {
+                if (start >= 0)
+                    humps.add(name.substring(start, i).toLowerCase());
+                start = -1;
+                continue;
+            }
+            boolean boundary = start < 0;
+            if (!boundary && i > 0) {
+                char previous = name.charAt(i - 1);
+                if (charPerHump || (isQuery && Character.isUpperCase(c)))
+                    boundary = true;
+                else if (Character.isUpperCase(c) && !Character.isUpperCase(previous))
+                    boundary = true;
+                else if (Character.isUpperCase(c) && i + 1 < name.length() &&
+                         Character.isLowerCase(name.charAt(i + 1)))
+                    boundary = true;    // the "P" of "XMLParser"
+            }
+            if (boundary) {
+                if (start >= 0)
+                    humps.add(name.substring(start, i).toLowerCase());
+                start = i;
+            }
+        }
+        if (start >= 0)
+            humps.add(name.substring(start).toLowerCase());
+        if (humps.isEmpty())
+            humps.add(name.toLowerCase());
+        return humps.toArray(new String[0]);
+    }
+
+    private static String initialsOf(String name) {
+        var initials = new StringBuilder();
+        for (String hump: humpsOf(name, false))
+            initials.append(hump.charAt(0));
+        return initials.toString();
+    }
+
+    private static int lowerBound(Symbol[] symbols, String key, boolean byHumps) {
+        int low = 0, high = symbols.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            String value = byHumps ? symbols[middle].humps : symbols[middle].lowerName;
+            if (value.compareTo(key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Scan every Java file from scratch. Runs on the updater thread.
+     */
+    private void rebuild() {
+        var symbols = new ArrayList<Symbol>();
+        var enumerator = new FileEnumerator(root);
+        FileEnumerator.DirectoryListData data;
+        while ((data = enumerator.enumerate()) != null)
+            for (File child: data.children)
+                if (isJavaFile(child.toPath()))
+                    symbols.addAll(scan(child));
+        var removed = List.of(snapshot.byName);
+        snapshot = Snapshot.of(symbols);
+        notifyListeners(removed, symbols);
+    }
+
+    private static List<Symbol> scan(File file) {
+        if (!file.isFile() || file.length() > MAX_SCANNED_FILE_SIZE)
+            return List.of();
+        try {
+            return JavaSymbolScanner.scan(file);
+        } catch (IOException ex) {
+            return List.of();
+        }
+    }
+
+    private static boolean isJavaFile(Path path) {
+        return path.getFileName() != null &&
+            path.getFileName().toString().endsWith(".java");
+    }
+
+    /**
+     * Replace the symbols of the files matched by {@code removed} with
+     * {@code added}. Runs on the updater thread.
+     */
+    private void replace(Predicate<Symbol> removed, List<Symbol> added) {
+        var removedSymbols = new ArrayList<Symbol>();
+        snapshot = snapshot.replace(removed, added, removedSymbols);
+        notifyListeners(removedSymbols, added);
+    }
+
+    private void notifyListeners(List<Symbol> removed, List<Symbol> added) {
+        if (removed.isEmpty() && added.isEmpty())
+            return;
+        for (var listener: listeners) {
+            try {
+                listener.symbolsChanged(removed, added);
+            } catch (RuntimeException ex) {
+                // A broken listener must not stop the index
+            }
+        }
+    }
+
+    public void fileChanged(Path path, FileWatcher.Change change) {
+        if (change == FileWatcher.Change.OVERFLOW) {
+            if (path.startsWith(rootPath))
+                updater.execute(this::rebuild);
+            return;
+        }
+        if (!path.startsWith(rootPath) ||
+            path.startsWith(FileOperations.JCODE_HOME.toPath()))
+            return;
+        // Coalesce bursts of events on the same file
+        if (!pendingUpdates.add(path))
+            return;
+        updater.execute(() -> {
+            pendingUpdates.remove(path);
+            File file = path.toFile();
+            if (file.isDirectory()) {
+                if (change == FileWatcher.Change.CREATED) {
+                    var added = new ArrayList<Symbol>();
+                    var enumerator = new FileEnumerator(file);
+                    FileEnumerator.DirectoryListData data;
+                    while ((data = enumerator.enumerate()) != null)
+                        for (File child: data.children)
+                            if (isJavaFile(child.toPath()))
+                                added.addAll(scan(child));
+                    replace(symbol -> symbol.file.toPath().startsWith(path), added);
+                }
+            } else if (change == FileWatcher.Change.DELETED) {
+                // A file, or a whole directory
+                replace(symbol -> symbol.file.toPath().startsWith(path), List.of());
+            } else if (isJavaFile(path)) {
+                replace(symbol -> symbol.file.equals(file), scan(file));
+            }
+        });
+    }
+
+    /**
+     * An immutable view of the index.
+     */
+    private static class Snapshot {
+        private static final Comparator<Symbol> BY_NAME =
+            Comparator.comparing((Symbol symbol) -> symbol.lowerName)
+                      .thenComparing(symbol -> symbol.name);
+        private static final Comparator<Symbol> BY_HUMPS =
+            Comparator.comparing((Symbol symbol) -> symbol.humps)
+                      .thenComparing(BY_NAME);
+
+        private final Symbol[] byName;
+        private final Symbol[] byHumps;
+
+        private Snapshot(Symbol[] byName, Symbol[] byHumps) {
+            this.byName = byName;
+            this.byHumps = byHumps;
+        }
+
+        private static Snapshot of(List<Symbol> symbols) {
+            Symbol[] byName = symbols.toArray(new Symbol[0]);
+            Symbol[] byHumps = byName.clone();
+            Arrays.parallelSort(byName, BY_NAME);
+            Arrays.parallelSort(byHumps, BY_HUMPS);
+            return new Snapshot(byName, byHumps);
+        }
+
+        /**
+         * @param removedSymbols receives the symbols removed
+         */
+        private Snapshot replace(Predicate<Symbol> removed, List<Symbol> added,
+                                 List<Symbol> removedSymbols) {
+            for (Symbol symbol: byName)
+                if (removed.test(symbol))
+                    removedSymbols.add(symbol);
+            Symbol[] sorted = added.toArray(new Symbol[0]);
+            Arrays.sort(sorted, BY_NAME);
+            Symbol[] byName = merge(this.byName, removed, sorted, BY_NAME);
+            Arrays.sort(sorted, BY_HUMPS);
+            Symbol[] byHumps = merge(this.byHumps, removed, sorted, BY_HUMPS);
+            return new Snapshot(byName, byHumps);
+        }
+
+        /**
+         * Merge the symbols of {@code old} not matched by {@code removed}
+         * with {@code added}; both are sorted by {@code order}.
+         */
+        private static Symbol[] merge(Symbol[] old, Predicate<Symbol> removed,
+                                      Symbol[] added, Comparator<Symbol> order) {
+            var result = new Symbol[old.length + added.length];
+            int i = 0, j = 0, k = 0;
+            while (i < old.length || j < added.length) {
+                if (i < old.length && removed.test(old[i])) {
+                    i++;
+                } else if (j == added.length ||
+                           (i < old.length && order.compare(old[i], added[j]) <= 0)) {
+                    result[k++] = old[i++];
+                } else {
+                    result[k++] = added[j++];
+                }
+            }
+            return Arrays.copyOf(result, k);
+        }
+    }
+
+    /**
+     * A declaration in a Java file.
+     */
+    public static class Symbol {
+        public enum Kind {
+            PACKAGE, CLASS, INTERFACE, ENUM, RECORD, ANNOTATION,
+            CONSTRUCTOR, METHOD, FIELD
+        }
+
+        public final String name;
+        public final Kind kind;
+        public final String container;  // enclosing class or package
+        public final File file;
+        public final int line;      // 1-based
+        public final int column;    // 0-based
+        private final String lowerName;
+        private final String humps;
+
+        public Symbol(String name, Kind kind, String container, File file,
+                      int line, int column) {
+            this.name = name;
+            this.kind = kind;
+            this.container = container;
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.lowerName = name.toLowerCase();
+            this.humps = initialsOf(name);
+        }
+
+        public String toString() {
+            String kindName = kind.name().toLowerCase();
+            return container.isEmpty() ? name + "  (" + kindName + ")" :
+                name + "  (" + kindName + " in " + container + ")";
+        }
+    }
+}
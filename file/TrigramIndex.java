@@ -0,0 +1,1028 @@
+package file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * A {@code TrigramIndex} maps every trigram (three consecutive bytes, with
+ * ASCII letters folded to lower case) to the list of text files under a
+ * root directory containing it. A query can only match in files containing
+ * all trigrams of the literal text the query requires, so the index narrows
+ * a search down to a few candidate files, which are then searched as usual.
+ *
+ * Posting lists are delta-encoded as varints and laid end to end, sorted
+ * by trigram. The index is saved in the workspace data directory, and the
+ * lists are read from there through a memory mapping rather than kept on
+ * the heap; on the next start, the index is loaded again and brought up
+ * to date by comparing file sizes and modification times.
+ *
+ * Changes reported by the {@code FileWatcher} are not written into the
+ * compressed lists. Instead, changed files are put into a small overlay
+ * (and their old entries are marked as removed); the overlay is merged
+ * into the lists once it grows large enough.
+ */
+public class TrigramIndex implements FileWatcher.Listener {
+    private static final int MAGIC = 0x4A545249;    // "JTRI"
+    private static final int FORMAT_VERSION = 2;
+    private static final String INDEX_FILE_NAME = "trigram.idx";
+    // Larger files are not indexed, and are always candidates
+    private static final long MAX_INDEXED_FILE_SIZE = 16 << 20;
+    private static final int BUILD_BATCH_SIZE = 256;
+    private static final int COMPACTION_THRESHOLD = 1024;
+    // Posting lists are mapped in segments of 2^SEGMENT_BITS bytes, after
+    // the magic number and the version
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final long POSTINGS_START = 8;
+    private static final int[] UNINDEXED = new int[0];
+    private static final HashMap<File, TrigramIndex> indexes = new HashMap<>();
+    private static final ThreadLocal<TrigramSet> trigramSets =
+        ThreadLocal.withInitial(TrigramSet::new);
+
+    private final File root;
+    private final Path rootPath;
+    private final File indexFile;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService updater;
+    private final Set<Path> pendingUpdates = ConcurrentHashMap.newKeySet();
+    // Set once the index agrees with the files on disk
+    private volatile boolean ready;
+
+    // Guarded by {@code lock}
+    private Snapshot base;
+    private final HashMap<String, Scanned> overlay = new HashMap<>();
+    private final HashSet<Integer> removed = new HashSet<>();
+
+    /**
+     * Get the index of {@code root}. The first call for a root starts
+     * loading (or building) the index in the background; the index cannot
+     * narrow searches until that is done.
+     * @param root the root directory
+     * @return the index of {@code root}
+     * @throws IOException if the data directory cannot be created
+     */
+    public static TrigramIndex forRoot(File root) throws IOException {
+        File key = root.getCanonicalFile();
+        synchronized (indexes) {
+            TrigramIndex index = indexes.get(key);
+            if (index == null) {
+                index = new TrigramIndex(key, new File(
+                    FileOperations.getWorkspaceDataDirectory(key), INDEX_FILE_NAME));
+                indexes.put(key, index);
+                index.start();
+            }
+            return index;
+        }
+    }
+
+    private TrigramIndex(File root, File indexFile) {
+        this.root = root;
+        this.rootPath = root.toPath();
+        this.indexFile = indexFile;
+        updater = Executors.newSingleThreadExecutor(r -> {
+            var thread = new Thread(r, "TrigramIndex " + root.getName());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    private void start() {
+        // Changes reported from now on are queued behind the load or the
+        // build, so they are applied to the new base rather than dropped
+        updater.execute(() -> {
+            try {
+                var watcher = FileWatcher.getShared();
+                watcher.addListener(this);
+                watcher.watchTree(rootPath);
+            } catch (IOException ex) {
+                // Work without updates
+            }
+            Snapshot loaded = null;
+            try {
+                loaded = load();
+            } catch (IOException ex) {
+                // Corrupt or outdated index, build a new one
+            }
+            if (loaded != null) {
+                setBase(loaded);
+                refresh();
+            } else {
+                rebuild();
+            }
+            ready = true;
+        });
+    }
+
+    /**
+     * @return whether the index can be used to narrow searches
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Find the files which may contain a match of {@code query}.
+     * @param query the query
+     * @return candidate files, or {@code null} if the index cannot narrow
+     * the search (it is not ready, or the query requires no literal text
+     * of at least three characters)
+     */
+    public List<File> candidates(SearchQuery query) {
+        if (!ready)
+            return null;
+        List<String> literals = query.regex ?
+            requiredLiterals(query.pattern) : List.of(query.pattern);
+        if (literals == null)
+            return null;
+        boolean ignoreCase = !query.matchCase ||
+            (query.regex && query.pattern.matches("(?s).*\\(\\?[a-zA-Z]*[iu].*"));
+        int[] keys = trigramsOf(literals, ignoreCase);
+        if (keys.length == 0)
+            return null;
+
+        var result = new ArrayList<File>();
+        lock.readLock().lock();
+        try {
+            // Intersect posting lists, shortest first
+            Integer[] order = new Integer[keys.length];
+            int[] counts = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                order[i] = i;
+                counts[i] = base.count(keys[i]);
+            }
+            Arrays.sort(order, Comparator.comparingInt(i -> counts[i]));
+            int[] ids = base.postings(keys[order[0]]);
+            for (int i = 1; i < order.length && ids.length > 0; i++)
+                ids = intersect(ids, base.postings(keys[order[i]]));
+
+            for (int id: ids)
+                if (!removed.contains(id))
+                    result.add(new File(root, base.paths[id]));
+            for (int id = base.unindexed.nextSetBit(0); id >= 0;
+                 id = base.unindexed.nextSetBit(id + 1))
+                if (!removed.contains(id))
+                    result.add(new File(root, base.paths[id]));
+
+            for (var entry: overlay.entrySet()) {
+                int[] trigrams = entry.getValue().trigrams;
+                if (trigrams == UNINDEXED || containsAll(trigrams, keys))
+                    result.add(new File(root, entry.getKey()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Find literal strings that every match of {@code regex} must contain.
+     * This is conservative: only literals outside of groups, character
+     * classes and optional parts are taken, and any alternation gives up.
+     * @param regex the regex
+     * @return the required literals, or {@code null} if none can be found
+     */
+    static List<String> requiredLiterals(String regex) {
+        if (regex.indexOf('|') >= 0 || regex.matches("(?s).*\\(\\?[a-zA-Z-]*x.*"))
+            return null;
+        var literals = new ArrayList<String>();
+        var run = new StringBuilder();
+        int depth = 0;
+        int n = regex.length();
+        for (int i = 0; i < n; i++) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= n)
+                        break;
+                    char next = regex.charAt(++i);
+                    if (next == 'Q') {
+                        int end = regex.indexOf("\\E", i + 1);
+                        if (depth == 0)
+                            run.append(regex, i + 1, end < 0 ? n : end);
+                        i = end < 0 ? n : end + 1;
+                    } else if (!Character.isLetterOrDigit(next)) {
+                        if (depth == 0)
+                            run.append(next);
+                    } else {
+                        // A character class like {@code \w}, a boundary, or
+                        // a character given by its code: skipped as a whole
+                        i = escapeEnd(regex, i);
+                        if (i < 0)
+                            return null;
+                        flush(run, literals);
+                    }
+                    break;
+                case '(':
+                    flush(run, literals);
+                    depth++;
+                    break;
+                case ')':
+                    flush(run, literals);
+                    depth = Math.max(0, depth - 1);
+                    break;
+                case '[':
+                    flush(run, literals);
+                    // Skip the character class
+                    int j = i + 1;
+                    if (j < n && regex.charAt(j) == '^')
+                        j++;
+                    if (j < n && regex.charAt(j) == ']')
+                        j++;
+                    int nesting = 1;
+                    for (; j < n && nesting > 0; j++) {
+                        char d = regex.charAt(j);
+                        if (d == '\\')
+                            j++;
+                        else if (d == '[')
+                            nesting++;
+                        else if (d == ']')
+                            nesting--;
+                    }
+                    i = j - 1;
+                    break;
+                case '*':
+                case '?':
+                    // The preceding character is optional
+                    if (run.length() > 0)
+                        run.setLength(run.length() - 1);
+                    flush(run, literals);
+                    break;
+                case '{':
+                    int close = regex.indexOf('}', i);
+                    if (close < 0)
+                        return null;
+                    if (regex.startsWith("0", i + 1) && run.length() > 0)
+                        run.setLength(run.length() - 1);
+                    flush(run, literals);
+                    i = close;
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    flush(run, literals);
+                    break;
+                default:
+                    if (depth == 0)
+                        run.append(c);
+                    else
+                        flush(run, literals);
+            }
+        }
+        flush(run, literals);
+        return literals.isEmpty() ? null : literals;
+    }
+
+    /**
+     * Find the end of the escape whose letter or digit is at {@code i},
+     * e.g. of {@code \x{1F600}} or {@code \p{Lu}}.
+     * @return the index of its last character, or -1 if it cannot be
+     * told: the number of a back reference may go on into the digits
+     * after it
+     */
+    private static int escapeEnd(String regex, int i) {
+        int n = regex.length();
+        boolean braced = i + 1 < n && regex.charAt(i + 1) == '{';
+        switch (regex.charAt(i)) {
+            case 'x':
+                return braced ? regex.indexOf('}', i) : Math.min(i + 2, n - 1);
+            case 'u':
+                return Math.min(i + 4, n - 1);
+            case '0':
+                // Up to three octal digits, of which the first of three
+                // is at most 3
+                int max = i + 1 < n && regex.charAt(i + 1) <= '3' ? 3 : 2;
+                int end = i;
+                while (end - i < max && end + 1 < n &&
+                       regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7')
+                    end++;
+                return end;
+            case 'c':
+                return Math.min(i + 1, n - 1);
+            case 'k':
+                return i + 1 < n && regex.charAt(i + 1) == '<' ? regex.indexOf('>', i) : -1;
+            case 'p':
+            case 'P':
+                return braced ? regex.indexOf('}', i) : Math.min(i + 1, n - 1);
+            case 'N':
+            case 'b':
+                return braced ? regex.indexOf('}', i) : i;
+            default:
+                return Character.isDigit(regex.charAt(i)) ? -1 : i;
+        }
+    }
+
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() >= 3)
+            literals.add(run.toString());
+        run.setLength(0);
+    }
+
+    /**
+     * @return sorted distinct trigrams of {@code literals}; trigrams with
+     * non-ASCII bytes are skipped if {@code ignoreCase}, since only ASCII
+     * letters are folded in the index
+     */
+    private static int[] trigramsOf(List<String> literals, boolean ignoreCase) {
+        var set = new TreeSet<Integer>();
+        for (String literal: literals) {
+            byte[] bytes = literal.getBytes(FileOperations.DEFAULT_CHARSET);
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                if (ignoreCase && (bytes[i] < 0 || bytes[i + 1] < 0 || bytes[i + 2] < 0))
+                    continue;
+                set.add(trigram(bytes[i], bytes[i + 1], bytes[i + 2]));
+            }
+        }
+        return set.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int trigram(byte b0, byte b1, byte b2) {
+        return (fold(b0) & 0xFF) << 16 | (fold(b1) & 0xFF) << 8 | (fold(b2) & 0xFF);
+    }
+
+    private static byte fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                result[k++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    private static boolean containsAll(int[] sorted, int[] keys) {
+        for (int key: keys)
+            if (Arrays.binarySearch(sorted, key) < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Extract the sorted distinct trigrams of {@code file}.
+     * @return the trigrams, {@code UNINDEXED} if the file is too large to be
+     * indexed, or {@code null} if it is not a readable text file
+     */
+    private static int[] trigramsOf(File file) {
+        try {
+            long size = file.length();
+            if (!file.isFile() || !FileOperations.isTextFile(file))
+                return null;
+            if (size > MAX_INDEXED_FILE_SIZE)
+                return UNINDEXED;
+            if (size < 3)
+                return new int[0];
+            try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                TrigramSet set = trigramSets.get();
+                int n = buffer.limit();
+                int key = (fold(buffer.get(0)) & 0xFF) << 8 | (fold(buffer.get(1)) & 0xFF);
+                for (int i = 2; i < n; i++) {
+                    key = (key << 8 | (fold(buffer.get(i)) & 0xFF)) & 0xFFFFFF;
+                    set.add(key);
+                }
+                return set.drain();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The trigrams of a file, with the modification time and size the file
+     * had before it was read: if it changes while being read, it is seen
+     * as changed by the next {@code refresh()}.
+     */
+    private static class Scanned {
+        final long modified;
+        final long length;
+        final int[] trigrams;   // or {@code null}, as by {@code trigramsOf()}
+
+        Scanned(File file) {
+            modified = file.lastModified();
+            length = file.length();
+            trigrams = trigramsOf(file);
+        }
+    }
+
+    private String relativePath(Path path) {
+        return rootPath.relativize(path).toString();
+    }
+
+    private void setBase(Snapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            base = snapshot;
+            overlay.clear();
+            removed.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Build the whole index from scratch. Runs on the updater thread.
+     */
+    private void rebuild() {
+        var files = new ArrayList<File>();
+        var enumerator = new FileEnumerator(root);
+        FileEnumerator.DirectoryListData data;
+        while ((data = enumerator.enumerate()) != null)
+            for (File child: data.children)
+                if (child.isFile())
+                    files.add(child);
+
+        var builder = new Builder();
+        for (int from = 0; from < files.size(); from += BUILD_BATCH_SIZE) {
+            int to = Math.min(files.size(), from + BUILD_BATCH_SIZE);
+            int offset = from;
+            var scanned = new Scanned[to - from];
+            IntStream.range(from, to).parallel().forEach(
+                i -> scanned[i - offset] = new Scanned(files.get(i)));
+            // Add files in order, so that posting lists stay sorted
+            for (int i = from; i < to; i++) {
+                var file = scanned[i - from];
+                if (file.trigrams != null)
+                    builder.addFile(relativePath(files.get(i).toPath()), file.modified,
+                                    file.length, file.trigrams);
+            }
+        }
+        setBase(builder.build());
+        save();
+    }
+
+    /**
+     * Bring a loaded index up to date with the files on disk. Runs on the
+     * updater thread.
+     */
+    private void refresh() {
+        Snapshot snapshot;
+        lock.readLock().lock();
+        try {
+            snapshot = base;
+        } finally {
+            lock.readLock().unlock();
+        }
+        var ids = snapshot.ids();
+        var seen = new BitSet(snapshot.paths.length);
+        var enumerator = new FileEnumerator(root);
+        FileEnumerator.DirectoryListData data;
+        while ((data = enumerator.enumerate()) != null) {
+            for (File child: data.children) {
+                if (!child.isFile())
+                    continue;
+                Integer id = ids.get(relativePath(child.toPath()));
+                if (id != null) {
+                    seen.set(id);
+                    if (snapshot.modified[id] == child.lastModified() &&
+                        snapshot.lengths[id] == child.length())
+                        continue;
+                }
+                update(child.toPath());
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (int id = seen.nextClearBit(0); id < snapshot.paths.length;
+                 id = seen.nextClearBit(id + 1))
+                removed.add(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded(true);
+    }
+
+    /**
+     * Re-index a single file (or forget it if it is gone). Runs on the
+     * updater thread.
+     */
+    private void update(Path path) {
+        String relative = relativePath(path);
+        var scanned = new Scanned(path.toFile());
+        lock.writeLock().lock();
+        try {
+            if (base != null) {
+                Integer id = base.ids().get(relative);
+                if (id != null)
+                    removed.add(id);
+            }
+            if (scanned.trigrams == null)
+                overlay.remove(relative);
+            else
+                overlay.put(relative, scanned);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget every file under the directory {@code path}. Runs on the
+     * updater thread.
+     */
+    private void removeTree(Path path) {
+        String prefix = relativePath(path) + File.separator;
+        lock.writeLock().lock();
+        try {
+            if (base != null)
+                for (int id = 0; id < base.paths.length; id++)
+                    if (base.paths[id].startsWith(prefix))
+                        removed.add(id);
+            overlay.keySet().removeIf(p -> p.startsWith(prefix));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merge the overlay into the posting lists if it is large enough (or
+     * {@code force} is set and there is anything to merge), and save the
+     * result. Runs on the updater thread.
+     */
+    private void compactIfNeeded(boolean force) {
+        Snapshot merged;
+        lock.readLock().lock();
+        try {
+            int changes = overlay.size() + removed.size();
+            if (base == null || changes == 0 ||
+                (!force && changes < COMPACTION_THRESHOLD))
+                return;
+
+            var builder = new Builder();
+            int[] newIds = new int[base.paths.length];
+            for (int id = 0; id < base.paths.length; id++) {
+                if (removed.contains(id)) {
+                    newIds[id] = -1;
+                    continue;
+                }
+                newIds[id] = builder.addFile(base.paths[id], base.modified[id],
+                    base.lengths[id], base.unindexed.get(id) ? UNINDEXED : null);
+            }
+            for (int k = 0; k < base.keys.length; k++)
+                for (int id: base.postingsAt(k))
+                    if (newIds[id] >= 0)
+                        builder.addPosting(base.keys[k], newIds[id]);
+            // As of when they were scanned: a file changed since is
+            // scanned again, now or by the next {@code refresh()}
+            for (var entry: overlay.entrySet()) {
+                var file = entry.getValue();
+                builder.addFile(entry.getKey(), file.modified, file.length, file.trigrams);
+            }
+            merged = builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Only the updater thread changes the overlay, so nothing has been
+        // lost between the read lock and the write lock
+        setBase(merged);
+        save();
+    }
+
+    public void fileChanged(Path path, FileWatcher.Change change) {
+        if (change == FileWatcher.Change.OVERFLOW) {
+            if (path.startsWith(rootPath))
+                updater.execute(this::refresh);
+            return;
+        }
+        if (!path.startsWith(rootPath) ||
+            path.startsWith(FileOperations.JCODE_HOME.toPath()))
+            return;
+        // Coalesce bursts of events on the same file
+        if (!pendingUpdates.add(path))
+            return;
+        updater.execute(() -> {
+            pendingUpdates.remove(path);
+            if (Files.isDirectory(path)) {
+                if (change == FileWatcher.Change.CREATED) {
+                    var enumerator = new FileEnumerator(path.toFile());
+                    FileEnumerator.DirectoryListData data;
+                    while ((data = enumerator.enumerate()) != null)
+                        for (File child: data.children)
+                            if (child.isFile())
+                                update(child.toPath());
+                }
+            } else if (change == FileWatcher.Change.DELETED) {
+                update(path);
+                removeTree(path);
+            } else {
+                update(path);
+            }
+            compactIfNeeded(false);
+        });
+    }
+
+    private Snapshot load() throws IOException {
+        if (!indexFile.isFile())
+            return null;
+        try (var channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            // The magic number and version, the posting lists, the rest,
+            // then where the rest starts
+            long size = channel.size();
+            if (size < POSTINGS_START + 8)
+                return null;
+            var head = ByteBuffer.allocate(8);
+            channel.read(head, 0);
+            var tail = ByteBuffer.allocate(8);
+            channel.read(tail, size - 8);
+            if (head.getInt(0) != MAGIC || head.getInt(4) != FORMAT_VERSION)
+                return null;
+            long headerStart = tail.getLong(0);
+            if (headerStart < POSTINGS_START || headerStart > size - 8)
+                return null;
+            var in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(headerStart)), 1 << 16));
+            if (!in.readUTF().equals(root.getPath()))
+                return null;
+            var snapshot = new Snapshot();
+            int fileCount = in.readInt();
+            snapshot.paths = new String[fileCount];
+            snapshot.modified = new long[fileCount];
+            snapshot.lengths = new long[fileCount];
+            snapshot.unindexed = new BitSet(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                snapshot.paths[i] = in.readUTF();
+                snapshot.modified[i] = in.readLong();
+                snapshot.lengths[i] = in.readLong();
+                if (in.readBoolean())
+                    snapshot.unindexed.set(i);
+            }
+            int keyCount = in.readInt();
+            snapshot.keys = new int[keyCount];
+            snapshot.offsets = new long[keyCount + 1];
+            snapshot.counts = new int[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                snapshot.keys[i] = in.readInt();
+                snapshot.counts[i] = in.readInt();
+                snapshot.offsets[i + 1] = in.readLong();
+            }
+            long length = snapshot.offsets[keyCount];
+            if (length != headerStart - POSTINGS_START)
+                return null;
+            // Mapped rather than read: the lists stay out of the heap
+            snapshot.segments = new ByteBuffer[segmentCount(length)];
+            for (int i = 0; i < snapshot.segments.length; i++) {
+                long from = (long) i << SEGMENT_BITS;
+                snapshot.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    POSTINGS_START + from, Math.min(1L << SEGMENT_BITS, length - from));
+            }
+            return snapshot;
+        }
+    }
+
+    private static int segmentCount(long length) {
+        return (int) ((length + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+    }
+
+    private void save() {
+        Snapshot snapshot;
+        lock.readLock().lock();
+        try {
+            snapshot = base;
+        } finally {
+            lock.readLock().unlock();
+        }
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            byte[] chunk = new byte[1 << 16];
+            for (var segment: snapshot.segments) {
+                var buffer = segment.duplicate();
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    int count = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, count);
+                    out.write(chunk, 0, count);
+                }
+            }
+            out.writeUTF(root.getPath());
+            out.writeInt(snapshot.paths.length);
+            for (int i = 0; i < snapshot.paths.length; i++) {
+                out.writeUTF(snapshot.paths[i]);
+                out.writeLong(snapshot.modified[i]);
+                out.writeLong(snapshot.lengths[i]);
+                out.writeBoolean(snapshot.unindexed.get(i));
+            }
+            out.writeInt(snapshot.keys.length);
+            for (int i = 0; i < snapshot.keys.length; i++) {
+                out.writeInt(snapshot.keys[i]);
+                out.writeInt(snapshot.counts[i]);
+                out.writeLong(snapshot.offsets[i + 1]);
+            }
+            out.writeLong(POSTINGS_START + snapshot.offsets[snapshot.keys.length]);
+        } catch (IOException ex) {
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), indexFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // E.g. on Windows, while the index saved before is mapped
+            temp.delete();
+            return;
+        }
+        // The lists built on the heap are read from the file from now on
+        try {
+            Snapshot mapped = load();
+            if (mapped == null)
+                return;
+            lock.writeLock().lock();
+            try {
+                if (base == snapshot)
+                    base = mapped;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException ex) {
+            // Keep them on the heap
+        }
+    }
+
+    /**
+     * An immutable, compressed index of a set of files.
+     */
+    private static class Snapshot {
+        private String[] paths;     // relative to the root
+        private long[] modified;
+        private long[] lengths;
+        private BitSet unindexed;
+        private int[] keys;         // sorted trigrams
+        private int[] counts;       // length of each posting list
+        private long[] offsets;     // start of each posting list
+        private ByteBuffer[] segments;  // the lists, {@code 2^SEGMENT_BITS} bytes each
+        private HashMap<String, Integer> ids;
+
+        private synchronized HashMap<String, Integer> ids() {
+            if (ids == null) {
+                ids = new HashMap<>(paths.length * 2);
+                for (int i = 0; i < paths.length; i++)
+                    ids.put(paths[i], i);
+            }
+            return ids;
+        }
+
+        private int count(int key) {
+            int k = Arrays.binarySearch(keys, key);
+            return k < 0 ? 0 : counts[k];
+        }
+
+        private int[] postings(int key) {
+            int k = Arrays.binarySearch(keys, key);
+            return k < 0 ? new int[0] : postingsAt(k);
+        }
+
+        private int[] postingsAt(int k) {
+            int[] result = new int[counts[k]];
+            long position = offsets[k];
+            int id = 0;
+            for (int i = 0; i < result.length; i++) {
+                // Varint-encoded delta, which may run on into the next
+                // segment
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = segments[(int) (position >>> SEGMENT_BITS)]
+                        .get((int) (position & SEGMENT_MASK));
+                    position++;
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                result[i] = id;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Builds a {@code Snapshot}. For every trigram, file ids must be added
+     * in ascending order.
+     */
+    private static class Builder {
+        private final ArrayList<String> paths = new ArrayList<>();
+        private long[] modified = new long[16];
+        private long[] lengths = new long[16];
+        private final BitSet unindexed = new BitSet();
+        private final WriterTable writers = new WriterTable();
+
+        /**
+         * Add a file and the postings of its trigrams, if given.
+         * @return id of the file
+         */
+        private int addFile(String path, long lastModified, long length,
+                            int[] trigrams) {
+            int id = paths.size();
+            paths.add(path);
+            if (id == modified.length) {
+                modified = Arrays.copyOf(modified, id * 2);
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            modified[id] = lastModified;
+            lengths[id] = length;
+            if (trigrams == UNINDEXED)
+                unindexed.set(id);
+            else if (trigrams != null)
+                for (int key: trigrams)
+                    addPosting(key, id);
+            return id;
+        }
+
+        private void addPosting(int key, int id) {
+            writers.get(key).add(id);
+        }
+
+        private Snapshot build() {
+            var snapshot = new Snapshot();
+            int fileCount = paths.size();
+            snapshot.paths = paths.toArray(new String[0]);
+            snapshot.modified = Arrays.copyOf(modified, fileCount);
+            snapshot.lengths = Arrays.copyOf(lengths, fileCount);
+            snapshot.unindexed = unindexed;
+
+            var sorted = writers.sorted();
+            int keyCount = sorted.length;
+            snapshot.keys = new int[keyCount];
+            snapshot.counts = new int[keyCount];
+            snapshot.offsets = new long[keyCount + 1];
+            for (int k = 0; k < keyCount; k++) {
+                var writer = sorted[k];
+                snapshot.keys[k] = writer.key;
+                snapshot.counts[k] = writer.count;
+                snapshot.offsets[k + 1] = snapshot.offsets[k] + writer.size;
+            }
+            long length = snapshot.offsets[keyCount];
+            snapshot.segments = new ByteBuffer[segmentCount(length)];
+            for (int i = 0; i < snapshot.segments.length; i++)
+                snapshot.segments[i] = ByteBuffer.allocate(
+                    (int) Math.min(1L << SEGMENT_BITS, length - ((long) i << SEGMENT_BITS)));
+            for (int k = 0; k < keyCount; k++) {
+                var writer = sorted[k];
+                // A list may be split between two segments
+                long position = snapshot.offsets[k];
+                int copied = 0;
+                while (copied < writer.size) {
+                    var segment = snapshot.segments[(int) (position >>> SEGMENT_BITS)];
+                    int at = (int) (position & SEGMENT_MASK);
+                    int count = Math.min(writer.size - copied, segment.capacity() - at);
+                    segment.put(at, writer.bytes, copied, count);
+                    copied += count;
+                    position += count;
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * The {@code PostingWriter} of each trigram, in an open-addressing
+     * table keyed by the trigram itself, so that adding a posting boxes
+     * nothing.
+     */
+    private static class WriterTable {
+        private PostingWriter[] slots = new PostingWriter[1 << 10];
+        private int size;
+
+        /**
+         * @return the writer of {@code key}, made if there is none yet
+         */
+        private PostingWriter get(int key) {
+            int mask = slots.length - 1;
+            int i = hash(key) & mask;
+            for (var writer = slots[i]; writer != null; writer = slots[i]) {
+                if (writer.key == key)
+                    return writer;
+                i = (i + 1) & mask;
+            }
+            var writer = new PostingWriter(key);
+            slots[i] = writer;
+            if (++size > slots.length / 2)
+                grow();
+            return writer;
+        }
+
+        private void grow() {
+            var old = slots;
+            slots = new PostingWriter[old.length * 2];
+            int mask = slots.length - 1;
+            for (var writer: old) {
+                if (writer == null)
+                    continue;
+                int i = hash(writer.key) & mask;
+                while (slots[i] != null)
+                    i = (i + 1) & mask;
+                slots[i] = writer;
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * @return the writers, by trigram
+         */
+        private PostingWriter[] sorted() {
+            var result = new PostingWriter[size];
+            int k = 0;
+            for (var writer: slots)
+                if (writer != null)
+                    result[k++] = writer;
+            Arrays.sort(result, (a, b) -> Integer.compare(a.key, b.key));
+            return result;
+        }
+    }
+
+    /**
+     * Appends ids to a posting list as varint-encoded deltas.
+     */
+    private static class PostingWriter {
+        private final int key;
+        private byte[] bytes = new byte[4];
+        private int size;
+        private int count;
+        private int last;
+
+        private PostingWriter(int key) {
+            this.key = key;
+        }
+
+        private void add(int id) {
+            int delta = id - last;
+            last = id;
+            count++;
+            if (size + 5 > bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while ((delta & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[size++] = (byte) delta;
+        }
+    }
+
+    /**
+     * A set of trigrams backed by a bitmap of all 2^24 trigrams, remembering
+     * which words of the bitmap are in use so that draining it is fast.
+     * Each thread reuses one.
+     */
+    private static class TrigramSet {
+        private final long[] bits = new long[1 << 18];
+        private final int[] touched = new int[1 << 18];
+        private int touchedCount;
+
+        private void add(int key) {
+            int word = key >>> 6;
+            if (bits[word] == 0)
+                touched[touchedCount++] = word;
+            bits[word] |= 1L << key;
+        }
+
+        /**
+         * @return the trigrams in ascending order, leaving the set empty
+         */
+        private int[] drain() {
+            Arrays.sort(touched, 0, touchedCount);
+            int size = 0;
+            for (int i = 0; i < touchedCount; i++)
+                size += Long.bitCount(bits[touched[i]]);
+            int[] result = new int[size];
+            int k = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                int word = touched[i];
+                long value = bits[word];
+                while (value != 0) {
+                    int bit = Long.numberOfTrailingZeros(value);
+                    result[k++] = word << 6 | bit;
+                    value &= value - 1;
+                }
+                bits[word] = 0;
+            }
+            touchedCount = 0;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+
+/**
+ * An {@code Autocompleter} offers identifier completion in a text pane.
+ *
+ * Identifiers are counted into a shared {@code IdentifierTrie} as the
+ * document changes: a {@code DocumentFilter} sees every change before it
+ * is applied, so the words around the change are uncounted first and the
+ * words there afterwards are counted again. Nothing is ever rescanned.
+ *
+ * While an identifier is being typed, a popup shows the most frequent
+ * identifiers starting with it. Up and Down choose, Enter or Tab accept,
+ * and Escape closes the popup; Ctrl-Space opens it explicitly. A
+ * {@code CompletionSource}, such as a language server, may add more
+ * completions when they arrive.
+ */
+public class Autocompleter {
+    private static final int MAX_COMPLETIONS = 12;
+    // The popup opens by itself once an identifier is this long
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final String CLIENT_PROPERTY = "autocompleter";
+
+    private final JTextPane textArea;
+    private final AbstractDocument document;
+    private final IdentifierTrie identifiers;
+    private final IdentifierTrie.Completions completions =
+        new IdentifierTrie.Completions(MAX_COMPLETIONS);
+    private final Segment segment = new Segment();
+    private final CompletionListModel listModel = new CompletionListModel();
+    private JList<String> list;
+    private JWindow popup;
+    private int prefixStart = -1;   // where the word being completed starts
+    private int prefixEnd;
+    private boolean accepting;
+    private CompletionSource source;
+
+    /**
+     * Supplies completions asynchronously.
+     */
+    public interface CompletionSource {
+        /**
+         * Look up completions for the word {@code [start, end)}. A call
+         * supersedes the previous one, whose callback may be dropped.
+         * @param callback receives the completions, on any thread
+         */
+        void complete(int start, int end, Consumer<List<String>> callback);
+    }
+
+    /**
+     * Install an {@code Autocompleter} in {@code textArea}. This must be
+     * done after the prettifier actions are set, and before any text is
+     * inserted.
+     */
+    public static Autocompleter install(JTextPane textArea, IdentifierTrie identifiers) {
+        var autocompleter = new Autocompleter(textArea, identifiers);
+        textArea.putClientProperty(CLIENT_PROPERTY, autocompleter);
+        return autocompleter;
+    }
+
+    /**
+     * @return the {@code Autocompleter} installed in {@code textArea}, or
+     * {@code null}
+     */
+    public static Autocompleter of(JTextPane textArea) {
+        return (Autocompleter) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private Autocompleter(JTextPane textArea, IdentifierTrie identifiers) {
+        this.textArea = textArea;
+        this.document = (AbstractDocument) textArea.getStyledDocument();
+        this.identifiers = identifiers;
+        document.setDocumentFilter(new CountingFilter());
+        document.addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                // Only typing opens the popup, not pasting
+                if (!accepting && (e.getLength() == 1 || isShowing()))
+                    updateAfterChange(e.getOffset() + e.getLength(),
+                                      e.getLength() == 1);
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                if (isShowing())
+                    updateAfterChange(e.getOffset(), false);
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+
+            }
+        });
+        textArea.addFocusListener(new FocusAdapter() {
+            public void focusLost(FocusEvent e) {
+                hide();
+            }
+        });
+        textArea.addCaretListener(e -> {
+            if (isShowing() && (e.getDot() < prefixStart || e.getDot() > prefixEnd + 1))
+                hide();
+        });
+        bindKeys();
+    }
+
+    /**
+     * Uncount the identifiers of the document, e.g. because its tab is
+     * closed.
+     */
+    public void uninstall() {
+        hide();
+        document.setDocumentFilter(null);
+        document.readLock();
+        try {
+            countWords(0, document.getLength(), -1);
+        } finally {
+            document.readUnlock();
+        }
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    /**
+     * @param source adds completions to those of the trie, or
+     * {@code null}
+     */
+    public void setCompletionSource(CompletionSource source) {
+        this.source = source;
+    }
+
+    private boolean isShowing() {
+        return popup != null && popup.isVisible();
+    }
+
+    /**
+     * Look up completions for the word ending at {@code caret}.
+     * @param open whether to open the popup if it is not showing
+     */
+    private void updateAfterChange(int caret, boolean open) {
+        int start = wordStart(caret);
+        int length = caret - start;
+        if (length == 0 || !Character.isJavaIdentifierStart(charAt(start)) ||
+            (!isShowing() && (!open || length < MIN_PREFIX_LENGTH))) {
+            hide();
+            return;
+        }
+        lookUp(start, caret);
+    }
+
+    private void lookUp(int start, int end) {
+        try {
+            document.getText(start, end - start, segment);
+        } catch (BadLocationException ex) {
+            hide();
+            return;
+        }
+        int count = identifiers.complete(segment, 0, segment.length(), completions);
+        if (count == 0 && source == null) {
+            hide();
+            return;
+        }
+        prefixStart = start;
+        prefixEnd = end;
+        listModel.setExtra(List.of());
+        list.setSelectedIndex(0);
+        if (listModel.getSize() == 0 && popup != null)
+            // Nothing to show until the source answers
+            popup.setVisible(false);
+        // Views may not have caught up with the change yet
+        SwingUtilities.invokeLater(this::show);
+        if (source != null) {
+            String prefix = segment.toString();
+            source.complete(start, end, words -> SwingUtilities.invokeLater(() -> {
+                // Only if still completing the same word
+                if (prefixStart == start && prefixEnd == end)
+                    addCompletions(prefix, words);
+            }));
+        }
+    }
+
+    private void addCompletions(String prefix, List<String> words) {
+        var extra = new ArrayList<String>();
+        var known = new HashSet<String>();
+        for (int i = 0; i < completions.size; i++)
+            known.add(completions.words[i]);
+        for (String word: words)
+            if (word.regionMatches(true, 0, prefix, 0, prefix.length()) &&
+                !word.equals(prefix) && known.add(word))
+                extra.add(word);
+        if (extra.isEmpty())
+            return;
+        int selected = list.getSelectedIndex();
+        listModel.setExtra(extra);
+        list.setSelectedIndex(Math.max(0, selected));
+        show();
+    }
+
+    private void show() {
+        if (prefixStart < 0 || listModel.getSize() == 0)
+            return;
+        Rectangle2D bounds;
+        try {
+            bounds = textArea.modelToView2D(prefixStart);
+        } catch (BadLocationException ex) {
+            return;
+        }
+        if (bounds == null || !textArea.isShowing())
+            return;
+        if (popup == null)
+            createPopup();
+        popup.pack();
+        var location = new Point((int) bounds.getX(), (int) bounds.getMaxY());
+        SwingUtilities.convertPointToScreen(location, textArea);
+        popup.setLocation(location);
+        popup.setVisible(true);
+    }
+
+    private void hide() {
+        prefixStart = -1;
+        if (popup != null)
+            popup.setVisible(false);
+    }
+
+    private void createPopup() {
+        popup = new JWindow(SwingUtilities.getWindowAncestor(textArea));
+        popup.setFocusableWindowState(false);
+        list.setVisibleRowCount(MAX_COMPLETIONS);
+        popup.add(new JScrollPane(list));
+    }
+
+    private void accept() {
+        String word = list.getSelectedValue();
+        int start = prefixStart, end = prefixEnd;
+        hide();
+        if (word == null || start < 0)
+            return;
+        accepting = true;
+        try {
+            // Completions of the source may differ from the prefix in case
+            if (word.startsWith(document.getText(start, end - start)))
+                document.insertString(end, word.substring(end - start), null);
+            else
+                document.replace(start, end - start, word, null);
+        } catch (BadLocationException ex) {
+
+        } finally {
+            accepting = false;
+        }
+    }
+
+    private void moveSelection(int delta) {
+        int size = listModel.getSize();
+        if (size == 0)
+            return;
+        int index = Math.floorMod(list.getSelectedIndex() + delta, size);
+        list.setSelectedIndex(index);
+        list.ensureIndexIsVisible(index);
+    }
+
+    private void bindKeys() {
+        list = new JList<>(listModel);
+        list.setFont(textArea.getFont());
+        list.setFocusable(false);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    accept();
+            }
+        });
+
+        // While the popup is showing, these keys act on it instead
+        whenShowing(KeyEvent.VK_ENTER, this::accept);
+        whenShowing(KeyEvent.VK_TAB, this::accept);
+        whenShowing(KeyEvent.VK_UP, () -> moveSelection(-1));
+        whenShowing(KeyEvent.VK_DOWN, () -> moveSelection(1));
+        whenShowing(KeyEvent.VK_ESCAPE, this::hide);
+
+        textArea.getInputMap().put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, InputEvent.CTRL_DOWN_MASK),
+            "complete_identifier");
+        textArea.getActionMap().put("complete_identifier", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                int caret = textArea.getCaretPosition();
+                int start = wordStart(caret);
+                if (start < caret && Character.isJavaIdentifierStart(charAt(start)))
+                    lookUp(start, caret);
+            }
+        });
+    }
+
+    private void whenShowing(int key, Runnable action) {
+        var keyStroke = KeyStroke.getKeyStroke(key, 0);
+        var inputMap = textArea.getInputMap();
+        var actionMap = textArea.getActionMap();
+        Object oldName = inputMap.get(keyStroke);
+        Action oldAction = oldName == null ? null : actionMap.get(oldName);
+        String name = "completion_" + KeyEvent.getKeyText(key);
+        inputMap.put(keyStroke, name);
+        actionMap.put(name, new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                if (isShowing())
+                    action.run();
+                else if (oldAction != null)
+                    oldAction.actionPerformed(e);
+            }
+        });
+    }
+
+    private char charAt(int offset) {
+        try {
+            document.getText(offset, 1, segment);
+            return segment.first();
+        } catch (BadLocationException ex) {
+            return Segment.DONE;
+        }
+    }
+
+    private int wordStart(int offset) {
+        while (offset > 0 && Character.isJavaIdentifierPart(charAt(offset - 1)))
+            offset--;
+        return offset;
+    }
+
+    private int wordEnd(int offset) {
+        int length = document.getLength();
+        while (offset < length && Character.isJavaIdentifierPart(charAt(offset)))
+            offset++;
+        return offset;
+    }
+
+    /**
+     * Add {@code delta} to the count of every identifier in
+     * {@code [start, end)}, which must not cut identifiers.
+     */
+    private void countWords(int start, int end, int delta) {
+        var text = new Segment();
+        text.setPartialReturn(false);
+        try {
+            document.getText(start, end - start, text);
+        } catch (BadLocationException ex) {
+            return;
+        }
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (!Character.isJavaIdentifierPart(c)) {
+                i++;
+                continue;
+            }
+            int wordStart = i;
+            while (i < n && Character.isJavaIdentifierPart(text.charAt(i)))
+                i++;
+            // Skip numbers and one-letter names
+            if (Character.isJavaIdentifierStart(c) && i - wordStart >= MIN_PREFIX_LENGTH)
+                identifiers.add(text, wordStart, i, delta);
+        }
+    }
+
+    /**
+     * Keeps the counts in step with the document: the identifiers touching
+     * a change are uncounted before it and counted again after it.
+     */
+    private class CountingFilter extends DocumentFilter {
+        public void insertString(FilterBypass fb, int offset, String string,
+                                 AttributeSet attr) throws BadLocationException {
+            replace(fb, offset, 0, string, attr);
+        }
+
+        public void remove(FilterBypass fb, int offset, int length)
+            throws BadLocationException {
+            replace(fb, offset, length, null, null);
+        }
+
+        public void replace(FilterBypass fb, int offset, int length, String text,
+                            AttributeSet attrs) throws BadLocationException {
+            int start = wordStart(offset);
+            int end = wordEnd(offset + length);
+            countWords(start, end, -1);
+            try {
+                if (text == null)
+                    fb.remove(offset, length);
+                else
+                    fb.replace(offset, length, text, attrs);
+            } catch (BadLocationException | RuntimeException ex) {
+                // The text did not change: count it again as it was
+                countWords(start, end, 1);
+                throw ex;
+            }
+            int inserted = text == null ? 0 : text.length();
+            countWords(start, end - length + inserted, 1);
+        }
+    }
+
+    /**
+     * A list model showing the {@code Completions} buffer directly,
+     * followed by the completions of the source.
+     */
+    private class CompletionListModel extends AbstractListModel<String> {
+        private int size;
+        private List<String> extra = List.of();
+
+        public int getSize() {
+            return size;
+        }
+
+        public String getElementAt(int index) {
+            return index < completions.size ? completions.words[index] :
+                extra.get(index - completions.size);
+        }
+
+        private void setExtra(List<String> extra) {
+            this.extra = extra;
+            int oldSize = size;
+            size = completions.size + extra.size();
+            if (oldSize > size)
+                fireIntervalRemoved(this, size, oldSize - 1);
+            else if (oldSize < size)
+                fireIntervalAdded(this, oldSize, size - 1);
+            if (size > 0)
+                fireContentsChanged(this, 0, size - 1);
+        }
+    }
+}
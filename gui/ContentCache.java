@@ -0,0 +1,104 @@
+package gui;
+
+import java.io.File;
+import java.util.*;
+import metrics.*;
+
+/**
+ * {@code ContentCache} keeps the text and tokens of files recently closed
+ * or hibernated, so that opening one of them again needs neither reading
+ * the file nor lexing it.
+ *
+ * An entry is only taken while the file has the size and modification
+ * time it had when its text was read or saved. The cache holds at most
+ * {@code jcode.contentCache.bytes} bytes (default 32 MB); the least
+ * recently used entries are dropped first.
+ */
+public class ContentCache {
+    public static final long CAPACITY = Long.getLong("jcode.contentCache.bytes", 32 << 20);
+
+    private static final Counter hits =
+        Metrics.counter("cache.content.hit", "Files opened from the content cache");
+    private static final Counter misses =
+        Metrics.counter("cache.content.miss", "Files opened not in the content cache, or stale");
+    private static final Counter evictions =
+        Metrics.counter("cache.content.evict", "Entries dropped from the content cache for space");
+
+    // In access order, by absolute file
+    private static final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long size;   // bytes
+
+    public static class Entry {
+        public final long length;
+        public final long lastModified;
+        public final String text;
+        public final Prettifier.Spans spans;
+
+        /**
+         * @param length the size of the file holding {@code text}
+         * @param lastModified the modification time of that file
+         * @param text the text of the file
+         * @param spans the tokens of {@code text}
+         */
+        public Entry(long length, long lastModified, String text, Prettifier.Spans spans) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.text = text;
+            this.spans = spans;
+        }
+
+        private long getSizeInBytes() {
+            return 64 + 2L * text.length() + spans.getSizeInBytes();
+        }
+    }
+
+    /**
+     * Take the entry of {@code file} out of the cache. The one who opens
+     * the file holds it, and puts it back when done.
+     * @return the entry, or {@code null} if there is none, or the file
+     * has changed since
+     */
+    public static Entry take(File file) {
+        Entry entry;
+        synchronized (ContentCache.class) {
+            entry = entries.remove(file.getAbsoluteFile());
+            if (entry != null)
+                size -= entry.getSizeInBytes();
+        }
+        if (entry == null || entry.length != file.length() ||
+                entry.lastModified != file.lastModified()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * Put the entry of {@code file} into the cache, replacing the one it
+     * may have, and drop the least recently used entries if there is no
+     * room left.
+     */
+    public static synchronized void put(File file, Entry entry) {
+        long entrySize = entry.getSizeInBytes();
+        if (entrySize > CAPACITY)
+            return;
+        var old = entries.put(file.getAbsoluteFile(), entry);
+        if (old != null)
+            size -= old.getSizeInBytes();
+        size += entrySize;
+        var iterator = entries.values().iterator();
+        while (size > CAPACITY) {
+            size -= iterator.next().getSizeInBytes();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * @return about how many bytes the cache holds
+     */
+    public static synchronized long getSizeInBytes() {
+        return size;
+    }
+}
@@ -1,7 +1,7 @@
 package gui;
 
 import java.io.*;
-import java.util.HashMap;
+import java.util.*;
 import java.util.List;
 import java.awt.*;
 import javax.swing.*;
@@ -9,8 +9,17 @@ import javax.swing.tree.*;
 import gui.JCodeMenuBar.OpenFolderAction;
 import file.FileEnumerator;
 import file.FileEnumerator.DirectoryListData;
+import file.PathIndex;
+import metrics.*;
 
 public abstract class DirectoryPanel extends JPanel {
+    private static final Counter enumeratedEntries =
+        Metrics.counter("directory.entries", "Files and directories listed");
+    private static final Histogram enumerateTime =
+        Metrics.histogram("directory.enumerate.time", "us", "Time to list a whole folder");
+    private static final Histogram enumerateRate =
+        Metrics.histogram("directory.enumerate.rate", "entries/s",
+                          "Entries listed per second, by folder opened");
     private File root;
     private DefaultMutableTreeNode rootNode;
     private JFileChooser chooser;
@@ -19,6 +28,9 @@ public abstract class DirectoryPanel extends JPanel {
     private JLabel label;
     private JPanel innerPanel;
     private JButton openFolderButton;
+    private volatile PathIndex pathIndex;
+    // Run once {@code pathIndex} is built; on the Event Dispatch Thread
+    private final ArrayList<Runnable> pathIndexActions = new ArrayList<>();
 
     /**
      * Implement this abstract method to specify the action when a file is
@@ -27,6 +39,13 @@ public abstract class DirectoryPanel extends JPanel {
      */
     public abstract void actionOnSelectingFile(File file);
 
+    /**
+     * Implement this abstract method to specify the action when the root
+     * of the directory structure is set (or refreshed).
+     * @param root the root directory
+     */
+    public abstract void actionOnSettingRootPath(File root);
+
     public DirectoryPanel() {
         setLayout(new BorderLayout());
 
@@ -53,7 +72,6 @@ public abstract class DirectoryPanel extends JPanel {
         }, BorderLayout.NORTH);
 
         // Add inner components
-        initializeFileChooser();
         initializeLabel();
         initializeButton();
         add(
@@ -72,16 +90,19 @@ public abstract class DirectoryPanel extends JPanel {
                              Parameters.FRAME_HEIGHT);
     }
 
+    /**
+     * @return the chooser of folders to open, built on first use since
+     * file choosers are slow to build
+     */
     public JFileChooser getFileChooser() {
+        if (chooser == null) {
+            chooser = new JFileChooser();
+            chooser.setCurrentDirectory(new File("."));
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        }
         return chooser;
     }
 
-    private void initializeFileChooser() {
-        chooser = new JFileChooser();
-        chooser.setCurrentDirectory(new File("."));
-        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-    }
-
     private void initializeLabel() {
         // Add a message string when no folder is open
         label = new JLabel("No open folder.");
@@ -111,13 +132,32 @@ public abstract class DirectoryPanel extends JPanel {
 
     /**
      * Set {@code rootPath} as the root of the directory structure, and 
-     * update GUI.
+     * update GUI. Refreshing the same root keeps the directories expanded.
      * @param rootPath a {@code File} object representing the root of
      * directory structure
      * @throws IOException
      */
     public void setRootPath(File rootPath) throws IOException {
-        root = new File(rootPath.getCanonicalPath());
+        boolean refresh = new File(rootPath.getCanonicalPath()).equals(root);
+        setRootPath(rootPath, refresh ? getExpandedPaths() : List.of());
+    }
+
+    /**
+     * Set {@code rootPath} as the root of the directory structure, and
+     * expand {@code expandedPaths} once they are listed.
+     * @param rootPath a {@code File} object representing the root of
+     * directory structure
+     * @param expandedPaths the directories to expand
+     * @throws IOException
+     */
+    public void setRootPath(File rootPath, List<File> expandedPaths) throws IOException {
+        var newRoot = new File(rootPath.getCanonicalPath());
+        // Keep the old path index while refreshing the same folder
+        if (!newRoot.equals(root)) {
+            pathIndex = null;
+            pathIndexActions.clear();
+        }
+        root = newRoot;
         rootNode = new DefaultMutableTreeNode(root);
 
         var oldTree = tree;
@@ -160,34 +200,100 @@ public abstract class DirectoryPanel extends JPanel {
         innerPanel.add(treePane = new JScrollPane(tree));
         innerPanel.validate();
 
-        new DirectoryListWorker(root, rootNode, tree).execute();
+        new DirectoryListWorker(root, rootNode, tree, expandedPaths).execute();
+        actionOnSettingRootPath(root);
     }
 
     public File getRootPath() {
         return root;
     }
 
+    /**
+     * @return the directories expanded in the directory structure view
+     */
+    public List<File> getExpandedPaths() {
+        var paths = new ArrayList<File>();
+        if (tree == null)
+            return paths;
+        var expanded = tree.getExpandedDescendants(new TreePath(rootNode));
+        if (expanded != null)
+            while (expanded.hasMoreElements())
+                paths.add((File) ((DefaultMutableTreeNode) expanded.nextElement()
+                                      .getLastPathComponent()).getUserObject());
+        return paths;
+    }
+
+    /**
+     * @return the paths of all files under the root, relative to it, or
+     * {@code null} if they have not been enumerated yet
+     */
+    public PathIndex getPathIndex() {
+        return pathIndex;
+    }
+
+    /**
+     * Run {@code action} once the paths of all files under the root have
+     * been enumerated, or right away if they have. Actions still waiting
+     * when another folder is opened are dropped. This must be called on
+     * the Event Dispatch Thread, where {@code action} runs.
+     */
+    public void whenPathIndexReady(Runnable action) {
+        if (pathIndex != null)
+            action.run();
+        else
+            pathIndexActions.add(action);
+    }
+
     private class DirectoryListWorker 
         extends SwingWorker<Object, DirectoryListData> {
         private HashMap<File, DefaultMutableTreeNode> nodeMap;
         private FileEnumerator enumerator;
         private JTree tree;
+        private File root;
+        private PathIndex.Builder pathIndexBuilder;
+        private List<File> expandedPaths;
 
         public DirectoryListWorker(File root, DefaultMutableTreeNode rootNode,
-                                   JTree tree) {
+                                   JTree tree, List<File> expandedPaths) {
             this.nodeMap = new HashMap<>();
             nodeMap.put(root, rootNode);
             this.enumerator = new FileEnumerator(root);
             this.tree = tree;
+            this.root = root;
+            this.pathIndexBuilder = new PathIndex.Builder();
+            this.expandedPaths = expandedPaths;
         }
 
         public Object doInBackground() {
             DirectoryListData children;
-            while ((children = enumerator.enumerate()) != null)
+            int prefixLength = root.getPath().length() + 1;
+            long start = System.nanoTime();
+            long entries = 0;
+            while ((children = enumerator.enumerate()) != null) {
+                entries += children.children.length;
+                enumeratedEntries.add(children.children.length);
+                // Index file paths on the way, for "Go to File"
+                for (File child: children.children)
+                    if (!child.isDirectory())
+                        pathIndexBuilder.add(child.getPath().substring(prefixLength));
                 publish(children);
+            }
+            long nanos = System.nanoTime() - start;
+            enumerateTime.recordNanos(nanos);
+            enumerateRate.record(entries * 1_000_000_000 / Math.max(1, nanos));
             return null;
         }
 
+        public void done() {
+            if (!root.equals(DirectoryPanel.this.root))
+                return;
+            pathIndex = pathIndexBuilder.build();
+            var actions = new ArrayList<>(pathIndexActions);
+            pathIndexActions.clear();
+            for (var action: actions)
+                action.run();
+        }
+
         public void process(List<DirectoryListData> chunks) {
             for (var result: chunks) {
                 DefaultMutableTreeNode rootNode = nodeMap.get(result.root);
@@ -206,6 +312,12 @@ public abstract class DirectoryPanel extends JPanel {
             
             DefaultTreeModel model = (DefaultTreeModel) tree.getModel();
             model.reload(rootNode);
+            // Reloading collapses the tree; expand again what is listed
+            for (File path: expandedPaths) {
+                var node = nodeMap.get(path);
+                if (node != null)
+                    tree.expandPath(new TreePath(node.getPath()));
+            }
         }
     }
 }
@@ -0,0 +1,359 @@
+package gui;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import file.SearchQuery;
+
+/**
+ * A {@code DocumentSearcher} finds occurrences of a query in a
+ * {@code Document}. The text is never copied out of the document: it is
+ * read through partial {@code Segment}s, which point directly into the
+ * document's storage.
+ *
+ * Literal queries are matched with Boyer-Moore-Horspool. While the user is
+ * typing a query, every new query usually extends the previous one, and an
+ * occurrence of the longer query must start where the shorter one occurs;
+ * so in that case only the previous occurrences are verified instead of
+ * scanning the whole document again.
+ *
+ * Searches can be cancelled: starting a new search makes any search still
+ * running stale, and a stale search stops as soon as it notices.
+ */
+public class DocumentSearcher implements DocumentListener {
+    // How many characters are read between two checks for cancellation
+    private static final int CANCEL_CHECK_INTERVAL = 1 << 16;
+    private static final long UNCANCELLABLE = -1;
+
+    private final Document document;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long version;
+
+    // Every (possibly overlapping) occurrence of the last literal query
+    private SearchQuery lastQuery;
+    private int[] lastOccurrences;
+    private int lastOccurrenceCount;
+    private long lastVersion = -1;
+
+    public DocumentSearcher(Document document) {
+        this.document = document;
+        document.addDocumentListener(this);
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Stop listening to the document. Call this when the searcher is no
+     * longer used.
+     */
+    public void dispose() {
+        document.removeDocumentListener(this);
+    }
+
+    /**
+     * @return a number that changes whenever the text of the document
+     * changes
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Make every running search stale, and return the generation of the
+     * next search. Pass it to {@code search()} to start that search.
+     * @return the new generation
+     */
+    public long nextGeneration() {
+        return generation.incrementAndGet();
+    }
+
+    /**
+     * @return whether no search has been started after the one of
+     * {@code searchGeneration}
+     */
+    public boolean isCurrent(long searchGeneration) {
+        return generation.get() == searchGeneration;
+    }
+
+    /**
+     * Find all non-overlapping matches of {@code query}. The document is
+     * read-locked during the search, so this may be called from any thread.
+     * @param query the query
+     * @param searchGeneration the value returned by {@code nextGeneration()}
+     * @return the matches, in ascending order
+     * @throws CancellationException if a newer search has been started
+     * @throws PatternSyntaxException if {@code query} is an invalid regex
+     */
+    public Matches search(SearchQuery query, long searchGeneration) {
+        var result = new Matches[1];
+        var error = new RuntimeException[1];
+        document.render(() -> {
+            try {
+                result[0] = query.regex ?
+                    searchRegex(query, searchGeneration) :
+                    searchLiteral(query, searchGeneration);
+            } catch (RuntimeException ex) {
+                error[0] = ex;
+            }
+        });
+        if (error[0] != null)
+            throw error[0];
+        return result[0];
+    }
+
+    private synchronized Matches searchLiteral(SearchQuery query, long searchGeneration) {
+        var matches = new Matches();
+        var folded = new StringBuilder(query.pattern.length());
+        for (int i = 0; i < query.pattern.length(); i++)
+            folded.append(fold(query.pattern.charAt(i), query.matchCase));
+        String pattern = folded.toString();
+        int m = pattern.length();
+        if (m == 0)
+            return matches;
+        var text = new DocumentCharSequence(searchGeneration);
+
+        int[] occurrences;
+        int count;
+        if (lastQuery != null && lastVersion == version &&
+            lastQuery.matchCase == query.matchCase &&
+            pattern.startsWith(lastQuery.pattern)) {
+            // Refine the previous occurrences. They are copied, so that a
+            // cancelled refinement leaves them intact.
+            occurrences = new int[Math.max(lastOccurrenceCount, 1)];
+            count = 0;
+            for (int i = 0; i < lastOccurrenceCount; i++) {
+                int start = lastOccurrences[i];
+                if (start + m <= text.length() &&
+                    regionMatches(text, start, pattern, query.matchCase))
+                    occurrences[count++] = start;
+            }
+        } else {
+            occurrences = new int[16];
+            count = 0;
+            int n = text.length();
+
+            // Horspool shift table, indexed by the low byte of characters.
+            // Characters sharing a low byte share the smallest shift, which
+            // keeps the table small while staying correct.
+            int[] shift = new int[256];
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++)
+                shift[pattern.charAt(i) & 0xFF] = m - 1 - i;
+
+            int i = 0;
+            while (i <= n - m) {
+                char last = fold(text.charAt(i + m - 1), query.matchCase);
+                if (last == pattern.charAt(m - 1) &&
+                    regionMatches(text, i, pattern, query.matchCase)) {
+                    if (count == occurrences.length)
+                        occurrences = Arrays.copyOf(occurrences, count * 2);
+                    occurrences[count++] = i;
+                }
+                i += shift[last & 0xFF];
+            }
+        }
+
+        var normalized = new SearchQuery(pattern, false, false, query.matchCase);
+        lastQuery = normalized;
+        lastOccurrences = occurrences;
+        lastOccurrenceCount = count;
+        lastVersion = version;
+
+        // Keep the non-overlapping ones that satisfy the whole-word option
+        int end = 0;
+        for (int i = 0; i < count; i++) {
+            int start = occurrences[i];
+            if (start < end)
+                continue;
+            if (query.wholeWord && !isWholeWord(text, start, start + m))
+                continue;
+            matches.add(start, start + m);
+            end = start + m;
+        }
+        return matches;
+    }
+
+    private Matches searchRegex(SearchQuery query, long searchGeneration) {
+        var matches = new Matches();
+        if (query.pattern.isEmpty())
+            return matches;
+        var text = new DocumentCharSequence(searchGeneration);
+        Matcher matcher = query.compile().matcher(text);
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start())
+                matches.add(matcher.start(), matcher.end());
+        }
+        return matches;
+    }
+
+    /**
+     * Compute the replacement text of every match, expanding group
+     * references like {@code $1} for regex queries. The matches must come
+     * from a search of the same query against the current document.
+     * @param query the query
+     * @param matches matches of {@code query}
+     * @param replacement the replacement
+     * @return replacement text for each match
+     */
+    public String[] expandReplacements(SearchQuery query, Matches matches,
+                                       String replacement) {
+        var replacements = new String[matches.count];
+        if (!query.regex) {
+            Arrays.fill(replacements, replacement);
+            return replacements;
+        }
+        document.render(() -> {
+            // Redo the search with a single matcher, so that every
+            // {@code appendReplacement()} only copies the text since the
+            // previous match
+            var text = new DocumentCharSequence(UNCANCELLABLE);
+            Matcher matcher = query.compile().matcher(text);
+            var builder = new StringBuilder();
+            int appended = 0;
+            int i = 0;
+            while (i < matches.count && matcher.find()) {
+                if (matcher.end() == matcher.start())
+                    continue;
+                builder.setLength(0);
+                matcher.appendReplacement(builder, replacement);
+                replacements[i++] = builder.substring(matcher.start() - appended);
+                appended = matcher.end();
+            }
+        });
+        return replacements;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start,
+                                         String pattern, boolean matchCase) {
+        for (int j = pattern.length() - 1; j >= 0; j--)
+            if (fold(text.charAt(start + j), matchCase) != pattern.charAt(j))
+                return false;
+        return true;
+    }
+
+    private static char fold(char c, boolean matchCase) {
+        return matchCase ? c : Character.toLowerCase(c);
+    }
+
+    private static boolean isWholeWord(CharSequence text, int start, int end) {
+        return (start == 0 || !isWordChar(text.charAt(start - 1))) &&
+               (end == text.length() || !isWordChar(text.charAt(end)));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    public void insertUpdate(DocumentEvent e) {
+        version++;
+    }
+
+    public void removeUpdate(DocumentEvent e) {
+        version++;
+    }
+
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes do not affect the text
+    }
+
+    /**
+     * Start and end offsets of matches, in ascending order.
+     */
+    public static class Matches {
+        public int[] starts = new int[16];
+        public int[] ends = new int[16];
+        public int count;
+
+        private void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        /**
+         * @return index of the first match starting at or after
+         * {@code offset}, or {@code count} if there is none
+         */
+        public int indexAtOrAfter(int offset) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] < offset)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * A read-only view of the document text as a {@code CharSequence},
+     * backed by a partial {@code Segment} which is moved along the document
+     * as characters are accessed. Must be used while the document is
+     * read-locked.
+     */
+    private class DocumentCharSequence implements CharSequence {
+        private final Segment segment = new Segment();
+        private final long searchGeneration;
+        private final int length;
+        private int segmentStart;
+        private int segmentEnd;
+        private int accesses;
+
+        private DocumentCharSequence(long searchGeneration) {
+            this.searchGeneration = searchGeneration;
+            length = document.getLength();
+            segment.setPartialReturn(true);
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (++accesses == CANCEL_CHECK_INTERVAL) {
+                accesses = 0;
+                if (searchGeneration != UNCANCELLABLE &&
+                    generation.get() != searchGeneration)
+                    throw new CancellationException();
+            }
+            if (index < segmentStart || index >= segmentEnd) {
+                if (index < 0 || index >= length)
+                    throw new IndexOutOfBoundsException(index);
+                fetch(index);
+            }
+            return segment.array[segment.offset + index - segmentStart];
+        }
+
+        private void fetch(int index) {
+            try {
+                document.getText(index, length - index, segment);
+            } catch (BadLocationException ex) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            segmentStart = index;
+            segmentEnd = index + segment.count;
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            var builder = new StringBuilder(end - start);
+            for (int i = start; i < end; i++)
+                builder.append(charAt(i));
+            return builder.toString();
+        }
+
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+    }
+}
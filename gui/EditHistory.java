@@ -0,0 +1,429 @@
+package gui;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import javax.swing.*;
+import javax.swing.text.*;
+import javax.swing.undo.*;
+import file.FileOperations;
+import metrics.*;
+
+/**
+ * An {@code EditHistory} is the undo history of one document.
+ *
+ * Changes are recorded as text, by a {@code DocumentFilter} wrapping the
+ * one already set, so that changes of attributes, e.g. by highlighting,
+ * are never part of the history. Typing is grouped into one edit per
+ * word, and so is deleting, as long as it goes on without pausing for
+ * more than a second.
+ *
+ * The history holds at most {@code jcode.undo.budget} bytes of edits in
+ * memory (default 1 MB); the oldest edits are spilled, compressed, into a
+ * journal on disk, and read back when undone to.
+ */
+public class EditHistory {
+    public static final long BUDGET = Long.getLong("jcode.undo.budget", 1 << 20);
+    private static final long COALESCE_TIME = 1000;     // milliseconds
+    private static final File JOURNAL_DIRECTORY =
+        new File(FileOperations.JCODE_HOME, "undo");
+    private static final String CLIENT_PROPERTY = "editHistory";
+
+    private static final Counter spilledEdits =
+        Metrics.counter("undo.spill.edits", "Edits spilled to undo journals");
+    private static final Counter spilledBytes =
+        Metrics.counter("undo.spill.bytes", "Compressed bytes written to undo journals");
+
+    private final JTextPane textArea;
+    private final AbstractDocument document;
+    private final DocumentFilter next;
+    private final Runnable onChange;
+    private final ArrayDeque<Edit> undoEdits = new ArrayDeque<>();  // last first
+    private final ArrayDeque<Edit> redoEdits = new ArrayDeque<>();
+    private long size;          // bytes of the edits in memory
+    private Edit group;         // edits go into this one until it ends
+    private int groupDepth;
+    private boolean coalescing; // the last edit may take the next change
+    private long lastChangeTime;
+    private boolean applying;   // undoing or redoing
+    // Spilled edits, a block of them per spill
+    private File journalFile;
+    private RandomAccessFile journal;
+    private final ArrayList<Long> blockStarts = new ArrayList<>();
+
+    /**
+     * Install an {@code EditHistory} in {@code textArea}. This must be
+     * done after the {@code Autocompleter} is installed.
+     * @param onChange run when what can be undone or redone changes
+     */
+    public static EditHistory install(JTextPane textArea, Runnable onChange) {
+        var history = new EditHistory(textArea, onChange);
+        textArea.putClientProperty(CLIENT_PROPERTY, history);
+        return history;
+    }
+
+    /**
+     * @return the {@code EditHistory} installed in {@code textArea}, or
+     * {@code null}
+     */
+    public static EditHistory of(JTextPane textArea) {
+        return (EditHistory) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private EditHistory(JTextPane textArea, Runnable onChange) {
+        this.textArea = textArea;
+        this.document = (AbstractDocument) textArea.getStyledDocument();
+        this.onChange = onChange;
+        next = document.getDocumentFilter();
+        document.setDocumentFilter(new RecordingFilter());
+    }
+
+    /**
+     * Drop the history, e.g. because the tab is closed or hibernated.
+     */
+    public void uninstall() {
+        if (document.getDocumentFilter() instanceof RecordingFilter)
+            document.setDocumentFilter(next);
+        discardAllEdits();
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    public boolean canUndo() {
+        return !undoEdits.isEmpty() || !blockStarts.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoEdits.isEmpty();
+    }
+
+    /**
+     * Forget every edit, e.g. once the text of the file is loaded.
+     */
+    public void discardAllEdits() {
+        undoEdits.clear();
+        redoEdits.clear();
+        size = 0;
+        group = null;
+        groupDepth = 0;
+        coalescing = false;
+        closeJournal();
+        onChange.run();
+    }
+
+    /**
+     * Group all changes from now on, until {@code endGroup()} is called,
+     * into a single edit. Groups may nest.
+     */
+    public void beginGroup() {
+        if (groupDepth++ == 0) {
+            group = new Edit();
+            coalescing = false;
+        }
+    }
+
+    /**
+     * Finish the edit started by {@code beginGroup()}.
+     */
+    public void endGroup() {
+        if (groupDepth == 0 || --groupDepth > 0)
+            return;
+        var edit = group;
+        group = null;
+        if (!edit.changes.isEmpty())
+            push(edit);
+    }
+
+    public void undo() throws CannotUndoException {
+        if (undoEdits.isEmpty() && !readBlock())
+            throw new CannotUndoException();
+        var edit = undoEdits.pop();
+        size -= edit.size;
+        int caret = 0;
+        applying = true;
+        try {
+            for (int i = edit.changes.size() - 1; i >= 0; i--) {
+                var change = edit.changes.get(i);
+                document.replace(change.offset, change.inserted.length(), change.removed, null);
+                caret = change.offset + change.removed.length();
+            }
+        } catch (BadLocationException ex) {
+            // The document no longer holds the text of the edit
+            discardAllEdits();
+            throw new CannotUndoException();
+        } finally {
+            applying = false;
+        }
+        redoEdits.push(edit);
+        size += edit.size;
+        coalescing = false;
+        applied(caret);
+    }
+
+    public void redo() throws CannotRedoException {
+        if (redoEdits.isEmpty())
+            throw new CannotRedoException();
+        var edit = redoEdits.pop();
+        int caret = 0;
+        applying = true;
+        try {
+            for (var change: edit.changes) {
+                document.replace(change.offset, change.removed.length(), change.inserted, null);
+                caret = change.offset + change.inserted.length();
+            }
+        } catch (BadLocationException ex) {
+            discardAllEdits();
+            throw new CannotRedoException();
+        } finally {
+            applying = false;
+        }
+        undoEdits.push(edit);
+        coalescing = false;
+        applied(caret);
+    }
+
+    private void applied(int caret) {
+        textArea.setCaretPosition(Math.min(caret, document.getLength()));
+        Prettifier.prettify(textArea);
+        onChange.run();
+    }
+
+    private void record(int offset, String removed, String inserted) {
+        long now = System.currentTimeMillis();
+        if (group != null) {
+            group.add(new Change(offset, removed, inserted));
+        } else if (!(coalescing && now - lastChangeTime < COALESCE_TIME &&
+                     coalesce(undoEdits.peek(), offset, removed, inserted))) {
+            var edit = new Edit();
+            edit.add(new Change(offset, removed, inserted));
+            push(edit);
+            coalescing = true;
+        }
+        lastChangeTime = now;
+    }
+
+    /**
+     * Merge a change into the last change of {@code edit}, if it goes on
+     * typing or deleting the same word.
+     * @return whether the change is merged
+     */
+    private boolean coalesce(Edit edit, int offset, String removed, String inserted) {
+        var last = edit.changes.get(edit.changes.size() - 1);
+        if (removed.isEmpty() && inserted.length() == 1 && !last.inserted.isEmpty() &&
+                offset == last.offset + last.inserted.length()) {
+            // A word starts a new edit; what follows it does not
+            char previous = last.inserted.charAt(last.inserted.length() - 1);
+            if (Character.isJavaIdentifierPart(inserted.charAt(0)) &&
+                    !Character.isJavaIdentifierPart(previous))
+                return false;
+            last.inserted += inserted;
+        } else if (inserted.isEmpty() && removed.length() == 1 &&
+                   last.inserted.isEmpty()) {
+            if (offset + 1 == last.offset) {            // Backspace
+                last.offset = offset;
+                last.removed = removed + last.removed;
+            } else if (offset == last.offset) {         // Delete
+                last.removed += removed;
+            } else {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        edit.size += 2;
+        size += 2;
+        return true;
+    }
+
+    private void push(Edit edit) {
+        undoEdits.push(edit);
+        size += edit.size;
+        for (var undone: redoEdits)
+            size -= undone.size;
+        redoEdits.clear();
+        if (size > BUDGET)
+            spill();
+        onChange.run();
+    }
+
+    /**
+     * Write the oldest edits into the journal, until half the budget is
+     * left in memory.
+     */
+    private void spill() {
+        var block = new ArrayList<Edit>();
+        long spilled = 0;
+        while (undoEdits.size() > 1 && size - spilled > BUDGET / 2) {
+            var edit = undoEdits.removeLast();
+            block.add(edit);
+            spilled += edit.size;
+        }
+        if (block.isEmpty())
+            return;
+        try {
+            if (journal == null) {
+                JOURNAL_DIRECTORY.mkdirs();
+                journalFile = File.createTempFile("history", ".journal", JOURNAL_DIRECTORY);
+                journalFile.deleteOnExit();
+                journal = new RandomAccessFile(journalFile, "rw");
+            }
+            byte[] bytes = writeEdits(block);
+            long start = journal.length();
+            journal.seek(start);
+            journal.write(bytes);
+            blockStarts.add(start);
+            spilledEdits.add(block.size());
+            spilledBytes.add(bytes.length);
+        } catch (IOException ex) {
+            // Then the oldest edits are forgotten instead
+        }
+        size -= spilled;
+    }
+
+    /**
+     * Read back the block of edits spilled last.
+     * @return whether there was one
+     */
+    private boolean readBlock() {
+        if (blockStarts.isEmpty())
+            return false;
+        long start = blockStarts.remove(blockStarts.size() - 1);
+        try {
+            byte[] bytes = new byte[(int) (journal.length() - start)];
+            journal.seek(start);
+            journal.readFully(bytes);
+            journal.setLength(start);
+            // The block holds the oldest of them first
+            var edits = readEdits(bytes);
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                var edit = edits.get(i);
+                undoEdits.addLast(edit);
+                size += edit.size;
+            }
+        } catch (IOException ex) {
+            closeJournal();
+            return false;
+        }
+        return !undoEdits.isEmpty();
+    }
+
+    private void closeJournal() {
+        blockStarts.clear();
+        if (journal == null)
+            return;
+        try {
+            journal.close();
+        } catch (IOException ex) {
+
+        }
+        journalFile.delete();
+        journal = null;
+        journalFile = null;
+    }
+
+    private static byte[] writeEdits(List<Edit> edits) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(edits.size());
+            for (var edit: edits) {
+                out.writeInt(edit.changes.size());
+                for (var change: edit.changes) {
+                    out.writeInt(change.offset);
+                    writeString(out, change.removed);
+                    writeString(out, change.inserted);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Edit> readEdits(byte[] bytes) throws IOException {
+        try (var in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(bytes)))) {
+            int count = in.readInt();
+            var edits = new ArrayList<Edit>(count);
+            for (int i = 0; i < count; i++) {
+                var edit = new Edit();
+                int changeCount = in.readInt();
+                for (int j = 0; j < changeCount; j++) {
+                    int offset = in.readInt();
+                    var removed = readString(in);
+                    edit.add(new Change(offset, removed, readString(in)));
+                }
+                edits.add(edit);
+            }
+            return edits;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(FileOperations.DEFAULT_CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, FileOperations.DEFAULT_CHARSET);
+    }
+
+    /**
+     * {@code removed} replaced by {@code inserted} at {@code offset}.
+     */
+    private static class Change {
+        private int offset;
+        private String removed;
+        private String inserted;
+
+        private Change(int offset, String removed, String inserted) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+    }
+
+    /**
+     * What is undone at once: changes in the order they were made.
+     */
+    private static class Edit {
+        private final ArrayList<Change> changes = new ArrayList<>(1);
+        private long size = 32;     // bytes, about
+
+        private void add(Change change) {
+            changes.add(change);
+            size += 40 + 2L * (change.removed.length() + change.inserted.length());
+        }
+    }
+
+    /**
+     * Records each change, with the text it removes, and passes it on to
+     * the filter it wraps.
+     */
+    private class RecordingFilter extends DocumentFilter {
+        public void insertString(FilterBypass fb, int offset, String string,
+                                 AttributeSet attr) throws BadLocationException {
+            replace(fb, offset, 0, string, attr);
+        }
+
+        public void remove(FilterBypass fb, int offset, int length)
+            throws BadLocationException {
+            replace(fb, offset, length, null, null);
+        }
+
+        public void replace(FilterBypass fb, int offset, int length, String text,
+                            AttributeSet attrs) throws BadLocationException {
+            String removed = length == 0 ? "" : document.getText(offset, length);
+            if (next != null)
+                next.replace(fb, offset, length, text, attrs);
+            else if (text == null)
+                fb.remove(offset, length);
+            else
+                fb.replace(offset, length, text, attrs);
+            if (applying)
+                return;
+            String inserted = text == null ? "" : text;
+            if (!removed.isEmpty() || !inserted.isEmpty())
+                record(offset, removed, inserted);
+        }
+    }
+}
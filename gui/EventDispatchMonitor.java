@@ -0,0 +1,246 @@
+package gui;
+
+import java.awt.*;
+import java.io.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import file.FileOperations;
+import metrics.*;
+
+/**
+ * An {@code EventDispatchMonitor} replaces the system event queue to time
+ * every event dispatched on the Event Dispatch Thread.
+ *
+ * Dispatch times go into the {@code edt.dispatch} histogram. A watchdog
+ * thread checks the event being dispatched every {@code SAMPLE_INTERVAL};
+ * once it has run longer than {@code HANG_THRESHOLD}, the stack of the
+ * Event Dispatch Thread is sampled until the event ends, and a hang report
+ * naming the event is appended to {@code ~/.jcode/logs/hangs.log}, which
+ * is rolled over when it grows too large.
+ *
+ * The time of an event does not include events dispatched while it runs,
+ * e.g. those of a modal dialog it opened, nor the time the Event Dispatch
+ * Thread waits for them: an event showing a dialog is not hung while the
+ * user reads it.
+ */
+public class EventDispatchMonitor extends EventQueue {
+    public static final long HANG_THRESHOLD = 250;      // ms
+    private static final long SAMPLE_INTERVAL = 50;     // ms
+    private static final int MAX_SAMPLES = 40;
+    private static final long MAX_LOG_SIZE = 1 << 20;
+    private static final int LOG_FILES = 3;
+    public static final File LOG_FILE =
+        new File(new File(FileOperations.JCODE_HOME, "logs"), "hangs.log");
+
+    private static final Histogram dispatchTime =
+        Metrics.histogram("edt.dispatch", "us", "Time to dispatch an event");
+    private static final Counter hangs =
+        Metrics.counter("edt.hangs", "Events dispatched for longer than " + HANG_THRESHOLD + " ms");
+
+    private static EventDispatchMonitor installed;
+
+    // Written on the Event Dispatch Thread only
+    private long nestedNanos;   // spent in events nested in the current one,
+                                // or waiting for them
+
+    // Read by the watchdog
+    private volatile Thread dispatchThread;
+    private volatile AWTEvent currentEvent;
+    private volatile long currentStart;     // 0 when idle
+
+    // Events which ran over the threshold, for the watchdog to report
+    private final ConcurrentLinkedQueue<SlowEvent> slowEvents = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Push a monitor onto the system event queue. Do this before anything
+     * is shown.
+     * @return the monitor installed
+     */
+    public static synchronized EventDispatchMonitor install() {
+        if (installed == null) {
+            installed = new EventDispatchMonitor();
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(installed);
+            var watchdog = new Thread(installed::watch, "Event dispatch watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+        return installed;
+    }
+
+    /**
+     * @return the monitor installed, or {@code null}
+     */
+    public static synchronized EventDispatchMonitor getInstalled() {
+        return installed;
+    }
+
+    private EventDispatchMonitor() {
+
+    }
+
+    protected void dispatchEvent(AWTEvent event) {
+        dispatchThread = Thread.currentThread();
+        AWTEvent outerEvent = currentEvent;
+        long outerNested = nestedNanos;
+        long start = System.nanoTime();
+        nestedNanos = 0;
+        currentEvent = event;
+        currentStart = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            long nanos = end - start - nestedNanos;
+            long watched = currentStart;
+            nestedNanos = outerNested + end - start;
+            // Queued before {@code currentStart} changes, so the watchdog
+            // finds it once it sees the change
+            if (watched != 0 && end - watched >= HANG_THRESHOLD * 1_000_000)
+                slowEvents.add(new SlowEvent(watched, end - watched, event));
+            currentEvent = outerEvent;
+            // The watchdog times the outer event again from here
+            currentStart = outerEvent == null ? 0 : end;
+            dispatchTime.recordNanos(nanos);
+        }
+    }
+
+    /**
+     * Called on the Event Dispatch Thread to wait for the next event,
+     * either between events, or in the loop of a modal dialog, during an
+     * event. The wait is not part of the time of that event.
+     */
+    public AWTEvent getNextEvent() throws InterruptedException {
+        if (currentEvent == null || Thread.currentThread() != dispatchThread)
+            return super.getNextEvent();
+        long start = System.nanoTime();
+        currentStart = 0;
+        try {
+            return super.getNextEvent();
+        } finally {
+            long end = System.nanoTime();
+            nestedNanos += end - start;
+            currentStart = end;
+        }
+    }
+
+    /**
+     * Run by the watchdog thread: sample the stack of long events, and
+     * write their reports once they end.
+     */
+    private void watch() {
+        HangReport report = null;
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            // Read first: the event which ran then, if it ended since, is
+            // among the slow events below
+            long start = currentStart;
+            AWTEvent event = currentEvent;
+            SlowEvent slow;
+            while ((slow = slowEvents.poll()) != null) {
+                // Events which ended before being sampled still get a report
+                boolean sampled = report != null && report.start == slow.start;
+                var finished = sampled ? report : new HangReport(slow.start, slow.event);
+                finished.nanos = slow.nanos;
+                report(finished);
+                if (sampled)
+                    report = null;
+            }
+            if (report != null && report.start != start) {
+                // Its event went on with a nested one, or waits for one,
+                // and is timed anew afterwards
+                report(report);
+                report = null;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (start == 0 || elapsed < HANG_THRESHOLD * 1_000_000)
+                continue;
+            if (report == null)
+                report = new HangReport(start, event);
+            report.addSample(elapsed, dispatchThread.getStackTrace());
+        }
+    }
+
+    private void report(HangReport report) {
+        hangs.increment();
+        try {
+            write(report.toString());
+        } catch (IOException ex) {
+            // Hang reports are only a help
+        }
+    }
+
+    private static void write(String text) throws IOException {
+        LOG_FILE.getParentFile().mkdirs();
+        if (LOG_FILE.length() > MAX_LOG_SIZE) {
+            for (int i = LOG_FILES - 1; i > 0; i--) {
+                var older = new File(LOG_FILE.getPath() + "." + i);
+                var newer = i == 1 ? LOG_FILE : new File(LOG_FILE.getPath() + "." + (i - 1));
+                older.delete();
+                newer.renameTo(older);
+            }
+        }
+        try (var out = new FileOutputStream(LOG_FILE, true)) {
+            out.write(text.getBytes(FileOperations.DEFAULT_CHARSET));
+        }
+    }
+
+    private static class SlowEvent {
+        private final long start;
+        private final long nanos;
+        private final AWTEvent event;
+
+        private SlowEvent(long start, long nanos, AWTEvent event) {
+            this.start = start;
+            this.nanos = nanos;
+            this.event = event;
+        }
+    }
+
+    private static class HangReport {
+        private final long start;
+        private final String event;
+        private final LocalDateTime time = LocalDateTime.now();
+        private final List<String> stacks = new ArrayList<>();
+        private final List<String> headers = new ArrayList<>();
+        private long nanos;     // at least
+
+        private HangReport(long start, AWTEvent event) {
+            this.start = start;
+            this.event = String.valueOf(event);
+        }
+
+        private void addSample(long elapsed, StackTraceElement[] trace) {
+            nanos = elapsed;
+            if (stacks.size() == MAX_SAMPLES)
+                return;
+            var stack = new StringBuilder();
+            for (var frame: trace)
+                stack.append("    at ").append(frame).append('\n');
+            String header = String.format("Sample at %d ms", elapsed / 1_000_000);
+            int last = stacks.size() - 1;
+            // A stack which did not change is printed once
+            if (last >= 0 && stacks.get(last).equals(stack.toString())) {
+                headers.set(last, headers.get(last) + ", " + (elapsed / 1_000_000) + " ms");
+            } else {
+                stacks.add(stack.toString());
+                headers.add(header);
+            }
+        }
+
+        public String toString() {
+            var report = new StringBuilder(String.format(
+                "=== Hang at %s: %d ms ===%nEvent: %s%n", time, nanos / 1_000_000, event));
+            if (stacks.isEmpty())
+                report.append("Not sampled\n");
+            for (int i = 0; i < stacks.size(); i++)
+                report.append(headers.get(i)).append('\n').append(stacks.get(i));
+            return report.append('\n').toString();
+        }
+    }
+}
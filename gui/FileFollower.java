@@ -0,0 +1,227 @@
+package gui;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.*;
+import javax.swing.*;
+import javax.swing.text.*;
+import file.FileOperations;
+import metrics.*;
+
+/**
+ * {@code FileFollower} keeps a read-only editor up to date with a file
+ * which is being appended to, such as a log, like {@code tail -f}.
+ *
+ * Only the bytes appended since the last read are read, when the file is
+ * reported changed and at least every {@code jcode.follow.interval} ms
+ * (default 250). They are decoded as they come, a character split between
+ * two reads being completed by the second, and appended to the document
+ * in batches: while the Event Dispatch Thread is busy, text read meanwhile
+ * joins the batch waiting for it. If the caret is at the end of the text,
+ * it stays there, so the view scrolls along.
+ *
+ * A file which gets shorter, or is replaced by another one of the same
+ * name (e.g. by log rotation), is followed again from its start. The
+ * document keeps the last {@code jcode.follow.maxChars} characters
+ * (default 16M); older lines are dropped.
+ */
+public class FileFollower {
+    private static final long POLL_INTERVAL = Long.getLong("jcode.follow.interval", 250);
+    private static final int MAX_CHARS = Integer.getInteger("jcode.follow.maxChars", 16 << 20);
+    private static final int BUFFER_SIZE = 1 << 20;     // bytes read at once
+    private static final String CLIENT_PROPERTY = "fileFollower";
+
+    private static final Counter bytesRead =
+        Metrics.counter("follow.bytes", "Bytes read from followed files");
+    private static final Counter restarts =
+        Metrics.counter("follow.restart", "Followed files truncated or replaced");
+    private static final Histogram appendTime =
+        Metrics.histogram("follow.append", "us", "Time to append a batch of text to a followed file");
+
+    private static final ScheduledExecutorService poller =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "JCode file follower");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final JTextPane textArea;
+    private final Path path;
+    private final ScheduledFuture<?> task;
+    private volatile boolean stopped;
+    // On the poller
+    private long position = -1;     // bytes read so far
+    private Object fileKey;
+    private final CharsetDecoder decoder = FileOperations.DEFAULT_CHARSET.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    // Guarded by {@code this}
+    private final StringBuilder pending = new StringBuilder();  // read, not appended yet
+    private boolean replacing;      // {@code pending} replaces the text
+    private boolean appending;      // an append is queued on the EDT
+
+    /**
+     * Follow {@code file} in {@code textArea}, which shows its text as
+     * read last. This must be called on the Event Dispatch Thread.
+     */
+    public static FileFollower install(JTextPane textArea, File file) {
+        var follower = new FileFollower(textArea, file);
+        textArea.putClientProperty(CLIENT_PROPERTY, follower);
+        return follower;
+    }
+
+    /**
+     * @return the {@code FileFollower} installed in {@code textArea}, or
+     * {@code null}
+     */
+    public static FileFollower of(JTextPane textArea) {
+        return (FileFollower) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private FileFollower(JTextPane textArea, File file) {
+        this.textArea = textArea;
+        this.path = file.toPath();
+        // Go on from the end of the text shown
+        String text = textArea.getText();
+        poller.execute(() -> {
+            position = text.getBytes(FileOperations.DEFAULT_CHARSET).length;
+            fileKey = getFileKey();
+        });
+        task = poller.scheduleWithFixedDelay(this::read, 0, POLL_INTERVAL,
+                                             TimeUnit.MILLISECONDS);
+        textArea.setCaretPosition(textArea.getDocument().getLength());
+    }
+
+    /**
+     * Stop following the file. The text read so far stays.
+     */
+    public void uninstall() {
+        stopped = true;
+        task.cancel(false);
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    /**
+     * Read what was appended to the file now rather than on the next
+     * poll, e.g. because the file is reported changed. This may be called
+     * from any thread.
+     */
+    public void changed() {
+        if (!stopped)
+            poller.execute(this::read);
+    }
+
+    private Object getFileKey() {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void read() {
+        if (stopped)
+            return;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Object key = getFileKey();
+            long size = channel.size();
+            if (size < position || (key != null && fileKey != null && !key.equals(fileKey))) {
+                // Truncated or replaced: the text is that of the new file
+                restarts.increment();
+                position = 0;
+                decoder.reset();
+                bytes.clear();
+                synchronized (this) {
+                    pending.setLength(0);
+                    replacing = true;
+                }
+            }
+            fileKey = key;
+            channel.position(position);
+            while (position < size && !stopped) {
+                int count = channel.read(bytes);
+                if (count <= 0)
+                    break;
+                position += count;
+                bytesRead.add(count);
+                bytes.flip();
+                // A sequence cut short by the end of what was read stays
+                // in {@code bytes} for the next read; {@code chars} holds
+                // as many characters as {@code bytes} has bytes, at least
+                decoder.decode(bytes, chars, false);
+                bytes.compact();
+                chars.flip();
+                offer(chars);
+                chars.clear();
+            }
+        } catch (IOException ex) {
+            // E.g. rotated away, and not created again yet
+        }
+    }
+
+    private void offer(CharBuffer text) {
+        synchronized (this) {
+            pending.append(text);
+            // Text which would be dropped right away is not kept either
+            if (pending.length() > MAX_CHARS) {
+                int end = pending.indexOf("\n", pending.length() - MAX_CHARS);
+                pending.delete(0, end < 0 ? pending.length() - MAX_CHARS : end + 1);
+                replacing = true;
+            }
+            if (appending)
+                return;
+            appending = true;
+        }
+        SwingUtilities.invokeLater(this::append);
+    }
+
+    private void append() {
+        String text;
+        boolean replace;
+        synchronized (this) {
+            text = pending.toString();
+            pending.setLength(0);
+            replace = replacing;
+            replacing = false;
+            appending = false;
+        }
+        if (stopped)
+            return;
+        long start = System.nanoTime();
+        var document = textArea.getStyledDocument();
+        boolean atEnd = textArea.getCaretPosition() == document.getLength();
+        var journal = RecoveryJournal.of(textArea);
+        if (journal != null)
+            journal.suspend();
+        try {
+            if (replace)
+                document.remove(0, document.getLength());
+            document.insertString(document.getLength(), text, null);
+            // Drop the oldest lines
+            int excess = document.getLength() - MAX_CHARS;
+            if (excess > 0) {
+                var root = document.getDefaultRootElement();
+                var line = root.getElement(root.getElementIndex(excess));
+                document.remove(0, Math.min(line.getEndOffset(), document.getLength()));
+            }
+        } catch (BadLocationException ex) {
+
+        }
+        if (journal != null)
+            journal.resume(false, null);
+        // Text read from the file is not an edit
+        var history = EditHistory.of(textArea);
+        if (history != null)
+            history.discardAllEdits();
+        if (atEnd || replace)
+            textArea.setCaretPosition(document.getLength());
+        appendTime.recordSince(start);
+    }
+}
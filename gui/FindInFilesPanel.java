@@ -0,0 +1,246 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.*;
+import javax.swing.tree.*;
+import file.FileSearcher;
+import file.FileSearcher.*;
+import file.SearchQuery;
+import file.TrigramIndex;
+
+/**
+ * The "Find in Files" panel. Searches every text file under the folder
+ * opened in the directory panel, and shows results in a tree as they
+ * arrive.
+ */
+public abstract class FindInFilesPanel extends JPanel {
+    private JTextField queryField;
+    private JCheckBox matchCaseBox;
+    private JCheckBox wholeWordBox;
+    private JCheckBox regexBox;
+    private JButton searchButton;
+    private JButton cancelButton;
+    private JLabel statusLabel;
+    private DefaultMutableTreeNode resultRoot;
+    private DefaultTreeModel resultModel;
+    private JTree resultTree;
+    private SearchWorker worker;
+
+    /**
+     * Implement this abstract method to provide the directory to search in,
+     * or {@code null} if no folder is open.
+     */
+    public abstract File getRootPath();
+
+    /**
+     * Implement this abstract method to specify the action when a match is
+     * chosen from the results.
+     * @param file the file containing the match
+     * @param line the line of the match, starting from 1
+     */
+    public abstract void actionOnSelectingMatch(File file, int line);
+
+    public FindInFilesPanel() {
+        setLayout(new BorderLayout());
+        var font = new Font(Font.SANS_SERIF, Font.PLAIN, Parameters.MESSAGE_FONT_SIZE);
+
+        queryField = new JTextField(24);
+        matchCaseBox = new JCheckBox("Match case");
+        wholeWordBox = new JCheckBox("Whole word");
+        regexBox = new JCheckBox("Regex");
+        searchButton = new JButton(new AbstractAction("Search") {
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        });
+        cancelButton = new JButton(new AbstractAction("Cancel") {
+            public void actionPerformed(ActionEvent e) {
+                cancel();
+            }
+        });
+        cancelButton.setEnabled(false);
+        statusLabel = new JLabel();
+        queryField.addActionListener(e -> search());
+
+        var queryRow = new JPanel(new FlowLayout(FlowLayout.LEFT, Parameters.FRAME_MARGIN, 0));
+        queryRow.add(new JLabel("Find:"));
+        queryRow.add(queryField);
+        queryRow.add(matchCaseBox);
+        queryRow.add(wholeWordBox);
+        queryRow.add(regexBox);
+        queryRow.add(searchButton);
+        queryRow.add(cancelButton);
+        queryRow.add(statusLabel);
+        for (var component: queryRow.getComponents())
+            component.setFont(font);
+        add(queryRow, BorderLayout.NORTH);
+
+        resultRoot = new DefaultMutableTreeNode();
+        resultModel = new DefaultTreeModel(resultRoot);
+        resultTree = new JTree(resultModel);
+        resultTree.setRootVisible(false);
+        resultTree.setShowsRootHandles(true);
+        resultTree.getSelectionModel()
+            .setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
+        resultTree.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    openSelectedMatch();
+            }
+        });
+        resultTree.getInputMap().put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "open match"
+        );
+        resultTree.getActionMap().put("open match", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                openSelectedMatch();
+            }
+        });
+        add(new JScrollPane(resultTree) {
+            public Dimension getPreferredSize() {
+                return new Dimension(Parameters.FRAME_WIDTH - Parameters.DIRECTORY_PANEL_WIDTH,
+                                     Parameters.SHELL_PANEL_HEIGHT);
+            }
+        }, BorderLayout.CENTER);
+    }
+
+    /**
+     * Focus the query field, initializing it with {@code text} if it is
+     * not {@code null}.
+     */
+    public void focusQuery(String text) {
+        if (text != null && !text.isEmpty() && text.indexOf('\n') < 0)
+            queryField.setText(text);
+        queryField.selectAll();
+        queryField.requestFocusInWindow();
+    }
+
+    public void search() {
+        cancel();
+        File root = getRootPath();
+        if (root == null) {
+            statusLabel.setText("No open folder.");
+            return;
+        }
+        if (queryField.getText().isEmpty())
+            return;
+
+        FileSearcher searcher;
+        var query = new SearchQuery(queryField.getText(), regexBox.isSelected(),
+                              wholeWordBox.isSelected(), matchCaseBox.isSelected());
+        try {
+            searcher = new FileSearcher(query);
+        } catch (PatternSyntaxException ex) {
+            statusLabel.setText("Invalid regex");
+            return;
+        }
+
+        resultRoot.removeAllChildren();
+        resultModel.reload();
+        searchButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        statusLabel.setText("Searching...");
+        worker = new SearchWorker(searcher, query, root);
+        worker.execute();
+    }
+
+    public void cancel() {
+        if (worker != null)
+            worker.searcher.cancel();
+    }
+
+    private void openSelectedMatch() {
+        var path = resultTree.getSelectionPath();
+        if (path == null)
+            return;
+        var userObject = ((DefaultMutableTreeNode)
+            path.getLastPathComponent()).getUserObject();
+        if (userObject instanceof Match) {
+            var match = (Match) userObject;
+            actionOnSelectingMatch(match.file, match.line);
+        } else if (userObject instanceof FileNode) {
+            actionOnSelectingMatch(((FileNode) userObject).file, 1);
+        }
+    }
+
+    /**
+     * User object of the tree node of a file.
+     */
+    private static class FileNode {
+        private File file;
+        private String name;
+
+        private FileNode(File root, FileMatches matches) {
+            file = matches.file;
+            String path = file.getPath();
+            String rootPath = root.getPath();
+            name = (path.startsWith(rootPath) ?
+                    path.substring(rootPath.length() + 1) : path) +
+                " (" + matches.matches.size() + ")";
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private class SearchWorker extends SwingWorker<Object, FileMatches> {
+        private FileSearcher searcher;
+        private SearchQuery query;
+        private File root;
+        private int fileCount;
+        private int matchCount;
+
+        public SearchWorker(FileSearcher searcher, SearchQuery query, File root) {
+            this.searcher = searcher;
+            this.query = query;
+            this.root = root;
+        }
+
+        public Object doInBackground() {
+            // Let the trigram index narrow down the files to search
+            List<File> candidates = null;
+            try {
+                candidates = TrigramIndex.forRoot(root).candidates(query);
+            } catch (IOException ex) {
+
+            }
+            if (candidates != null)
+                searcher.search(candidates, this::publish);
+            else
+                searcher.search(root, this::publish);
+            return null;
+        }
+
+        public void process(List<FileMatches> chunks) {
+            if (worker != this)
+                return;
+            for (var matches: chunks) {
+                var fileNode = new DefaultMutableTreeNode(new FileNode(root, matches));
+                for (var match: matches.matches)
+                    fileNode.add(new DefaultMutableTreeNode(match, false));
+                resultModel.insertNodeInto(fileNode, resultRoot,
+                                           resultRoot.getChildCount());
+                resultTree.expandPath(new TreePath(fileNode.getPath()));
+                fileCount++;
+                matchCount += matches.matches.size();
+            }
+            statusLabel.setText(String.format("Searching... %d matches in %d files",
+                                              matchCount, fileCount));
+        }
+
+        public void done() {
+            if (worker != this)
+                return;
+            searchButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+            statusLabel.setText(String.format("%s%d matches in %d files (%d searched)",
+                searcher.isCancelled() ? "Cancelled. " : "",
+                matchCount, fileCount, searcher.getSearchedFiles()));
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import file.SearchQuery;
+import gui.DocumentSearcher.*;
+
+/**
+ * The find/replace bar shown above the text editor. Searching starts as
+ * soon as the query is typed; every keystroke makes the search still
+ * running stale.
+ */
+public abstract class FindReplaceBar extends JPanel {
+    private static final int MAX_HIGHLIGHTS = 5000;
+    private static final Highlighter.HighlightPainter matchPainter =
+        new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
+    private static final Highlighter.HighlightPainter currentPainter =
+        new DefaultHighlighter.DefaultHighlightPainter(Color.ORANGE);
+
+    private JTextField findField;
+    private JTextField replaceField;
+    private JCheckBox matchCaseBox;
+    private JCheckBox wholeWordBox;
+    private JCheckBox regexBox;
+    private JLabel statusLabel;
+    private JPanel replaceRow;
+
+    private DocumentSearcher searcher;
+    private JTextPane target;
+    private SearchQuery query;
+    private Matches matches;
+    private long matchesVersion;
+    private int current = -1;
+    private final ArrayList<Object> highlights = new ArrayList<>();
+
+    /**
+     * Implement this abstract method to provide the text pane to search in,
+     * or {@code null} if there is none.
+     */
+    public abstract JTextPane getTextPane();
+
+    /**
+     * Implement this abstract method to run {@code edits} so that they can
+     * be undone as a single edit.
+     */
+    public abstract void runAsSingleEdit(Runnable edits);
+
+    public FindReplaceBar() {
+        setLayout(new GridLayout(0, 1));
+        var font = new Font(Font.SANS_SERIF, Font.PLAIN, Parameters.MESSAGE_FONT_SIZE);
+
+        findField = new JTextField(20);
+        replaceField = new JTextField(20);
+        matchCaseBox = new JCheckBox("Match case");
+        wholeWordBox = new JCheckBox("Whole word");
+        regexBox = new JCheckBox("Regex");
+        statusLabel = new JLabel();
+
+        var findRow = new JPanel(new FlowLayout(FlowLayout.LEFT, Parameters.FRAME_MARGIN, 0));
+        findRow.add(new JLabel("Find:"));
+        findRow.add(findField);
+        findRow.add(matchCaseBox);
+        findRow.add(wholeWordBox);
+        findRow.add(regexBox);
+        findRow.add(new JButton(new AbstractAction("Previous") {
+            public void actionPerformed(ActionEvent e) {
+                findPrevious();
+            }
+        }));
+        findRow.add(new JButton(new AbstractAction("Next") {
+            public void actionPerformed(ActionEvent e) {
+                findNext();
+            }
+        }));
+        findRow.add(statusLabel);
+        findRow.add(new JButton(new AbstractAction("Close") {
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        }));
+
+        replaceRow = new JPanel(new FlowLayout(FlowLayout.LEFT, Parameters.FRAME_MARGIN, 0));
+        replaceRow.add(new JLabel("Replace:"));
+        replaceRow.add(replaceField);
+        replaceRow.add(new JButton(new AbstractAction("Replace") {
+            public void actionPerformed(ActionEvent e) {
+                replace();
+            }
+        }));
+        replaceRow.add(new JButton(new AbstractAction("Replace All") {
+            public void actionPerformed(ActionEvent e) {
+                replaceAll();
+            }
+        }));
+
+        for (var row: new JPanel[] {findRow, replaceRow})
+            for (var component: row.getComponents())
+                component.setFont(font);
+        add(findRow);
+        add(replaceRow);
+
+        // Search as you type
+        findField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                searchInBackground();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                searchInBackground();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+
+            }
+        });
+        ActionListener optionListener = e -> searchInBackground();
+        matchCaseBox.addActionListener(optionListener);
+        wholeWordBox.addActionListener(optionListener);
+        regexBox.addActionListener(optionListener);
+
+        // Keyboard shortcuts
+        findField.addActionListener(e -> findNext());
+        replaceField.addActionListener(e -> replace());
+        for (var field: new JTextField[] {findField, replaceField}) {
+            field.getInputMap().put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, InputEvent.SHIFT_DOWN_MASK),
+                "find previous"
+            );
+            field.getActionMap().put("find previous", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    findPrevious();
+                }
+            });
+            field.getInputMap().put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "close find bar"
+            );
+            field.getActionMap().put("close find bar", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    close();
+                }
+            });
+        }
+
+        setVisible(false);
+    }
+
+    /**
+     * Show the bar and focus the query field, which is initialized with the
+     * selected text if any.
+     * @param withReplace whether to show the replace row
+     */
+    public void open(boolean withReplace) {
+        replaceRow.setVisible(withReplace);
+        setVisible(true);
+        var textPane = getTextPane();
+        if (textPane != null) {
+            String selected = textPane.getSelectedText();
+            if (selected != null && !selected.isEmpty() && selected.indexOf('\n') < 0)
+                findField.setText(selected);
+        }
+        findField.selectAll();
+        findField.requestFocusInWindow();
+        searchInBackground();
+        revalidate();
+    }
+
+    public void close() {
+        searcher = retarget(null);
+        setVisible(false);
+        revalidate();
+        var textPane = getTextPane();
+        if (textPane != null)
+            textPane.requestFocusInWindow();
+    }
+
+    private SearchQuery currentQuery() {
+        return new SearchQuery(findField.getText(), regexBox.isSelected(),
+                         wholeWordBox.isSelected(), matchCaseBox.isSelected());
+    }
+
+    /**
+     * Make {@code textPane} the target of searching, dropping the state
+     * belonging to the previous target.
+     */
+    private DocumentSearcher retarget(JTextPane textPane) {
+        if (target == textPane && textPane != null && searcher != null &&
+            searcher.getDocument() == textPane.getDocument())
+            return searcher;
+        clearHighlights();
+        if (searcher != null) {
+            searcher.nextGeneration();
+            searcher.dispose();
+        }
+        target = textPane;
+        matches = null;
+        current = -1;
+        return textPane == null ?
+            null : new DocumentSearcher(textPane.getDocument());
+    }
+
+    private void searchInBackground() {
+        if (!isVisible())
+            return;
+        searcher = retarget(getTextPane());
+        if (searcher == null)
+            return;
+        var worker = new SearchWorker(searcher, currentQuery());
+        worker.execute();
+    }
+
+    /**
+     * Make sure {@code matches} is up to date, searching on the calling
+     * thread if it is not.
+     * @return whether there are valid matches
+     */
+    private boolean ensureMatches() {
+        searcher = retarget(getTextPane());
+        if (searcher == null)
+            return false;
+        var newQuery = currentQuery();
+        if (matches == null || !newQuery.equals(query) ||
+            matchesVersion != searcher.getVersion()) {
+            long version = searcher.getVersion();
+            try {
+                showMatches(newQuery, searcher.search(newQuery,
+                            searcher.nextGeneration()), version);
+            } catch (PatternSyntaxException ex) {
+                showError();
+                return false;
+            }
+        }
+        return matches.count > 0;
+    }
+
+    public void findNext() {
+        if (!ensureMatches())
+            return;
+        int from = target.getSelectionStart() == target.getSelectionEnd() ?
+            target.getCaretPosition() : target.getSelectionStart() + 1;
+        int index = matches.indexAtOrAfter(from);
+        select(index == matches.count ? 0 : index);
+    }
+
+    public void findPrevious() {
+        if (!ensureMatches())
+            return;
+        int index = matches.indexAtOrAfter(target.getSelectionStart()) - 1;
+        select(index < 0 ? matches.count - 1 : index);
+    }
+
+    public void replace() {
+        if (!ensureMatches() || target == null || !target.isEditable())
+            return;
+        // Replace the selected match, or go to the next one first
+        if (current < 0 || target.getSelectionStart() != matches.starts[current] ||
+            target.getSelectionEnd() != matches.ends[current]) {
+            findNext();
+            return;
+        }
+        String[] replacements = searcher.expandReplacements(
+            query, matches, replaceField.getText());
+        int start = matches.starts[current];
+        int end = matches.ends[current];
+        String replacement = replacements[current];
+        runAsSingleEdit(() -> {
+            try {
+                ((AbstractDocument) target.getDocument())
+                    .replace(start, end - start, replacement, null);
+            } catch (BadLocationException ex) {
+
+            }
+        });
+        target.setCaretPosition(start + replacement.length());
+        findNext();
+    }
+
+    public void replaceAll() {
+        if (!ensureMatches() || target == null || !target.isEditable())
+            return;
+        String[] replacements = searcher.expandReplacements(
+            query, matches, replaceField.getText());
+        var document = (AbstractDocument) target.getDocument();
+        var replaced = matches;
+        runAsSingleEdit(() -> {
+            // Replace from the end, so that earlier offsets stay valid
+            for (int i = replaced.count - 1; i >= 0; i--) {
+                try {
+                    document.replace(replaced.starts[i],
+                        replaced.ends[i] - replaced.starts[i], replacements[i], null);
+                } catch (BadLocationException ex) {
+
+                }
+            }
+        });
+        Prettifier.prettify(target);
+        clearHighlights();
+        matches = null;
+        statusLabel.setText(String.format("Replaced %d", replaced.count));
+    }
+
+    private void select(int index) {
+        current = index;
+        target.select(matches.starts[index], matches.ends[index]);
+        statusLabel.setText(String.format("%d of %d", index + 1, matches.count));
+        paintHighlights();
+    }
+
+    private void showMatches(SearchQuery newQuery, Matches newMatches, long version) {
+        query = newQuery;
+        matches = newMatches;
+        matchesVersion = version;
+        current = -1;
+        statusLabel.setText(newQuery.pattern.isEmpty() ? "" :
+            matches.count == 0 ? "No results" :
+            String.format("%d results", matches.count));
+        paintHighlights();
+    }
+
+    private void showError() {
+        clearHighlights();
+        matches = null;
+        statusLabel.setText("Invalid regex");
+    }
+
+    private void clearHighlights() {
+        if (target != null) {
+            var highlighter = target.getHighlighter();
+            for (Object tag: highlights)
+                highlighter.removeHighlight(tag);
+        }
+        highlights.clear();
+    }
+
+    private void paintHighlights() {
+        clearHighlights();
+        var highlighter = target.getHighlighter();
+        // Highlighting is linear in the number of matches, so only the
+        // matches around the current one are highlighted
+        int from = Math.max(0, (current < 0 ? 0 : current) - MAX_HIGHLIGHTS / 2);
+        int to = Math.min(matches.count, from + MAX_HIGHLIGHTS);
+        try {
+            for (int i = from; i < to; i++)
+                highlights.add(highlighter.addHighlight(matches.starts[i],
+                    matches.ends[i], i == current ? currentPainter : matchPainter));
+        } catch (BadLocationException ex) {
+
+        }
+    }
+
+    private class SearchWorker extends SwingWorker<Matches, Object> {
+        private DocumentSearcher searcher;
+        private SearchQuery query;
+        private long generation;
+        private long version;
+
+        public SearchWorker(DocumentSearcher searcher, SearchQuery query) {
+            this.searcher = searcher;
+            this.query = query;
+            generation = searcher.nextGeneration();
+            version = searcher.getVersion();
+        }
+
+        public Matches doInBackground() {
+            return searcher.search(query, generation);
+        }
+
+        public void done() {
+            // Drop the result if the target changed or a newer search has
+            // been started in the meantime
+            if (searcher != FindReplaceBar.this.searcher ||
+                !searcher.isCurrent(generation))
+                return;
+            try {
+                showMatches(query, get(), version);
+                if (matches.count > 0) {
+                    // Past the last match, wrap around to the first
+                    int index = matches.indexAtOrAfter(target.getSelectionStart());
+                    select(index == matches.count ? 0 : index);
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof PatternSyntaxException)
+                    showError();
+            } catch (InterruptedException | CancellationException ex) {
+                // A newer search is running
+            }
+        }
+    }
+}
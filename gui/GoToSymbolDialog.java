@@ -0,0 +1,54 @@
+package gui;
+
+import java.awt.Window;
+import java.util.List;
+import javax.swing.SwingUtilities;
+import file.SymbolIndex;
+import file.SymbolIndex.Symbol;
+
+/**
+ * The "Go to Symbol" dialog. Looks up Java declarations under the open
+ * folder by name prefix or camel humps.
+ */
+public abstract class GoToSymbolDialog extends ListSearchDialog<Symbol> {
+    private static final int MAX_RESULTS = 100;
+
+    private SymbolIndex index;
+
+    /**
+     * Implement this abstract method to go to the symbol chosen.
+     * @param symbol the symbol chosen
+     */
+    public abstract void actionOnOpeningSymbol(Symbol symbol);
+
+    /**
+     * @param owner the owner of the dialog
+     * @param index the symbols of the open folder, or {@code null} if no
+     * folder is open
+     */
+    public GoToSymbolDialog(Window owner, SymbolIndex index) {
+        super(owner, "Go to Symbol");
+        this.index = index;
+        // Run the query again once every symbol is in
+        if (index != null && !index.isReady())
+            index.whenReady(() -> SwingUtilities.invokeLater(() -> {
+                if (isDisplayable())
+                    update();
+            }));
+    }
+
+    public List<Symbol> search(String query) {
+        if (index == null) {
+            setStatus("No open folder.");
+            return List.of();
+        }
+        var results = index.search(query, MAX_RESULTS);
+        setStatus((index.isReady() ? "" : "Indexing symbols... ") +
+                  index.size() + " symbols");
+        return results;
+    }
+
+    public void actionOnChoosing(Symbol symbol) {
+        actionOnOpeningSymbol(symbol);
+    }
+}
@@ -0,0 +1,333 @@
+package gui;
+
+import java.util.*;
+
+/**
+ * An {@code IdentifierTrie} counts identifiers and finds the most frequent
+ * ones starting with a prefix, for code completion.
+ *
+ * It is a compressed trie (each edge is labeled with a run of characters),
+ * and every node knows the highest count in its subtree, so finding the
+ * best completions only walks the subtrees that can still beat what has
+ * been found. Lookups write into a {@code Completions} buffer owned by the
+ * caller and do not allocate.
+ *
+ * All methods are thread-safe: documents update the trie on the Event
+ * Dispatch Thread and the symbol index updates it from the background.
+ */
+public class IdentifierTrie {
+    // How many words a batch update handles while holding the lock
+    private static final int BATCH_SIZE = 1024;
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    // Guarded by {@code this}
+    private final Node root = new Node(new char[0]);
+    private int size;
+    private Node[] path = new Node[64];
+
+    /**
+     * @return how many distinct identifiers have a positive count
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Add {@code delta} to the count of {@code text[start, end)}. Words
+     * whose count drops to zero are removed.
+     */
+    public synchronized void add(CharSequence text, int start, int end, int delta) {
+        if (start >= end || delta == 0)
+            return;
+        int depth = 0;
+        Node node = root;
+        int i = start;
+        push(depth++, root);
+        while (i < end) {
+            int index = findChild(node, text.charAt(i));
+            if (index < 0) {
+                if (delta < 0)
+                    return;
+                var child = new Node(toChars(text, i, end));
+                insertChild(node, -index - 1, child);
+                node = child;
+                push(depth++, node);
+                i = end;
+                break;
+            }
+            Node child = node.children[index];
+            int k = commonPrefix(child.label, text, i, end);
+            if (k < child.label.length) {
+                if (delta < 0)
+                    return;
+                // Split the edge
+                var middle = new Node(Arrays.copyOf(child.label, k));
+                child.label = Arrays.copyOfRange(child.label, k, child.label.length);
+                middle.children = new Node[] { child };
+                middle.childCount = 1;
+                middle.best = child.best;
+                node.children[index] = middle;
+                child = middle;
+            }
+            node = child;
+            push(depth++, node);
+            i += k;
+        }
+
+        if (node.count == 0 && delta < 0)
+            return;
+        boolean wasWord = node.count > 0;
+        node.count = Math.max(0, node.count + delta);
+        if (node.count > 0 && !wasWord) {
+            node.word = text.subSequence(start, end).toString();
+            size++;
+        } else if (node.count == 0) {
+            node.word = null;
+            size--;
+            compact(depth);
+        }
+        for (int d = depth - 1; d >= 0; d--)
+            updateBest(path[d]);
+    }
+
+    /**
+     * Add {@code delta} to the count of each of {@code words}. The lock is
+     * released now and then, so that lookups are not held up for long.
+     */
+    public void addAll(List<String> words, int delta) {
+        for (int from = 0; from < words.size(); from += BATCH_SIZE) {
+            synchronized (this) {
+                for (int i = from; i < Math.min(words.size(), from + BATCH_SIZE); i++)
+                    add(words.get(i), 0, words.get(i).length(), delta);
+            }
+        }
+    }
+
+    /**
+     * Find the most frequent identifiers starting with
+     * {@code prefix[start, end)}, other than the prefix itself.
+     * @param prefix the text holding the prefix
+     * @param start start of the prefix
+     * @param end end of the prefix
+     * @param out receives the identifiers, most frequent first
+     * @return the number of identifiers found
+     */
+    public synchronized int complete(CharSequence prefix, int start, int end,
+                                     Completions out) {
+        out.size = 0;
+        Node node = root;
+        int i = start;
+        while (i < end) {
+            int index = findChild(node, prefix.charAt(i));
+            if (index < 0)
+                return 0;
+            Node child = node.children[index];
+            int k = commonPrefix(child.label, prefix, i, end);
+            if (i + k < end && k < child.label.length)
+                return 0;
+            node = child;
+            i += k;
+        }
+        collect(node, end - start, out);
+        out.sort();
+        return out.size;
+    }
+
+    private void collect(Node node, int prefixLength, Completions out) {
+        if (out.isFull() && node.best <= out.counts[0])
+            return;
+        if (node.count > 0 && node.word.length() != prefixLength)
+            out.offer(node.word, node.count);
+        for (int i = 0; i < node.childCount; i++)
+            collect(node.children[i], prefixLength, out);
+    }
+
+    /**
+     * Remove or merge nodes after the word ending at {@code path[depth-1]}
+     * was removed.
+     */
+    private void compact(int depth) {
+        Node node = path[depth - 1];
+        if (depth < 2)
+            return;
+        Node parent = path[depth - 2];
+        if (node.childCount == 0) {
+            removeChild(parent, node);
+            if (depth >= 3 && parent.count == 0 && parent.childCount == 1)
+                merge(parent);
+        } else if (node.childCount == 1) {
+            merge(node);
+        }
+    }
+
+    /**
+     * Merge {@code node}, which has no word, with its only child.
+     */
+    private static void merge(Node node) {
+        Node child = node.children[0];
+        char[] label = Arrays.copyOf(node.label, node.label.length + child.label.length);
+        System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+        node.label = label;
+        node.count = child.count;
+        node.word = child.word;
+        node.children = child.children;
+        node.childCount = child.childCount;
+        node.best = child.best;
+    }
+
+    private static void updateBest(Node node) {
+        int best = node.count;
+        for (int i = 0; i < node.childCount; i++)
+            best = Math.max(best, node.children[i].best);
+        node.best = best;
+    }
+
+    private void push(int depth, Node node) {
+        if (depth == path.length)
+            path = Arrays.copyOf(path, path.length * 2);
+        path[depth] = node;
+    }
+
+    /**
+     * @return index of the child whose label starts with {@code c}, or
+     * {@code -(insertion point) - 1}
+     */
+    private static int findChild(Node node, char c) {
+        int low = 0, high = node.childCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char first = node.children[middle].label[0];
+            if (first < c)
+                low = middle + 1;
+            else if (first > c)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -low - 1;
+    }
+
+    private static void insertChild(Node node, int index, Node child) {
+        if (node.childCount == node.children.length)
+            node.children = Arrays.copyOf(node.children, Math.max(2, node.childCount * 2));
+        System.arraycopy(node.children, index, node.children, index + 1,
+                         node.childCount - index);
+        node.children[index] = child;
+        node.childCount++;
+    }
+
+    private static void removeChild(Node node, Node child) {
+        int index = findChild(node, child.label[0]);
+        if (index < 0)
+            return;
+        System.arraycopy(node.children, index + 1, node.children, index,
+                         node.childCount - index - 1);
+        node.children[--node.childCount] = null;
+    }
+
+    private static int commonPrefix(char[] label, CharSequence text, int start, int end) {
+        int k = 0;
+        while (k < label.length && start + k < end && label[k] == text.charAt(start + k))
+            k++;
+        return k;
+    }
+
+    private static char[] toChars(CharSequence text, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = text.charAt(i);
+        return chars;
+    }
+
+    private static class Node {
+        private char[] label;
+        private int count;
+        private String word;    // non-null when {@code count > 0}
+        private int best;       // highest count in the subtree
+        private Node[] children = NO_CHILDREN;
+        private int childCount;
+
+        private Node(char[] label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * A reusable buffer receiving the result of a lookup. While a lookup is
+     * in progress it is a min-heap on counts.
+     */
+    public static class Completions {
+        public final String[] words;
+        public final int[] counts;
+        public int size;
+
+        /**
+         * @param capacity how many identifiers a lookup returns at most
+         */
+        public Completions(int capacity) {
+            words = new String[capacity];
+            counts = new int[capacity];
+        }
+
+        private boolean isFull() {
+            return size == words.length;
+        }
+
+        private void offer(String word, int count) {
+            if (words.length == 0)
+                return;
+            if (size < words.length) {
+                words[size] = word;
+                counts[size] = count;
+                siftUp(size++);
+            } else if (count > counts[0]) {
+                words[0] = word;
+                counts[0] = count;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Turn the heap into a list, most frequent first.
+         */
+        private void sort() {
+            for (int n = size - 1; n > 0; n--) {
+                swap(0, n);
+                siftDown(0, n);
+            }
+        }
+
+        private void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (counts[parent] <= counts[k])
+                    break;
+                swap(k, parent);
+                k = parent;
+            }
+        }
+
+        private void siftDown(int k, int n) {
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= n)
+                    break;
+                if (child + 1 < n && counts[child + 1] < counts[child])
+                    child++;
+                if (counts[k] <= counts[child])
+                    break;
+                swap(k, child);
+                k = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            String word = words[a];
+            words[a] = words[b];
+            words[b] = word;
+            int count = counts[a];
+            counts[a] = counts[b];
+            counts[b] = count;
+        }
+    }
+}
@@ -1,15 +1,30 @@
 package gui;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.awt.*;
+import java.awt.event.*;
 import javax.swing.*;
-import javax.swing.event.UndoableEditEvent;
+import file.SymbolIndex;
+import file.TrigramIndex;
 
 public class JCodeFrame extends JFrame {
     private DirectoryPanel directoryPanel;
     private TextEditorPanel textEditorPanel;
     private ShellPanel shellPanel;
+    private FindInFilesPanel findInFilesPanel;
+    private ProblemsPanel problemsPanel;
+    private PerformancePanel performancePanel;
+    private JTabbedPane bottomPane;
     private JCodeMenuBar menuBar;
+    private SymbolIndex symbolIndex;
+    // Feeds the names of the symbols of the open folder to completion
+    private final SymbolIndex.Listener completionFeed = (removed, added) -> {
+        var identifiers = textEditorPanel.getIdentifiers();
+        identifiers.addAll(symbolNames(removed), -1);
+        identifiers.addAll(symbolNames(added), 1);
+    };
 
     public JCodeFrame() {
         setMinimumSize(new Dimension(Parameters.MIN_FRAME_WIDTH, 
@@ -19,12 +34,29 @@ public class JCodeFrame extends JFrame {
             public void actionOnSelectingFile(File file) {
                 textEditorPanel.open(file, false);
             }
+
+            public void actionOnSettingRootPath(File root) {
+                // Start indexing the folder in the background
+                try {
+                    TrigramIndex.forRoot(root);
+                    var index = SymbolIndex.forRoot(root);
+                    if (index != symbolIndex) {
+                        if (symbolIndex != null)
+                            symbolIndex.removeListener(completionFeed);
+                        symbolIndex = index;
+                        index.addListener(completionFeed);
+                    }
+                } catch (IOException ex) {
+
+                }
+            }
         }, BorderLayout.WEST);
 
         add(new JPanel() {
             {
                 setLayout(new BorderLayout());
-                add(shellPanel = new ShellPanel() {
+                add(bottomPane = new JTabbedPane(), BorderLayout.SOUTH);
+                bottomPane.addTab("Terminal", shellPanel = new ShellPanel() {
                     public void actionOnCommandExecution() {
                         File rootPath;
                         if ((rootPath = directoryPanel.getRootPath()) != null) {
@@ -35,7 +67,26 @@ public class JCodeFrame extends JFrame {
                             }
                         }
                     };
-                }, BorderLayout.SOUTH);
+                });
+                bottomPane.addTab("Find in Files", findInFilesPanel = new FindInFilesPanel() {
+                    public File getRootPath() {
+                        return directoryPanel.getRootPath();
+                    }
+
+                    public void actionOnSelectingMatch(File file, int line) {
+                        textEditorPanel.open(file, false, line);
+                    }
+                });
+                bottomPane.addTab("Problems", problemsPanel = new ProblemsPanel() {
+                    public File getRootPath() {
+                        return directoryPanel.getRootPath();
+                    }
+
+                    public void actionOnSelectingProblem(File file, int line) {
+                        textEditorPanel.open(file, false, line);
+                    }
+                });
+                bottomPane.addTab("Performance", performancePanel = new PerformancePanel());
                 add(textEditorPanel = new TextEditorPanel() {
                     public void actionOnCreatingFile() {
                         File rootPath;
@@ -51,27 +102,37 @@ public class JCodeFrame extends JFrame {
                     public void actionOnNonzeroTabs() {
                         menuBar.saveItem.setEnabled(true);
                         menuBar.saveAsItem.setEnabled(true);
+                        menuBar.saveAllItem.setEnabled(true);
                         menuBar.closeItem.setEnabled(true);
-                        menuBar.undoItem.setEnabled(true);
-                        menuBar.redoItem.setEnabled(true);
                         menuBar.cutItem.setEnabled(true);
                         menuBar.copyItem.setEnabled(true);
                         menuBar.pasteItem.setEnabled(true);
+                        menuBar.findItem.setEnabled(true);
+                        menuBar.replaceItem.setEnabled(true);
                     }
 
                     public void actionOnZeroTabs() {
                         menuBar.saveItem.setEnabled(false);
                         menuBar.saveAsItem.setEnabled(false);
+                        menuBar.saveAllItem.setEnabled(false);
                         menuBar.closeItem.setEnabled(false);
-                        menuBar.undoItem.setEnabled(false);
-                        menuBar.redoItem.setEnabled(false);
+                        menuBar.undoAction.updateUndoState();
+                        menuBar.redoAction.updateRedoState();
                         menuBar.cutItem.setEnabled(false);
                         menuBar.copyItem.setEnabled(false);
                         menuBar.pasteItem.setEnabled(false);
+                        menuBar.findItem.setEnabled(false);
+                        menuBar.replaceItem.setEnabled(false);
+                        getFindReplaceBar().close();
                     }
 
-                    public void undoableEditHappened(UndoableEditEvent e) {
-                        menuBar.undo.addEdit(e.getEdit());
+                    public File getRootPath() {
+                        return directoryPanel.getRootPath();
+                    }
+
+                    public void actionOnEditHistoryChanged() {
+                        if (menuBar == null)
+                            return;
                         menuBar.undoAction.updateUndoState();
                         menuBar.redoAction.updateRedoState();
                     }
@@ -81,8 +142,110 @@ public class JCodeFrame extends JFrame {
 
         setJMenuBar(menuBar = new JCodeMenuBar(textEditorPanel, 
                                                directoryPanel,
-                                               shellPanel));
+                                               shellPanel) {
+            public void actionOnFindInFiles() {
+                bottomPane.setSelectedComponent(findInFilesPanel);
+                var selectedPane = (TextEditorPanel.NamedScrollPane)
+                    textEditorPanel.getEditorPane().getSelectedComponent();
+                findInFilesPanel.focusQuery(selectedPane == null ?
+                    null : selectedPane.component.getSelectedText());
+            }
+
+            public void actionOnBuild(boolean rebuild) {
+                bottomPane.setSelectedComponent(problemsPanel);
+                problemsPanel.build(textEditorPanel.getOpenDocuments(), rebuild);
+            }
+
+            public void actionOnShowPerformance() {
+                bottomPane.setSelectedComponent(performancePanel);
+            }
+
+            public void actionOnExit() {
+                saveSession();
+            }
+        });
         pack();
+
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                // As File > Exit
+                saveSession();
+                textEditorPanel.closeAll(() -> System.exit(0));
+            }
+        });
+
+        // The last session, and the terminals, wait until the frame has
+        // painted
+        Startup.defer(this::restoreSession);
+    }
+
+    private void restoreSession() {
+        var session = Session.load();
+        if (session == null) {
+            shellPanel.spawnShell();
+            recoverUnsavedEdits();
+            return;
+        }
+        if (session.root != null && session.root.isDirectory()) {
+            try {
+                directoryPanel.setRootPath(session.root, session.expandedPaths);
+            } catch (IOException ex) {
+
+            }
+        }
+        textEditorPanel.restoreTabs(session);
+        if (session.terminalDirectories.isEmpty())
+            shellPanel.spawnShell();
+        for (File directory: session.terminalDirectories)
+            shellPanel.spawnShell(directory);
+        recoverUnsavedEdits();
+    }
+
+    /**
+     * Offer to reopen the documents whose unsaved edits were left in
+     * recovery journals, e.g. because JCode was killed.
+     */
+    private void recoverUnsavedEdits() {
+        var recoverable = RecoveryJournal.findRecoverable();
+        if (recoverable.isEmpty())
+            return;
+        int result = JOptionPane.showConfirmDialog(this,
+            "Unsaved edits of " + recoverable.size() + " file(s) were left " +
+            "from the last run. Recover them?",
+            "Recover",
+            JOptionPane.YES_NO_OPTION);
+        if (result != JOptionPane.YES_OPTION) {
+            RecoveryJournal.discard(recoverable);
+            return;
+        }
+        for (var recovered: recoverable)
+            textEditorPanel.openRecovered(recovered);
+    }
+
+    private void saveSession() {
+        var session = new Session();
+        session.root = directoryPanel.getRootPath();
+        session.expandedPaths.addAll(directoryPanel.getExpandedPaths());
+        textEditorPanel.saveTabs(session);
+        session.terminalDirectories.addAll(shellPanel.getWorkingDirectories());
+        try {
+            session.save();
+        } catch (IOException ex) {
+
+        }
+    }
+
+    public void paint(Graphics g) {
+        super.paint(g);
+        Startup.painted();
+    }
+
+    private static List<String> symbolNames(List<SymbolIndex.Symbol> symbols) {
+        var names = new ArrayList<String>(symbols.size());
+        for (var symbol: symbols)
+            if (symbol.kind != SymbolIndex.Symbol.Kind.PACKAGE)
+                names.add(symbol.name);
+        return names;
     }
 }
 
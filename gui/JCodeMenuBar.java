@@ -4,10 +4,13 @@ import java.io.*;
 import java.awt.Toolkit;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.*;
 import javax.swing.undo.*;
 import gui.TextEditorPanel.*;
+import file.SymbolIndex;
+import metrics.Recordings;
 
-public class JCodeMenuBar extends JMenuBar {
+public abstract class JCodeMenuBar extends JMenuBar {
     private static final int MASK = 
         Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
     private TextEditorPanel textEditorPanel;
@@ -16,9 +19,11 @@ public class JCodeMenuBar extends JMenuBar {
     public JMenuItem newItem;
     public JMenuItem openItem;
     public JMenuItem openReadOnlyItem;
+    public JCheckBoxMenuItem followItem;
     public JMenuItem openFolderItem;
     public JMenuItem saveItem;
     public JMenuItem saveAsItem;
+    public JMenuItem saveAllItem;
     public JMenuItem closeItem;
     public JMenuItem exitItem;
     public JMenuItem undoItem;
@@ -26,11 +31,41 @@ public class JCodeMenuBar extends JMenuBar {
     public JMenuItem cutItem;
     public JMenuItem copyItem;
     public JMenuItem pasteItem;
+    public JMenuItem findItem;
+    public JMenuItem replaceItem;
+    public JMenuItem findInFilesItem;
+    public JMenuItem goToFileItem;
+    public JMenuItem goToSymbolItem;
+    public JMenuItem buildItem;
+    public JMenuItem rebuildAllItem;
+    public JMenuItem performanceItem;
+    public JMenuItem flightRecordingItem;
     public JMenuItem newTerminalItem;
 
     protected UndoAction undoAction;
     protected RedoAction redoAction;
-    protected UndoManager undo = new UndoManager();
+
+    /**
+     * Implement this abstract method to show the "Find in Files" panel.
+     */
+    public abstract void actionOnFindInFiles();
+
+    /**
+     * Implement this abstract method to build the open folder.
+     * @param rebuild whether to compile everything rather than what changed
+     */
+    public abstract void actionOnBuild(boolean rebuild);
+
+    /**
+     * Implement this abstract method to show the "Performance" panel.
+     */
+    public abstract void actionOnShowPerformance();
+
+    /**
+     * Implement this abstract method to specify what to do when JCode is
+     * about to exit, before any tab is closed.
+     */
+    public abstract void actionOnExit();
 
     public JCodeMenuBar(TextEditorPanel textEditorPanel,
                         DirectoryPanel directoryPanel,
@@ -40,7 +75,10 @@ public class JCodeMenuBar extends JMenuBar {
         this.shellPanel = shellPanel;
         initializeFileMenu();
         initializeEditMenu();
+        initializeGoMenu();
+        initializeBuildMenu();
         initializeTerminalMenu();
+        initializeToolsMenu();
     }
 
     private void initializeFileMenu() {
@@ -57,20 +95,43 @@ public class JCodeMenuBar extends JMenuBar {
 
         openItem = fileMenu.add(new AbstractAction("Open...") {
             public void actionPerformed(ActionEvent e) {
-                int choice = textEditorPanel.openChooser.showOpenDialog(textEditorPanel);
+                var chooser = textEditorPanel.getOpenChooser();
+                int choice = chooser.showOpenDialog(textEditorPanel);
                 if (choice == JFileChooser.APPROVE_OPTION)
-                    textEditorPanel.open(
-                        textEditorPanel.openChooser.getSelectedFile(), false);
+                    textEditorPanel.open(chooser.getSelectedFile(), false);
             }
         });
         openItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, MASK));
 
         openReadOnlyItem = fileMenu.add(new AbstractAction("Open Read-only...") {
             public void actionPerformed(ActionEvent e) {
-                int choice = textEditorPanel.openChooser.showOpenDialog(textEditorPanel);
+                var chooser = textEditorPanel.getOpenChooser();
+                int choice = chooser.showOpenDialog(textEditorPanel);
                 if (choice == JFileChooser.APPROVE_OPTION)
-                    textEditorPanel.open(
-                        textEditorPanel.openChooser.getSelectedFile(), true);
+                    textEditorPanel.open(chooser.getSelectedFile(), true);
+            }
+        });
+
+        // For read-only tabs, e.g. of logs
+        followItem = new JCheckBoxMenuItem(new AbstractAction("Follow") {
+            public void actionPerformed(ActionEvent e) {
+                textEditorPanel.setFollowingSelected(followItem.isSelected());
+            }
+        });
+        followItem.setEnabled(false);
+        fileMenu.add(followItem);
+        fileMenu.addMenuListener(new MenuListener() {
+            public void menuSelected(MenuEvent e) {
+                followItem.setEnabled(textEditorPanel.canFollowSelected());
+                followItem.setSelected(textEditorPanel.isFollowingSelected());
+            }
+
+            public void menuDeselected(MenuEvent e) {
+
+            }
+
+            public void menuCanceled(MenuEvent e) {
+
             }
         });
 
@@ -110,6 +171,15 @@ public class JCodeMenuBar extends JMenuBar {
                                                          MASK | KeyEvent.SHIFT_DOWN_MASK));
         saveAsItem.setEnabled(false);
 
+        saveAllItem = fileMenu.add(new AbstractAction("Save All") {
+            public void actionPerformed(ActionEvent e) {
+                textEditorPanel.saveAll(() -> {});
+            }
+        });
+        saveAllItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S,
+                                                          MASK | KeyEvent.ALT_DOWN_MASK));
+        saveAllItem.setEnabled(false);
+
         fileMenu.addSeparator();
 
         closeItem = fileMenu.add(new AbstractAction("Close") {
@@ -124,41 +194,10 @@ public class JCodeMenuBar extends JMenuBar {
 
         exitItem = fileMenu.add(new AbstractAction("Exit") {
             public void actionPerformed(ActionEvent e) {
-                /**
-                 * Why do we need to run the following code in a new thread?
-                 * 
-                 * If we do not do so, the {@code actionPerformed()} method
-                 * will execute in the Event Dispatch Thread.
-                 * 
-                 * Thus we would be calling {@code textEditorPanel.save()}
-                 * from the Event Dispatch Thread, and then {@code wait()}.
-                 * Since {@code textEditorPanel.save()} further invokes a
-                 * {@code SwingWorker}, which eventually spawns a dialog
-                 * once again in the Event Dispatch Thread, the dialog may
-                 * be blocked by the {@code wait()} call in exactly the
-                 * same thread. What we will see is incompletely painted
-                 * dialog which would be not responsive.
-                 * 
-                 * As a remedy we run {@code textEditorPanel.save()} and
-                 * {@code wait()} in a different thread from the Event
-                 * Dispatch Thread, which would prevent the Event Dispatch
-                 * Thread from blocking.
-                 */
-                
-                new Thread(() -> {
-                    var pane = textEditorPanel.getEditorPane();
-                    synchronized (textEditorPanel.closeLock) {
-                        while (pane.getSelectedComponent() != null) {
-                            textEditorPanel.save(SaveOption.CLOSE);
-                            try {
-                                textEditorPanel.closeLock.wait();
-                            } catch (InterruptedException ex) {
-
-                            }
-                        }
-                    }
-                    System.exit(0);
-                }).start();
+                actionOnExit();
+                // The files with unsaved edits are written off the Event
+                // Dispatch Thread; JCode exits once the last is written
+                textEditorPanel.closeAll(() -> System.exit(0));
             }
         });
 
@@ -207,14 +246,109 @@ public class JCodeMenuBar extends JMenuBar {
         pasteItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_V, MASK));
         pasteItem.setEnabled(false);
 
+        editMenu.addSeparator();
+
+        findItem = editMenu.add(new AbstractAction("Find...") {
+            public void actionPerformed(ActionEvent e) {
+                textEditorPanel.getFindReplaceBar().open(false);
+            }
+        });
+        findItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, MASK));
+        findItem.setEnabled(false);
+
+        replaceItem = editMenu.add(new AbstractAction("Replace...") {
+            public void actionPerformed(ActionEvent e) {
+                textEditorPanel.getFindReplaceBar().open(true);
+            }
+        });
+        replaceItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_R, MASK));
+        replaceItem.setEnabled(false);
+
+        findInFilesItem = editMenu.add(new AbstractAction("Find in Files...") {
+            public void actionPerformed(ActionEvent e) {
+                actionOnFindInFiles();
+            }
+        });
+        findInFilesItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, 
+                                                              MASK | KeyEvent.SHIFT_DOWN_MASK));
+
         add(editMenu);
     }
 
+    private void initializeGoMenu() {
+        var goMenu = new JMenu("Go");
+        goToFileItem = goMenu.add(new AbstractAction("Go to File...") {
+            public void actionPerformed(ActionEvent e) {
+                var dialog = new QuickOpenDialog(
+                    SwingUtilities.getWindowAncestor(textEditorPanel),
+                    directoryPanel.getRootPath(), directoryPanel.getPathIndex()) {
+                    public void actionOnOpeningFile(File file) {
+                        textEditorPanel.open(file, false);
+                    }
+                };
+                // Still enumerating: search again once done
+                if (directoryPanel.getRootPath() != null && directoryPanel.getPathIndex() == null)
+                    directoryPanel.whenPathIndexReady(
+                        () -> dialog.setIndex(directoryPanel.getPathIndex()));
+                dialog.open();
+            }
+        });
+        goToFileItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_P, MASK));
+
+        goToSymbolItem = goMenu.add(new AbstractAction("Go to Symbol...") {
+            public void actionPerformed(ActionEvent e) {
+                SymbolIndex index = null;
+                if (directoryPanel.getRootPath() != null) {
+                    try {
+                        index = SymbolIndex.forRoot(directoryPanel.getRootPath());
+                    } catch (IOException ex) {
+
+                    }
+                }
+                new GoToSymbolDialog(SwingUtilities.getWindowAncestor(textEditorPanel),
+                                     index) {
+                    public void actionOnOpeningSymbol(SymbolIndex.Symbol symbol) {
+                        textEditorPanel.open(symbol.file, false, symbol.line);
+                    }
+                }.open();
+            }
+        });
+        goToSymbolItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O,
+                                                             MASK | KeyEvent.SHIFT_DOWN_MASK));
+
+        add(goMenu);
+    }
+
+    private void initializeBuildMenu() {
+        var buildMenu = new JMenu("Build");
+        buildItem = buildMenu.add(new AbstractAction("Build") {
+            public void actionPerformed(ActionEvent e) {
+                actionOnBuild(false);
+            }
+        });
+        buildItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_B, MASK));
+
+        rebuildAllItem = buildMenu.add(new AbstractAction("Rebuild All") {
+            public void actionPerformed(ActionEvent e) {
+                actionOnBuild(true);
+            }
+        });
+        rebuildAllItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_B,
+                                                             MASK | KeyEvent.SHIFT_DOWN_MASK));
+
+        add(buildMenu);
+    }
+
     private void initializeTerminalMenu() {
         var terminalMenu = new JMenu("Terminal");
         newTerminalItem = terminalMenu.add(new AbstractAction("New Terminal") {
             public void actionPerformed(ActionEvent e) {
-                shellPanel.spawnShell();
+                // In the open folder, if any
+                File root = directoryPanel.getRootPath();
+                if (root != null)
+                    shellPanel.spawnShell(root);
+                else
+                    shellPanel.spawnShell();
             }
         });
         newTerminalItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_T, MASK));
@@ -222,17 +356,49 @@ public class JCodeMenuBar extends JMenuBar {
         add(terminalMenu);
     }
 
+    private void initializeToolsMenu() {
+        var toolsMenu = new JMenu("Tools");
+        performanceItem = toolsMenu.add(new AbstractAction("Performance") {
+            public void actionPerformed(ActionEvent e) {
+                actionOnShowPerformance();
+            }
+        });
+
+        flightRecordingItem = toolsMenu.add(new AbstractAction("Start Flight Recording") {
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    if (!Recordings.isRecording()) {
+                        Recordings.start();
+                        putValue(NAME, "Stop Flight Recording");
+                        return;
+                    }
+                    putValue(NAME, "Start Flight Recording");
+                    File file = Recordings.stop();
+                    JOptionPane.showMessageDialog(textEditorPanel,
+                        "Recording saved to " + file + ".\n" +
+                        "Open it with JDK Mission Control or \"jfr print\".",
+                        "Flight Recording", JOptionPane.INFORMATION_MESSAGE);
+                } catch (IOException | RuntimeException ex) {
+                    JOptionPane.showMessageDialog(textEditorPanel,
+                        "Error: " + ex.getMessage(),
+                        "Flight Recording error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+
+        add(toolsMenu);
+    }
+
     public static class OpenFolderAction extends AbstractAction {
-        private JFileChooser chooser;
         private DirectoryPanel directoryPanel;
     
         public OpenFolderAction(String name, DirectoryPanel directoryPanel) {
             super(name);
-            this.chooser = directoryPanel.getFileChooser();
             this.directoryPanel = directoryPanel;
         }
     
         public void actionPerformed(ActionEvent e) {
+            var chooser = directoryPanel.getFileChooser();
             int result = chooser.showOpenDialog(directoryPanel);
     
             if (result == JFileChooser.APPROVE_OPTION) {
@@ -258,8 +424,10 @@ public class JCodeMenuBar extends JMenuBar {
         }
  
         public void actionPerformed(ActionEvent e) {
+            var history = textEditorPanel.getSelectedEditHistory();
             try {
-                undo.undo();
+                if (history != null)
+                    history.undo();
             } catch (CannotUndoException ex) {
 
             }
@@ -268,7 +436,8 @@ public class JCodeMenuBar extends JMenuBar {
         }
  
         protected void updateUndoState() {
-            if (undo.canUndo())
+            var history = textEditorPanel.getSelectedEditHistory();
+            if (history != null && history.canUndo())
                 setEnabled(true);
             else 
                 setEnabled(false);
@@ -282,8 +451,10 @@ public class JCodeMenuBar extends JMenuBar {
         }
  
         public void actionPerformed(ActionEvent e) {
+            var history = textEditorPanel.getSelectedEditHistory();
             try {
-                undo.redo();
+                if (history != null)
+                    history.redo();
             } catch (CannotRedoException ex) {
 
             }
@@ -292,7 +463,8 @@ public class JCodeMenuBar extends JMenuBar {
         }
  
         protected void updateRedoState() {
-            if (undo.canRedo())
+            var history = textEditorPanel.getSelectedEditHistory();
+            if (history != null && history.canRedo())
                 setEnabled(true);
             else
                 setEnabled(false);
@@ -0,0 +1,180 @@
+package gui;
+
+import java.io.File;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import javax.tools.Diagnostic;
+import compile.CompileService.Problem;
+import lsp.*;
+import lsp.LanguageServerClient.Change;
+
+/**
+ * {@code LanguageServerSupport} connects a text pane to the language server
+ * configured for its file, if any.
+ *
+ * Every document event becomes a range change in protocol positions,
+ * which a {@code LineIndex} computes from the line structure before the
+ * change. Changes made while handling one event are sent together, in
+ * order, as one {@code textDocument/didChange}. Problems published by the
+ * server are shown by the {@code LiveDiagnostics} of the pane, and
+ * completions are offered by its {@code Autocompleter}; a new completion
+ * request cancels the one still running.
+ */
+public class LanguageServerSupport implements LanguageServerClient.DiagnosticsListener {
+    private static final String CLIENT_PROPERTY = "languageServerSupport";
+
+    private final JTextPane textArea;
+    private final Document document;
+    private final File file;
+    private final LanguageServerClient client;
+    private final String uri;
+    private final LineIndex lines;
+    private final DocumentListener listener;
+    private final ArrayList<Change> changes = new ArrayList<>();
+    private int version;
+    private boolean flushScheduled;
+    private CompletableFuture<List<String>> completion;
+
+    /**
+     * Connect {@code textArea} to the server of {@code file}. This must be
+     * done after the {@code Autocompleter} and {@code LiveDiagnostics} are
+     * installed.
+     * @param root the open folder, or {@code null}
+     * @return the support installed, or {@code null} if no server is
+     * configured for {@code file}
+     */
+    public static LanguageServerSupport install(JTextPane textArea, File file, File root) {
+        if (file == null)
+            return null;
+        var client = LanguageServers.forFile(root, file);
+        if (client == null)
+            return null;
+        var support = new LanguageServerSupport(textArea, file, client);
+        textArea.putClientProperty(CLIENT_PROPERTY, support);
+        return support;
+    }
+
+    /**
+     * @return the {@code LanguageServerSupport} installed in
+     * {@code textArea}, or {@code null}
+     */
+    public static LanguageServerSupport of(JTextPane textArea) {
+        return (LanguageServerSupport) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private LanguageServerSupport(JTextPane textArea, File file, LanguageServerClient client) {
+        this.textArea = textArea;
+        this.document = textArea.getDocument();
+        this.file = file;
+        this.client = client;
+        uri = file.getAbsoluteFile().toPath().toUri().toString();
+        String text = textArea.getText();
+        lines = new LineIndex(text);
+        client.addDiagnosticsListener(this);
+        client.didOpen(uri, LanguageServers.languageIdOf(file), version, text);
+
+        listener = new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                int[] position = lines.positionOf(e.getOffset());
+                String inserted;
+                try {
+                    inserted = document.getText(e.getOffset(), e.getLength());
+                } catch (BadLocationException ex) {
+                    return;
+                }
+                changes.add(new Change(position[0], position[1], position[0], position[1],
+                                       inserted));
+                lines.insert(e.getOffset(), inserted);
+                scheduleFlush();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                // The index still has the lines from before the removal
+                int[] start = lines.positionOf(e.getOffset());
+                int[] end = lines.positionOf(e.getOffset() + e.getLength());
+                changes.add(new Change(start[0], start[1], end[0], end[1], ""));
+                lines.remove(e.getOffset(), e.getLength());
+                scheduleFlush();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                // Styles are not part of the text
+            }
+        };
+        document.addDocumentListener(listener);
+
+        var autocompleter = Autocompleter.of(textArea);
+        if (autocompleter != null)
+            autocompleter.setCompletionSource(this::complete);
+    }
+
+    /**
+     * Disconnect from the server, e.g. because the tab is closed.
+     */
+    public void uninstall() {
+        flush();
+        document.removeDocumentListener(listener);
+        client.removeDiagnosticsListener(this);
+        client.didClose(uri);
+        if (completion != null)
+            completion.cancel(true);
+        var autocompleter = Autocompleter.of(textArea);
+        if (autocompleter != null)
+            autocompleter.setCompletionSource(null);
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled)
+            return;
+        flushScheduled = true;
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (changes.isEmpty())
+            return;
+        var batch = new ArrayList<>(changes);
+        changes.clear();
+        client.didChange(uri, ++version, batch, textArea::getText);
+    }
+
+    private void complete(int start, int end, Consumer<List<String>> callback) {
+        // The server must have seen the word before being asked about it
+        flush();
+        if (completion != null)
+            completion.cancel(true);
+        int[] position = lines.positionOf(end);
+        completion = client.completion(uri, position[0], position[1]);
+        completion.thenAccept(callback);
+    }
+
+    public void diagnosticsPublished(String uri, List<LanguageServerClient.Diagnostic> diagnostics) {
+        if (!uri.equals(this.uri))
+            return;
+        SwingUtilities.invokeLater(() -> {
+            var liveDiagnostics = LiveDiagnostics.of(textArea);
+            if (liveDiagnostics == null || of(textArea) != this)
+                return;
+            int length = document.getLength();
+            var problems = new ArrayList<Problem>();
+            for (var diagnostic: diagnostics) {
+                int start = lines.offsetOf(diagnostic.startLine, diagnostic.startCharacter,
+                                           length);
+                int end = lines.offsetOf(diagnostic.endLine, diagnostic.endCharacter, length);
+                problems.add(new Problem(file, diagnostic.startLine + 1,
+                    diagnostic.startCharacter + 1, start, Math.max(start, end),
+                    diagnostic.severity == LanguageServerClient.Diagnostic.ERROR ?
+                        Diagnostic.Kind.ERROR : Diagnostic.Kind.WARNING,
+                    diagnostic.message));
+            }
+            liveDiagnostics.showProblems(problems);
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.event.*;
+
+/**
+ * A small modeless dialog with a query field above a list of results, as
+ * used by "Go to File". The results are recomputed on every keystroke.
+ * @param <T> type of the results
+ */
+public abstract class ListSearchDialog<T> extends JDialog {
+    private JTextField queryField;
+    private DefaultListModel<T> listModel;
+    private JList<T> list;
+    private JLabel statusLabel;
+
+    /**
+     * Implement this abstract method to compute the results for
+     * {@code query}. It is called on the Event Dispatch Thread, so it must
+     * be fast.
+     * @param query the query
+     * @return the results, best first
+     */
+    public abstract List<T> search(String query);
+
+    /**
+     * Implement this abstract method to specify the action when a result
+     * is chosen. The dialog is closed before.
+     * @param item the result chosen
+     */
+    public abstract void actionOnChoosing(T item);
+
+    public ListSearchDialog(Window owner, String title) {
+        super(owner, title, ModalityType.MODELESS);
+        var font = new Font(Font.SANS_SERIF, Font.PLAIN, Parameters.MESSAGE_FONT_SIZE);
+
+        queryField = new JTextField(40);
+        queryField.setFont(font);
+        listModel = new DefaultListModel<>();
+        list = new JList<>(listModel);
+        list.setFont(font);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(font);
+
+        queryField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                update();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                update();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+
+            }
+        });
+        queryField.addActionListener(e -> choose());
+        bind(queryField, KeyEvent.VK_UP, "previous result", () -> moveSelection(-1));
+        bind(queryField, KeyEvent.VK_DOWN, "next result", () -> moveSelection(1));
+        bind(queryField, KeyEvent.VK_ESCAPE, "close", this::dispose);
+        list.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    choose();
+            }
+        });
+
+        var content = new JPanel(new BorderLayout(0, Parameters.FRAME_MARGIN));
+        content.setBorder(BorderFactory.createEmptyBorder(
+            Parameters.FRAME_MARGIN, Parameters.FRAME_MARGIN,
+            Parameters.FRAME_MARGIN, Parameters.FRAME_MARGIN));
+        content.add(queryField, BorderLayout.NORTH);
+        content.add(new JScrollPane(list) {
+            public Dimension getPreferredSize() {
+                return new Dimension(Parameters.FRAME_WIDTH / 2,
+                                     Parameters.FRAME_HEIGHT / 2);
+            }
+        }, BorderLayout.CENTER);
+        content.add(statusLabel, BorderLayout.SOUTH);
+        setContentPane(content);
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    /**
+     * Show the dialog and focus the query field.
+     */
+    public void open() {
+        update();
+        setVisible(true);
+        queryField.requestFocusInWindow();
+    }
+
+    /**
+     * Set the text shown below the results.
+     */
+    protected void setStatus(String status) {
+        statusLabel.setText(status == null || status.isEmpty() ? " " : status);
+    }
+
+    /**
+     * Run the query again, e.g. because the data behind it changed.
+     */
+    protected void update() {
+        var results = search(queryField.getText());
+        listModel.clear();
+        listModel.addAll(results);
+        if (!results.isEmpty())
+            list.setSelectedIndex(0);
+    }
+
+    private void moveSelection(int delta) {
+        int size = listModel.getSize();
+        if (size == 0)
+            return;
+        int index = Math.floorMod(list.getSelectedIndex() + delta, size);
+        list.setSelectedIndex(index);
+        list.ensureIndexIsVisible(index);
+    }
+
+    private void choose() {
+        T item = list.getSelectedValue();
+        if (item == null)
+            return;
+        dispose();
+        actionOnChoosing(item);
+    }
+
+    private static void bind(JComponent component, int key, String name,
+                             Runnable action) {
+        component.getInputMap().put(KeyStroke.getKeyStroke(key, 0), name);
+        component.getActionMap().put(name, new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,291 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import compile.CompileService;
+import compile.CompileService.Problem;
+import metrics.*;
+
+/**
+ * {@code LiveDiagnostics} shows compile errors and warnings in a text pane
+ * while it is being edited.
+ *
+ * Once the document has been left alone for {@code IDLE_DELAY}
+ * milliseconds, a snapshot of its text is parsed and attributed in the
+ * background by the {@code CompileService} of the open folder. Any edit
+ * makes the running analysis stale; it is abandoned at the next phase of
+ * the compiler, and its result is never shown. Problems are underlined
+ * with squiggles, and hovering over one shows its message. The markers
+ * hold {@code Position}s, so they move with the text until the next
+ * analysis replaces them.
+ *
+ * Documents attached to a language server show its problems instead.
+ */
+public class LiveDiagnostics {
+    private static final int IDLE_DELAY = 600;
+    private static final String CLIENT_PROPERTY = "liveDiagnostics";
+    private static final SquigglePainter errorPainter = new SquigglePainter(Color.RED);
+    private static final SquigglePainter warningPainter =
+        new SquigglePainter(new Color(0xC0, 0x90, 0x00));
+    // Analyses of all documents run one at a time, at low priority
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "JCode live diagnostics");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Instrumentation, over all documents
+    private static final Counter startedRuns =
+        Metrics.counter("analysis.started", "Live analyses started");
+    private static final Counter finishedRuns =
+        Metrics.counter("analysis.finished", "Live analyses whose problems were shown");
+    private static final Counter cancelledRuns =
+        Metrics.counter("analysis.cancelled", "Live analyses cancelled by an edit");
+    private static final Histogram latency =
+        Metrics.histogram("analysis.latency", "us", "Time from snapshot to problems found");
+    private static final Histogram edtTime =
+        Metrics.histogram("analysis.edt", "us", "Event Dispatch Thread time per step of an analysis");
+
+    private final JTextPane textArea;
+    private final Supplier<File> file;
+    private final Supplier<File> root;
+    private final Timer idleTimer;
+    // Bumped by every edit; a run is stale once it differs from its own
+    private final AtomicLong generation = new AtomicLong();
+    private final ArrayList<Marker> markers = new ArrayList<>();
+    private boolean running;
+
+    /**
+     * Install {@code LiveDiagnostics} in {@code textArea}.
+     * @param file supplies the file shown, or {@code null} if untitled
+     * @param root supplies the open folder, or {@code null} if none
+     */
+    public static LiveDiagnostics install(JTextPane textArea, Supplier<File> file,
+                                          Supplier<File> root) {
+        var diagnostics = new LiveDiagnostics(textArea, file, root);
+        textArea.putClientProperty(CLIENT_PROPERTY, diagnostics);
+        return diagnostics;
+    }
+
+    /**
+     * @return the {@code LiveDiagnostics} installed in {@code textArea}, or
+     * {@code null}
+     */
+    public static LiveDiagnostics of(JTextPane textArea) {
+        return (LiveDiagnostics) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private LiveDiagnostics(JTextPane textArea, Supplier<File> file, Supplier<File> root) {
+        this.textArea = textArea;
+        this.file = file;
+        this.root = root;
+        idleTimer = new Timer(IDLE_DELAY, e -> analyze());
+        idleTimer.setRepeats(false);
+        textArea.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                edited();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                edited();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                // Only styles changed
+            }
+        });
+        textArea.addMouseMotionListener(new MouseMotionAdapter() {
+            public void mouseMoved(MouseEvent e) {
+                showMessageAt(e.getPoint());
+            }
+        });
+    }
+
+    /**
+     * Stop analyzing, and remove the markers.
+     */
+    public void uninstall() {
+        idleTimer.stop();
+        generation.incrementAndGet();
+        clearMarkers();
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    private void edited() {
+        if (running)
+            cancelledRuns.increment();
+        running = false;
+        generation.incrementAndGet();
+        idleTimer.restart();
+    }
+
+    /**
+     * Start analyzing a snapshot of the document.
+     */
+    private void analyze() {
+        File source = file.get();
+        File folder = root.get();
+        if (source == null || folder == null || !source.getName().endsWith(".java") ||
+            LanguageServerSupport.of(textArea) != null)
+            return;
+        long edtStart = System.nanoTime();
+        String text = textArea.getText();
+        long runGeneration = generation.get();
+        running = true;
+        edtTime.recordSince(edtStart);
+
+        startedRuns.increment();
+        long startTime = System.nanoTime();
+        analyzer.execute(() -> {
+            List<Problem> problems;
+            try {
+                if (generation.get() != runGeneration)
+                    throw new CancellationException();
+                problems = CompileService.forRoot(folder)
+                    .analyze(source.getCanonicalFile(), text,
+                             () -> generation.get() != runGeneration);
+            } catch (CancellationException ex) {
+                return;
+            } catch (IOException ex) {
+                problems = List.of();
+            }
+            long runLatency = System.nanoTime() - startTime;
+            var result = problems;
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() != runGeneration)
+                    return;
+                running = false;
+                finishedRuns.increment();
+                latency.recordNanos(runLatency);
+                long applyStart = System.nanoTime();
+                showProblems(result);
+                edtTime.recordSince(applyStart);
+            });
+        });
+    }
+
+    /**
+     * Replace the markers, e.g. with the problems a language server
+     * reported. Offsets of {@code problems} must be those of the current
+     * text. This must be called on the Event Dispatch Thread.
+     */
+    public void showProblems(List<Problem> problems) {
+        clearMarkers();
+        var document = textArea.getDocument();
+        var highlighter = textArea.getHighlighter();
+        int length = document.getLength();
+        for (var problem: problems) {
+            if (problem.start < 0)
+                continue;
+            int start = (int) Math.min(problem.start, length);
+            int end = (int) Math.min(Math.max(problem.end, start), length);
+            // Make a marker at least one character wide, if possible
+            if (start == end) {
+                if (end < length)
+                    end++;
+                else if (start > 0)
+                    start--;
+            }
+            try {
+                var tag = highlighter.addHighlight(start, end,
+                    problem.isError() ? errorPainter : warningPainter);
+                markers.add(new Marker(document.createPosition(start),
+                                       document.createPosition(end), tag, problem));
+            } catch (BadLocationException ex) {
+
+            }
+        }
+    }
+
+    private void clearMarkers() {
+        var highlighter = textArea.getHighlighter();
+        for (var marker: markers)
+            highlighter.removeHighlight(marker.tag);
+        markers.clear();
+        textArea.setToolTipText(null);
+    }
+
+    private void showMessageAt(Point point) {
+        if (markers.isEmpty())
+            return;
+        int offset = textArea.viewToModel2D(point);
+        String message = null;
+        for (var marker: markers) {
+            if (marker.start.getOffset() <= offset && offset < marker.end.getOffset()) {
+                message = marker.problem.message;
+                break;
+            }
+        }
+        // The tool tip manager picks the text up as the mouse moves
+        textArea.setToolTipText(message == null ? null : toHtml(message));
+    }
+
+    private static String toHtml(String message) {
+        return "<html><pre>" + message.replace("&", "&amp;").replace("<", "&lt;")
+                                      .replace(">", "&gt;") + "</pre></html>";
+    }
+
+    private static class Marker {
+        private final Position start;
+        private final Position end;
+        private final Object tag;   // of the highlight
+        private final Problem problem;
+
+        private Marker(Position start, Position end, Object tag, Problem problem) {
+            this.start = start;
+            this.end = end;
+            this.tag = tag;
+            this.problem = problem;
+        }
+    }
+
+    /**
+     * Paints a wavy underline below the highlighted text.
+     */
+    private static class SquigglePainter extends LayeredHighlighter.LayerPainter {
+        private static final int AMPLITUDE = 2;
+        private final Color color;
+
+        private SquigglePainter(Color color) {
+            this.color = color;
+        }
+
+        public void paint(Graphics g, int offs0, int offs1, Shape bounds,
+                          JTextComponent c) {
+            // Only called by highlighters which are not layered
+        }
+
+        public Shape paintLayer(Graphics g, int offs0, int offs1, Shape bounds,
+                                JTextComponent c, View view) {
+            Rectangle r;
+            if (offs0 == view.getStartOffset() && offs1 == view.getEndOffset()) {
+                r = bounds.getBounds();
+            } else {
+                try {
+                    r = view.modelToView(offs0, Position.Bias.Forward,
+                                         offs1, Position.Bias.Backward, bounds).getBounds();
+                } catch (BadLocationException ex) {
+                    return null;
+                }
+            }
+            g.setColor(color);
+            int y = r.y + r.height - AMPLITUDE - 1;
+            for (int x = r.x; x < r.x + r.width; x += 2 * AMPLITUDE) {
+                g.drawLine(x, y, x + AMPLITUDE, y + AMPLITUDE);
+                g.drawLine(x + AMPLITUDE, y + AMPLITUDE, x + 2 * AMPLITUDE, y);
+            }
+            return r;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package gui;
+
+import java.awt.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+
+/**
+ * {@code LongLineView} shows a line too long to be laid out as a whole,
+ * e.g. of minified code or of a JSON dump, longer than
+ * {@code jcode.longLine.threshold} characters (default 10,000).
+ *
+ * The line is cut into rows of {@code jcode.longLine.chunk} characters
+ * (default 1,000), one under another, so that the view is no wider than
+ * a row however long the line is. Rows take no layout: as the font is
+ * monospaced, all of them are as high, and where a row is follows from
+ * its number. Only the rows in sight are measured and painted, and
+ * without colors; {@code Prettifier} leaves such lines alone.
+ */
+public class LongLineView extends View {
+    public static final int THRESHOLD = Integer.getInteger("jcode.longLine.threshold", 10_000);
+    public static final int CHUNK = Integer.getInteger("jcode.longLine.chunk", 1_000);
+
+    private final Segment segment = new Segment();
+
+    /**
+     * @return the kit of an editor showing each line longer than
+     * {@code THRESHOLD} by a {@code LongLineView}
+     */
+    public static StyledEditorKit createEditorKit() {
+        return new StyledEditorKit() {
+            private final ViewFactory styledFactory = super.getViewFactory();
+            private final ViewFactory factory = element -> {
+                String name = element.getName();
+                if (AbstractDocument.SectionElementName.equals(name))
+                    return new SectionView(element);
+                if (AbstractDocument.ParagraphElementName.equals(name) && isLong(element))
+                    return new LongLineView(element);
+                return styledFactory.create(element);
+            };
+
+            public ViewFactory getViewFactory() {
+                return factory;
+            }
+        };
+    }
+
+    private static boolean isLong(Element element) {
+        return element.getEndOffset() - element.getStartOffset() > THRESHOLD;
+    }
+
+    /**
+     * The view of the whole text. Views are only made along with their
+     * lines, and a line edited in place keeps its view, e.g. the line left
+     * when a file is loaded into an empty document; so the view of a line
+     * is made anew once the line grows past {@code THRESHOLD}, or shrinks
+     * below it.
+     */
+    private static class SectionView extends BoxView {
+        private SectionView(Element element) {
+            super(element, Y_AXIS);
+        }
+
+        public void insertUpdate(DocumentEvent event, Shape allocation, ViewFactory factory) {
+            super.insertUpdate(event, allocation, factory);
+            recreate(event.getOffset(), event.getOffset() + event.getLength(), factory);
+        }
+
+        public void removeUpdate(DocumentEvent event, Shape allocation, ViewFactory factory) {
+            super.removeUpdate(event, allocation, factory);
+            recreate(event.getOffset(), event.getOffset(), factory);
+        }
+
+        private void recreate(int start, int end, ViewFactory factory) {
+            int first = getViewIndex(start, Position.Bias.Forward);
+            int last = getViewIndex(end, Position.Bias.Forward);
+            if (first < 0)
+                return;
+            if (last < 0)
+                last = getViewCount() - 1;
+            boolean replaced = false;
+            for (int i = first; i <= last; i++) {
+                var view = getView(i);
+                if (view instanceof LongLineView != isLong(view.getElement())) {
+                    replace(i, 1, new View[] {factory.create(view.getElement())});
+                    replaced = true;
+                }
+            }
+            if (replaced)
+                preferenceChanged(null, true, true);
+        }
+    }
+
+    public LongLineView(Element element) {
+        super(element);
+    }
+
+    private FontMetrics getFontMetrics() {
+        var container = getContainer();
+        return container.getFontMetrics(container.getFont());
+    }
+
+    private int getRowCount() {
+        // The line terminator ends the last row
+        int length = getEndOffset() - getStartOffset() - 1;
+        return Math.max(1, (length + CHUNK - 1) / CHUNK);
+    }
+
+    private int getRowStart(int row) {
+        return getStartOffset() + row * CHUNK;
+    }
+
+    // Without the line terminator, which every paragraph ends with
+    private int getRowEnd(int row) {
+        return Math.min(getRowStart(row) + CHUNK, getEndOffset() - 1);
+    }
+
+    private Segment getRowText(int start, int end) {
+        try {
+            getDocument().getText(start, end - start, segment);
+        } catch (BadLocationException ex) {
+            segment.count = 0;
+        }
+        return segment;
+    }
+
+    public float getPreferredSpan(int axis) {
+        var metrics = getFontMetrics();
+        if (axis == X_AXIS)
+            return CHUNK * metrics.charWidth('m') + 1;
+        return getRowCount() * metrics.getHeight();
+    }
+
+    public void paint(Graphics g, Shape allocation) {
+        var bounds = allocation.getBounds();
+        var clip = g.getClipBounds();
+        if (clip == null)
+            clip = bounds;
+        var container = getContainer();
+        var metrics = getFontMetrics();
+        int height = metrics.getHeight();
+        int first = Math.max(0, (clip.y - bounds.y) / height);
+        int last = Math.min(getRowCount() - 1, (clip.y + clip.height - bounds.y) / height);
+        var highlighter = container instanceof JTextComponent
+            ? ((JTextComponent) container).getHighlighter() : null;
+        g.setFont(container.getFont());
+        for (int row = first; row <= last; row++) {
+            int start = getRowStart(row);
+            int end = getRowEnd(row);
+            // The selection, and the matches of a search
+            if (highlighter instanceof LayeredHighlighter)
+                ((LayeredHighlighter) highlighter).paintLayeredHighlights(
+                    g, start, end, allocation, (JTextComponent) container, this);
+            g.setColor(container.getForeground());
+            Utilities.drawTabbedText(getRowText(start, end), (float) bounds.x,
+                                     bounds.y + row * height + metrics.getAscent(),
+                                     (Graphics2D) g, null, start);
+        }
+    }
+
+    public Shape modelToView(int position, Shape allocation, Position.Bias bias)
+        throws BadLocationException {
+        if (position < getStartOffset() || position > getEndOffset())
+            throw new BadLocationException("Not in view", position);
+        var bounds = allocation.getBounds();
+        var metrics = getFontMetrics();
+        int row = Math.min((position - getStartOffset()) / CHUNK, getRowCount() - 1);
+        // Between two rows, at the end of the first, or the start of the next
+        if (bias == Position.Bias.Backward && row > 0 && position == getRowStart(row))
+            row--;
+        int start = getRowStart(row);
+        int x = bounds.x + (int) Utilities.getTabbedTextWidth(
+            getRowText(start, Math.min(position, getRowEnd(row))), metrics, (float) bounds.x,
+            null, start);
+        return new Rectangle(x, bounds.y + row * metrics.getHeight(), 0, metrics.getHeight());
+    }
+
+    public Shape modelToView(int p0, Position.Bias b0, int p1, Position.Bias b1,
+                             Shape allocation) throws BadLocationException {
+        var r0 = modelToView(p0, allocation, b0).getBounds();
+        var r1 = modelToView(p1, allocation, b1).getBounds();
+        if (r0.y != r1.y) {
+            // Several rows: as wide as the view
+            var bounds = allocation.getBounds();
+            r0.x = bounds.x;
+            r0.width = bounds.width;
+        }
+        r0.add(r1);
+        return r0;
+    }
+
+    public int viewToModel(float x, float y, Shape allocation, Position.Bias[] biasReturn) {
+        var bounds = allocation.getBounds();
+        var metrics = getFontMetrics();
+        int row = (int) ((y - bounds.y) / metrics.getHeight());
+        row = Math.max(0, Math.min(row, getRowCount() - 1));
+        int start = getRowStart(row);
+        int end = getRowEnd(row);
+        biasReturn[0] = Position.Bias.Forward;
+        int offset = start + Utilities.getTabbedTextOffset(getRowText(start, end), metrics,
+                                                           bounds.x, x, null, start, true);
+        return Math.min(offset, end);
+    }
+
+    public void insertUpdate(DocumentEvent event, Shape allocation, ViewFactory factory) {
+        changed();
+    }
+
+    public void removeUpdate(DocumentEvent event, Shape allocation, ViewFactory factory) {
+        changed();
+    }
+
+    public void changedUpdate(DocumentEvent event, Shape allocation, ViewFactory factory) {
+        changed();
+    }
+
+    // The number of rows may differ, and any row may have moved
+    private void changed() {
+        preferenceChanged(null, false, true);
+        var container = getContainer();
+        if (container != null)
+            container.repaint();
+    }
+}
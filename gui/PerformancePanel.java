@@ -0,0 +1,134 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.*;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.table.*;
+import metrics.*;
+
+/**
+ * The "Performance" panel. Shows every metric of {@code Metrics}: counts,
+ * rates over the last refresh, and for histograms the mean, percentiles
+ * and maximum. It is refreshed every {@code REFRESH_INTERVAL} while shown.
+ */
+public class PerformancePanel extends JPanel {
+    private static final int REFRESH_INTERVAL = 1000;    // ms
+    private static final String[] COLUMNS = {
+        "Metric", "Count", "Rate (/s)", "Mean", "p50", "p90", "p99", "Max", "Unit"
+    };
+    private static final Class<?>[] COLUMN_CLASSES = {
+        String.class, Long.class, Double.class, Double.class,
+        Long.class, Long.class, Long.class, Long.class, String.class
+    };
+
+    private final MetricTableModel model = new MetricTableModel();
+    private final JTable table;
+    private final Timer refreshTimer;
+
+    public PerformancePanel() {
+        setLayout(new BorderLayout());
+        var font = new Font(Font.SANS_SERIF, Font.PLAIN, Parameters.MESSAGE_FONT_SIZE);
+
+        var resetButton = new JButton("Reset");
+        resetButton.setFont(font);
+        resetButton.addActionListener(e -> {
+            Metrics.resetAll();
+            model.refresh();
+        });
+        var buttonRow = new JPanel(new FlowLayout(FlowLayout.LEFT, Parameters.FRAME_MARGIN, 0));
+        buttonRow.add(resetButton);
+        var hint = new JLabel("Also exposed over JMX as jcode:type=Metrics");
+        hint.setFont(font);
+        buttonRow.add(hint);
+        add(buttonRow, BorderLayout.NORTH);
+
+        table = new JTable(model) {
+            public String getToolTipText(MouseEvent e) {
+                int row = rowAtPoint(e.getPoint());
+                return row < 0 ? null : model.getMetric(convertRowIndexToModel(row))
+                                             .getDescription();
+            }
+        };
+        table.setFont(font);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(200);
+        add(new JScrollPane(table) {
+            public Dimension getPreferredSize() {
+                return new Dimension(Parameters.FRAME_WIDTH - Parameters.DIRECTORY_PANEL_WIDTH,
+                                     Parameters.SHELL_PANEL_HEIGHT);
+            }
+        }, BorderLayout.CENTER);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL, e -> {
+            if (isShowing())
+                model.refresh();
+        });
+        refreshTimer.start();
+    }
+
+    private static class MetricTableModel extends AbstractTableModel {
+        private List<Metric> metrics = new ArrayList<>();
+        private Object[][] rows = new Object[0][];
+        // Counts at the last refresh, for rates
+        private final HashMap<Metric, Long> lastCounts = new HashMap<>();
+        private long lastRefresh = System.nanoTime();
+
+        private void refresh() {
+            long now = System.nanoTime();
+            double seconds = (now - lastRefresh) / 1e9;
+            lastRefresh = now;
+            metrics = Metrics.getAll();
+            rows = new Object[metrics.size()][];
+            for (int i = 0; i < rows.length; i++) {
+                var metric = metrics.get(i);
+                long count = metric.getCount();
+                Long last = lastCounts.put(metric, count);
+                // Unknown on the first refresh, and after a reset
+                Double rate = last == null || count < last ? null :
+                    Math.round((count - last) / seconds * 10) / 10.0;
+                if (metric instanceof Histogram) {
+                    var histogram = (Histogram) metric;
+                    rows[i] = new Object[] {
+                        metric.getName(), count, rate,
+                        Math.round(histogram.getMean() * 10) / 10.0,
+                        histogram.getP50(), histogram.getP90(), histogram.getP99(),
+                        histogram.getMax(), histogram.getUnit()
+                    };
+                } else {
+                    // Cells which do not apply are left empty
+                    rows[i] = new Object[] {
+                        metric.getName(), count, rate, null, null, null, null, null, null
+                    };
+                }
+            }
+            fireTableDataChanged();
+        }
+
+        private Metric getMetric(int row) {
+            return metrics.get(row);
+        }
+
+        public int getRowCount() {
+            return rows.length;
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Class<?> getColumnClass(int column) {
+            return COLUMN_CLASSES[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            return rows[row][column];
+        }
+    }
+}
@@ -2,11 +2,13 @@ package gui;
 
 import java.awt.Color;
 import java.awt.event.*;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.concurrent.*;
 import java.util.regex.*;
 import javax.swing.*;
 import javax.swing.text.*;
+import metrics.*;
 
 public class Prettifier {
     private static final String[] keywords 
@@ -30,81 +32,181 @@ public class Prettifier {
                 StyleConstants.setForeground(this, Color.BLACK);
             }
         };
+    // By kind of span
+    private static final AttributeSet[] attributeSets = {
+        foreground(Color.MAGENTA.darker()),
+        foreground(Color.BLUE),
+        foreground(Color.GREEN.darker().darker()),
+        foreground(Color.ORANGE.darker())
+    };
+    private static final Pattern STRING = Pattern.compile("\"(?:\\\\\"|[^\"])*?\"");
+    private static final Pattern WORD = Pattern.compile("(\\w+)");
+    private static final Pattern METHOD = Pattern.compile("(\\w+)\\s*\\(");
+    // ref: https://stackoverflow.com/questions/13014947/regex-to-match-a-c-style-multiline-comment
+    private static final Pattern BLOCK_COMMENT =
+        Pattern.compile("/\\*[^*]*\\*+(?:[^/*][^*]*\\*+)*/");
+    private static final Pattern LINE_COMMENT = Pattern.compile("//.*");
     private static final ExecutorService prettifierThreads = 
         Executors.newCachedThreadPool();
+    private static final Histogram prettifyTime =
+        Metrics.histogram("highlight.lexical.time", "us", "Time to color a whole document");
+    private static final Counter prettifyChars =
+        Metrics.counter("highlight.lexical.chars", "Characters colored");
 
     public static boolean isKeyword(String word) {
         return keywordSet.contains(word);        
     }
 
+    private static AttributeSet foreground(Color color) {
+        var attributeSet = new SimpleAttributeSet();
+        StyleConstants.setForeground(attributeSet, color);
+        return attributeSet;
+    }
+
+    /**
+     * Color the text of {@code textArea}.
+     */
     public static void prettify(JTextPane textArea) {
+        prettify(textArea, null);
+    }
+
+    /**
+     * Color the text of {@code textArea} with {@code spans}, computed by
+     * {@code lex()} from exactly that text, e.g. off the Event Dispatch
+     * Thread or earlier.
+     * @param spans the tokens of the text, or {@code null} to lex it now
+     */
+    public static void prettify(JTextPane textArea, Spans spans) {
+        var event = new HighlightEvent();
+        event.begin();
+        long start = System.nanoTime();
         var document = textArea.getStyledDocument();
+        if (spans == null) {
+            try {
+                spans = lex(document.getText(0, document.getLength()));
+            } catch (BadLocationException ex) {
+                return;
+            }
+        }
         document.setCharacterAttributes(0, document.getLength(), 
             defaultAttributeSet, true);
+        for (int i = 0; i < spans.size; i++)
+            document.setCharacterAttributes(spans.starts[i], spans.lengths[i],
+                                            attributeSets[spans.kinds[i]], true);
 
-        String text = null;
-        try {
-            text = document.getText(0, document.getLength());
-        } catch (BadLocationException ex) {
+        // Color identifiers by what they name, as of the last parse
+        var semanticHighlighter = SemanticHighlighter.of(textArea);
+        if (semanticHighlighter != null)
+            semanticHighlighter.apply();
+        int length = document.getLength();
+        prettifyTime.recordSince(start);
+        prettifyChars.add(length);
+        event.pass = HighlightEvent.LEXICAL;
+        event.chars = length;
+        event.commit();
+    }
 
+    /**
+     * Find the tokens to color in {@code text}. Lines longer than
+     * {@code LongLineView.THRESHOLD} are not colored, and not even lexed:
+     * the text between them is lexed piece by piece. This may run on any
+     * thread.
+     */
+    public static Spans lex(String text) {
+        var spans = new Spans();
+        int start = 0;
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0)
+                lineEnd = text.length();
+            if (lineEnd - lineStart > LongLineView.THRESHOLD) {
+                lex(text, start, lineStart, spans);
+                start = lineEnd;
+            }
+            lineStart = lineEnd + 1;
         }
+        lex(text, start, text.length(), spans);
+        spans.trim();
+        return spans;
+    }
+
+    private static void lex(String text, int start, int end, Spans spans) {
+        if (start >= end)
+            return;
 
         // Color strings
         // ref: https://stackoverflow.com/questions/18547501/regex-to-replace-all-string-literals-in-a-java-file
-        Matcher stringMatcher = Pattern.compile("\"(?:\\\\\"|[^\"])*?\"").matcher(text);
-        var stringAttributeSet = new SimpleAttributeSet();
-        StyleConstants.setForeground(stringAttributeSet, Color.MAGENTA.darker());
-        while (stringMatcher.find()) {
-            int stringBegin = stringMatcher.start();
-            int stringEnd = stringMatcher.end();
-            document.setCharacterAttributes(stringBegin, stringEnd - stringBegin, 
-                stringAttributeSet, true);
-        }
+        Matcher stringMatcher = STRING.matcher(text).region(start, end);
+        while (stringMatcher.find())
+            spans.add(stringMatcher.start(), stringMatcher.end(), Spans.STRING);
 
         // Color keywords
-        Matcher wordMatcher = Pattern.compile("(\\w+)").matcher(text);
-        var keywordAttributeSet = new SimpleAttributeSet();
-        StyleConstants.setForeground(keywordAttributeSet, Color.BLUE);
-        while (wordMatcher.find()) {
-            int wordBegin = wordMatcher.start();
-            int wordEnd = wordMatcher.end();
+        Matcher wordMatcher = WORD.matcher(text).region(start, end);
+        while (wordMatcher.find())
             if (isKeyword(wordMatcher.group()))
-                document.setCharacterAttributes(wordBegin, wordEnd - wordBegin, 
-                    keywordAttributeSet, true);
-        }
+                spans.add(wordMatcher.start(), wordMatcher.end(), Spans.KEYWORD);
         
         // Color method calls
-        Matcher methodMatcher = Pattern.compile("(\\w+)\\s*\\(").matcher(text);
-        var methodAttributeSet = new SimpleAttributeSet();
-        StyleConstants.setForeground(methodAttributeSet, Color.GREEN.darker().darker());
-        while (methodMatcher.find()) {
-            int methodBegin = methodMatcher.start(1);
-            int methodEnd = methodMatcher.end(1);
+        Matcher methodMatcher = METHOD.matcher(text).region(start, end);
+        while (methodMatcher.find())
             if (!isKeyword(methodMatcher.group(1)))
-                document.setCharacterAttributes(methodBegin, methodEnd - methodBegin, 
-                    methodAttributeSet, true);
-        }
+                spans.add(methodMatcher.start(1), methodMatcher.end(1), Spans.METHOD);
 
         // Color comments
-        var commentAttributeSet = new SimpleAttributeSet();
-        StyleConstants.setForeground(commentAttributeSet, Color.ORANGE.darker());
-
-        // ref: https://stackoverflow.com/questions/13014947/regex-to-match-a-c-style-multiline-comment
-        Matcher blockCommentMatcher = Pattern.compile("/\\*[^*]*\\*+(?:[^/*][^*]*\\*+)*/").matcher(text);
-        while (blockCommentMatcher.find()) {
-            int blockCommentBegin = blockCommentMatcher.start();
-            int blockCommentEnd = blockCommentMatcher.end();
-            document.setCharacterAttributes(blockCommentBegin, 
-                blockCommentEnd - blockCommentBegin, 
-                commentAttributeSet, true);
+        Matcher blockCommentMatcher = BLOCK_COMMENT.matcher(text).region(start, end);
+        while (blockCommentMatcher.find())
+            spans.add(blockCommentMatcher.start(), blockCommentMatcher.end(), Spans.COMMENT);
+        Matcher lineCommentMatcher = LINE_COMMENT.matcher(text).region(start, end);
+        while (lineCommentMatcher.find())
+            spans.add(lineCommentMatcher.start(), lineCommentMatcher.end(), Spans.COMMENT);
+    }
+
+    /**
+     * The tokens of a text, each a span of one kind, in the order they are
+     * colored: a later span takes over the colors of an earlier one.
+     */
+    public static class Spans {
+        public static final byte STRING = 0;
+        public static final byte KEYWORD = 1;
+        public static final byte METHOD = 2;
+        public static final byte COMMENT = 3;
+
+        private int[] starts = new int[64];
+        private int[] lengths = new int[64];
+        private byte[] kinds = new byte[64];
+        private int size;
+
+        private void add(int start, int end, byte kind) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+            }
+            starts[size] = start;
+            lengths[size] = end - start;
+            kinds[size] = kind;
+            size++;
         }
-        Matcher lineCommentMatcher = Pattern.compile("//.*").matcher(text);
-        while (lineCommentMatcher.find()) {
-            int lineCommentBegin = lineCommentMatcher.start();
-            int lineCommentEnd = lineCommentMatcher.end();
-            document.setCharacterAttributes(lineCommentBegin, 
-                lineCommentEnd - lineCommentBegin, 
-                commentAttributeSet, true);
+
+        private void trim() {
+            starts = Arrays.copyOf(starts, size);
+            lengths = Arrays.copyOf(lengths, size);
+            kinds = Arrays.copyOf(kinds, size);
+        }
+
+        /**
+         * @return the number of spans
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return about how many bytes the spans take
+         */
+        public long getSizeInBytes() {
+            return 64 + 9L * starts.length;
         }
     }
 
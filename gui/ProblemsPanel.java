@@ -0,0 +1,166 @@
+package gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.swing.*;
+import compile.CompileService;
+import compile.CompileService.*;
+
+/**
+ * The "Problems" panel. Builds the Java sources under the open folder in
+ * the background, and lists the errors and warnings of the last build.
+ */
+public abstract class ProblemsPanel extends JPanel {
+    private JLabel statusLabel;
+    private DefaultListModel<Problem> problemModel;
+    private JList<Problem> problemList;
+    private BuildWorker worker;
+    private boolean pendingRebuild;
+    private Map<File, String> pendingBuffers;
+
+    /**
+     * Implement this abstract method to provide the directory to build,
+     * or {@code null} if no folder is open.
+     */
+    public abstract File getRootPath();
+
+    /**
+     * Implement this abstract method to specify the action when a problem
+     * is chosen from the list.
+     * @param file the file containing the problem
+     * @param line the line of the problem, starting from 1
+     */
+    public abstract void actionOnSelectingProblem(File file, int line);
+
+    public ProblemsPanel() {
+        setLayout(new BorderLayout());
+        var font = new Font(Font.SANS_SERIF, Font.PLAIN, Parameters.MESSAGE_FONT_SIZE);
+
+        statusLabel = new JLabel("Not built yet.");
+        statusLabel.setFont(font);
+        var statusRow = new JPanel(new FlowLayout(FlowLayout.LEFT, Parameters.FRAME_MARGIN, 0));
+        statusRow.add(statusLabel);
+        add(statusRow, BorderLayout.NORTH);
+
+        problemModel = new DefaultListModel<>();
+        problemList = new JList<>(problemModel);
+        problemList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        problemList.setCellRenderer(new DefaultListCellRenderer() {
+            public Component getListCellRendererComponent(JList<?> list, Object value,
+                int index, boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, describe((Problem) value),
+                                                          index, isSelected, cellHasFocus);
+            }
+        });
+        problemList.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2)
+                    openSelectedProblem();
+            }
+        });
+        problemList.getInputMap().put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "open problem"
+        );
+        problemList.getActionMap().put("open problem", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                openSelectedProblem();
+            }
+        });
+        add(new JScrollPane(problemList) {
+            public Dimension getPreferredSize() {
+                return new Dimension(Parameters.FRAME_WIDTH - Parameters.DIRECTORY_PANEL_WIDTH,
+                                     Parameters.SHELL_PANEL_HEIGHT);
+            }
+        }, BorderLayout.CENTER);
+    }
+
+    /**
+     * Build the open folder. If a build is running, another one starts
+     * when it finishes.
+     * @param buffers text of the documents open in the editor, by file
+     * @param rebuild whether to compile everything rather than what changed
+     */
+    public void build(Map<File, String> buffers, boolean rebuild) {
+        if (worker != null) {
+            pendingBuffers = buffers;
+            pendingRebuild |= rebuild;
+            return;
+        }
+        File root = getRootPath();
+        if (root == null) {
+            statusLabel.setText("No open folder.");
+            return;
+        }
+        statusLabel.setText(rebuild ? "Rebuilding..." : "Building...");
+        worker = new BuildWorker(root, buffers, rebuild);
+        worker.execute();
+    }
+
+    private void openSelectedProblem() {
+        var problem = problemList.getSelectedValue();
+        if (problem != null && problem.file != null)
+            actionOnSelectingProblem(problem.file, (int) Math.max(1, problem.line));
+    }
+
+    private String describe(Problem problem) {
+        String location = "";
+        if (problem.file != null) {
+            String path = problem.file.getPath();
+            File root = getRootPath();
+            if (root != null && path.startsWith(root.getPath() + File.separator))
+                path = path.substring(root.getPath().length() + 1);
+            location = path + ":" + problem.line + ": ";
+        }
+        // Only the first line; the rest shows the source line
+        String message = problem.message;
+        int newline = message.indexOf('\n');
+        if (newline >= 0)
+            message = message.substring(0, newline);
+        return (problem.isError() ? "error: " : "warning: ") + location + message;
+    }
+
+    private class BuildWorker extends SwingWorker<BuildResult, Object> {
+        private File root;
+        private Map<File, String> buffers;
+        private boolean rebuild;
+
+        public BuildWorker(File root, Map<File, String> buffers, boolean rebuild) {
+            this.root = root;
+            this.buffers = buffers;
+            this.rebuild = rebuild;
+        }
+
+        public BuildResult doInBackground() throws IOException {
+            return CompileService.forRoot(root).build(buffers, rebuild);
+        }
+
+        public void done() {
+            worker = null;
+            try {
+                var result = get();
+                problemModel.clear();
+                problemModel.addAll(result.problems);
+                int errors = result.getErrorCount();
+                statusLabel.setText(String.format(
+                    "%s: %d errors, %d warnings. Compiled %d of %d files in %d ms.",
+                    errors == 0 ? "Build succeeded" : "Build failed", errors,
+                    result.problems.size() - errors, result.compiledFiles,
+                    result.totalFiles, result.millis));
+            } catch (ExecutionException ex) {
+                statusLabel.setText("Cannot build: " + ex.getCause().getMessage());
+            } catch (InterruptedException ex) {
+
+            }
+            if (pendingBuffers != null) {
+                var buffers = pendingBuffers;
+                boolean rebuild = pendingRebuild;
+                pendingBuffers = null;
+                pendingRebuild = false;
+                build(buffers, rebuild);
+            }
+        }
+    }
+}
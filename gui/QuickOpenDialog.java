@@ -0,0 +1,71 @@
+package gui;
+
+import java.awt.Window;
+import java.io.File;
+import java.util.*;
+import file.PathIndex;
+
+/**
+ * The "Go to File" dialog. Matches the query fuzzily against the paths of
+ * all files under the open folder.
+ */
+public abstract class QuickOpenDialog extends ListSearchDialog<String> {
+    private static final int MAX_RESULTS = 100;
+
+    private File root;
+    private PathIndex index;
+    private PathIndex.Result previous;
+
+    /**
+     * Implement this abstract method to open the file chosen.
+     * @param file the file chosen
+     */
+    public abstract void actionOnOpeningFile(File file);
+
+    /**
+     * @param owner the owner of the dialog
+     * @param root the open folder
+     * @param index paths of the files under {@code root}, or {@code null}
+     * if they are still being enumerated
+     */
+    public QuickOpenDialog(Window owner, File root, PathIndex index) {
+        super(owner, "Go to File");
+        this.root = root;
+        this.index = index;
+    }
+
+    /**
+     * Take {@code index}, once the paths have been enumerated, and run the
+     * query again.
+     */
+    public void setIndex(PathIndex index) {
+        this.index = index;
+        previous = null;
+        if (isDisplayable())
+            update();
+    }
+
+    public List<String> search(String query) {
+        if (index == null) {
+            setStatus(root == null ? "No open folder." : "Indexing files...");
+            return List.of();
+        }
+        if (query.isEmpty()) {
+            previous = null;
+            setStatus(index.size() + " files");
+            return List.of();
+        }
+
+        var result = index.search(query, MAX_RESULTS, previous);
+        previous = result;
+        var paths = new ArrayList<String>(result.top.length);
+        for (int i: result.top)
+            paths.add(index.getPath(i));
+        setStatus(result.getMatchCount() + " of " + index.size() + " files");
+        return paths;
+    }
+
+    public void actionOnChoosing(String path) {
+        actionOnOpeningFile(new File(root, path));
+    }
+}
@@ -0,0 +1,565 @@
+package gui;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import file.FileOperations;
+import metrics.*;
+
+/**
+ * A {@code RecoveryJournal} keeps the unsaved edits of one document on
+ * disk, so that they survive JCode being killed or crashing.
+ *
+ * Once the document differs from its file, a journal under
+ * {@code ~/.jcode/recovery} is started with a checkpoint of the whole
+ * text, then every change is appended to it: its offset, the length it
+ * removes and the text it inserts. The Event Dispatch Thread only queues
+ * the changes; a background thread writes them in batches, and syncs the
+ * journal at most every {@code jcode.recovery.interval} milliseconds
+ * (default 300). Once the changes outgrow the checkpoint, the next change
+ * writes a new checkpoint instead, which replaces the journal.
+ *
+ * The text of a checkpoint is not copied on the Event Dispatch Thread:
+ * the background thread reads it out of the document under its read
+ * lock, and skips the changes queued meanwhile, which the text holds.
+ *
+ * The journal is deleted when the document is saved or closed. Journals
+ * left over on start are offered for recovery.
+ */
+public class RecoveryJournal {
+    public static final File RECOVERY_DIRECTORY =
+        new File(FileOperations.JCODE_HOME, "recovery");
+    private static final long FLUSH_INTERVAL = Long.getLong("jcode.recovery.interval", 300);
+    private static final long COMPACT_AFTER = 1 << 20;    // bytes of changes, at least
+    private static final int MAGIC = 0x4A524543;    // "JREC"
+    private static final int FORMAT_VERSION = 1;
+    // Kinds of records
+    private static final byte CHECKPOINT = 0;
+    private static final byte EDIT = 1;
+    // Kinds of operations only done by the writer
+    private static final byte RELEASE = 2;      // close the journal, keeping it
+    private static final byte DISCARD = 3;      // close and delete the journal
+    private static final byte DELETE = 4;       // delete another journal
+    private static final String CLIENT_PROPERTY = "recoveryJournal";
+
+    private static final Histogram flushTime =
+        Metrics.histogram("recovery.flush", "us", "Time to write and sync a batch of journal records");
+    private static final Counter records =
+        Metrics.counter("recovery.records", "Changes written to recovery journals");
+    private static final Counter checkpoints =
+        Metrics.counter("recovery.checkpoints", "Checkpoints written to recovery journals");
+
+    private static final Set<RecoveryJournal> pendingJournals = ConcurrentHashMap.newKeySet();
+    // Journals of this process, not to be recovered
+    private static final Set<File> liveFiles = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService writer =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "JCode recovery journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    static {
+        writer.scheduleWithFixedDelay(RecoveryJournal::flushAll, FLUSH_INTERVAL,
+                                      FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(RecoveryJournal::flushAll));
+    }
+
+    private final JTextPane textArea;
+    private final AbstractDocument document;
+    private final Supplier<File> file;
+    private final DocumentListener listener;
+    // On the Event Dispatch Thread
+    private File journalFile;   // non-null while the document is journaled
+    private int suspended;
+    private boolean retained;
+    private boolean uninstalled;
+    private volatile boolean compactRequested;
+    // Changes journaled so far; guarded by the lock of the document
+    private long changeCount;
+    // Guarded by {@code this}
+    private ArrayList<Operation> pending = new ArrayList<>();
+    // On the writer
+    private FileChannel channel;
+    private long checkpointBytes;
+    private long changeBytes;   // since the checkpoint
+    private long checkpointedCount;     // changes held by the checkpoint
+
+    /**
+     * A document recovered from a journal.
+     */
+    public static class Recovered {
+        public final File file;     // or {@code null} if it was untitled
+        public final String text;
+        public final File journalFile;
+
+        private Recovered(File file, String text, File journalFile) {
+            this.file = file;
+            this.text = text;
+            this.journalFile = journalFile;
+        }
+    }
+
+    /**
+     * Install a {@code RecoveryJournal} in {@code textArea}.
+     * @param file supplies the file of the document, or {@code null} if it
+     * is untitled
+     */
+    public static RecoveryJournal install(JTextPane textArea, Supplier<File> file) {
+        var journal = new RecoveryJournal(textArea, file);
+        textArea.putClientProperty(CLIENT_PROPERTY, journal);
+        return journal;
+    }
+
+    /**
+     * @return the {@code RecoveryJournal} installed in {@code textArea}, or
+     * {@code null}
+     */
+    public static RecoveryJournal of(JTextPane textArea) {
+        return (RecoveryJournal) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private RecoveryJournal(JTextPane textArea, Supplier<File> file) {
+        this.textArea = textArea;
+        this.document = (AbstractDocument) textArea.getStyledDocument();
+        this.file = file;
+        listener = new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                if (suspended > 0)
+                    return;
+                try {
+                    changed(e.getOffset(), 0, document.getText(e.getOffset(), e.getLength()));
+                } catch (BadLocationException ex) {
+
+                }
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                if (suspended == 0)
+                    changed(e.getOffset(), e.getLength(), "");
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+
+            }
+        };
+        document.addDocumentListener(listener);
+    }
+
+    /**
+     * Stop journaling, and delete the journal, unless it is retained.
+     */
+    public void uninstall() {
+        document.removeDocumentListener(listener);
+        if (journalFile != null) {
+            enqueue(new Operation(retained ? RELEASE : DISCARD, journalFile));
+            if (!retained)
+                liveFiles.remove(journalFile);
+            journalFile = null;
+        }
+        uninstalled = true;
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    /**
+     * Keep the journal when uninstalled, e.g. because the tab hibernates
+     * with unsaved edits.
+     * @return the journal, or {@code null} if there is none
+     */
+    public File retain() {
+        retained = true;
+        return journalFile;
+    }
+
+    /**
+     * Delete {@code journalFile}, retained by a tab whose edits are saved
+     * or dropped since.
+     */
+    public static void delete(File journalFile) {
+        liveFiles.remove(journalFile);
+        journalFile.delete();
+    }
+
+    /**
+     * Stop journaling changes until {@code resume()} is called, e.g. while
+     * the text of the file is loaded.
+     */
+    public void suspend() {
+        suspended++;
+    }
+
+    /**
+     * Go on journaling changes.
+     * @param dirty whether the document differs from its file
+     * @param obsolete a journal of the document left from before, to be
+     * deleted once this one holds its text, or {@code null}
+     */
+    public void resume(boolean dirty, File obsolete) {
+        suspended--;
+        if (dirty)
+            checkpoint(obsolete);
+        else if (obsolete != null)
+            enqueue(new Operation(DELETE, obsolete));
+        if (obsolete != null)
+            liveFiles.remove(obsolete);
+    }
+
+    /**
+     * Note that {@code text} was saved into the file of the document. This
+     * may be called from any thread.
+     */
+    public void saved(String text) {
+        SwingUtilities.invokeLater(() -> {
+            if (uninstalled)
+                return;
+            if (journalFile != null) {
+                enqueue(new Operation(DISCARD, journalFile));
+                liveFiles.remove(journalFile);
+                journalFile = null;
+            }
+            // Edits made while saving
+            if (!hasText(text))
+                checkpoint(null);
+        });
+    }
+
+    private void changed(int offset, int removedLength, String inserted) {
+        changeCount++;
+        if (journalFile == null || compactRequested) {
+            checkpoint(null);
+        } else {
+            var operation = new Operation(EDIT, journalFile);
+            operation.sequence = changeCount;
+            operation.offset = offset;
+            operation.removedLength = removedLength;
+            operation.text = inserted;
+            enqueue(operation);
+        }
+    }
+
+    private void checkpoint(File obsolete) {
+        if (journalFile == null) {
+            journalFile = new File(RECOVERY_DIRECTORY, UUID.randomUUID() + ".journal");
+            liveFiles.add(journalFile);
+        }
+        compactRequested = false;
+        var operation = new Operation(CHECKPOINT, journalFile);
+        var documentFile = file.get();
+        operation.path = documentFile == null ? "" : documentFile.getPath();
+        operation.obsolete = obsolete;
+        enqueue(operation);
+    }
+
+    /**
+     * Read the text of a checkpoint, on the writer.
+     */
+    private void takeText(Operation operation) {
+        document.render(() -> {
+            try {
+                operation.text = document.getText(0, document.getLength());
+            } catch (BadLocationException ex) {
+                operation.text = "";
+            }
+            checkpointedCount = changeCount;
+        });
+    }
+
+    /**
+     * @return whether the document holds {@code text}, read in place
+     */
+    private boolean hasText(String text) {
+        int length = document.getLength();
+        if (length != text.length())
+            return false;
+        var segment = new Segment();
+        segment.setPartialReturn(true);
+        int offset = 0;
+        try {
+            while (offset < length) {
+                document.getText(offset, length - offset, segment);
+                for (int i = 0; i < segment.count; i++)
+                    if (segment.array[segment.offset + i] != text.charAt(offset + i))
+                        return false;
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    private void enqueue(Operation operation) {
+        synchronized (this) {
+            pending.add(operation);
+        }
+        pendingJournals.add(this);
+    }
+
+    private static synchronized void flushAll() {
+        for (var journal: pendingJournals) {
+            pendingJournals.remove(journal);
+            journal.flush();
+        }
+    }
+
+    /**
+     * Write the queued operations, in order, syncing the journal once.
+     */
+    private void flush() {
+        List<Operation> operations;
+        synchronized (this) {
+            operations = pending;
+            pending = new ArrayList<>();
+        }
+        long start = System.nanoTime();
+        var batch = new ByteArrayOutputStream();
+        try {
+            for (var operation: operations) {
+                switch (operation.kind) {
+                    case EDIT:
+                        // Already in the text of the checkpoint
+                        if (operation.sequence <= checkpointedCount)
+                            break;
+                        writeRecord(batch, operation);
+                        records.increment();
+                        break;
+                    case CHECKPOINT:
+                        writeBatch(batch);
+                        takeText(operation);
+                        writeCheckpoint(operation);
+                        break;
+                    case RELEASE:
+                        writeBatch(batch);
+                        closeChannel();
+                        break;
+                    case DISCARD:
+                        batch.reset();
+                        closeChannel();
+                        operation.journalFile.delete();
+                        break;
+                    case DELETE:
+                        operation.journalFile.delete();
+                        break;
+                }
+            }
+            writeBatch(batch);
+        } catch (IOException ex) {
+            // Start over from a checkpoint with the next change
+            closeChannel();
+            compactRequested = true;
+        }
+        flushTime.recordSince(start);
+    }
+
+    private void writeBatch(ByteArrayOutputStream batch) throws IOException {
+        if (batch.size() == 0 || channel == null) {
+            batch.reset();
+            return;
+        }
+        var buffer = ByteBuffer.wrap(batch.toByteArray());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        channel.force(false);
+        changeBytes += batch.size();
+        batch.reset();
+        if (changeBytes > Math.max(COMPACT_AFTER, checkpointBytes))
+            compactRequested = true;
+    }
+
+    /**
+     * Write a new journal holding only the checkpoint, and put it in place
+     * of the old one.
+     */
+    private void writeCheckpoint(Operation operation) throws IOException {
+        closeChannel();
+        RECOVERY_DIRECTORY.mkdirs();
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(operation.path);
+        writeRecord(bytes, operation);
+        var temp = new File(operation.journalFile.getPath() + ".tmp").toPath();
+        try (var tempChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            var buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining())
+                tempChannel.write(buffer);
+            tempChannel.force(false);
+        }
+        Files.move(temp, operation.journalFile.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(operation.journalFile.toPath(),
+                                   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        checkpointBytes = bytes.size();
+        changeBytes = 0;
+        checkpoints.increment();
+        if (operation.obsolete != null)
+            operation.obsolete.delete();
+    }
+
+    private void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+
+        }
+        channel = null;
+    }
+
+    /**
+     * Append a record: its length, its checksum, then the record itself,
+     * so that a record cut short by a crash is told from a whole one.
+     */
+    private static void writeRecord(ByteArrayOutputStream bytes, Operation operation)
+        throws IOException {
+        var record = new ByteArrayOutputStream();
+        var out = new DataOutputStream(record);
+        out.writeByte(operation.kind);
+        if (operation.kind == EDIT) {
+            out.writeInt(operation.offset);
+            out.writeInt(operation.removedLength);
+        }
+        byte[] text = operation.text.getBytes(FileOperations.DEFAULT_CHARSET);
+        out.writeInt(text.length);
+        out.write(text);
+        var crc = new CRC32();
+        crc.update(record.toByteArray());
+        var header = new DataOutputStream(bytes);
+        header.writeInt(record.size());
+        header.writeInt((int) crc.getValue());
+        record.writeTo(bytes);
+    }
+
+    /**
+     * Find the journals left over by a JCode which did not exit normally,
+     * and replay them. Journals with nothing to recover are deleted.
+     * @return the documents with unsaved edits
+     */
+    public static List<Recovered> findRecoverable() {
+        var recoverable = new ArrayList<Recovered>();
+        var files = RECOVERY_DIRECTORY.listFiles();
+        if (files == null)
+            return recoverable;
+        for (File journalFile: files) {
+            if (liveFiles.contains(journalFile))
+                continue;
+            if (!journalFile.getName().endsWith(".journal")) {
+                journalFile.delete();
+                continue;
+            }
+            var recovered = replay(journalFile);
+            if (recovered == null || isSaved(recovered))
+                journalFile.delete();
+            else
+                recoverable.add(recovered);
+        }
+        return recoverable;
+    }
+
+    /**
+     * Delete the journals of {@code recoverable}, e.g. because they are
+     * not wanted.
+     */
+    public static void discard(List<Recovered> recoverable) {
+        for (var recovered: recoverable)
+            recovered.journalFile.delete();
+    }
+
+    /**
+     * @return the document in {@code journalFile}, with every whole
+     * change applied, or {@code null} if it has no checkpoint
+     */
+    private static Recovered replay(File journalFile) {
+        try (var in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return null;
+            String path = in.readUTF();
+            long journalLength = journalFile.length();
+            StringBuilder text = null;
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > journalLength)
+                        break;
+                    record = new byte[length];
+                    in.readFully(record);
+                    var crc = new CRC32();
+                    crc.update(record);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+                } catch (EOFException ex) {
+                    break;
+                }
+                var recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                byte kind = recordIn.readByte();
+                int offset = 0, removedLength = 0;
+                if (kind == EDIT) {
+                    offset = recordIn.readInt();
+                    removedLength = recordIn.readInt();
+                }
+                byte[] bytes = new byte[recordIn.readInt()];
+                recordIn.readFully(bytes);
+                var inserted = new String(bytes, FileOperations.DEFAULT_CHARSET);
+                if (kind == CHECKPOINT)
+                    text = new StringBuilder(inserted);
+                else if (text != null && offset + removedLength <= text.length())
+                    text.replace(offset, offset + removedLength, inserted);
+                else
+                    break;
+            }
+            if (text == null)
+                return null;
+            return new Recovered(path.isEmpty() ? null : new File(path),
+                                 text.toString(), journalFile);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static boolean isSaved(Recovered recovered) {
+        if (recovered.file == null)
+            return recovered.text.isEmpty();
+        if (!recovered.file.isFile())
+            return false;
+        try {
+            return recovered.text.equals(new String(
+                FileOperations.readFile(recovered.file), FileOperations.DEFAULT_CHARSET));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * What the writer is to do with a journal.
+     */
+    private static class Operation {
+        private final byte kind;
+        private final File journalFile;
+        private int offset;
+        private int removedLength;
+        private long sequence;      // of an edit, among the changes
+        private String text;        // of a checkpoint, read by the writer
+        private String path;        // of the document, for a checkpoint
+        private File obsolete;
+
+        private Operation(byte kind, File journalFile) {
+            this.kind = kind;
+            this.journalFile = journalFile;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package gui;
+
+import java.awt.Color;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import compile.SemanticClassifier;
+import compile.SemanticClassifier.*;
+import metrics.*;
+
+/**
+ * A {@code SemanticHighlighter} colors the identifiers of a Java document
+ * by what they name (fields, locals, parameters, methods and types), on
+ * top of the lexical colors of {@code Prettifier}.
+ *
+ * The document is parsed in the background once it has been left alone
+ * for {@code IDLE_DELAY} milliseconds, at low priority and never more than
+ * one document at a time, so parsing never competes with typing. The
+ * result is kept for the document version it was computed for; edits
+ * shift it along and drop the identifiers they touch, so that it can be
+ * applied again after every lexical pass until the next parse.
+ */
+public class SemanticHighlighter {
+    private static final int IDLE_DELAY = 400;
+    private static final String CLIENT_PROPERTY = "semanticHighlighter";
+    private static final EnumMap<Kind, AttributeSet> attributeSets = new EnumMap<>(Kind.class);
+    static {
+        attributeSets.put(Kind.FIELD, attributes(new Color(0x87, 0x1A, 0x94), true));
+        attributeSets.put(Kind.LOCAL, attributes(new Color(0x1F, 0x3A, 0x70), false));
+        attributeSets.put(Kind.PARAMETER, attributes(new Color(0x8A, 0x4B, 0x08), false));
+        attributeSets.put(Kind.METHOD, attributes(Color.GREEN.darker().darker(), false));
+        attributeSets.put(Kind.TYPE, attributes(new Color(0x00, 0x7A, 0x7A), false));
+    }
+    private static final ExecutorService parser = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "JCode semantic highlighter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private static final Histogram parseTime =
+        Metrics.histogram("highlight.semantic.time", "us", "Time to parse and classify a document");
+    private static final Counter parsedChars =
+        Metrics.counter("highlight.semantic.chars", "Characters parsed");
+    private static final Counter discardedParses =
+        Metrics.counter("highlight.semantic.cancelled", "Parses thrown away as the document changed");
+
+    private final JTextPane textArea;
+    private final Supplier<File> file;
+    private final Timer idleTimer;
+    private long version;           // bumped by every edit
+    private long parsedVersion = -1;
+    private boolean parsing;
+    // Guarded by {@code this}; shifted along with edits
+    private Spans spans;
+
+    /**
+     * Install a {@code SemanticHighlighter} in {@code textArea}.
+     * @param file supplies the file shown; only Java files are parsed
+     */
+    public static SemanticHighlighter install(JTextPane textArea, Supplier<File> file) {
+        var highlighter = new SemanticHighlighter(textArea, file);
+        textArea.putClientProperty(CLIENT_PROPERTY, highlighter);
+        return highlighter;
+    }
+
+    /**
+     * @return the {@code SemanticHighlighter} installed in
+     * {@code textArea}, or {@code null}
+     */
+    public static SemanticHighlighter of(JTextPane textArea) {
+        return (SemanticHighlighter) textArea.getClientProperty(CLIENT_PROPERTY);
+    }
+
+    private SemanticHighlighter(JTextPane textArea, Supplier<File> file) {
+        this.textArea = textArea;
+        this.file = file;
+        idleTimer = new Timer(IDLE_DELAY, e -> parse());
+        idleTimer.setRepeats(false);
+        textArea.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                edited(e.getOffset(), e.getLength());
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                edited(e.getOffset(), -e.getLength());
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                // Only styles changed, by the highlighters themselves
+            }
+        });
+    }
+
+    public void uninstall() {
+        idleTimer.stop();
+        version++;
+        synchronized (this) {
+            spans = null;
+        }
+        textArea.putClientProperty(CLIENT_PROPERTY, null);
+    }
+
+    /**
+     * Color the identifiers found by the last parse. Called after every
+     * lexical pass, from any thread.
+     */
+    public synchronized void apply() {
+        if (spans == null)
+            return;
+        var document = textArea.getStyledDocument();
+        int length = document.getLength();
+        for (int i = 0; i < spans.size; i++) {
+            if (spans.kinds[i] == null || spans.ends[i] > length)
+                continue;
+            document.setCharacterAttributes(spans.starts[i], spans.ends[i] - spans.starts[i],
+                                            attributeSets.get(spans.kinds[i]), true);
+        }
+    }
+
+    private void edited(int offset, int delta) {
+        version++;
+        shift(offset, delta);
+        idleTimer.restart();
+    }
+
+    /**
+     * Move the spans after an edit at {@code offset}, inserting
+     * {@code delta} characters or removing {@code -delta}, and drop those
+     * it touches.
+     */
+    private synchronized void shift(int offset, int delta) {
+        if (spans == null)
+            return;
+        int editEnd = delta < 0 ? offset - delta : offset;
+        int[] starts = spans.starts, ends = spans.ends;
+        // Spans ending before the edit stay
+        int low = 0, high = spans.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends[middle] < offset)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        for (int i = low; i < spans.size; i++) {
+            if (starts[i] >= editEnd && (delta < 0 || starts[i] > offset)) {
+                starts[i] += delta;
+                ends[i] += delta;
+            } else {
+                spans.kinds[i] = null;
+            }
+        }
+    }
+
+    private void parse() {
+        File source = file.get();
+        if (parsing || version == parsedVersion ||
+            source == null || !source.getName().endsWith(".java"))
+            return;
+        String text = textArea.getText();
+        long parseVersion = version;
+        parsing = true;
+        parser.execute(() -> {
+            var event = new HighlightEvent();
+            event.begin();
+            long start = System.nanoTime();
+            var result = SemanticClassifier.classify(text);
+            parseTime.recordSince(start);
+            parsedChars.add(text.length());
+            event.pass = HighlightEvent.SEMANTIC;
+            event.chars = text.length();
+            event.commit();
+            SwingUtilities.invokeLater(() -> {
+                parsing = false;
+                if (version != parseVersion) {
+                    discardedParses.increment();
+                    // Edited meanwhile; parse again once idle
+                    idleTimer.restart();
+                    return;
+                }
+                if (result == null)
+                    return;
+                synchronized (this) {
+                    spans = result;
+                }
+                parsedVersion = parseVersion;
+                apply();
+            });
+        });
+    }
+
+    private static AttributeSet attributes(Color color, boolean italic) {
+        var attributeSet = new SimpleAttributeSet();
+        StyleConstants.setForeground(attributeSet, color);
+        StyleConstants.setItalic(attributeSet, italic);
+        return attributeSet;
+    }
+}
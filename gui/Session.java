@@ -0,0 +1,120 @@
+package gui;
+
+import java.awt.Point;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import file.FileOperations;
+
+/**
+ * A {@code Session} is what JCode restores on start: the tabs of files,
+ * with their caret and scroll positions, the open folder with its
+ * expanded directories, and the working directories of the terminals.
+ *
+ * It is saved on exit into {@code ~/.jcode/session}, in a compact binary
+ * format; a session which cannot be read is ignored.
+ */
+public class Session {
+    private static final int MAGIC = 0x4A534553;    // "JSES"
+    private static final int FORMAT_VERSION = 1;
+    public static final File SESSION_FILE = new File(FileOperations.JCODE_HOME, "session");
+
+    public final List<Tab> tabs = new ArrayList<>();
+    public int selectedTab = -1;    // index in {@code tabs}, or -1
+    public File root;               // the open folder, or {@code null}
+    public final List<File> expandedPaths = new ArrayList<>();
+    public final List<File> terminalDirectories = new ArrayList<>();
+
+    public static class Tab {
+        public final File file;
+        public final boolean readOnly;
+        public final int caret;
+        public final Point viewPosition;
+
+        public Tab(File file, boolean readOnly, int caret, Point viewPosition) {
+            this.file = file;
+            this.readOnly = readOnly;
+            this.caret = caret;
+            this.viewPosition = viewPosition;
+        }
+    }
+
+    /**
+     * Read the session saved last.
+     * @return the session, or {@code null} if there is none, or it cannot
+     * be read
+     */
+    public static Session load() {
+        if (!SESSION_FILE.isFile())
+            return null;
+        try (var in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(SESSION_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return null;
+            var session = new Session();
+            int tabCount = in.readInt();
+            for (int i = 0; i < tabCount; i++) {
+                var file = new File(in.readUTF());
+                boolean readOnly = in.readBoolean();
+                int caret = in.readInt();
+                var viewPosition = new Point(in.readInt(), in.readInt());
+                session.tabs.add(new Tab(file, readOnly, caret, viewPosition));
+            }
+            session.selectedTab = in.readInt();
+            if (in.readBoolean())
+                session.root = new File(in.readUTF());
+            readFiles(in, session.expandedPaths);
+            readFiles(in, session.terminalDirectories);
+            return session;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Save this session, replacing the one saved last.
+     * @throws IOException if the session cannot be written
+     */
+    public void save() throws IOException {
+        SESSION_FILE.getParentFile().mkdirs();
+        File temp = new File(SESSION_FILE.getPath() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(tabs.size());
+            for (var tab: tabs) {
+                out.writeUTF(tab.file.getPath());
+                out.writeBoolean(tab.readOnly);
+                out.writeInt(tab.caret);
+                out.writeInt(tab.viewPosition.x);
+                out.writeInt(tab.viewPosition.y);
+            }
+            out.writeInt(selectedTab);
+            out.writeBoolean(root != null);
+            if (root != null)
+                out.writeUTF(root.getPath());
+            writeFiles(out, expandedPaths);
+            writeFiles(out, terminalDirectories);
+        } catch (IOException ex) {
+            temp.delete();
+            throw ex;
+        }
+        Files.move(temp.toPath(), SESSION_FILE.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void readFiles(DataInputStream in, List<File> files) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++)
+            files.add(new File(in.readUTF()));
+    }
+
+    private static void writeFiles(DataOutputStream out, List<File> files) throws IOException {
+        out.writeInt(files.size());
+        for (File file: files)
+            out.writeUTF(file.getPath());
+    }
+}
@@ -1,16 +1,25 @@
 package gui;
 
-import java.io.IOException;
+import java.io.*;
+import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.*;
 import javax.swing.text.*;
+import shell.CommandHistory;
 import shell.ShellRunner;
+import metrics.*;
 
 public abstract class ShellPanel extends JPanel {
     private JTabbedPane shellPane;
+    private final HashMap<Component, ShellRunner> runners = new HashMap<>();
+
+    private static final Histogram appendTime =
+        Metrics.histogram("shell.output.append", "us",
+                          "Time to append a batch of shell output to the terminal");
 
     public static final String SHELL_PATH = 
         System.getProperty("os.name").toLowerCase().contains("windows") ?
@@ -43,14 +52,26 @@ public abstract class ShellPanel extends JPanel {
 
         shellPane = new JTabbedPane();
         add(shellPane, BorderLayout.CENTER);
-
-        spawnShell();
     }
 
     /**
-     * Start a shell process in a new tab of the shell panel.
+     * Start a shell process in a new tab of the shell panel. The panel
+     * starts with none.
      */
     public void spawnShell() {
+        spawnShell(new File("."));
+    }
+
+    /**
+     * Start a shell process in {@code directory}, or in the working
+     * directory of JCode if it no longer exists, in a new tab of the shell
+     * panel.
+     * @param directory the working directory of the shell
+     */
+    public void spawnShell(File directory) {
+        if (!directory.isDirectory())
+            directory = new File(".");
+
         // Create text area
         var textArea = new JTextArea(0, 0);
         textArea.setFont(
@@ -100,10 +121,15 @@ public abstract class ShellPanel extends JPanel {
 
         // Add a shell runner
         var runner = new ShellRunner(SHELL_PATH);
-        runner.setWorkingDirectory(".");
+        runner.setWorkingDirectory(directory.getPath());
+
+        // Navigate the command history of the workspace, i.e. of the
+        // directory the shell starts in
+        var navigator = new HistoryNavigator(textArea, scrollableTextArea);
 
         // Create a shell daemon to supervise shell execution
-        var shellDaemon = new ShellDaemon(runner, textArea, scrollableTextArea);
+        var shellDaemon = new ShellDaemon(runner, textArea, scrollableTextArea,
+                                          navigator, directory);
 
         // Keyboard shortcuts
         textArea.getInputMap().put(
@@ -112,14 +138,51 @@ public abstract class ShellPanel extends JPanel {
         textArea.getActionMap().put(
             "cache input", new AbstractAction() {
                 public void actionPerformed(ActionEvent e) {
-                    try {
-                        shellDaemon.commands.offer(textArea.getText().substring(
-                            textArea.getLineStartOffset(textArea.getLineCount() - 1)
-                        ));
-                        textArea.append("\n");
-                    } catch (BadLocationException ex) {
-
-                    }
+                    navigator.acceptSearch();
+                    String command = navigator.getCurrentLine();
+                    shellDaemon.commands.offer(command);
+                    navigator.record(command);
+                    textArea.append("\n");
+                }
+            }
+        );
+        textArea.getInputMap().put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "history previous"
+        );
+        textArea.getActionMap().put(
+            "history previous", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    navigator.previous();
+                }
+            }
+        );
+        textArea.getInputMap().put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "history next"
+        );
+        textArea.getActionMap().put(
+            "history next", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    navigator.next();
+                }
+            }
+        );
+        textArea.getInputMap().put(
+            KeyStroke.getKeyStroke("ctrl R"), "reverse search"
+        );
+        textArea.getActionMap().put(
+            "reverse search", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    navigator.reverseSearch();
+                }
+            }
+        );
+        textArea.getInputMap().put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "accept search"
+        );
+        textArea.getActionMap().put(
+            "accept search", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    navigator.acceptSearch();
                 }
             }
         );
@@ -144,27 +207,229 @@ public abstract class ShellPanel extends JPanel {
         
         shellPane.add(SHELL_PATH, scrollableTextArea);
         shellPane.setSelectedComponent(scrollableTextArea);
+        runners.put(scrollableTextArea, runner);
         shellDaemon.execute();
     }
 
+    /**
+     * @return the working directories of the shells, in the order of
+     * their tabs
+     */
+    public List<File> getWorkingDirectories() {
+        var directories = new ArrayList<File>();
+        for (int i = 0; i < shellPane.getTabCount(); i++) {
+            var runner = runners.get(shellPane.getComponentAt(i));
+            if (runner != null)
+                directories.add(new File(runner.getCurrentDirectory()));
+        }
+        return directories;
+    }
+
+    /**
+     * A {@code HistoryNavigator} implements history recall for the input
+     * line (the last line) of a terminal: Up/Down step through commands
+     * starting with what has been typed, and Ctrl-R starts an incremental
+     * reverse search, whose state is shown above the terminal.
+     */
+    private class HistoryNavigator implements DocumentListener {
+        private JTextArea textArea;
+        private JScrollPane scrollableTextArea;
+        private JLabel searchLabel;
+        private volatile CommandHistory history;
+
+        // State of Up/Down navigation
+        private String prefix;      // what the user typed before navigating
+        private String shown;       // the command currently shown
+        private int cursor = -1;    // index of {@code shown} in history
+
+        // State of reverse search
+        private boolean searching;
+        private boolean replacing;  // are we editing the line ourselves?
+        private String query = "";
+        private int match = -1;
+
+        public HistoryNavigator(JTextArea textArea, JScrollPane scrollableTextArea) {
+            this.textArea = textArea;
+            this.scrollableTextArea = scrollableTextArea;
+            searchLabel = new JLabel();
+            searchLabel.setFont(
+                new Font(Font.MONOSPACED, Font.PLAIN, Parameters.MESSAGE_FONT_SIZE));
+            textArea.getDocument().addDocumentListener(this);
+        }
+
+        public void setHistory(CommandHistory history) {
+            this.history = history;
+        }
+
+        public String getCurrentLine() {
+            try {
+                int start = textArea.getLineStartOffset(textArea.getLineCount() - 1);
+                return textArea.getText(start, textArea.getDocument().getLength() - start);
+            } catch (BadLocationException ex) {
+                return "";
+            }
+        }
+
+        private void setCurrentLine(String line) {
+            replacing = true;
+            try {
+                int start = textArea.getLineStartOffset(textArea.getLineCount() - 1);
+                textArea.replaceRange(line, start, textArea.getDocument().getLength());
+                textArea.setCaretPosition(textArea.getDocument().getLength());
+            } catch (BadLocationException ex) {
+
+            } finally {
+                replacing = false;
+            }
+        }
+
+        public void record(String command) {
+            cursor = -1;
+            if (history == null)
+                return;
+            try {
+                history.add(command);
+            } catch (IOException ex) {
+
+            }
+        }
+
+        public void previous() {
+            acceptSearch();
+            if (history == null)
+                return;
+            String line = getCurrentLine();
+            if (cursor < 0 || !line.equals(shown)) {
+                prefix = line;
+                shown = line;
+                cursor = history.size();
+            }
+            // Skip over repetitions of the command currently shown
+            int found = cursor;
+            do {
+                found = history.findPrevious(prefix, found);
+            } while (found >= 0 && history.get(found).equals(shown));
+            if (found < 0)
+                return;
+            cursor = found;
+            shown = history.get(found);
+            setCurrentLine(shown);
+        }
+
+        public void next() {
+            acceptSearch();
+            if (history == null || cursor < 0 || !getCurrentLine().equals(shown))
+                return;
+            int found = cursor;
+            do {
+                found = history.findNext(prefix, found);
+            } while (found >= 0 && history.get(found).equals(shown));
+            if (found < 0) {
+                // Back to what was typed before navigating
+                cursor = -1;
+                setCurrentLine(prefix);
+                return;
+            }
+            cursor = found;
+            shown = history.get(found);
+            setCurrentLine(shown);
+        }
+
+        public void reverseSearch() {
+            if (history == null)
+                return;
+            if (!searching) {
+                searching = true;
+                query = getCurrentLine();
+                match = -1;
+                scrollableTextArea.setColumnHeaderView(searchLabel);
+                search(history.size());
+            } else if (match >= 0) {
+                // Pressing Ctrl-R again looks for an older match
+                search(match);
+            }
+        }
+
+        /**
+         * Leave reverse search, putting the current match (if any) into
+         * the input line.
+         */
+        public void acceptSearch() {
+            if (!searching)
+                return;
+            searching = false;
+            scrollableTextArea.setColumnHeaderView(null);
+            if (match >= 0)
+                setCurrentLine(history.get(match));
+        }
+
+        private void search(int before) {
+            int found = history.findPrevious(query, before);
+            if (found >= 0)
+                match = found;
+            searchLabel.setText(String.format("(%sreverse-i-search)`%s': %s",
+                found < 0 ? "failed " : "", query,
+                match < 0 ? "" : history.get(match)));
+        }
+
+        private void queryChanged() {
+            if (!searching || replacing)
+                return;
+            // Invoke later, since the document is locked while notifying
+            SwingUtilities.invokeLater(() -> {
+                String newQuery = getCurrentLine();
+                // A match of a longer query is also a match of the shorter
+                // one, so we may continue from the current match
+                int before = newQuery.startsWith(query) && match >= 0 ?
+                    match + 1 : history.size();
+                query = newQuery;
+                match = -1;
+                search(before);
+            });
+        }
+
+        public void insertUpdate(DocumentEvent e) {
+            queryChanged();
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+            queryChanged();
+        }
+
+        public void changedUpdate(DocumentEvent e) {
+
+        }
+    }
+
     private class ShellDaemon extends SwingWorker<Object, String> {
         private ShellRunner runner;
         private JTextArea textArea;
         private JScrollPane scrollableTextArea;
+        private HistoryNavigator navigator;
+        private File workspace;
 
         public BlockingQueue<String> commands;
 
         public ShellDaemon(ShellRunner runner, JTextArea textArea,
-                           JScrollPane scrollableTextArea) {
+                           JScrollPane scrollableTextArea,
+                           HistoryNavigator navigator, File workspace) {
             this.runner = runner;
             this.textArea = textArea;
             this.scrollableTextArea = scrollableTextArea;
+            this.navigator = navigator;
+            this.workspace = workspace;
             commands = new LinkedBlockingQueue<>();
         }
 
         public Object doInBackground() throws IOException, InterruptedException {
             runner.spawnShell();
 
+            try {
+                navigator.setHistory(CommandHistory.forWorkspace(workspace));
+            } catch (IOException ex) {
+                // Work without history
+            }
+
             Thread printOutput = new Thread(() -> {
                 runner.consumeOutput(this::publish);
             });
@@ -195,12 +460,15 @@ public abstract class ShellPanel extends JPanel {
         }
 
         public void process(List<String> chunks) {
+            long start = System.nanoTime();
             for (String output: chunks)
                 textArea.append(output + "\n");
+            appendTime.recordSince(start);
         }
 
         public void done() {
             shellPane.remove(scrollableTextArea);
+            runners.remove(scrollableTextArea);
         }
     }
 }
@@ -0,0 +1,159 @@
+package gui;
+
+import java.awt.EventQueue;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import javax.swing.*;
+import javax.swing.filechooser.FileSystemView;
+import metrics.*;
+
+/**
+ * {@code Startup} runs JCode's startup in phases, so that the frame shows
+ * as soon as possible:
+ * <ol>
+ * <li>the frame is built with only what the first paint needs;</li>
+ * <li>once it has painted, deferred tasks run on the Event Dispatch
+ * Thread, one event each, so that input is handled between them, and
+ * background tasks (warming up caches, starting JMX) run on a low
+ * priority thread;</li>
+ * <li>the frame is interactive once the Event Dispatch Thread has handled
+ * every event queued until the deferred tasks are done.</li>
+ * </ol>
+ * Time to first paint and time to interactive, from the start of the
+ * process, are kept as the {@code startup.*} metrics. With the
+ * {@code jcode.startup.exit} property set, JCode prints them and exits
+ * once interactive and done with the background tasks, for the startup
+ * benchmark and for training a class data sharing archive.
+ */
+public class Startup {
+    public static final String EXIT_PROPERTY = "jcode.startup.exit";
+
+    private static final Histogram firstPaintTime =
+        Metrics.histogram("startup.firstPaint", "ms", "Time from process start to first paint");
+    private static final Histogram interactiveTime =
+        Metrics.histogram("startup.interactive", "ms",
+                          "Time from process start until the startup work is done");
+    private static final long processStart = ProcessHandle.current().info().startInstant()
+        .map(instant -> instant.toEpochMilli()).orElse(System.currentTimeMillis());
+
+    // Guarded by {@code Startup.class}
+    private static final ArrayList<Runnable> deferredTasks = new ArrayList<>();
+    private static final ArrayList<Runnable> backgroundTasks = new ArrayList<>();
+    private static boolean painted;
+    private static long firstPaint = -1;    // ms since process start
+    private static long interactive = -1;
+
+    static {
+        // File choosers are built on first use; most of their cost is the
+        // look and feel classes and the file system view, loaded here
+        inBackground(() -> {
+            UIManager.getDefaults().getUIClass("FileChooserUI");
+            FileSystemView.getFileSystemView().getHomeDirectory();
+        });
+        inBackground(Metrics::exportToJmx);
+    }
+
+    /**
+     * Run {@code task} on the Event Dispatch Thread after the first paint,
+     * or now (later, on the Event Dispatch Thread) if that is over.
+     */
+    public static synchronized void defer(Runnable task) {
+        if (painted)
+            SwingUtilities.invokeLater(task);
+        else
+            deferredTasks.add(task);
+    }
+
+    /**
+     * Run {@code task} on a background thread after the first paint, or
+     * now if that is over.
+     */
+    public static synchronized void inBackground(Runnable task) {
+        if (painted)
+            startBackground(List.of(task), null);
+        else
+            backgroundTasks.add(task);
+    }
+
+    /**
+     * @return the time to first paint, in milliseconds since the process
+     * started, or {@code -1} if not painted yet
+     */
+    public static synchronized long getFirstPaint() {
+        return firstPaint;
+    }
+
+    /**
+     * @return the time to interactive, in milliseconds since the process
+     * started, or {@code -1} if not interactive yet
+     */
+    public static synchronized long getInteractive() {
+        return interactive;
+    }
+
+    /**
+     * Called by the frame when it paints. The first call starts the
+     * phases after the first paint.
+     */
+    static void painted() {
+        ArrayList<Runnable> deferred, background;
+        synchronized (Startup.class) {
+            if (painted)
+                return;
+            painted = true;
+            firstPaint = System.currentTimeMillis() - processStart;
+            deferred = new ArrayList<>(deferredTasks);
+            background = new ArrayList<>(backgroundTasks);
+            deferredTasks.clear();
+            backgroundTasks.clear();
+        }
+        firstPaintTime.record(firstPaint);
+
+        var backgroundDone = new CountDownLatch(1);
+        startBackground(background, backgroundDone);
+        for (var task: deferred)
+            SwingUtilities.invokeLater(task);
+        // Queued behind the deferred tasks and whatever they queued first
+        SwingUtilities.invokeLater(() -> SwingUtilities.invokeLater(() -> {
+            synchronized (Startup.class) {
+                interactive = System.currentTimeMillis() - processStart;
+            }
+            interactiveTime.record(interactive);
+            if (Boolean.getBoolean(EXIT_PROPERTY))
+                exitWhenDone(backgroundDone);
+        }));
+    }
+
+    private static void startBackground(List<Runnable> tasks, CountDownLatch done) {
+        var thread = new Thread(() -> {
+            for (var task: tasks) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    // Only preparation; whatever failed is done on demand
+                }
+            }
+            if (done != null)
+                done.countDown();
+        }, "JCode startup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void exitWhenDone(CountDownLatch backgroundDone) {
+        var thread = new Thread(() -> {
+            try {
+                backgroundDone.await();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            System.out.printf("startup firstPaint=%d interactive=%d%n",
+                              getFirstPaint(), getInteractive());
+            EventQueue.invokeLater(() -> System.exit(0));
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
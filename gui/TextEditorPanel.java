@@ -1,29 +1,72 @@
 package gui;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.*;
 import java.awt.*;
+import java.awt.event.*;
 import javax.swing.*;
-import javax.swing.event.UndoableEditEvent;
+import javax.swing.Timer;
 import javax.swing.text.*;
 import file.FileAgent;
 import file.FileAgent.NotTextFileException;
+import file.FileOperations;
+import file.FileWatcher;
+import file.LineDiff;
+import metrics.*;
 
 public abstract class TextEditorPanel extends JPanel {
+    // Tabs not selected for {@code HIBERNATE_AFTER} are hibernated, and so
+    // are the least recently selected ones while the editors hold more
+    // than {@code HIBERNATE_BUDGET} characters of text
+    private static final long HIBERNATE_AFTER =
+        Long.getLong("jcode.hibernate.idle", 600) * 1000;
+    private static final long HIBERNATE_BUDGET =
+        Long.getLong("jcode.hibernate.budget", 4_000_000);
+    private static final int HIBERNATE_CHECK_INTERVAL = 10_000;    // ms
+
+    private static final Counter hibernated =
+        Metrics.counter("editor.hibernate", "Tabs hibernated");
+    private static final Counter rehydrated =
+        Metrics.counter("editor.rehydrate", "Hibernated or restored tabs rehydrated");
+    private static final Histogram rehydrateTime =
+        Metrics.histogram("editor.rehydrate.time", "us",
+                          "Time to rehydrate a tab until its text is shown");
+    private static final Histogram saveAllTime =
+        Metrics.histogram("file.saveAll.time", "us", "Time to write all files of a Save All");
+    private static final Counter saveAllFiles =
+        Metrics.counter("file.saveAll.files", "Files written by Save All");
+    // Files named in the dialog on exit, at most
+    private static final int MAX_LISTED_FILES = 15;
+    // A file changed by others is read again once it has not changed for
+    // that long, so that a checkout or a build writing it is read once
+    private static final int RELOAD_DELAY = 300;    // ms
+
     private JTabbedPane editorPane;
     private final AtomicInteger untitledCount = new AtomicInteger(0);
     private final HashMap<EditorIdentifier, EditorContentManager> 
         managerMap = new HashMap<>();
+    // Tabs restored from the last session and not selected since, or
+    // hibernated
+    private final HashMap<EditorIdentifier, DormantTab> dormantTabs = new HashMap<>();
     private NamedScrollPane currentCreatingPane;
     private JTextPane currentCreatingTextArea;
     private JFileChooser saveChooser;
+    private FindReplaceBar findReplaceBar;
+    private final IdentifierTrie identifiers = new IdentifierTrie();
+    // Files of tabs ever opened, whose directories are watched
+    private final Set<Path> watchedFiles = ConcurrentHashMap.newKeySet();
+    private boolean watching;       // guarded by {@code watchedFiles}
     
-    public JFileChooser openChooser;
+    private JFileChooser openChooser;
     public final Object closeLock;
     public enum SaveOption {
-        SAVE, CREATE, FORK, CLOSE
+        SAVE, CREATE, FORK, CLOSE,
+        RELOAD      // the file changed on disk
     }
 
     /**
@@ -45,10 +88,17 @@ public abstract class TextEditorPanel extends JPanel {
     public abstract void actionOnZeroTabs();
 
     /**
-     * Implement this abstract method to provide {@code UndoableEditListener}
-     * for document.
+     * Implement this abstract method to specify what to do when what can
+     * be undone or redone in the selected tab may have changed.
+     */
+    public abstract void actionOnEditHistoryChanged();
+
+    /**
+     * Implement this abstract method to provide the open folder, whose
+     * sources are analyzed against each other, or {@code null} if no
+     * folder is open.
      */
-    public abstract void undoableEditHappened(UndoableEditEvent e);
+    public abstract File getRootPath();
 
     public TextEditorPanel() {
         setLayout(new BorderLayout());
@@ -64,15 +114,107 @@ public abstract class TextEditorPanel extends JPanel {
                 return new Dimension(0, Parameters.FRAME_MARGIN);
             }
         }, BorderLayout.SOUTH);
+
+        // The find/replace bar lives above the editor, below the margin
+        findReplaceBar = new FindReplaceBar() {
+            public JTextPane getTextPane() {
+                var selectedPane = (NamedScrollPane) editorPane.getSelectedComponent();
+                return selectedPane == null ? null : selectedPane.component;
+            }
+
+            public void runAsSingleEdit(Runnable edits) {
+                beginCompoundEdit();
+                try {
+                    edits.run();
+                } finally {
+                    endCompoundEdit();
+                }
+            }
+        };
         add(new JPanel() {
-            public Dimension getPreferredSize() {
-                return new Dimension(0, Parameters.FRAME_MARGIN);
+            {
+                setLayout(new BorderLayout());
+                add(new JPanel() {
+                    public Dimension getPreferredSize() {
+                        return new Dimension(0, Parameters.FRAME_MARGIN);
+                    }
+                }, BorderLayout.NORTH);
+                add(findReplaceBar, BorderLayout.CENTER);
             }
         }, BorderLayout.NORTH);
 
         editorPane = new JTabbedPane();
         add(editorPane, BorderLayout.CENTER);
+        // Forget the identifiers of closed documents, and stop analyzing
+        // and parsing them
+        editorPane.addContainerListener(new ContainerAdapter() {
+            public void componentRemoved(ContainerEvent e) {
+                if (e.getChild() instanceof NamedScrollPane) {
+                    var textArea = ((NamedScrollPane) e.getChild()).component;
+                    var history = EditHistory.of(textArea);
+                    if (history != null)
+                        history.uninstall();
+                    var journal = RecoveryJournal.of(textArea);
+                    if (journal != null)
+                        journal.uninstall();
+                    var autocompleter = Autocompleter.of(textArea);
+                    if (autocompleter != null)
+                        autocompleter.uninstall();
+                    var diagnostics = LiveDiagnostics.of(textArea);
+                    if (diagnostics != null)
+                        diagnostics.uninstall();
+                    var semanticHighlighter = SemanticHighlighter.of(textArea);
+                    if (semanticHighlighter != null)
+                        semanticHighlighter.uninstall();
+                    var languageServer = LanguageServerSupport.of(textArea);
+                    if (languageServer != null)
+                        languageServer.uninstall();
+                    var follower = FileFollower.of(textArea);
+                    if (follower != null)
+                        follower.uninstall();
+                }
+            }
+        });
 
+        // Dormant tabs are rehydrated when selected; later, so that tabs
+        // passed over on the way are not
+        editorPane.addChangeListener(e -> {
+            var selected = editorPane.getSelectedComponent();
+            if (selected instanceof DormantTab)
+                SwingUtilities.invokeLater(() -> {
+                    if (editorPane.getSelectedComponent() == selected)
+                        rehydrate((DormantTab) selected, 0);
+                });
+            else if (selected instanceof NamedScrollPane)
+                synchronized (this) {
+                    var manager = managerMap.get(((NamedScrollPane) selected).identifier);
+                    if (manager != null)
+                        manager.lastSelected = System.currentTimeMillis();
+                }
+            actionOnEditHistoryChanged();
+        });
+        new Timer(HIBERNATE_CHECK_INTERVAL, e -> hibernateTabs()).start();
+
+        // Global lock to ensure sequential execution of multiple close 
+        // operations
+        closeLock = new Object();
+    }
+
+    /**
+     * @return the chooser of files to open, built on first use since file
+     * choosers are slow to build
+     */
+    public synchronized JFileChooser getOpenChooser() {
+        if (openChooser == null) {
+            openChooser = new JFileChooser();
+            openChooser.setCurrentDirectory(new File("."));
+        }
+        return openChooser;
+    }
+
+    private synchronized JFileChooser getSaveChooser() {
+        if (saveChooser != null)
+            return saveChooser;
         // Show confirm dialog when user trying to overwrite existing file
         // ref: https://stackoverflow.com/questions/3651494/jfilechooser-with-confirmation-dialog
         saveChooser = new JFileChooser() {
@@ -95,14 +237,7 @@ public abstract class TextEditorPanel extends JPanel {
             }
         };
         saveChooser.setCurrentDirectory(new File("."));
-
-        // Add a JFileChooser for opening file
-        openChooser = new JFileChooser();
-        openChooser.setCurrentDirectory(new File("."));
-
-        // Global lock to ensure sequential execution of multiple close 
-        // operations
-        closeLock = new Object();
+        return saveChooser;
     }
 
     public void create() {
@@ -121,11 +256,29 @@ public abstract class TextEditorPanel extends JPanel {
     }
 
     public void open(File file, boolean readOnly) {
+        open(file, readOnly, 0);
+    }
+
+    /**
+     * Open {@code file} and move the caret to the start of {@code line}.
+     * @param file the file to open
+     * @param readOnly whether to open the file read-only
+     * @param line the line to go to, starting from 1; {@code 0} to leave
+     * the caret alone
+     */
+    public void open(File file, boolean readOnly, int line) {
         EditorContentManager manager;
         synchronized (this) {
             if ((manager = managerMap.get(new EditorIdentifier(0, file)))
                         != null) {
                 editorPane.setSelectedComponent(manager.textPane);
+                if (line > 0)
+                    goToLine(manager.textArea, line);
+                return;
+            }
+            var dormantTab = dormantTabs.get(new EditorIdentifier(0, file));
+            if (dormantTab != null) {
+                rehydrate(dormantTab, line);
                 return;
             }
             createEditorTab(0, file);
@@ -136,9 +289,456 @@ public abstract class TextEditorPanel extends JPanel {
         }
         actionOnNonzeroTabs();
         manager.open(file, readOnly);
+        manager.pendingLine = line;
         manager.execute();
     }
 
+    /**
+     * Add the tabs of {@code session}, without reading their files: a
+     * file is read when its tab is first selected. Files which no longer
+     * exist are left out. This must be called on the Event Dispatch Thread.
+     * @param session the session restored
+     */
+    public void restoreTabs(Session session) {
+        DormantTab selected = null;
+        synchronized (this) {
+            for (int i = 0; i < session.tabs.size(); i++) {
+                var tab = session.tabs.get(i);
+                var identifier = new EditorIdentifier(0, tab.file);
+                if (!tab.file.isFile() || managerMap.containsKey(identifier) ||
+                        dormantTabs.containsKey(identifier))
+                    continue;
+                var dormantTab = new DormantTab(identifier, tab);
+                dormantTabs.put(identifier, dormantTab);
+                editorPane.add(identifier.toString(), dormantTab);
+                if (i == session.selectedTab)
+                    selected = dormantTab;
+            }
+            if (selected != null)
+                editorPane.setSelectedComponent(selected);
+        }
+    }
+
+    /**
+     * Describe the tabs of files, in order, into {@code session}. Untitled
+     * tabs are left out. This must be called on the Event Dispatch Thread.
+     * @param session the session to be saved
+     */
+    public void saveTabs(Session session) {
+        var selected = editorPane.getSelectedComponent();
+        for (int i = 0; i < editorPane.getTabCount(); i++) {
+            var component = editorPane.getComponentAt(i);
+            Session.Tab tab;
+            if (component instanceof DormantTab) {
+                tab = ((DormantTab) component).tab;
+            } else if (component instanceof NamedScrollPane) {
+                var pane = (NamedScrollPane) component;
+                if (pane.identifier.file == null)
+                    continue;
+                tab = new Session.Tab(pane.identifier.file, !pane.component.isEditable(),
+                                      pane.component.getCaretPosition(),
+                                      pane.getViewport().getViewPosition());
+            } else {
+                continue;
+            }
+            if (component == selected)
+                session.selectedTab = session.tabs.size();
+            session.tabs.add(tab);
+        }
+    }
+
+    /**
+     * Save every tab with unsaved edits, hibernated ones included: the
+     * untitled ones are given a file first, then the texts are written
+     * concurrently, off the Event Dispatch Thread. This must be called on
+     * the Event Dispatch Thread.
+     * @param whenSaved run once every file is written; not run if a file
+     * cannot be written, or the user cancels
+     */
+    public void saveAll(Runnable whenSaved) {
+        saveAll(getEditedTabs(), whenSaved);
+    }
+
+    /**
+     * Close every tab, e.g. on exit. If any has unsaved edits, a single
+     * dialog asks whether to save them all, as by {@code saveAll()}; the
+     * tabs are closed once the last file is written. This must be called
+     * on the Event Dispatch Thread.
+     * @param whenClosed run once the tabs are closed; not run if a file
+     * cannot be written, or the user cancels
+     */
+    public void closeAll(Runnable whenClosed) {
+        var edited = getEditedTabs();
+        if (!edited.isEmpty()) {
+            var message = new StringBuilder(edited.size() + " file(s) have unsaved edits:");
+            for (int i = 0; i < edited.size() && i < MAX_LISTED_FILES; i++)
+                message.append("\n    ").append(edited.get(i).title);
+            if (edited.size() > MAX_LISTED_FILES)
+                message.append("\n    and " + (edited.size() - MAX_LISTED_FILES) + " more");
+            String[] options = {"Save All", "Don't Save", "Cancel"};
+            int result = JOptionPane.showOptionDialog(this, message.toString(), "Exit",
+                JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE,
+                null, options, options[0]);
+            if (result == 0) {
+                saveAll(edited, () -> {
+                    removeAllTabs();
+                    whenClosed.run();
+                });
+                return;
+            }
+            if (result != 1)
+                return;
+        }
+        removeAllTabs();
+        whenClosed.run();
+    }
+
+    /**
+     * @return the tabs with unsaved edits, in order, with their texts
+     */
+    private synchronized List<EditedTab> getEditedTabs() {
+        var edited = new ArrayList<EditedTab>();
+        for (int i = 0; i < editorPane.getTabCount(); i++) {
+            var component = editorPane.getComponentAt(i);
+            if (component instanceof DormantTab) {
+                var tab = (DormantTab) component;
+                if (tab.content != null)
+                    edited.add(new EditedTab(null, tab, tab.identifier.file,
+                                             decompress(tab.content)));
+            } else if (component instanceof NamedScrollPane) {
+                var manager = managerMap.get(((NamedScrollPane) component).identifier);
+                if (manager == null || manager.readOnly)
+                    continue;
+                String text = manager.textArea.getText();
+                File file = manager.textPane.identifier.file;
+                if (file == null ? !text.isEmpty() :
+                        manager.loaded && checksum(text) != manager.diskChecksum)
+                    edited.add(new EditedTab(manager, null, file, text));
+            }
+        }
+        return edited;
+    }
+
+    private void saveAll(List<EditedTab> edited, Runnable whenSaved) {
+        // Untitled documents are given a file first
+        for (var tab: edited) {
+            if (tab.file != null)
+                continue;
+            editorPane.setSelectedComponent(tab.manager.textPane);
+            var saveChooser = getSaveChooser();
+            if (saveChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+                return;
+            tab.file = saveChooser.getSelectedFile().getAbsoluteFile();
+        }
+        long start = System.nanoTime();
+        new Thread(() -> {
+            var contents = new LinkedHashMap<File, byte[]>();
+            for (var tab: edited)
+                contents.put(tab.file, tab.text.getBytes(FileOperations.DEFAULT_CHARSET));
+            Map<File, IOException> failures;
+            try {
+                failures = FileOperations.writeFiles(contents);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            saveAllTime.recordSince(start);
+            saveAllFiles.add(contents.size() - failures.size());
+            SwingUtilities.invokeLater(() -> savedAll(edited, failures, whenSaved));
+        }, "JCode save all").start();
+    }
+
+    private void savedAll(List<EditedTab> edited, Map<File, IOException> failures,
+                          Runnable whenSaved) {
+        for (var tab: edited) {
+            if (failures.containsKey(tab.file))
+                continue;
+            if (tab.manager != null) {
+                tab.manager.savedAll(tab.file, tab.text);
+            } else {
+                var dormantTab = tab.dormantTab;
+                dormantTab.content = null;
+                dormantTab.hibernated = true;
+                dormantTab.checksum = checksum(tab.text);
+                dormantTab.lastModified = tab.file.lastModified();
+                if (dormantTab.journalFile != null)
+                    RecoveryJournal.delete(dormantTab.journalFile);
+                dormantTab.journalFile = null;
+            }
+        }
+        if (!failures.isEmpty()) {
+            var message = new StringBuilder("Error: Fail to save");
+            for (var failure: failures.entrySet())
+                message.append("\n    " + failure.getKey() + ": " + failure.getValue().getMessage());
+            JOptionPane.showMessageDialog(this, message.toString(),
+                                          "Save error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        whenSaved.run();
+    }
+
+    /**
+     * Remove every tab, with what it holds; unsaved edits are dropped, and
+     * so are their journals.
+     */
+    private synchronized void removeAllTabs() {
+        for (var tab: dormantTabs.values())
+            if (tab.journalFile != null)
+                RecoveryJournal.delete(tab.journalFile);
+        dormantTabs.clear();
+        managerMap.clear();
+        editorPane.removeAll();
+    }
+
+    /**
+     * Open a document recovered from its journal in a tab, with its
+     * unsaved edits. This must be called on the Event Dispatch Thread.
+     * @param recovered the document recovered; its journal is deleted
+     * once the tab is journaled anew
+     */
+    public void openRecovered(RecoveryJournal.Recovered recovered) {
+        EditorContentManager manager;
+        synchronized (this) {
+            // A file gone since is recovered untitled
+            if (recovered.file == null || !recovered.file.isFile()) {
+                create();
+                replaceText(currentCreatingTextArea, recovered);
+                return;
+            }
+            var identifier = new EditorIdentifier(0, recovered.file);
+            if ((manager = managerMap.get(identifier)) == null) {
+                var tab = dormantTabs.get(identifier);
+                if (tab == null) {
+                    tab = new DormantTab(identifier, new Session.Tab(
+                        recovered.file, false, 0, new Point()));
+                    dormantTabs.put(identifier, tab);
+                    editorPane.add(identifier.toString(), tab);
+                }
+                tab.content = compress(recovered.text);
+                tab.journalFile = recovered.journalFile;
+                rehydrate(tab, 0);
+                return;
+            }
+            editorPane.setSelectedComponent(manager.textPane);
+        }
+        replaceText(manager.textArea, recovered);
+    }
+
+    private static void replaceText(JTextPane textArea, RecoveryJournal.Recovered recovered) {
+        var document = (AbstractDocument) textArea.getStyledDocument();
+        var journal = RecoveryJournal.of(textArea);
+        journal.suspend();
+        try {
+            document.replace(0, document.getLength(), recovered.text, null);
+        } catch (BadLocationException ex) {
+
+        }
+        journal.resume(true, recovered.journalFile);
+        Prettifier.prettify(textArea);
+    }
+
+    /**
+     * Replace {@code tab} by an editor, and read its file.
+     * @param line the line to go to, or {@code 0} to restore the caret and
+     * scroll positions it had
+     */
+    private void rehydrate(DormantTab tab, int line) {
+        EditorContentManager manager;
+        synchronized (this) {
+            if (dormantTabs.get(tab.identifier) != tab)
+                return;
+            dormantTabs.remove(tab.identifier);
+            createEditorTab(0, tab.identifier.file, editorPane.indexOfComponent(tab));
+            manager = new EditorContentManager(currentCreatingTextArea,
+                                               currentCreatingPane);
+            managerMap.put(new EditorIdentifier(0, tab.identifier.file), manager);
+            editorPane.setSelectedComponent(currentCreatingPane);
+            editorPane.remove(tab);
+        }
+        rehydrated.increment();
+        manager.rehydrateStart = System.nanoTime();
+        actionOnNonzeroTabs();
+        manager.open(tab.identifier.file, tab.tab.readOnly);
+        if (tab.content != null)
+            manager.pendingText = decompress(tab.content);
+        manager.pendingJournal = tab.journalFile;
+        if (line > 0) {
+            manager.pendingLine = line;
+        } else {
+            manager.pendingCaret = tab.tab.caret;
+            manager.pendingViewPosition = tab.tab.viewPosition;
+            // Positions are only kept in the text they were taken in; those
+            // of a restored tab, in the file as it was on exit, are kept
+            // as they are
+            if (tab.hibernated && tab.content == null &&
+                    tab.identifier.file.lastModified() != tab.lastModified)
+                manager.pendingChecksum = tab.checksum;
+        }
+        manager.execute();
+    }
+
+    /**
+     * Hibernate the tabs not selected for {@code HIBERNATE_AFTER}, then
+     * the least recently selected ones while the editors hold more than
+     * {@code HIBERNATE_BUDGET} characters.
+     */
+    private void hibernateTabs() {
+        long now = System.currentTimeMillis();
+        long characters = 0;
+        var candidates = new ArrayList<EditorContentManager>();
+        synchronized (this) {
+            var selected = editorPane.getSelectedComponent();
+            for (var manager: managerMap.values()) {
+                if (!manager.loaded)
+                    continue;
+                characters += manager.textArea.getDocument().getLength();
+                // A followed file would not be followed once woken up
+                if (manager.textPane != selected && manager.textPane.identifier.file != null &&
+                        FileFollower.of(manager.textArea) == null)
+                    candidates.add(manager);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(manager -> manager.lastSelected));
+        for (var manager: candidates) {
+            if (now - manager.lastSelected < HIBERNATE_AFTER && characters <= HIBERNATE_BUDGET)
+                break;
+            int length = manager.textArea.getDocument().getLength();
+            if (hibernate(manager))
+                characters -= length;
+        }
+    }
+
+    /**
+     * Replace the editor of {@code manager} by a dormant tab, which keeps
+     * the state of the view, and the text only if it has unsaved edits,
+     * compressed. The document, its styles and the helpers installed in
+     * the editor are dropped.
+     * @return whether the tab is hibernated; it is not while its file is
+     * being saved
+     */
+    private boolean hibernate(EditorContentManager manager) {
+        var pane = manager.textPane;
+        File file = pane.identifier.file;
+        String text = manager.textArea.getText();
+        boolean edited;
+        synchronized (manager) {
+            // Nor while a request waits for the worker
+            if (!manager.idle || manager.saveOption != null || manager.savedText != null)
+                return false;
+            edited = !text.equals(manager.agent.getContent());
+            manager.hibernating = true;
+            manager.notifyAll();
+        }
+        var tab = new DormantTab(new EditorIdentifier(0, file), new Session.Tab(
+            file, manager.readOnly, manager.textArea.getCaretPosition(),
+            pane.getViewport().getViewPosition()));
+        tab.hibernated = true;
+        tab.lastModified = file.lastModified();
+        tab.checksum = checksum(text);
+        if (edited) {
+            tab.content = compress(text);
+            // The journal is kept until the tab wakes up
+            var journal = RecoveryJournal.of(manager.textArea);
+            if (journal != null)
+                tab.journalFile = journal.retain();
+        } else if (manager.diskSpans != null && tab.checksum == manager.diskChecksum)
+            // Waking up takes neither reading nor lexing the file then
+            ContentCache.put(file, new ContentCache.Entry(manager.diskLength,
+                manager.diskModified, text, manager.diskSpans));
+        synchronized (this) {
+            managerMap.remove(pane.identifier);
+            int index = editorPane.indexOfComponent(pane);
+            editorPane.insertTab(tab.identifier.toString(), null, tab, null, index);
+            editorPane.remove(pane);
+            dormantTabs.put(tab.identifier, tab);
+        }
+        hibernated.increment();
+        return true;
+    }
+
+    private static long checksum(String text) {
+        var crc = new CRC32();
+        crc.update(text.getBytes(FileOperations.DEFAULT_CHARSET));
+        return crc.getValue();
+    }
+
+    private static byte[] compress(String text) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DeflaterOutputStream(bytes)) {
+            out.write(text.getBytes(FileOperations.DEFAULT_CHARSET));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String decompress(byte[] content) {
+        try (var in = new InflaterInputStream(new ByteArrayInputStream(content))) {
+            return new String(in.readAllBytes(), FileOperations.DEFAULT_CHARSET);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void goToLine(JTextPane textArea, int line) {
+        var root = textArea.getDocument().getDefaultRootElement();
+        int index = Math.min(Math.max(line, 1), root.getElementCount()) - 1;
+        int offset = root.getElement(index).getStartOffset();
+        textArea.setCaretPosition(offset);
+        try {
+            var rect = textArea.modelToView2D(offset);
+            if (rect != null)
+                textArea.scrollRectToVisible(rect.getBounds());
+        } catch (BadLocationException ex) {
+
+        }
+        textArea.requestFocusInWindow();
+    }
+
+    /**
+     * Watch {@code file} for changes made outside JCode, e.g. by a checkout
+     * or a build, to bring its tab up to date with them.
+     */
+    private void watch(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!watchedFiles.add(path))
+            return;
+        try {
+            var watcher = FileWatcher.getShared();
+            synchronized (watchedFiles) {
+                if (!watching) {
+                    watcher.addListener(this::fileChanged);
+                    watching = true;
+                }
+            }
+            watcher.watchDirectory(path.getParent());
+        } catch (IOException ex) {
+            // Work without reloading
+        }
+    }
+
+    /**
+     * Called on the watcher thread for every change under every watched
+     * directory.
+     */
+    private void fileChanged(Path path, FileWatcher.Change change) {
+        if (change == FileWatcher.Change.OVERFLOW) {
+            // Any file in the directory may have changed
+            for (Path file: watchedFiles)
+                if (path.equals(file.getParent()))
+                    fileChanged(file, FileWatcher.Change.MODIFIED);
+            return;
+        }
+        if (change == FileWatcher.Change.DELETED || !watchedFiles.contains(path))
+            return;
+        EditorContentManager manager;
+        synchronized (this) {
+            manager = managerMap.get(new EditorIdentifier(0, path.toFile()));
+        }
+        // A dormant tab reads its file when it wakes up anyway
+        if (manager != null)
+            manager.changedOnDisk();
+    }
+
     public void save(SaveOption option) {
         var selectedPane = editorPane.getSelectedComponent();
         if (selectedPane == null)
@@ -160,10 +760,133 @@ public abstract class TextEditorPanel extends JPanel {
         return editorPane;
     }
 
+    public FindReplaceBar getFindReplaceBar() {
+        return findReplaceBar;
+    }
+
+    /**
+     * @return the identifiers offered for completion in all tabs
+     */
+    public IdentifierTrie getIdentifiers() {
+        return identifiers;
+    }
+
+    /**
+     * Get the text of every open Java file, saved or not, so that it can
+     * be compiled as it is shown. This must be called on the Event
+     * Dispatch Thread.
+     * @return the text of the open Java files, by canonical file
+     */
+    public Map<File, String> getOpenDocuments() {
+        var documents = new HashMap<File, String>();
+        for (var component: editorPane.getComponents()) {
+            File file;
+            String text;
+            if (component instanceof NamedScrollPane) {
+                var pane = (NamedScrollPane) component;
+                file = pane.identifier.file;
+                text = pane.component.getText();
+            } else if (component instanceof DormantTab &&
+                       ((DormantTab) component).content != null) {
+                // Hibernated with unsaved edits
+                var tab = (DormantTab) component;
+                file = tab.identifier.file;
+                text = decompress(tab.content);
+            } else {
+                continue;
+            }
+            if (file == null || !file.getName().endsWith(".java"))
+                continue;
+            try {
+                documents.put(file.getCanonicalFile(), text);
+            } catch (IOException ex) {
+
+            }
+        }
+        return documents;
+    }
+
+    private synchronized EditorContentManager getSelectedManager() {
+        var selected = editorPane.getSelectedComponent();
+        if (!(selected instanceof NamedScrollPane))
+            return null;
+        return managerMap.get(((NamedScrollPane) selected).identifier);
+    }
+
+    /**
+     * @return whether the selected tab can follow its file, see
+     * {@code setFollowingSelected()}: it is read-only, and its text is
+     * shown
+     */
+    public boolean canFollowSelected() {
+        var manager = getSelectedManager();
+        return manager != null && manager.readOnly && manager.loaded &&
+               manager.agent.getFile() != null;
+    }
+
+    public boolean isFollowingSelected() {
+        var manager = getSelectedManager();
+        return manager != null && FileFollower.of(manager.textArea) != null;
+    }
+
+    /**
+     * Have the selected tab follow its file, appending what is appended to
+     * the file, e.g. a log, or stop it. This must be called on the Event
+     * Dispatch Thread.
+     */
+    public void setFollowingSelected(boolean follow) {
+        if (!canFollowSelected())
+            return;
+        var manager = getSelectedManager();
+        var follower = FileFollower.of(manager.textArea);
+        if (follow && follower == null)
+            FileFollower.install(manager.textArea, manager.agent.getFile());
+        else if (!follow && follower != null)
+            follower.uninstall();
+    }
+
+    /**
+     * @return the undo history of the selected tab, or {@code null}
+     */
+    public EditHistory getSelectedEditHistory() {
+        var selected = editorPane.getSelectedComponent();
+        if (!(selected instanceof NamedScrollPane))
+            return null;
+        return EditHistory.of(((NamedScrollPane) selected).component);
+    }
+
+    /**
+     * Group all edits made to the selected document from now on, until
+     * {@code endCompoundEdit()} is called, into a single undoable edit.
+     */
+    public void beginCompoundEdit() {
+        var history = getSelectedEditHistory();
+        if (history != null)
+            history.beginGroup();
+    }
+
+    /**
+     * Finish the edit started by {@code beginCompoundEdit()}.
+     */
+    public void endCompoundEdit() {
+        var history = getSelectedEditHistory();
+        if (history != null)
+            history.endGroup();
+    }
+
     private void createEditorTab(int untitledNumber, File file) {
+        createEditorTab(untitledNumber, file, editorPane.getTabCount());
+    }
+
+    private void createEditorTab(int untitledNumber, File file, int index) {
         // Create text area with line wrap disabled
         // ref: https://www.coderanch.com/t/332983/java/Stop-text-wrapping
         currentCreatingTextArea = new JTextPane() {
+            // Lines too long to lay out are cut into rows
+            protected EditorKit createDefaultEditorKit() {
+                return LongLineView.createEditorKit();
+            }
+
             public boolean getScrollableTracksViewportWidth() {
                 return getSize().width < getParent().getSize().width;
             }
@@ -177,8 +900,6 @@ public abstract class TextEditorPanel extends JPanel {
         };
         currentCreatingTextArea.setFont(
             new Font(Font.MONOSPACED, Font.PLAIN, Parameters.DEFAULT_FONT_SIZE));
-        currentCreatingTextArea.getStyledDocument()
-            .addUndoableEditListener(this::undoableEditHappened);
         currentCreatingPane = new NamedScrollPane(currentCreatingTextArea) {
             {
                 identifier = new EditorIdentifier(untitledNumber, file);
@@ -190,8 +911,20 @@ public abstract class TextEditorPanel extends JPanel {
         };
 
         Prettifier.setPrettifierAction(currentCreatingTextArea);
+        Autocompleter.install(currentCreatingTextArea, identifiers);
+        var textArea = currentCreatingTextArea;
+        EditHistory.install(currentCreatingTextArea, () -> {
+            if (getSelectedEditHistory() == EditHistory.of(textArea))
+                actionOnEditHistoryChanged();
+        });
+        var pane = currentCreatingPane;
+        RecoveryJournal.install(currentCreatingTextArea, () -> pane.identifier.file);
+        LiveDiagnostics.install(currentCreatingTextArea, () -> pane.identifier.file,
+                                this::getRootPath);
+        SemanticHighlighter.install(currentCreatingTextArea, () -> pane.identifier.file);
+        LanguageServerSupport.install(currentCreatingTextArea, file, getRootPath());
         String title = currentCreatingPane.identifier.toString();
-        editorPane.add(title, currentCreatingPane);
+        editorPane.insertTab(title, null, currentCreatingPane, null, index);
     }
 
     public class EditorIdentifier {
@@ -242,17 +975,85 @@ public abstract class TextEditorPanel extends JPanel {
         }
     }
 
+    /**
+     * The tab of a file without an editor: restored from the last session
+     * and not selected since, or hibernated.
+     */
+    private class DormantTab extends JPanel {
+        private final EditorIdentifier identifier;
+        private final Session.Tab tab;
+        // Set when hibernated
+        private boolean hibernated;     // rather than restored
+        private long lastModified;
+        private long checksum;
+        private byte[] content;     // compressed, if it has unsaved edits
+        private File journalFile;   // of the unsaved edits, if any
+
+        private DormantTab(EditorIdentifier identifier, Session.Tab tab) {
+            this.identifier = identifier;
+            this.tab = tab;
+        }
+
+        public Dimension getPreferredSize() {
+            return new Dimension(Parameters.FRAME_WIDTH - Parameters.DIRECTORY_PANEL_WIDTH,
+                                 Parameters.FRAME_HEIGHT - Parameters.SHELL_PANEL_HEIGHT);
+        }
+    }
+
+    /**
+     * A tab with unsaved edits, and its text as Save All started.
+     */
+    private static class EditedTab {
+        private final EditorContentManager manager;     // or
+        private final DormantTab dormantTab;
+        private final String title;
+        private File file;
+        private final String text;
+
+        private EditedTab(EditorContentManager manager, DormantTab dormantTab,
+                          File file, String text) {
+            this.manager = manager;
+            this.dormantTab = dormantTab;
+            this.title = manager != null ? manager.textPane.identifier.toString()
+                                         : dormantTab.identifier.toString();
+            this.file = file;
+            this.text = text;
+        }
+    }
+
     private class EditorContentManager extends SwingWorker<Object, String> {
         private FileAgent agent;
         private boolean readOnly;
         private JTextPane textArea;
         private NamedScrollPane textPane;
         private SaveOption saveOption;
+        private int pendingLine;    // line to go to once the file is read
+        private int pendingCaret = -1;          // or the caret and scroll
+        private Point pendingViewPosition;      // positions to restore
+        private long pendingChecksum = -1;      // of the text they are in
+        private String pendingText;     // unsaved text, to show rather than the file
+        private File pendingJournal;    // of that text
+        private long rehydrateStart;
+        private Prettifier.Spans shownSpans;    // of the text to show
+        // The file as read or saved last, for {@code ContentCache}
+        private long diskLength = -1;
+        private long diskModified;
+        private volatile long diskChecksum;
+        private Prettifier.Spans diskSpans;     // or {@code null}
+        private long lastSelected = System.currentTimeMillis();
+        private boolean loaded;         // the text is shown
+        // Guarded by {@code this}
+        private boolean idle;           // waiting for {@code saveOption}
+        private boolean hibernating;
+        private File savedFile;         // written by Save All,
+        private String savedText;       // with this text, to be noted
+        private final Timer reloadTimer = new Timer(RELOAD_DELAY, e -> requestReload());
 
         public EditorContentManager(JTextPane textArea, NamedScrollPane textPane) {
             this.textArea = textArea;
             this.textPane = textPane;
             agent = new FileAgent();
+            reloadTimer.setRepeats(false);
         }
 
         public void create() {
@@ -269,8 +1070,17 @@ public abstract class TextEditorPanel extends JPanel {
         public Object doInBackground() 
             throws IOException, InterruptedException {
             if (agent.getFile() != null) {
-                // Read from file
-                try {
+                // Read from file, or take it from the cache
+                File file = agent.getFile();
+                var cached = ContentCache.take(file);
+                if (cached != null) {
+                    agent.read(cached.text);
+                    diskLength = cached.length;
+                    diskModified = cached.lastModified;
+                    diskSpans = cached.spans;
+                } else try {
+                    diskLength = file.length();
+                    diskModified = file.lastModified();
                     agent.read();
                 } catch (NotTextFileException ex) {
                     JOptionPane.showMessageDialog(
@@ -284,18 +1094,53 @@ public abstract class TextEditorPanel extends JPanel {
                     }
                     return null;
                 }
-                if (readOnly)
-                    publish(agent.getContent());
+                diskChecksum = checksum(agent.getContent());
+                String text;
+                if (pendingText != null)
+                    text = pendingText;
+                else if (readOnly)
+                    text = agent.getContent();
+                else
+                    text = agent.editContent().toString();
+                // Lex here rather than on the Event Dispatch Thread
+                if (pendingText != null || diskSpans == null)
+                    shownSpans = Prettifier.lex(text);
                 else
-                    publish(agent.editContent().toString());
+                    shownSpans = diskSpans;
+                if (pendingText == null)
+                    diskSpans = shownSpans;
+                publish(text);
+                watch(file);
             }
             boolean closed = false;
             while (true) {
                 SaveOption option;
+                File saved;
+                String savedContent;
                 synchronized (this) {
-                    wait();
+                    idle = true;
+                    while (saveOption == null && savedText == null && !hibernating)
+                        wait();
+                    idle = false;
+                    if (hibernating)
+                        return null;
                     // After awakened, check {@code saveOption}.
                     option = saveOption;
+                    saveOption = null;
+                    saved = savedFile;
+                    savedContent = savedText;
+                    savedFile = null;
+                    savedText = null;
+                }
+                // Before the request, which may be a reload taken against it
+                if (savedContent != null) {
+                    wroteAll(saved, savedContent);
+                    if (option == null)
+                        continue;
+                }
+                if (option == SaveOption.RELOAD) {
+                    reload();
+                    continue;
                 }
                 if (!readOnly) {
                     var content = agent.editContent();
@@ -307,6 +1152,7 @@ public abstract class TextEditorPanel extends JPanel {
                     switch (option) {
                         case SAVE:
                             agent.write();
+                            wroteFile();
                             break;
                         case CREATE:
                             saveNew();
@@ -319,20 +1165,26 @@ public abstract class TextEditorPanel extends JPanel {
                             break;
                         case CLOSE:
                             synchronized (closeLock) {
-                                int result = JOptionPane.showConfirmDialog(TextEditorPanel.this, 
-                                    "Save file?",
-                                    "Save",
-                                    JOptionPane.YES_NO_CANCEL_OPTION);
+                                // Nothing to save, nothing to ask
+                                int result = JOptionPane.NO_OPTION;
+                                if (isEdited())
+                                    result = JOptionPane.showConfirmDialog(TextEditorPanel.this, 
+                                        "Save file?",
+                                        "Save",
+                                        JOptionPane.YES_NO_CANCEL_OPTION);
                                 switch (result) {
                                     case JOptionPane.CANCEL_OPTION:
                                         continue;
                                     case JOptionPane.YES_OPTION:
                                         if (agent.getFile() == null)
                                             saveNew();
-                                        else
+                                        else {
                                             agent.write();
+                                            wroteFile();
+                                        }
                                         // fall through
                                     case JOptionPane.NO_OPTION:
+                                        cacheContent(textArea.getText());
                                         synchronized (TextEditorPanel.this) {
                                             managerMap.remove(textPane.identifier);
                                             editorPane.remove(textPane);
@@ -351,6 +1203,7 @@ public abstract class TextEditorPanel extends JPanel {
                             actionOnNonzeroTabs();
                             break;
                         case CLOSE:
+                            cacheContent(textArea.getText());
                             synchronized (closeLock) {
                                 synchronized (TextEditorPanel.this) {
                                     managerMap.remove(textPane.identifier);
@@ -373,13 +1226,22 @@ public abstract class TextEditorPanel extends JPanel {
         }
 
         private void saveNew() throws IOException {
+            var saveChooser = getSaveChooser();
             if (saveChooser.showSaveDialog(TextEditorPanel.this) != 
                     JFileChooser.APPROVE_OPTION)
                 return;
 
             agent.saveAs(saveChooser.getSelectedFile()
                                     .getAbsolutePath());
+            wroteFile();
+            retitle();
+        }
 
+        /**
+         * Rename the tab of an untitled document after its new file, and
+         * close any other tab of that file.
+         */
+        private void retitle() {
             // Rename tab and modify {@code managerMap}
             synchronized (TextEditorPanel.this) {
                 managerMap.remove(textPane.identifier);
@@ -392,6 +1254,9 @@ public abstract class TextEditorPanel extends JPanel {
                     managerMap.remove(textPane.identifier);
                     editorPane.remove(oldManager.textPane);
                 }
+                var dormantTab = dormantTabs.remove(textPane.identifier);
+                if (dormantTab != null)
+                    editorPane.remove(dormantTab);
                 managerMap.put(textPane.identifier, this);
                 editorPane.setTitleAt(
                     editorPane.indexOfTab(oldName),
@@ -400,7 +1265,245 @@ public abstract class TextEditorPanel extends JPanel {
             }
         }
 
+        /**
+         * Note the file as just written from {@code agent}.
+         */
+        private void wroteFile() {
+            wroteFile(agent.getContent());
+        }
+
+        /**
+         * Note the file as just written with {@code text}.
+         */
+        private void wroteFile(String text) {
+            File file = agent.getFile();
+            diskLength = file.length();
+            diskModified = file.lastModified();
+            diskChecksum = checksum(text);
+            diskSpans = null;
+            var journal = RecoveryJournal.of(textArea);
+            if (journal != null)
+                journal.saved(text);
+            watch(file);
+        }
+
+        /**
+         * Note that the file changed on disk. It is read again once it has
+         * not changed for {@code RELOAD_DELAY}, or read on by the
+         * {@code FileFollower} of the tab. This may be called from any
+         * thread.
+         */
+        private void changedOnDisk() {
+            SwingUtilities.invokeLater(() -> {
+                var follower = FileFollower.of(textArea);
+                if (follower != null)
+                    follower.changed();
+                else
+                    reloadTimer.restart();
+            });
+        }
+
+        private void requestReload() {
+            // A followed file is read as it grows instead
+            if (isDone() || FileFollower.of(textArea) != null)
+                return;
+            synchronized (this) {
+                if (loaded && saveOption == null) {
+                    saveOption = SaveOption.RELOAD;
+                    notifyAll();
+                    return;
+                }
+            }
+            // Still loading, or busy with something else
+            reloadTimer.restart();
+        }
+
+        /**
+         * Read the file again if it changed since it was read or saved
+         * last, and bring the text up to date with it on the Event
+         * Dispatch Thread. The diff is taken here if the text has no
+         * unsaved edits, which is by far the most common case.
+         */
+        private void reload() {
+            File file = agent.getFile();
+            if (file == null)
+                return;
+            long length = file.length();
+            long modified = file.lastModified();
+            if (length == diskLength && modified == diskModified)
+                return;     // e.g. saved by this tab
+            String theirs;
+            try {
+                if (!FileOperations.isTextFile(file))
+                    return;
+                theirs = new String(FileOperations.readFile(file),
+                                    FileOperations.DEFAULT_CHARSET);
+            } catch (IOException ex) {
+                return;     // e.g. deleted again; there is nothing to take
+            }
+            diskLength = length;
+            diskModified = modified;
+            long theirChecksum = checksum(theirs);
+            if (theirChecksum == diskChecksum)
+                return;     // touched only
+            String base = agent.getContent();
+            if (checksum(base) != diskChecksum)
+                base = null;
+            var content = agent.editContent();
+            content.replace(0, content.length(), theirs);
+            diskChecksum = theirChecksum;
+            var spans = Prettifier.lex(theirs);
+            diskSpans = spans;
+            String mine = textArea.getText();
+            var patches = mine.equals(base) ? LineDiff.patches(mine, theirs) : null;
+            String oldText = base;
+            SwingUtilities.invokeLater(() ->
+                reloaded(oldText, mine, theirs, theirChecksum, spans, patches));
+        }
+
+        /**
+         * Bring the text up to date with {@code theirs}, the new text of
+         * the file. Only the lines changed are replaced, so that the caret,
+         * the view and the colors elsewhere stay. If the text has unsaved
+         * edits, the user chooses to merge them with the change, to drop
+         * them, or to keep them as they are.
+         * @param base the text the file had before, or {@code null} if it
+         * is not known
+         * @param mine the text of the editor when the file was read
+         * @param theirChecksum the checksum of {@code theirs}
+         * @param spans the tokens of {@code theirs}
+         * @param patches from {@code mine} to {@code theirs}, or
+         * {@code null}
+         */
+        private void reloaded(String base, String mine, String theirs, long theirChecksum,
+                              Prettifier.Spans spans, List<LineDiff.Patch> patches) {
+            // A newer change follows, or the tab is closed
+            if (theirChecksum != diskChecksum || isDone())
+                return;
+            String text = textArea.getText();
+            if (!text.equals(mine))
+                patches = null;     // edited since
+            var journal = RecoveryJournal.of(textArea);
+            if (text.equals(theirs)) {
+                if (journal != null)
+                    journal.saved(theirs);
+                return;
+            }
+            if (text.equals(base)) {
+                reloadText(patches != null ? patches : LineDiff.patches(text, theirs),
+                           theirs, spans);
+                return;
+            }
+
+            String[] options = base != null ? new String[] {"Merge", "Reload", "Keep Mine"}
+                                            : new String[] {"Reload", "Keep Mine"};
+            int result = JOptionPane.showOptionDialog(TextEditorPanel.this,
+                textPane.identifier + "\nhas changed on disk, and has unsaved edits.",
+                "File changed", JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE,
+                null, options, options[0]);
+            String choice = result >= 0 ? options[result] : "Keep Mine";
+            text = textArea.getText();
+            if (choice.equals("Reload")) {
+                reloadText(LineDiff.patches(text, theirs), theirs, spans);
+            } else if (choice.equals("Merge")) {
+                var merge = LineDiff.merge(base, text, theirs);
+                patch(LineDiff.patches(text, merge.text));
+                Prettifier.prettify(textArea);
+                if (merge.conflicts > 0)
+                    JOptionPane.showMessageDialog(TextEditorPanel.this,
+                        merge.conflicts + " conflict(s) are marked with <<<<<<< and >>>>>>>.",
+                        "File changed", JOptionPane.WARNING_MESSAGE);
+            }
+            // The edits kept differ from the file now
+        }
+
+        /**
+         * Make the text {@code theirs}, the text of the file, by
+         * {@code patches}.
+         */
+        private void reloadText(List<LineDiff.Patch> patches, String theirs,
+                                Prettifier.Spans spans) {
+            var journal = RecoveryJournal.of(textArea);
+            if (journal != null)
+                journal.suspend();
+            patch(patches);
+            if (journal != null) {
+                journal.resume(false, null);
+                journal.saved(theirs);
+            }
+            Prettifier.prettify(textArea, spans);
+        }
+
+        /**
+         * Apply {@code patches} to the document, last first so that the
+         * offsets of the others hold, as a single undoable edit.
+         */
+        private void patch(List<LineDiff.Patch> patches) {
+            var document = (AbstractDocument) textArea.getStyledDocument();
+            var history = EditHistory.of(textArea);
+            if (history != null)
+                history.beginGroup();
+            try {
+                for (int i = patches.size() - 1; i >= 0; i--) {
+                    var patch = patches.get(i);
+                    document.replace(patch.offset, patch.length, patch.text, null);
+                }
+            } catch (BadLocationException ex) {
+
+            } finally {
+                if (history != null)
+                    history.endGroup();
+            }
+        }
+
+        /**
+         * Note {@code text} as written into {@code file} by Save All. The
+         * agent and what is known of the file on disk belong to the
+         * worker, which takes this before its next request.
+         */
+        private void savedAll(File file, String text) {
+            synchronized (this) {
+                savedFile = file;
+                savedText = text;
+                notifyAll();
+            }
+        }
+
+        private void wroteAll(File file, String text) {
+            if (agent.getFile() == null) {
+                agent.open(file.getAbsolutePath());
+                retitle();
+            }
+            // The text on disk, which edits and reloads are taken against
+            var content = agent.editContent();
+            content.replace(0, content.length(), text);
+            wroteFile(text);
+        }
+
+        /**
+         * @return whether the text differs from the file, or an untitled
+         * document has any text
+         */
+        private boolean isEdited() {
+            if (agent.getFile() == null)
+                return agent.getContent().length() > 0;
+            return checksum(agent.getContent()) != diskChecksum;
+        }
+
+        /**
+         * Put {@code text} into {@code ContentCache} for the file, if it is
+         * what the file holds.
+         */
+        private void cacheContent(String text) {
+            File file = agent.getFile();
+            if (file == null || diskLength < 0 || checksum(text) != diskChecksum)
+                return;
+            var spans = diskSpans != null ? diskSpans : Prettifier.lex(text);
+            ContentCache.put(file, new ContentCache.Entry(diskLength, diskModified, text, spans));
+        }
+
         private void forkNew() throws IOException {
+            var saveChooser = getSaveChooser();
             if (saveChooser.showSaveDialog(TextEditorPanel.this) !=
                     JFileChooser.APPROVE_OPTION)
                 return;
@@ -412,6 +1515,9 @@ public abstract class TextEditorPanel extends JPanel {
             EditorIdentifier newIdentifier 
                 = new EditorIdentifier(0, newAgent.getFile());
             synchronized (TextEditorPanel.this) {
+                var dormantTab = dormantTabs.remove(newIdentifier);
+                if (dormantTab != null)
+                    editorPane.remove(dormantTab);
                 if ((oldManager = managerMap.get(newIdentifier)) 
                                != null) {
                     managerMap.remove(newIdentifier);
@@ -431,6 +1537,9 @@ public abstract class TextEditorPanel extends JPanel {
 
         public void process(List<String> chunks) {
             var document = textArea.getStyledDocument();
+            var journal = RecoveryJournal.of(textArea);
+            if (journal != null)
+                journal.suspend();
             try {
                 document.remove(0, document.getLength());
                 document.insertString(0, chunks.get(chunks.size() - 1), null);
@@ -446,7 +1555,41 @@ public abstract class TextEditorPanel extends JPanel {
                 }
                 return;
             }
-            Prettifier.prettify(currentCreatingTextArea);
+            Prettifier.prettify(textArea, shownSpans);
+            shownSpans = null;
+            // Loading the text is not an edit
+            var history = EditHistory.of(textArea);
+            if (history != null)
+                history.discardAllEdits();
+            if (journal != null) {
+                journal.resume(pendingText != null, pendingJournal);
+                pendingJournal = null;
+            }
+            loaded = true;
+            if (rehydrateStart != 0) {
+                rehydrateTime.recordSince(rehydrateStart);
+                rehydrateStart = 0;
+            }
+            if (pendingChecksum >= 0 && checksum(textArea.getText()) != pendingChecksum)
+                pendingCaret = -1;
+            pendingChecksum = -1;
+            if (pendingLine > 0) {
+                goToLine(textArea, pendingLine);
+                pendingLine = 0;
+            } else if (pendingCaret >= 0) {
+                textArea.setCaretPosition(Math.min(pendingCaret, document.getLength()));
+                pendingCaret = -1;
+                var position = pendingViewPosition;
+                // Once the text is laid out
+                SwingUtilities.invokeLater(() -> {
+                    var viewport = textPane.getViewport();
+                    var size = viewport.getViewSize();
+                    var extent = viewport.getExtentSize();
+                    viewport.setViewPosition(new Point(
+                        Math.max(0, Math.min(position.x, size.width - extent.width)),
+                        Math.max(0, Math.min(position.y, size.height - extent.height))));
+                });
+            }
         }
 
         public void done() {
@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import file.*;
+
+/**
+ * A whole open, edit and save cycle of a tab.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileAgentBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int bytes;
+
+    private File directory;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jcode-bench").toFile();
+        file = new File(directory, "edited.txt");
+        FileOperations.writeFile(file, Sources.text(bytes));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sources.delete(directory);
+    }
+
+    /**
+     * Insert a line in the middle and remove it again, so that the file
+     * keeps its size from one call to the next.
+     */
+    @Benchmark
+    public int readEditWrite() throws IOException {
+        var agent = new FileAgent();
+        agent.open(file.getPath());
+        agent.read();
+        var content = agent.editContent();
+        int middle = content.length() / 2;
+        content.insert(middle, "inserted line\n");
+        agent.write();
+        content.delete(middle, middle + "inserted line\n".length());
+        agent.write();
+        int length = content.length();
+        agent.close(false);
+        return length;
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import file.FileEnumerator;
+
+/**
+ * Listing a whole folder, as the directory view and the indexes do when a
+ * folder is opened.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileEnumeratorBenchmark {
+    private static final int FILES_PER_DIRECTORY = 10;
+    private static final int DIRECTORIES_PER_DIRECTORY = 4;
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    private File root;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("jcode-bench").toFile();
+        generate(root, files);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sources.delete(root);
+    }
+
+    /**
+     * @return the number of files and directories found
+     */
+    @Benchmark
+    public int enumerate() {
+        var enumerator = new FileEnumerator(root);
+        int count = 0;
+        FileEnumerator.DirectoryListData data;
+        while ((data = enumerator.enumerate()) != null)
+            count += data.children.length;
+        return count;
+    }
+
+    /**
+     * Fill {@code directory} with {@code count} empty files, spread over a
+     * tree of subdirectories.
+     */
+    private static void generate(File directory, int count) throws IOException {
+        int here = Math.min(count, FILES_PER_DIRECTORY);
+        for (int i = 0; i < here; i++)
+            new File(directory, "File" + i + ".java").createNewFile();
+        int left = count - here;
+        for (int i = 0; i < DIRECTORIES_PER_DIRECTORY && left > 0; i++) {
+            var subdirectory = new File(directory, "dir" + i);
+            subdirectory.mkdir();
+            int share = (left + DIRECTORIES_PER_DIRECTORY - i - 1)
+                / (DIRECTORIES_PER_DIRECTORY - i);
+            generate(subdirectory, share);
+            left -= share;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import file.FileOperations;
+
+/**
+ * Detecting, reading and writing text files, as done when opening and
+ * saving tabs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileOperationsBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int bytes;
+
+    private File directory;
+    private File file;
+    private File target;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jcode-bench").toFile();
+        file = new File(directory, "input.txt");
+        target = new File(directory, "output.txt");
+        content = Sources.text(bytes);
+        FileOperations.writeFile(file, content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sources.delete(directory);
+    }
+
+    @Benchmark
+    public boolean isTextFile() throws IOException {
+        return FileOperations.isTextFile(file);
+    }
+
+    @Benchmark
+    public byte[] readFile() throws IOException {
+        return FileOperations.readFile(file);
+    }
+
+    @Benchmark
+    public File writeFile() throws IOException {
+        FileOperations.writeFile(target, content);
+        return target;
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.JTextPane;
+import org.openjdk.jmh.annotations.*;
+import gui.Prettifier;
+
+/**
+ * Syntax highlighting of a whole document, as done after every edit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// The string pattern recurses once per character it spans, and a stray
+// quote in a character literal makes it span far; the default stack is not
+// enough for real sources of thousands of lines.
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xss8m"})
+@State(Scope.Thread)
+public class PrettifierBenchmark {
+    @Param({"synthetic", "real"})
+    public String source;
+
+    @Param({"200", "2000", "10000"})
+    public int lines;
+
+    private JTextPane textArea;
+
+    @Setup
+    public void setUp() throws Exception {
+        textArea = new JTextPane();
+        textArea.setText(source.equals("real") ? Sources.real(lines) : Sources.synthetic(lines));
+    }
+
+    @Benchmark
+    public JTextPane prettify() {
+        Prettifier.prettify(textArea);
+        return textArea;
+    }
+}
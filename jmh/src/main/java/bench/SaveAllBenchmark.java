@@ -0,0 +1,54 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import file.FileOperations;
+
+/**
+ * Saving many edited files at once, as Save All and Exit do: one after
+ * another, or concurrently.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SaveAllBenchmark {
+    @Param({"50"})
+    public int files;
+
+    @Param({"4096", "65536"})
+    public int bytes;
+
+    private File directory;
+    private Map<File, byte[]> contents;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jcode-bench").toFile();
+        contents = new LinkedHashMap<>();
+        for (int i = 0; i < files; i++)
+            contents.put(new File(directory, "File" + i + ".java"), Sources.text(bytes));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sources.delete(directory);
+    }
+
+    @Benchmark
+    public Map<File, byte[]> serial() throws IOException {
+        for (var entry: contents.entrySet())
+            FileOperations.writeFile(entry.getKey(), entry.getValue());
+        return contents;
+    }
+
+    @Benchmark
+    public Map<File, IOException> concurrent() throws InterruptedException {
+        return FileOperations.writeFiles(contents);
+    }
+}
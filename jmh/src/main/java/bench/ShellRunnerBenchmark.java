@@ -0,0 +1,61 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import shell.ShellRunner;
+
+/**
+ * How fast shell output reaches the terminal panel. {@code yes} and
+ * {@code cat} stand in for chatty commands; each call spawns a shell, runs
+ * one of them and reads everything it prints.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class ShellRunnerBenchmark {
+    private static final String SHELL = "/bin/sh";
+
+    @Param({"yes", "cat"})
+    public String command;
+
+    @Param({"10000", "100000"})
+    public int lines;
+
+    private File directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("jcode-bench").toFile();
+        var text = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+            text.append("line ").append(i).append(" of the file\n");
+        Files.writeString(new File(directory, "output.txt").toPath(), text);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sources.delete(directory);
+    }
+
+    /**
+     * @return the number of lines read
+     */
+    @Benchmark
+    public int consumeOutput() throws IOException, InterruptedException {
+        var runner = new ShellRunner(SHELL);
+        runner.setWorkingDirectory(directory.getPath());
+        runner.spawnShell();
+        String line = command.equals("yes") ? "yes 'y y y y y y y y' | head -n " + lines
+                                            : "cat output.txt";
+        runner.runCommand(() -> line + "\nexit");
+        int[] count = new int[1];
+        runner.consumeOutput(output -> count[0]++);
+        runner.getShell().waitFor();
+        return count[0];
+    }
+}
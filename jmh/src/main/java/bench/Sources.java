@@ -0,0 +1,109 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Inputs shared by the benchmarks.
+ */
+public class Sources {
+    /**
+     * Generate Java source of {@code lines} lines, with the usual mix of
+     * keywords, strings, calls and comments.
+     */
+    public static String synthetic(int lines) {
+        var random = new Random(lines);
+        var source = new StringBuilder("package bench.generated;\n\n");
+        int line = 2;
+        for (int type = 0; line < lines; type++) {
+            source.append("/**\n * Generated type number ").append(type).append(".\n */\n");
+            source.append("public class Generated").append(type).append(" {\n");
+            line += 4;
+            for (int method = 0; method < 8 && line < lines; method++) {
+                source.append("    private static final String NAME_").append(method)
+                      .append(" = \"name \\\"").append(method).append("\\\"\";\n\n");
+                source.append("    public int method").append(method)
+                      .append("(int count, String label) {\n");
+                source.append("        int total = 0; // running total\n");
+                source.append("        for (int i = 0; i < count; i++) {\n");
+                source.append("            if (label.length() > ").append(random.nextInt(100))
+                      .append(")\n");
+                source.append("                total += Math.max(i, label.hashCode());\n");
+                source.append("            else\n");
+                source.append("                total -= helper(i, \"label\" + i);\n");
+                source.append("        }\n");
+                source.append("        /* done */ return total;\n");
+                source.append("    }\n\n");
+                line += 13;
+            }
+            source.append("}\n\n");
+            line += 2;
+        }
+        return source.toString();
+    }
+
+    /**
+     * Take {@code lines} lines of JCode's own sources, repeating them if
+     * there are not enough.
+     * @throws IOException if the sources cannot be found or read
+     */
+    public static String real(int lines) throws IOException {
+        var all = new ArrayList<String>();
+        try (Stream<Path> files = Files.walk(root().toPath())) {
+            for (Path file: files.filter(p -> p.toString().endsWith(".java"))
+                                 .filter(p -> !p.toString().contains(File.separator + "jmh"
+                                                                     + File.separator))
+                                 .sorted()
+                                 .collect(Collectors.toList()))
+                all.addAll(Files.readAllLines(file));
+        }
+        var source = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+            source.append(all.get(i % all.size())).append('\n');
+        return source.toString();
+    }
+
+    /**
+     * Get the top of the JCode sources, given by the {@code jcode.sources}
+     * property or found above the working directory.
+     * @throws FileNotFoundException if there is no such directory
+     */
+    public static File root() throws FileNotFoundException {
+        String property = System.getProperty("jcode.sources");
+        if (property != null)
+            return new File(property);
+        for (File dir = new File("").getAbsoluteFile(); dir != null; dir = dir.getParentFile())
+            if (new File(dir, "gui/Prettifier.java").isFile())
+                return dir;
+        throw new FileNotFoundException("JCode sources not found; set -Djcode.sources");
+    }
+
+    /**
+     * Generate text of about {@code bytes} bytes, in lines of words.
+     */
+    public static byte[] text(int bytes) {
+        var random = new Random(bytes);
+        var text = new StringBuilder(bytes + 16);
+        while (text.length() < bytes) {
+            for (int i = 0; i < 10; i++)
+                text.append(Integer.toString(random.nextInt(1 << 20), 36)).append(' ');
+            text.append('\n');
+        }
+        text.setLength(bytes);
+        return text.toString().getBytes(file.FileOperations.DEFAULT_CHARSET);
+    }
+
+    /**
+     * Delete {@code file}, and everything in it if it is a directory.
+     */
+    public static void delete(File file) throws IOException {
+        if (!file.exists())
+            return;
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            for (Path path: paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(path);
+        }
+    }
+}
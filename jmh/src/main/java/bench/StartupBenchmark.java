@@ -0,0 +1,100 @@
+package bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Time to first paint and time to interactive of JCode, measured by
+ * launching the packaged jar with {@code -Djcode.startup.exit=true} again
+ * and again, without and with the class data sharing archive. Startup is
+ * not a steady state, so this is a plain program rather than a JMH
+ * benchmark.
+ *
+ * Usage: {@code StartupBenchmark <jar> <archive> <runs> <result.json>}.
+ * The archive is skipped if it does not exist. JCode must be able to open
+ * a window, i.e. this needs a display.
+ */
+public class StartupBenchmark {
+    private static final Pattern RESULT =
+        Pattern.compile("startup firstPaint=(\\d+) interactive=(\\d+)");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 4) {
+            System.err.println("Usage: StartupBenchmark <jar> <archive> <runs> <result.json>");
+            System.exit(2);
+        }
+        var jar = new File(args[0]);
+        var archive = new File(args[1]);
+        int runs = Integer.parseInt(args[2]);
+
+        var modes = new LinkedHashMap<String, List<String>>();
+        modes.put("default", List.of());
+        if (archive.isFile())
+            modes.put("cds", List.of("-XX:SharedArchiveFile=" + archive.getPath()));
+        else
+            System.err.println("No archive at " + archive + "; run make cds to build it");
+
+        var json = new StringBuilder("[\n");
+        for (var mode: modes.entrySet()) {
+            long[] firstPaint = new long[runs];
+            long[] interactive = new long[runs];
+            // One run first, to warm up the disk cache
+            launch(jar, mode.getValue());
+            for (int i = 0; i < runs; i++) {
+                long[] result = launch(jar, mode.getValue());
+                firstPaint[i] = result[0];
+                interactive[i] = result[1];
+            }
+            System.out.printf("%-8s firstPaint %s%n         interactive %s%n", mode.getKey(),
+                              summary(firstPaint), summary(interactive));
+            if (json.length() > 2)
+                json.append(",\n");
+            json.append(result(mode.getKey(), "firstPaint", firstPaint)).append(",\n")
+                .append(result(mode.getKey(), "interactive", interactive));
+        }
+        json.append("\n]\n");
+        try (var out = new FileWriter(args[3])) {
+            out.write(json.toString());
+        }
+    }
+
+    /**
+     * @return time to first paint and time to interactive of one run, in ms
+     */
+    private static long[] launch(File jar, List<String> options)
+            throws IOException, InterruptedException {
+        var command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.addAll(options);
+        command.add("-Djcode.startup.exit=true");
+        command.add("-jar");
+        command.add(jar.getPath());
+        var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        var output = new String(process.getInputStream().readAllBytes());
+        process.waitFor();
+        var matcher = RESULT.matcher(output);
+        if (!matcher.find())
+            throw new IOException("JCode did not report its startup:\n" + output);
+        return new long[] {
+            Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))
+        };
+    }
+
+    private static String summary(long[] samples) {
+        var stats = Arrays.stream(samples).summaryStatistics();
+        return String.format(Locale.ROOT, "mean %.1f ms, min %d ms, max %d ms",
+                             stats.getAverage(), stats.getMin(), stats.getMax());
+    }
+
+    private static String result(String mode, String phase, long[] samples) {
+        var stats = Arrays.stream(samples).summaryStatistics();
+        var list = new StringJoiner(", ", "[", "]");
+        for (long sample: samples)
+            list.add(Long.toString(sample));
+        return String.format(Locale.ROOT,
+            "  {\"benchmark\": \"startup.%s\", \"mode\": \"%s\", \"unit\": \"ms\", " +
+            "\"mean\": %.1f, \"min\": %d, \"max\": %d, \"samples\": %s}",
+            phase, mode, stats.getAverage(), stats.getMin(), stats.getMax(), list);
+    }
+}
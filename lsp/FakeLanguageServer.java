@@ -0,0 +1,208 @@
+package lsp;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * A tiny language server, to try the client out without installing a
+ * real one, on any kind of text:
+ * <ul>
+ * <li>it takes incremental document changes, and checks that they apply
+ * (a change out of the document is reported as an error);</li>
+ * <li>lines with {@code FIXME} get an error and lines with {@code TODO}
+ * a warning;</li>
+ * <li>completion offers the words of the document starting with the
+ * word before the position.</li>
+ * </ul>
+ *
+ * Run it as {@code java -cp <JCode classes> lsp.FakeLanguageServer}.
+ * With {@code --completion-delay=<ms>} completions are answered late, and
+ * can be cancelled meanwhile.
+ */
+public class FakeLanguageServer {
+    private static final Pattern WORD = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern MARKER = Pattern.compile("\\b(FIXME|TODO)\\b");
+
+    private final JsonRpcConnection connection;
+    private final long completionDelay;
+    private final HashMap<String, StringBuilder> documents = new HashMap<>();
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor();
+    // Completions waiting to be answered, by request id
+    private final ConcurrentHashMap<Object, ScheduledFuture<?>> delayed =
+        new ConcurrentHashMap<>();
+
+    public static void main(String[] args) {
+        long delay = 0;
+        for (String arg: args)
+            if (arg.startsWith("--completion-delay="))
+                delay = Long.parseLong(arg.substring("--completion-delay=".length()));
+        new FakeLanguageServer(System.in, System.out, delay).connection.run();
+        System.exit(0);
+    }
+
+    private FakeLanguageServer(InputStream in, OutputStream out, long completionDelay) {
+        this.completionDelay = completionDelay;
+        connection = new JsonRpcConnection(in, out);
+        connection.setRequestHandler(this::handleRequest);
+        connection.setNotificationHandler(this::handleNotification);
+    }
+
+    private synchronized void handleRequest(Object id, String method, Object params) {
+        switch (method) {
+            case "initialize":
+                connection.respond(id, Json.object(
+                    "capabilities", Json.object(
+                        "textDocumentSync", Json.object(
+                            "openClose", true,
+                            "change", LanguageServerClient.SYNC_INCREMENTAL),
+                        "completionProvider", Json.object()),
+                    "serverInfo", Json.object("name", "fake")));
+                break;
+            case "textDocument/completion":
+                // Computed now, on the document as of this request
+                var items = complete(Json.getString(params, "textDocument", "uri"),
+                                     Json.getInt(params, "position", "line"),
+                                     Json.getInt(params, "position", "character"));
+                if (completionDelay <= 0) {
+                    connection.respond(id, items);
+                } else {
+                    delayed.put(id, scheduler.schedule(() -> {
+                        if (delayed.remove(id) != null)
+                            connection.respond(id, items);
+                    }, completionDelay, TimeUnit.MILLISECONDS));
+                }
+                break;
+            case "shutdown":
+                connection.respond(id, null);
+                break;
+            default:
+                connection.respondError(id, JsonRpcConnection.METHOD_NOT_FOUND,
+                                        "Method not found: " + method);
+        }
+    }
+
+    private synchronized void handleNotification(String method, Object params) {
+        String uri = Json.getString(params, "textDocument", "uri");
+        switch (method) {
+            case "textDocument/didOpen":
+                documents.put(uri, new StringBuilder(
+                    Json.getString(params, "textDocument", "text")));
+                publishDiagnostics(uri, null);
+                break;
+            case "textDocument/didChange":
+                var document = documents.get(uri);
+                if (document == null)
+                    break;
+                String error = null;
+                for (Object change: (List<?>) Json.get(params, "contentChanges")) {
+                    if (Json.get(change, "range") == null) {
+                        document.setLength(0);
+                        document.append(Json.getString(change, "text"));
+                        continue;
+                    }
+                    int start = offsetOf(document, Json.get(change, "range", "start"));
+                    int end = offsetOf(document, Json.get(change, "range", "end"));
+                    if (start < 0 || end < start) {
+                        error = "Change out of the document: " +
+                            Json.toString(Json.get(change, "range"));
+                        break;
+                    }
+                    document.replace(start, end, Json.getString(change, "text"));
+                }
+                publishDiagnostics(uri, error);
+                break;
+            case "textDocument/didClose":
+                documents.remove(uri);
+                break;
+            case "$/cancelRequest":
+                Object id = Json.get(params, "id");
+                var future = delayed.remove(id);
+                if (future != null && future.cancel(false))
+                    connection.respondError(id, JsonRpcConnection.REQUEST_CANCELLED,
+                                            "Cancelled");
+                break;
+            case "exit":
+                System.exit(0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private List<Object> complete(String uri, int line, int character) {
+        var document = documents.get(uri);
+        var items = new ArrayList<Object>();
+        if (document == null)
+            return items;
+        int offset = offsetOf(document, Json.object("line", line, "character", character));
+        if (offset < 0)
+            return items;
+        int start = offset;
+        while (start > 0 && Character.isJavaIdentifierPart(document.charAt(start - 1)))
+            start--;
+        String prefix = document.substring(start, offset);
+        var words = new TreeSet<String>();
+        var matcher = WORD.matcher(document);
+        while (matcher.find())
+            if (matcher.group().startsWith(prefix) && !matcher.group().equals(prefix))
+                words.add(matcher.group());
+        for (String word: words)
+            items.add(Json.object("label", word));
+        return items;
+    }
+
+    private void publishDiagnostics(String uri, String error) {
+        var document = documents.get(uri);
+        var diagnostics = new ArrayList<Object>();
+        if (error != null)
+            diagnostics.add(diagnostic(0, 0, 0, 0, 1, error));
+        var lines = document.toString().split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            var matcher = MARKER.matcher(lines[i]);
+            while (matcher.find())
+                diagnostics.add(diagnostic(i, matcher.start(), i, matcher.end(),
+                                           matcher.group().equals("FIXME") ? 1 : 2,
+                                           matcher.group() + " left in the text"));
+        }
+        try {
+            connection.notify("textDocument/publishDiagnostics",
+                              Json.object("uri", uri, "diagnostics", diagnostics));
+        } catch (IOException ex) {
+
+        }
+    }
+
+    private static Map<String, Object> diagnostic(int startLine, int startCharacter,
+                                                  int endLine, int endCharacter,
+                                                  int severity, String message) {
+        return Json.object(
+            "range", Json.object(
+                "start", Json.object("line", startLine, "character", startCharacter),
+                "end", Json.object("line", endLine, "character", endCharacter)),
+            "severity", severity, "source", "fake", "message", message);
+    }
+
+    /**
+     * @return the offset of {@code position}, or {@code -1} if it is not in
+     * the document
+     */
+    private static int offsetOf(CharSequence document, Object position) {
+        int line = Json.getInt(position, "line");
+        int character = Json.getInt(position, "character");
+        int offset = 0;
+        for (int i = 0; i < line; i++) {
+            while (offset < document.length() && document.charAt(offset) != '\n')
+                offset++;
+            if (offset == document.length())
+                return -1;
+            offset++;
+        }
+        int lineEnd = offset;
+        while (lineEnd < document.length() && document.charAt(lineEnd) != '\n')
+            lineEnd++;
+        return offset + character <= lineEnd ? offset + character : -1;
+    }
+}
@@ -0,0 +1,323 @@
+package lsp;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Just enough JSON for the language server protocol. Objects are
+ * {@code Map<String, Object>}, arrays are {@code List<Object>}, and numbers
+ * are {@code Long} or {@code Double}.
+ *
+ * The parser reads straight from a {@code Reader}, one character at a
+ * time, so a message is never held as a string before it is parsed.
+ */
+public class Json {
+    /**
+     * Thrown when the input is not well-formed JSON.
+     */
+    public static class SyntaxException extends IOException {
+        public SyntaxException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Parse one JSON value from {@code reader}, which must hold nothing
+     * else but whitespace.
+     */
+    public static Object parse(Reader reader) throws IOException {
+        var parser = new Parser(reader);
+        Object value = parser.value();
+        if (parser.skipWhitespace() != -1)
+            throw new SyntaxException("Trailing characters");
+        return value;
+    }
+
+    public static Object parse(String text) throws IOException {
+        return parse(new StringReader(text));
+    }
+
+    public static String toString(Object value) {
+        var builder = new StringBuilder();
+        write(builder, value);
+        return builder.toString();
+    }
+
+    /**
+     * Build an object from alternating keys and values.
+     */
+    public static Map<String, Object> object(Object... keysAndValues) {
+        var object = new LinkedHashMap<String, Object>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2)
+            object.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return object;
+    }
+
+    /**
+     * Follow {@code path} (keys of objects, or indexes of arrays) from
+     * {@code value}.
+     * @return what was found, or {@code null} if the path does not exist
+     */
+    public static Object get(Object value, Object... path) {
+        for (Object step: path) {
+            if (step instanceof String && value instanceof Map)
+                value = ((Map<?, ?>) value).get(step);
+            else if (step instanceof Integer && value instanceof List &&
+                     (Integer) step < ((List<?>) value).size())
+                value = ((List<?>) value).get((Integer) step);
+            else
+                return null;
+        }
+        return value;
+    }
+
+    public static int getInt(Object value, Object... path) {
+        Object found = get(value, path);
+        return found instanceof Number ? ((Number) found).intValue() : 0;
+    }
+
+    public static String getString(Object value, Object... path) {
+        Object found = get(value, path);
+        return found instanceof String ? (String) found : null;
+    }
+
+    private static void write(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (var entry: ((Map<?, ?>) value).entrySet()) {
+                if (!first)
+                    out.append(',');
+                first = false;
+                writeString(out, entry.getKey().toString());
+                out.append(':');
+                write(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (value instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for (Object element: (Collection<?>) value) {
+                if (!first)
+                    out.append(',');
+                first = false;
+                write(out, element);
+            }
+            out.append(']');
+        } else {
+            throw new IllegalArgumentException("Not a JSON value: " + value.getClass());
+        }
+    }
+
+    private static void writeString(StringBuilder out, String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static class Parser {
+        private final Reader reader;
+        private int peeked = -2;    // -2 if nothing was peeked
+        private final StringBuilder buffer = new StringBuilder();
+
+        private Parser(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int peek() throws IOException {
+            if (peeked == -2)
+                peeked = reader.read();
+            return peeked;
+        }
+
+        private int next() throws IOException {
+            int c = peek();
+            peeked = -2;
+            return c;
+        }
+
+        private int skipWhitespace() throws IOException {
+            int c;
+            while ((c = peek()) == ' ' || c == '\t' || c == '\n' || c == '\r')
+                next();
+            return c;
+        }
+
+        private void expect(char expected) throws IOException {
+            int c = next();
+            if (c != expected)
+                throw new SyntaxException("Expected '" + expected + "' but found " +
+                                          (c < 0 ? "end of input" : "'" + (char) c + "'"));
+        }
+
+        private Object value() throws IOException {
+            int c = skipWhitespace();
+            switch (c) {
+                case '{':
+                    return object();
+                case '[':
+                    return array();
+                case '"':
+                    return string();
+                case 't':
+                    literal("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    literal("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    literal("null");
+                    return null;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9'))
+                        return number();
+                    throw new SyntaxException(c < 0 ? "Unexpected end of input" :
+                                              "Unexpected '" + (char) c + "'");
+            }
+        }
+
+        private Map<String, Object> object() throws IOException {
+            expect('{');
+            var object = new LinkedHashMap<String, Object>();
+            if (skipWhitespace() == '}') {
+                next();
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                object.put(key, value());
+                if (skipWhitespace() == ',') {
+                    next();
+                    continue;
+                }
+                expect('}');
+                return object;
+            }
+        }
+
+        private List<Object> array() throws IOException {
+            expect('[');
+            var array = new ArrayList<Object>();
+            if (skipWhitespace() == ']') {
+                next();
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                if (skipWhitespace() == ',') {
+                    next();
+                    continue;
+                }
+                expect(']');
+                return array;
+            }
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            buffer.setLength(0);
+            while (true) {
+                int c = next();
+                if (c < 0)
+                    throw new SyntaxException("Unterminated string");
+                if (c == '"')
+                    return buffer.toString();
+                if (c != '\\') {
+                    buffer.append((char) c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case '"': case '\\': case '/':
+                        buffer.append((char) c);
+                        break;
+                    case 'b':
+                        buffer.append('\b');
+                        break;
+                    case 'f':
+                        buffer.append('\f');
+                        break;
+                    case 'n':
+                        buffer.append('\n');
+                        break;
+                    case 'r':
+                        buffer.append('\r');
+                        break;
+                    case 't':
+                        buffer.append('\t');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(next(), 16);
+                            if (digit < 0)
+                                throw new SyntaxException("Bad unicode escape");
+                            code = code * 16 + digit;
+                        }
+                        buffer.append((char) code);
+                        break;
+                    default:
+                        throw new SyntaxException("Bad escape");
+                }
+            }
+        }
+
+        private Number number() throws IOException {
+            buffer.setLength(0);
+            boolean integral = true;
+            int c;
+            while ((c = peek()) == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' ||
+                   (c >= '0' && c <= '9')) {
+                if (c == '.' || c == 'e' || c == 'E')
+                    integral = false;
+                buffer.append((char) next());
+            }
+            try {
+                if (integral)
+                    return Long.parseLong(buffer.toString());
+                return Double.parseDouble(buffer.toString());
+            } catch (NumberFormatException ex) {
+                throw new SyntaxException("Bad number " + buffer);
+            }
+        }
+
+        private void literal(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++)
+                if (next() != word.charAt(i))
+                    throw new SyntaxException("Expected " + word);
+        }
+    }
+}
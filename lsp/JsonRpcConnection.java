@@ -0,0 +1,288 @@
+package lsp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JSON-RPC 2.0 connection over a pair of streams, framed with
+ * {@code Content-Length} headers as the language server protocol does.
+ *
+ * Requests are pipelined: {@code request()} returns at once, and any
+ * number of requests may be waiting for responses. Cancelling the future
+ * of a request tells the other side with {@code $/cancelRequest}. Messages
+ * from the other side are read on a thread of their own, where handlers
+ * are called.
+ */
+public class JsonRpcConnection {
+    public static final int METHOD_NOT_FOUND = -32601;
+    public static final int REQUEST_CANCELLED = -32800;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, PendingRequest> pending = new ConcurrentHashMap<>();
+    private volatile RequestHandler requestHandler = (id, method, params) ->
+        respondError(id, METHOD_NOT_FOUND, "Method not found: " + method);
+    private volatile NotificationHandler notificationHandler = (method, params) -> {};
+    private volatile Runnable closeHandler = () -> {};
+    private volatile boolean closed;
+
+    /**
+     * Handles a request from the other side. It must eventually call
+     * {@code respond()} or {@code respondError()} with {@code id}.
+     */
+    public interface RequestHandler {
+        void handle(Object id, String method, Object params);
+    }
+
+    public interface NotificationHandler {
+        void handle(String method, Object params);
+    }
+
+    /**
+     * An error response to a request.
+     */
+    public static class ResponseException extends IOException {
+        public final int code;
+
+        public ResponseException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    public JsonRpcConnection(InputStream in, OutputStream out) {
+        this.in = new BufferedInputStream(in);
+        this.out = new BufferedOutputStream(out);
+    }
+
+    public void setRequestHandler(RequestHandler handler) {
+        requestHandler = handler;
+    }
+
+    public void setNotificationHandler(NotificationHandler handler) {
+        notificationHandler = handler;
+    }
+
+    /**
+     * @param handler run once the other side closed the connection
+     */
+    public void setCloseHandler(Runnable handler) {
+        closeHandler = handler;
+    }
+
+    /**
+     * Start reading messages, on a daemon thread named {@code name}.
+     */
+    public void start(String name) {
+        var thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Read messages on the calling thread, until the connection closes.
+     */
+    public void run() {
+        try {
+            int length;
+            while ((length = readHeaders()) >= 0) {
+                var body = new BoundedInputStream(in, length);
+                Object message;
+                try {
+                    message = Json.parse(new InputStreamReader(body, StandardCharsets.UTF_8));
+                } catch (Json.SyntaxException ex) {
+                    body.skipRest();
+                    continue;
+                }
+                body.skipRest();
+                try {
+                    dispatch(message);
+                } catch (RuntimeException ex) {
+                    // A broken handler must not take the connection down
+                }
+            }
+        } catch (IOException ex) {
+            // Treated as closed
+        } finally {
+            closed = true;
+            for (var future: pending.values())
+                future.completeExceptionally(new EOFException("Connection closed"));
+            pending.clear();
+            closeHandler.run();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Send a request.
+     * @return the future result; cancelling it cancels the request
+     */
+    public CompletableFuture<Object> request(String method, Object params) {
+        long id = nextId.getAndIncrement();
+        var future = new PendingRequest(id);
+        pending.put(id, future);
+        try {
+            send(Json.object("jsonrpc", "2.0", "id", id, "method", method, "params", params));
+        } catch (IOException ex) {
+            pending.remove(id);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    public void notify(String method, Object params) throws IOException {
+        send(Json.object("jsonrpc", "2.0", "method", method, "params", params));
+    }
+
+    public void respond(Object id, Object result) {
+        try {
+            send(Json.object("jsonrpc", "2.0", "id", id, "result", result));
+        } catch (IOException ex) {
+            // The other side is gone, and will not miss the response
+        }
+    }
+
+    public void respondError(Object id, int code, String message) {
+        try {
+            send(Json.object("jsonrpc", "2.0", "id", id,
+                             "error", Json.object("code", code, "message", message)));
+        } catch (IOException ex) {
+            // As above
+        }
+    }
+
+    private synchronized void send(Map<String, Object> message) throws IOException {
+        if (closed)
+            throw new IOException("Connection closed");
+        byte[] content = Json.toString(message).getBytes(StandardCharsets.UTF_8);
+        out.write(("Content-Length: " + content.length + "\r\n\r\n")
+                  .getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    /**
+     * @return the content length, or {@code -1} at the end of input
+     */
+    private int readHeaders() throws IOException {
+        int length = -1;
+        var line = new StringBuilder();
+        while (true) {
+            int c = in.read();
+            if (c < 0)
+                return -1;
+            if (c == '\r')
+                continue;
+            if (c != '\n') {
+                line.append((char) c);
+                continue;
+            }
+            if (line.length() == 0) {
+                if (length >= 0)
+                    return length;
+                continue;   // Stray empty line before the headers
+            }
+            String header = line.toString();
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim()
+                                   .equalsIgnoreCase("Content-Length")) {
+                try {
+                    length = Integer.parseInt(header.substring(colon + 1).trim());
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Bad header: " + header);
+                }
+            }
+            line.setLength(0);
+        }
+    }
+
+    private void dispatch(Object message) {
+        Object id = Json.get(message, "id");
+        String method = Json.getString(message, "method");
+        Object params = Json.get(message, "params");
+        if (method != null) {
+            if (id != null)
+                requestHandler.handle(id, method, params);
+            else
+                notificationHandler.handle(method, params);
+            return;
+        }
+        if (!(id instanceof Long))
+            return;
+        var future = pending.remove((Long) id);
+        if (future == null)
+            return;     // Cancelled meanwhile
+        Object error = Json.get(message, "error");
+        if (error != null)
+            future.completeExceptionally(new ResponseException(
+                Json.getInt(error, "code"), Json.getString(error, "message")));
+        else
+            future.complete(Json.get(message, "result"));
+    }
+
+    private class PendingRequest extends CompletableFuture<Object> {
+        private final long id;
+
+        private PendingRequest(long id) {
+            this.id = id;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && pending.remove(id) != null) {
+                try {
+                    JsonRpcConnection.this.notify("$/cancelRequest", Json.object("id", id));
+                } catch (IOException ex) {
+
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * The body of one message.
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        private BoundedInputStream(InputStream in, int length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int c = in.read();
+            if (c >= 0)
+                remaining--;
+            return c;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+
+        private void skipRest() throws IOException {
+            long skipped;
+            while (remaining > 0 && (skipped = in.skip(remaining)) > 0)
+                remaining -= skipped;
+            while (remaining > 0 && read() >= 0)
+                ;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package lsp;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A {@code LanguageServerClient} runs a language server as a subprocess
+ * and talks to it over its standard input and output.
+ *
+ * Documents are synchronized incrementally when the server supports it:
+ * each change sends only the range replaced and the new text. Requests
+ * and notifications are sent in the order they are made, without waiting
+ * for earlier responses, so a request always sees every change made
+ * before it.
+ */
+public class LanguageServerClient {
+    public static final int SYNC_NONE = 0;
+    public static final int SYNC_FULL = 1;
+    public static final int SYNC_INCREMENTAL = 2;
+    private static final long SHUTDOWN_TIMEOUT = 2000;   // ms
+
+    private final List<String> command;
+    private final Process process;
+    private final JsonRpcConnection connection;
+    private final CompletableFuture<Object> initialized;
+    private final CopyOnWriteArrayList<DiagnosticsListener> listeners =
+        new CopyOnWriteArrayList<>();
+    private volatile int syncKind = SYNC_FULL;
+    // Document notifications and completion requests, chained so that
+    // they leave in order, and only once the server is initialized;
+    // guarded by {@code this}
+    private CompletableFuture<?> pendingNotifications;
+
+    /**
+     * A problem reported by the server, in protocol positions.
+     */
+    public static class Diagnostic {
+        public static final int ERROR = 1;
+        public static final int WARNING = 2;
+
+        public final int startLine, startCharacter;
+        public final int endLine, endCharacter;
+        public final int severity;
+        public final String message;
+
+        public Diagnostic(int startLine, int startCharacter, int endLine, int endCharacter,
+                          int severity, String message) {
+            this.startLine = startLine;
+            this.startCharacter = startCharacter;
+            this.endLine = endLine;
+            this.endCharacter = endCharacter;
+            this.severity = severity;
+            this.message = message;
+        }
+    }
+
+    public interface DiagnosticsListener {
+        /**
+         * Called on the connection thread when the server publishes the
+         * problems of the document {@code uri}.
+         */
+        void diagnosticsPublished(String uri, List<Diagnostic> diagnostics);
+    }
+
+    /**
+     * A change of a document: {@code text} replaced the range from
+     * ({@code startLine}, {@code startCharacter}) to ({@code endLine},
+     * {@code endCharacter}), in positions before the change.
+     */
+    public static class Change {
+        public final int startLine, startCharacter;
+        public final int endLine, endCharacter;
+        public final String text;
+
+        public Change(int startLine, int startCharacter, int endLine, int endCharacter,
+                      String text) {
+            this.startLine = startLine;
+            this.startCharacter = startCharacter;
+            this.endLine = endLine;
+            this.endCharacter = endCharacter;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Start the server and begin initializing it.
+     * @param command the command line of the server
+     * @param root the workspace folder, where the server runs
+     * @throws IOException if the server cannot be started
+     */
+    public LanguageServerClient(List<String> command, File root) throws IOException {
+        this.command = List.copyOf(command);
+        process = new ProcessBuilder(command)
+            .directory(root)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        connection = new JsonRpcConnection(process.getInputStream(), process.getOutputStream());
+        connection.setNotificationHandler(this::handleNotification);
+        connection.setRequestHandler((id, method, params) -> {
+            // Configuration and progress requests get empty answers
+            if (method.equals("workspace/configuration"))
+                connection.respond(id, new ArrayList<>());
+            else if (method.startsWith("window/") || method.startsWith("client/"))
+                connection.respond(id, null);
+            else
+                connection.respondError(id, JsonRpcConnection.METHOD_NOT_FOUND,
+                                        "Not supported: " + method);
+        });
+        connection.start("Language server " + command.get(0));
+
+        var capabilities = Json.object(
+            "textDocument", Json.object(
+                "synchronization", Json.object("didSave", false),
+                "completion", Json.object("completionItem",
+                                          Json.object("snippetSupport", false)),
+                "publishDiagnostics", Json.object()));
+        initialized = connection.request("initialize", Json.object(
+            "processId", ProcessHandle.current().pid(),
+            "rootUri", root.toPath().toUri().toString(),
+            "capabilities", capabilities))
+            .thenApply(result -> {
+                syncKind = parseSyncKind(Json.get(result, "capabilities", "textDocumentSync"));
+                try {
+                    connection.notify("initialized", Json.object());
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+                return result;
+            });
+        pendingNotifications = initialized;
+    }
+
+    public List<String> getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the result of {@code initialize}, once the server answered
+     */
+    public CompletableFuture<Object> getInitialized() {
+        return initialized;
+    }
+
+    public boolean isAlive() {
+        return process.isAlive() && !connection.isClosed();
+    }
+
+    /**
+     * @return how documents are synchronized, one of the {@code SYNC_}
+     * constants; meaningful once initialized
+     */
+    public int getSyncKind() {
+        return syncKind;
+    }
+
+    public void addDiagnosticsListener(DiagnosticsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeDiagnosticsListener(DiagnosticsListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void didOpen(String uri, String languageId, int version, String text) {
+        afterInitialized("textDocument/didOpen", () -> Json.object(
+            "textDocument", Json.object("uri", uri, "languageId", languageId,
+                                        "version", version, "text", text)));
+    }
+
+    /**
+     * Report changes of a document, made in this order.
+     * @param fullText supplies the whole text, in case the server does not
+     * take incremental changes
+     */
+    public void didChange(String uri, int version, List<Change> changes,
+                          Callable<String> fullText) {
+        if (initialized.isDone() && syncKind == SYNC_NONE)
+            return;
+        // The text must be read now, not when the notification is sent
+        String text = null;
+        if (!initialized.isDone() || syncKind == SYNC_FULL) {
+            try {
+                text = fullText.call();
+            } catch (Exception ex) {
+                return;
+            }
+        }
+        String snapshot = text;
+        afterInitialized("textDocument/didChange", () -> {
+            var contentChanges = new ArrayList<Object>();
+            if (syncKind == SYNC_INCREMENTAL) {
+                for (var change: changes)
+                    contentChanges.add(Json.object(
+                        "range", range(change.startLine, change.startCharacter,
+                                       change.endLine, change.endCharacter),
+                        "text", change.text));
+            } else if (syncKind == SYNC_FULL) {
+                contentChanges.add(Json.object("text", snapshot));
+            } else {
+                return null;
+            }
+            return Json.object("textDocument", Json.object("uri", uri, "version", version),
+                               "contentChanges", contentChanges);
+        });
+    }
+
+    public void didClose(String uri) {
+        afterInitialized("textDocument/didClose", () -> Json.object(
+            "textDocument", Json.object("uri", uri)));
+    }
+
+    /**
+     * Ask for completions at a position. The request leaves after the
+     * document notifications sent before, so that it is answered against
+     * the text it was made in. Cancel the future if the answer is not
+     * wanted anymore.
+     * @return the labels of the completions offered
+     */
+    public synchronized CompletableFuture<List<String>> completion(String uri, int line,
+                                                                   int character) {
+        if (!initialized.isDone() || initialized.isCompletedExceptionally())
+            return CompletableFuture.completedFuture(List.of());
+        var result = new CompletableFuture<List<String>>();
+        pendingNotifications = pendingNotifications.thenRun(() -> {
+            // Not wanted anymore before it could be sent
+            if (result.isDone())
+                return;
+            var request = connection.request("textDocument/completion", Json.object(
+                "textDocument", Json.object("uri", uri),
+                "position", Json.object("line", line, "character", character)));
+            request.thenApply(LanguageServerClient::completionLabels)
+                   .whenComplete((labels, ex) -> {
+                       if (ex != null)
+                           result.completeExceptionally(ex);
+                       else
+                           result.complete(labels);
+                   });
+            // Cancelling the future must reach the server
+            result.whenComplete((labels, ex) -> {
+                if (result.isCancelled())
+                    request.cancel(true);
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Ask the server to shut down, and make sure it does.
+     */
+    public void shutdown() {
+        try {
+            connection.request("shutdown", null)
+                      .get(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            connection.notify("exit", null);
+            process.waitFor(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (IOException | ExecutionException | TimeoutException ex) {
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Send a notification once the server is initialized, after those sent
+     * before, without blocking the caller.
+     * @param params computes the parameters when sending, or returns
+     * {@code null} to send nothing
+     */
+    private synchronized void afterInitialized(String method,
+                                               Callable<Map<String, Object>> params) {
+        pendingNotifications = pendingNotifications.thenRun(() -> {
+            try {
+                Map<String, Object> message = params.call();
+                if (message != null)
+                    connection.notify(method, message);
+            } catch (Exception ex) {
+
+            }
+        });
+    }
+
+    private void handleNotification(String method, Object params) {
+        if (!method.equals("textDocument/publishDiagnostics"))
+            return;
+        String uri = Json.getString(params, "uri");
+        var diagnostics = new ArrayList<Diagnostic>();
+        Object list = Json.get(params, "diagnostics");
+        if (list instanceof List) {
+            for (Object item: (List<?>) list) {
+                int severity = Json.getInt(item, "severity");
+                diagnostics.add(new Diagnostic(
+                    Json.getInt(item, "range", "start", "line"),
+                    Json.getInt(item, "range", "start", "character"),
+                    Json.getInt(item, "range", "end", "line"),
+                    Json.getInt(item, "range", "end", "character"),
+                    severity == 0 ? Diagnostic.ERROR : severity,
+                    String.valueOf(Json.get(item, "message"))));
+            }
+        }
+        for (var listener: listeners)
+            listener.diagnosticsPublished(uri, diagnostics);
+    }
+
+    private static int parseSyncKind(Object sync) {
+        if (sync instanceof Number)
+            return ((Number) sync).intValue();
+        if (sync instanceof Map) {
+            Object change = ((Map<?, ?>) sync).get("change");
+            return change instanceof Number ? ((Number) change).intValue() : SYNC_NONE;
+        }
+        return SYNC_NONE;
+    }
+
+    private static List<String> completionLabels(Object result) {
+        // Either a list of items or a CompletionList
+        Object items = result instanceof Map ? ((Map<?, ?>) result).get("items") : result;
+        var labels = new ArrayList<String>();
+        if (items instanceof List) {
+            for (Object item: (List<?>) items) {
+                String text = Json.getString(item, "insertText");
+                if (text == null)
+                    text = Json.getString(item, "label");
+                if (text != null)
+                    labels.add(text);
+            }
+        }
+        return labels;
+    }
+
+    private static Map<String, Object> range(int startLine, int startCharacter,
+                                             int endLine, int endCharacter) {
+        return Json.object(
+            "start", Json.object("line", startLine, "character", startCharacter),
+            "end", Json.object("line", endLine, "character", endCharacter));
+    }
+}
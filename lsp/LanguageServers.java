@@ -0,0 +1,111 @@
+package lsp;
+
+import java.io.*;
+import java.util.*;
+import file.FileOperations;
+
+/**
+ * {@code LanguageServers} starts the language server configured for a file
+ * extension, and shares it between the files of a folder.
+ *
+ * Servers are configured in {@code ~/.jcode/lsp.properties}, mapping file
+ * extensions to command lines:
+ * <pre>
+ * py = pylsp
+ * rs = rust-analyzer
+ * rs.languageId = rust
+ * txt = ${java} -cp ${jcode.classpath} lsp.FakeLanguageServer
+ * </pre>
+ * {@code ${java}} stands for the Java launcher running JCode, and
+ * {@code ${jcode.classpath}} for its class path. The language id sent to
+ * the server is the extension unless configured otherwise. The file is
+ * read again when it changes.
+ */
+public class LanguageServers {
+    public static final File CONFIG_FILE = new File(FileOperations.JCODE_HOME, "lsp.properties");
+
+    // Guarded by {@code LanguageServers.class}
+    private static final HashMap<String, LanguageServerClient> clients = new HashMap<>();
+    private static Properties config = new Properties();
+    private static long configModified = -1;
+    private static boolean hookInstalled;
+
+    /**
+     * Get the server for {@code file}, starting it if needed.
+     * @param root the open folder, or {@code null}
+     * @param file the file to edit
+     * @return the server, or {@code null} if none is configured for the
+     * extension of {@code file} or it cannot be started
+     */
+    public static synchronized LanguageServerClient forFile(File root, File file) {
+        String commandLine = loadConfig().getProperty(extensionOf(file));
+        if (commandLine == null || commandLine.isBlank())
+            return null;
+        File workspace = root != null ? root : file.getAbsoluteFile().getParentFile();
+        var command = parseCommand(commandLine);
+        String key = workspace.getAbsolutePath() + "\0" + command;
+        var client = clients.get(key);
+        if (client != null && client.isAlive())
+            return client;
+        try {
+            client = new LanguageServerClient(command, workspace);
+        } catch (IOException ex) {
+            return null;
+        }
+        clients.put(key, client);
+        if (!hookInstalled) {
+            Runtime.getRuntime().addShutdownHook(new Thread(LanguageServers::shutdownAll));
+            hookInstalled = true;
+        }
+        return client;
+    }
+
+    public static synchronized String languageIdOf(File file) {
+        String extension = extensionOf(file);
+        return loadConfig().getProperty(extension + ".languageId", extension);
+    }
+
+    /**
+     * Shut every server down.
+     */
+    public static void shutdownAll() {
+        List<LanguageServerClient> running;
+        synchronized (LanguageServers.class) {
+            running = new ArrayList<>(clients.values());
+            clients.clear();
+        }
+        for (var client: running)
+            client.shutdown();
+    }
+
+    private static Properties loadConfig() {
+        long modified = CONFIG_FILE.lastModified();
+        if (modified == configModified)
+            return config;
+        configModified = modified;
+        config = new Properties();
+        try (var in = new FileInputStream(CONFIG_FILE)) {
+            config.load(in);
+        } catch (IOException ex) {
+            // No servers
+        }
+        return config;
+    }
+
+    private static List<String> parseCommand(String commandLine) {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java")
+            .getPath();
+        var command = new ArrayList<String>();
+        for (String word: commandLine.trim().split("\\s+"))
+            command.add(word.replace("${java}", java)
+                            .replace("${jcode.classpath}",
+                                     System.getProperty("java.class.path")));
+        return command;
+    }
+
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+}
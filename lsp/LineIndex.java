@@ -0,0 +1,93 @@
+package lsp;
+
+import java.util.Arrays;
+
+/**
+ * A {@code LineIndex} converts between offsets in a text and the
+ * line/character positions of the language server protocol, and is kept
+ * up to date edit by edit instead of rescanning the text.
+ *
+ * Characters are counted in UTF-16 code units, as both Swing documents and
+ * the protocol do.
+ */
+public class LineIndex {
+    private int[] lineStarts = new int[64];
+    private int lineCount;
+
+    public LineIndex(CharSequence text) {
+        lineStarts[0] = 0;
+        lineCount = 1;
+        insert(0, text);
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the line of {@code offset}, starting from 0
+     */
+    public int lineOf(int offset) {
+        int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @return the offset of {@code line} and {@code character}, clamped to
+     * the text
+     */
+    public int offsetOf(int line, int character, int textLength) {
+        if (line >= lineCount)
+            return textLength;
+        int start = lineStarts[Math.max(0, line)];
+        int end = line + 1 < lineCount ? lineStarts[line + 1] - 1 : textLength;
+        return Math.max(start, Math.min(start + character, end));
+    }
+
+    /**
+     * @return {@code {line, character}} of {@code offset}
+     */
+    public int[] positionOf(int offset) {
+        int line = lineOf(offset);
+        return new int[] { line, offset - lineStarts[line] };
+    }
+
+    /**
+     * Update the index after {@code text} was inserted at {@code offset}.
+     */
+    public void insert(int offset, CharSequence text) {
+        int length = text.length();
+        int line = lineOf(offset);
+        int newlines = 0;
+        for (int i = 0; i < length; i++)
+            if (text.charAt(i) == '\n')
+                newlines++;
+        if (lineCount + newlines > lineStarts.length)
+            lineStarts = Arrays.copyOf(lineStarts,
+                                       Math.max(lineStarts.length * 2, lineCount + newlines));
+        System.arraycopy(lineStarts, line + 1, lineStarts, line + 1 + newlines,
+                         lineCount - line - 1);
+        for (int i = line + 1 + newlines; i < lineCount + newlines; i++)
+            lineStarts[i] += length;
+        int next = line + 1;
+        for (int i = 0; i < length; i++)
+            if (text.charAt(i) == '\n')
+                lineStarts[next++] = offset + i + 1;
+        lineCount += newlines;
+    }
+
+    /**
+     * Update the index after {@code length} characters were removed at
+     * {@code offset}.
+     */
+    public void remove(int offset, int length) {
+        int first = lineOf(offset) + 1;     // first line which may go
+        int last = first;                   // first line which stays
+        while (last < lineCount && lineStarts[last] <= offset + length)
+            last++;
+        System.arraycopy(lineStarts, last, lineStarts, first, lineCount - last);
+        lineCount -= last - first;
+        for (int i = first; i < lineCount; i++)
+            lineStarts[i] -= length;
+    }
+}
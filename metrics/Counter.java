@@ -0,0 +1,31 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@code Counter} adds up events or amounts, e.g. bytes read. Threads
+ * adding at the same time do not contend.
+ */
+public class Counter extends Metric implements CounterMBean {
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String description) {
+        super(name, description);
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public void reset() {
+        count.reset();
+    }
+}
@@ -0,0 +1,12 @@
+package metrics;
+
+/**
+ * The management interface of a {@code Counter}.
+ */
+public interface CounterMBean {
+    String getDescription();
+
+    long getCount();
+
+    void reset();
+}
@@ -0,0 +1,19 @@
+package metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for one directory listed while enumerating a
+ * folder.
+ */
+@Name("jcode.Enumeration")
+@Label("Directory Enumeration")
+@Category({"JCode", "File"})
+@Description("One directory listed and sorted while enumerating a folder")
+public class EnumerationEvent extends Event {
+    @Label("Directory")
+    public String directory;
+
+    @Label("Entries")
+    public int entries;
+}
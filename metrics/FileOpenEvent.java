@@ -0,0 +1,22 @@
+package metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a file read into an editor tab.
+ */
+@Name("jcode.FileOpen")
+@Label("File Open")
+@Category({"JCode", "File"})
+@Description("A file read into an editor tab, from the text check to the end of reading")
+public class FileOpenEvent extends Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Text File")
+    public boolean text;
+}
@@ -0,0 +1,19 @@
+package metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for an editor tab written to its file.
+ */
+@Name("jcode.FileSave")
+@Label("File Save")
+@Category({"JCode", "File"})
+@Description("An editor tab written to its file")
+public class FileSaveEvent extends Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,22 @@
+package metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a highlighting pass over a whole document.
+ */
+@Name("jcode.Highlight")
+@Label("Highlight")
+@Category({"JCode", "Editor"})
+@Description("A highlighting pass over a whole document")
+public class HighlightEvent extends Event {
+    public static final String LEXICAL = "lexical";
+    public static final String SEMANTIC = "semantic";
+
+    @Label("Pass")
+    @Description("lexical (colors from patterns) or semantic (from a parse)")
+    public String pass;
+
+    @Label("Characters")
+    public long chars;
+}
@@ -0,0 +1,124 @@
+package metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A {@code Histogram} records the distribution of non-negative values,
+ * e.g. durations or sizes, in the manner of HdrHistogram: values are
+ * counted in buckets whose width grows with the value, with
+ * {@code SUB_BUCKETS} buckets per power of two, so that every value is
+ * known within about 3%. Recording is a few atomic additions, and takes
+ * the same time and memory whatever has been recorded before.
+ */
+public class Histogram extends Metric implements HistogramMBean {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below 2 * SUB_BUCKETS have a bucket each; then every power of
+    // two up to 2^63 has SUB_BUCKETS
+    private static final int BUCKETS = (65 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram(String name, String unit, String description) {
+        super(name, description);
+        this.unit = unit;
+    }
+
+    /**
+     * @return the unit of the values, e.g. {@code us} or {@code bytes}
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Record a duration given in nanoseconds, in microseconds.
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * Record the time elapsed since {@code startNanos}, a value of
+     * {@code System.nanoTime()}, in microseconds.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param fraction between 0 and 1, e.g. 0.99
+     * @return a value which that fraction of the recorded values do not
+     * exceed, or 0 if there are none
+     */
+    public long getPercentile(double fraction) {
+        long n = count.sum();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueIn(i), max.get());
+        }
+        return max.get();
+    }
+
+    public long getP50() {
+        return getPercentile(0.5);
+    }
+
+    public long getP90() {
+        return getPercentile(0.9);
+    }
+
+    public long getP99() {
+        return getPercentile(0.99);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int index) {
+        int shift = index < 2 * SUB_BUCKETS ? 0 : index / SUB_BUCKETS - 1;
+        long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,24 @@
+package metrics;
+
+/**
+ * The management interface of a {@code Histogram}.
+ */
+public interface HistogramMBean {
+    String getDescription();
+
+    String getUnit();
+
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+
+    void reset();
+}
@@ -0,0 +1,36 @@
+package metrics;
+
+/**
+ * A named measurement, recorded without locks from any thread.
+ */
+public abstract class Metric {
+    private final String name;
+    private final String description;
+
+    protected Metric(String name, String description) {
+        this.name = name;
+        this.description = description;
+    }
+
+    /**
+     * @return the name, with dots between its parts, e.g.
+     * {@code file.open.read}
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return how many values or events were recorded
+     */
+    public abstract long getCount();
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public abstract void reset();
+}
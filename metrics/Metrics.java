@@ -0,0 +1,86 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.*;
+
+/**
+ * {@code Metrics} holds every metric of JCode by name, and exposes them as
+ * MBeans named {@code jcode:type=Metrics,name=<name>} once
+ * {@code exportToJmx} has been called, e.g. to be watched with JConsole.
+ *
+ * Metrics are usually kept in static fields of the class they measure:
+ * <pre>
+ * private static final Histogram readTime =
+ *     Metrics.histogram("file.open.read", "us", "Time to read a file");
+ * </pre>
+ */
+public class Metrics {
+    private static final ConcurrentSkipListMap<String, Metric> metrics =
+        new ConcurrentSkipListMap<>();
+    private static volatile boolean exported;
+
+    /**
+     * Get the counter named {@code name}, creating it if needed.
+     */
+    public static Counter counter(String name, String description) {
+        return (Counter) register(new Counter(name, description));
+    }
+
+    /**
+     * Get the histogram named {@code name}, creating it if needed.
+     * @param unit the unit of the values recorded
+     */
+    public static Histogram histogram(String name, String unit, String description) {
+        return (Histogram) register(new Histogram(name, unit, description));
+    }
+
+    /**
+     * @return every metric, sorted by name
+     */
+    public static List<Metric> getAll() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    public static void resetAll() {
+        for (var metric: metrics.values())
+            metric.reset();
+    }
+
+    /**
+     * Register every metric, and those created later, with the platform
+     * MBean server. Starting the server takes a while, so better call this
+     * off the Event Dispatch Thread.
+     */
+    public static void exportToJmx() {
+        synchronized (Metrics.class) {
+            if (exported)
+                return;
+            exported = true;
+        }
+        for (var metric: metrics.values())
+            export(metric);
+    }
+
+    private static Metric register(Metric metric) {
+        var existing = metrics.putIfAbsent(metric.getName(), metric);
+        if (existing != null)
+            return existing;
+        if (exported)
+            export(metric);
+        return metric;
+    }
+
+    private static void export(Metric metric) {
+        try {
+            var name = new ObjectName("jcode", new Hashtable<>(Map.of(
+                "type", "Metrics", "name", metric.getName())));
+            var server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name))
+                server.registerMBean(metric, name);
+        } catch (JMException ex) {
+            // Still shown in the Performance panel
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package metrics;
+
+import java.io.*;
+import java.nio.file.*;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import jdk.jfr.*;
+import file.FileOperations;
+
+/**
+ * {@code Recordings} starts and stops the Flight Recorder recording of a
+ * session. Recordings use the JDK's {@code profile} settings, which take
+ * garbage collections, allocation samples and method samples along with
+ * the JCode events ({@code jcode.*}), so that those can be matched with
+ * the editor actions happening at the same time on the same thread.
+ */
+public class Recordings {
+    public static final File RECORDINGS_DIRECTORY =
+        new File(FileOperations.JCODE_HOME, "recordings");
+    private static final DateTimeFormatter FILE_NAME =
+        DateTimeFormatter.ofPattern("'jcode-'yyyyMMdd-HHmmss'.jfr'");
+
+    private static Recording recording;
+
+    public static synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Start recording, unless already recording.
+     * @throws IOException if the settings cannot be read
+     * @throws IllegalStateException if Flight Recorder is not available
+     */
+    public static synchronized void start() throws IOException {
+        if (recording != null)
+            return;
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration("profile");
+        } catch (ParseException ex) {
+            throw new IOException(ex);
+        }
+        var newRecording = new Recording(configuration);
+        newRecording.setName("JCode session");
+        newRecording.setToDisk(true);
+        newRecording.start();
+        recording = newRecording;
+    }
+
+    /**
+     * Stop recording, and write what was recorded to a new file of
+     * {@code RECORDINGS_DIRECTORY}.
+     * @return the file written, or {@code null} if not recording
+     * @throws IOException if the file cannot be written; the recording is
+     * stopped anyway
+     */
+    public static synchronized File stop() throws IOException {
+        if (recording == null)
+            return null;
+        var stopped = recording;
+        recording = null;
+        try {
+            stopped.stop();
+            Files.createDirectories(RECORDINGS_DIRECTORY.toPath());
+            var file = new File(RECORDINGS_DIRECTORY, LocalDateTime.now().format(FILE_NAME));
+            stopped.dump(file.toPath());
+            return file;
+        } finally {
+            stopped.close();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a command run in a terminal, from sending it
+ * to the shell to the prompt printed after it; for shells without such a
+ * prompt, only the sending is timed.
+ */
+@Name("jcode.ShellCommand")
+@Label("Shell Command")
+@Category({"JCode", "Shell"})
+@Description("A command run in a terminal, until the shell prompts again")
+public class ShellCommandEvent extends Event {
+    @Label("Command")
+    public String command;
+
+    @Label("Output Lines")
+    public long outputLines;
+}
@@ -0,0 +1,25 @@
+package metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for the life of a terminal shell, from spawning it
+ * to the end of its output.
+ */
+@Name("jcode.ShellSession")
+@Label("Shell Session")
+@Category({"JCode", "Shell"})
+@Description("A terminal shell, from spawning it to the end of its output")
+public class ShellSessionEvent extends Event {
+    @Label("Shell")
+    public String shell;
+
+    @Label("Working Directory")
+    public String directory;
+
+    @Label("Commands")
+    public long commands;
+
+    @Label("Output Lines")
+    public long outputLines;
+}
@@ -0,0 +1,244 @@
+package shell;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import file.FileOperations;
+
+/**
+ * A {@code CommandHistory} keeps every command typed into the shells of one
+ * workspace. Since the shell runs without a TTY, its own history is not
+ * available to us, so we record the commands ourselves.
+ *
+ * On disk the history is an append-only file with one command per line,
+ * which is memory-mapped when loaded. In memory the commands are indexed
+ * by a prefix trie, so that finding the previous (or next) command with a
+ * given prefix costs a walk down the trie plus a binary search, no matter
+ * how long the history is.
+ */
+public class CommandHistory {
+    private static final String HISTORY_FILE_NAME = "shell_history";
+    // Only the first {@code MAX_INDEXED_PREFIX} characters of a command are
+    // put into the trie. Longer prefixes are checked by {@code startsWith()}
+    // against the (already short) list of the deepest node.
+    private static final int MAX_INDEXED_PREFIX = 16;
+    private static final HashMap<File, CommandHistory> histories
+        = new HashMap<>();
+
+    private final File historyFile;
+    private final ArrayList<String> entries;
+    private final TrieNode root;
+
+    /**
+     * Get the {@code CommandHistory} of {@code workspace}. Shells opened in
+     * the same workspace share the same history.
+     * @param workspace the working directory of the shell
+     * @return the history of {@code workspace}
+     * @throws IOException if the history file cannot be loaded
+     */
+    public static CommandHistory forWorkspace(File workspace)
+        throws IOException {
+        File key = workspace.getCanonicalFile();
+        synchronized (histories) {
+            CommandHistory history = histories.get(key);
+            if (history == null) {
+                history = new CommandHistory(new File(
+                    FileOperations.getWorkspaceDataDirectory(key),
+                    HISTORY_FILE_NAME));
+                histories.put(key, history);
+            }
+            return history;
+        }
+    }
+
+    /**
+     * Create a {@code CommandHistory} backed by {@code historyFile}, and
+     * load all commands already recorded in it.
+     * @param historyFile the append-only history file
+     * @throws IOException if an I/O error occurs while loading
+     */
+    public CommandHistory(File historyFile) throws IOException {
+        this.historyFile = historyFile;
+        entries = new ArrayList<>();
+        root = new TrieNode();
+        load();
+    }
+
+    private void load() throws IOException {
+        if (!historyFile.isFile() || historyFile.length() == 0)
+            return;
+
+        try (var channel = FileChannel.open(historyFile.toPath(),
+                                            StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] line = new byte[256];
+            int start = 0;
+            int limit = buffer.limit();
+            for (int i = 0; i <= limit; i++) {
+                if (i < limit && buffer.get(i) != '\n')
+                    continue;
+                int length = i - start;
+                if (length > 0) {
+                    if (length > line.length)
+                        line = new byte[Math.max(length, line.length * 2)];
+                    buffer.get(start, line, 0, length);
+                    index(new String(line, 0, length,
+                                     FileOperations.DEFAULT_CHARSET));
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Record {@code command} at the end of the history, both in memory and
+     * on disk. Blank commands are ignored.
+     * @param command the command just executed
+     * @throws IOException if the command cannot be appended to disk
+     */
+    public synchronized void add(String command) throws IOException {
+        if (command == null || command.isBlank() || command.indexOf('\n') >= 0)
+            return;
+        index(command);
+        Files.write(historyFile.toPath(),
+                    (command + "\n").getBytes(FileOperations.DEFAULT_CHARSET),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void index(String command) {
+        int id = entries.size();
+        entries.add(command);
+
+        TrieNode node = root;
+        node.ids.add(id);
+        int depth = Math.min(command.length(), MAX_INDEXED_PREFIX);
+        for (int i = 0; i < depth; i++) {
+            node = node.getOrCreateChild(command.charAt(i));
+            node.ids.add(id);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized String get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Find the most recent command starting with {@code prefix} among
+     * entries whose index is less than {@code before}.
+     * @param prefix the prefix to match
+     * @param before an exclusive upper bound of the index
+     * @return index of the found command, or {@code -1} if there is none
+     */
+    public synchronized int findPrevious(String prefix, int before) {
+        IntList ids = lookup(prefix);
+        if (ids == null)
+            return -1;
+        for (int i = ids.lowerBound(before) - 1; i >= 0; i--) {
+            int id = ids.get(i);
+            if (prefix.length() <= MAX_INDEXED_PREFIX ||
+                entries.get(id).startsWith(prefix))
+                return id;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the oldest command starting with {@code prefix} among entries
+     * whose index is greater than {@code after}.
+     * @param prefix the prefix to match
+     * @param after an exclusive lower bound of the index
+     * @return index of the found command, or {@code -1} if there is none
+     */
+    public synchronized int findNext(String prefix, int after) {
+        IntList ids = lookup(prefix);
+        if (ids == null)
+            return -1;
+        for (int i = ids.lowerBound(after + 1); i < ids.size; i++) {
+            int id = ids.get(i);
+            if (prefix.length() <= MAX_INDEXED_PREFIX ||
+                entries.get(id).startsWith(prefix))
+                return id;
+        }
+        return -1;
+    }
+
+    private IntList lookup(String prefix) {
+        TrieNode node = root;
+        int depth = Math.min(prefix.length(), MAX_INDEXED_PREFIX);
+        for (int i = 0; i < depth && node != null; i++)
+            node = node.getChild(prefix.charAt(i));
+        return node == null ? null : node.ids;
+    }
+
+    /**
+     * A trie node. Children are kept in two small parallel arrays, which
+     * is far more compact than a map for the typical fan-out of shell
+     * commands. {@code ids} lists, in ascending order, every entry passing
+     * through the node.
+     */
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private final IntList ids = new IntList();
+
+        private TrieNode getChild(char c) {
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] == c)
+                    return children[i];
+            return null;
+        }
+
+        private TrieNode getOrCreateChild(char c) {
+            TrieNode child = getChild(c);
+            if (child == null) {
+                int n = keys.length;
+                keys = Arrays.copyOf(keys, n + 1);
+                children = Arrays.copyOf(children, n + 1);
+                keys[n] = c;
+                children[n] = child = new TrieNode();
+            }
+            return child;
+        }
+    }
+
+    /**
+     * A growable array of {@code int}s, kept sorted by construction since
+     * entry indices are only ever appended in increasing order.
+     */
+    private static class IntList {
+        private int[] items = new int[2];
+        private int size;
+
+        private void add(int value) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = value;
+        }
+
+        private int get(int i) {
+            return items[i];
+        }
+
+        /**
+         * @return position of the first item not less than {@code value}
+         */
+        private int lowerBound(int value) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (items[mid] < value)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+}
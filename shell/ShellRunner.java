@@ -2,7 +2,10 @@ package shell;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.*;
+import metrics.*;
 
 /**
  * A {@code ShellRunner} runs a Unix shell and handles its I/O.
@@ -11,11 +14,24 @@ import java.util.function.*;
  * machines running Windows.
  */
 public class ShellRunner {
+    private static final Counter outputLines =
+        Metrics.counter("shell.output.lines", "Lines printed by shells");
+    private static final Counter outputChars =
+        Metrics.counter("shell.output.chars", "Characters printed by shells");
+
     private Process shell;
     private Scanner shellOutput;
     private OutputStreamWriter shellInput;
     private String shellPath;
     private String workingDirectory;
+    // Followed through the prompt printed after every command
+    private volatile String currentDirectory;
+    // Flight Recorder events; commands wait for the prompt printed after them
+    private ShellSessionEvent session;
+    private final ConcurrentLinkedQueue<ShellCommandEvent> runningCommands =
+        new ConcurrentLinkedQueue<>();
+    private final AtomicLong commandCount = new AtomicLong();
+    private final AtomicLong lineCount = new AtomicLong();
 
     public ShellRunner(String shellPath) {
         this.shellPath = Objects.requireNonNull(shellPath);
@@ -25,6 +41,15 @@ public class ShellRunner {
         this.workingDirectory = workingDirectory;
     }
 
+    /**
+     * @return the working directory of the shell now, as of the last
+     * prompt, or the one it was spawned in
+     */
+    public String getCurrentDirectory() {
+        String directory = currentDirectory;
+        return directory != null ? directory : workingDirectory;
+    }
+
     /**
      * Spawn a process in which a Unix shell is running. 
      * @throws IOException if an I/O error occurs
@@ -39,6 +64,8 @@ public class ShellRunner {
 
         // there should be no shell running previously
         assert shell == null;
+        session = new ShellSessionEvent();
+        session.begin();
         shell = pb.start();
 
         // connect shell input/output to JVM
@@ -48,6 +75,8 @@ public class ShellRunner {
         // print current working directory
         if (gui.ShellPanel.SHELL_PATH.equals("/bin/bash"))
             synchronized (shellInput) {
+                // No command goes with the first prompt
+                runningCommands.add(new ShellCommandEvent());
                 shellInput.write("__pwd__=$(pwd); echo $__pwd__' >'\n");
                 shellInput.flush();
             }
@@ -67,12 +96,21 @@ public class ShellRunner {
         if (command == null)
             return;
 
+        commandCount.incrementAndGet();
+        var event = new ShellCommandEvent();
+        event.begin();
+        event.command = command;
+        event.outputLines = lineCount.get();
         synchronized (shellInput) {
-            if (gui.ShellPanel.SHELL_PATH.equals("/bin/bash"))
+            if (gui.ShellPanel.SHELL_PATH.equals("/bin/bash")) {
+                runningCommands.add(event);
                 shellInput.write(command + "\n" + 
                                 "__pwd__=$(pwd); echo $__pwd__' >'\n");
-            else
+            } else {
                 shellInput.write(command + "\n");
+                event.outputLines = 0;
+                event.commit();
+            }
             shellInput.flush();
         }
     }
@@ -87,8 +125,28 @@ public class ShellRunner {
         while (true) {
             if (!shellOutput.hasNextLine())
                 break;
-            outputConsumer.accept(shellOutput.nextLine());
+            String line = shellOutput.nextLine();
+            outputLines.increment();
+            outputChars.add(line.length() + 1);
+            lineCount.incrementAndGet();
+            if (line.endsWith(" >")) {
+                // The prompt: the oldest command running is done
+                var directory = new File(line.substring(0, line.length() - 2));
+                if (directory.isAbsolute() && directory.isDirectory())
+                    currentDirectory = directory.getPath();
+                var event = runningCommands.poll();
+                if (event != null && event.command != null) {
+                    event.outputLines = lineCount.get() - 1 - event.outputLines;
+                    event.commit();
+                }
+            }
+            outputConsumer.accept(line);
         }
+        session.shell = shellPath;
+        session.directory = workingDirectory;
+        session.commands = commandCount.get();
+        session.outputLines = lineCount.get();
+        session.commit();
     }
 
     public Process getShell() {